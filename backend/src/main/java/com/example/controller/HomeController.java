@@ -1,5 +1,6 @@
 package com.example.controller;
 
+import com.example.service.RecommendationService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,7 +18,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,11 +30,13 @@ import java.util.Map;
 public class HomeController {
 
     private final DataSource dataSource;
+    private final RecommendationService recommendationService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Autowired
-    public HomeController(DataSource dataSource) {
+    public HomeController(DataSource dataSource, RecommendationService recommendationService) {
         this.dataSource = dataSource;
+        this.recommendationService = recommendationService;
     }
 
     /**
@@ -101,48 +103,38 @@ public class HomeController {
     }
 
     /**
-     * 猜你喜欢接口：返回前端展示的房源推荐（当前使用静态示例数据）。
+     * 猜你喜欢接口：返回该用户的推荐房源（见 {@link RecommendationService}），未传 userId 时返回热门房源。
      */
     @GetMapping("/guess-you-like")
-    public ResponseEntity<Map<String, Object>> guessYouLike() {
-        return ResponseEntity.ok(buildRecommendationResponse("猜你喜欢数据（示例）"));
+    public ResponseEntity<Map<String, Object>> guessYouLike(
+            @RequestParam(value = "userId", required = false) Long userId) {
+        return ResponseEntity.ok(buildRecommendationResponse(userId, "猜你喜欢数据"));
     }
 
     /**
      * 去往查询界面的入口接口，复用猜你喜欢数据，方便前端在跳转前展示推荐内容。
      */
     @GetMapping("/go-query")
-    public ResponseEntity<Map<String, Object>> goQueryPage() {
-        return ResponseEntity.ok(buildRecommendationResponse("查询页推荐数据（示例）"));
+    public ResponseEntity<Map<String, Object>> goQueryPage(
+            @RequestParam(value = "userId", required = false) Long userId) {
+        return ResponseEntity.ok(buildRecommendationResponse(userId, "查询页推荐数据"));
     }
 
-    private Map<String, Object> buildRecommendationResponse(String message) {
+    /**
+     * 推荐缓存状态：按用户缓存的推荐与按房源缓存的卡片的大小、命中率、淘汰与失效次数，以及热门房源数。
+     */
+    @GetMapping("/guess-you-like/cache")
+    public ResponseEntity<Map<String, Object>> recommendationCacheStats() {
+        return ResponseEntity.ok(recommendationService.getCacheStats());
+    }
+
+    private Map<String, Object> buildRecommendationResponse(Long userId, String message) {
         Map<String, Object> body = new HashMap<String, Object>();
-        body.put("items", buildGuessItems());
+        body.put("items", recommendationService.recommend(userId));
         body.put("message", message);
         return body;
     }
 
-    private List<Map<String, Object>> buildGuessItems() {
-        return Arrays.asList(
-                buildGuessItem(101L, "万科城市花园 精装三房 南向采光好", "南山区 · 89.5㎡ · 3室2厅2卫", 650.5, "https://example.com/property/101"),
-                buildGuessItem(102L, "华润城 四房大户型 学区房", "福田区 · 128㎡ · 4室2厅3卫", 980.0, "https://example.com/property/102"),
-                buildGuessItem(103L, "科技园 地铁口复式 Loft", "南山区 · 68㎡ · 2室1厅1卫", 520.0, "https://example.com/property/103")
-        );
-    }
-
-    private Map<String, Object> buildGuessItem(Long propertyId, String title, String summary, Double price, String url) {
-        Map<String, Object> item = new HashMap<String, Object>();
-        item.put("propertyId", propertyId);
-        item.put("title", title);
-        item.put("summary", summary);
-        item.put("totalPrice", price);
-        item.put("cover", "https://picsum.photos/seed/" + propertyId + "/300/200");
-        item.put("detailUrl", url);
-        item.put("tags", Arrays.asList("近地铁", "学区房", "南北通透"));
-        return item;
-    }
-
     private Map<String, Object> getDefaultStats() {
         Map<String, Object> stats = new HashMap<String, Object>();
         stats.put("favorites", 12);
@@ -1,6 +1,10 @@
 package com.example.controller;
 
+import com.example.service.MassAppraisalService;
+import com.example.service.RecommendationService;
+import com.example.service.predict_zhz.BatchPrediction;
 import com.example.service.predict_zhz.HousePricePredictionService;
+import com.example.service.predict_zhz.SweepAxis;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +32,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 我的页面（个人中心）接口控制器。
@@ -45,6 +54,8 @@ public class ProfileController {
     private final DataSource dataSource;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final HousePricePredictionService predictionService;
+    private final MassAppraisalService appraisalService;
+    private final RecommendationService recommendationService;
     private static final Set<String> ALLOWED_PREFERENCE_FIELDS = new HashSet<String>(Arrays.asList(
             "price_range",
             "area_range",
@@ -61,9 +72,13 @@ public class ProfileController {
 
     @Autowired
     public ProfileController(DataSource dataSource,
-                             HousePricePredictionService predictionService) {
+                             HousePricePredictionService predictionService,
+                             MassAppraisalService appraisalService,
+                             RecommendationService recommendationService) {
         this.dataSource = dataSource;
         this.predictionService = predictionService;
+        this.appraisalService = appraisalService;
+        this.recommendationService = recommendationService;
     }
 
     /**
@@ -86,6 +101,7 @@ public class ProfileController {
             ps.setLong(1, userId);
             ps.setString(2, sanitizePreferenceData(preferenceData));
             ps.executeUpdate();
+            recommendationService.invalidate(userId);
 
             Map<String, Object> body = new HashMap<String, Object>();
             body.put("message", "偏好设置成功");
@@ -101,33 +117,285 @@ public class ProfileController {
      * 复用 predictor_zhz 目录下的城市模型（beijng/shanghai/tianjin/shijiazhuang）。
      */
     @PostMapping("/price-predict")
-    public ResponseEntity<Map<String, Object>> pricePredict(@RequestBody Map<String, Object> payload) {
-        String city = asText(payload.get("city"));
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> pricePredict(@RequestBody Map<String, Object> payload) {
+        final String city = asText(payload.get("city"));
         if (city == null) {
-            return error(HttpStatus.BAD_REQUEST, "city 不能为空");
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST, "city 不能为空"));
         }
 
-        Map<String, Object> features = extractFeatures(payload);
+        final Map<String, Object> features = extractFeatures(payload);
         if (features.isEmpty()) {
-            return error(HttpStatus.BAD_REQUEST, "features 不能为空");
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST, "features 不能为空"));
         }
 
+        // 预测在独立线程池中执行，请求线程立即释放
+        return predictionService.predictAsync(city, features)
+                .thenApply(predicted -> {
+                    Map<String, Object> result = new HashMap<String, Object>();
+                    result.put("city", city);
+                    result.put("features", features);
+                    result.put("predictedPricePerSquareMeter", predicted);
+                    result.put("unit", "万元/㎡");
+                    result.put("message", "预测成功");
+                    return ResponseEntity.ok(result);
+                })
+                .exceptionally(this::predictionError);
+    }
+
+    /**
+     * 批量房价预测接口：rows 中每行包含 city（可省略，使用外层 city）与 features，
+     * 服务端按城市分组，每个城市只调用一次模型。结果按请求顺序返回，单行失败不影响其它行。
+     */
+    @PostMapping("/price-predict/batch")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> pricePredictBatch(@RequestBody Map<String, Object> payload) {
+        Object rowsValue = payload.get("rows");
+        if (!(rowsValue instanceof List) || ((List<?>) rowsValue).isEmpty()) {
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST, "rows 不能为空"));
+        }
+        List<?> rows = (List<?>) rowsValue;
+        // 按提交的总行数限制（含格式错误的行），在逐行处理之前拒绝
+        if (rows.size() > predictionService.getMaxBatchRows()) {
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST,
+                    "单次批量预测最多 " + predictionService.getMaxBatchRows() + " 行，实际 " + rows.size() + " 行"));
+        }
+        String defaultCity = asText(payload.get("city"));
+
+        final List<Map<String, Object>> items = new ArrayList<Map<String, Object>>(rows.size());
+        final List<Integer> validIndexes = new ArrayList<Integer>();
+        List<String> cities = new ArrayList<String>();
+        List<Map<String, Object>> featureRows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> item = new HashMap<String, Object>();
+            item.put("index", i);
+            items.add(item);
+
+            if (!(rows.get(i) instanceof Map)) {
+                item.put("error", "行格式错误，应为对象");
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> row = (Map<String, Object>) rows.get(i);
+            String city = asText(row.get("city"));
+            if (city == null) {
+                city = defaultCity;
+            }
+            Map<String, Object> features = extractFeatures(row);
+            item.put("city", city);
+            if (city == null) {
+                item.put("error", "city 不能为空");
+            } else if (features.isEmpty()) {
+                item.put("error", "features 不能为空");
+            } else {
+                validIndexes.add(i);
+                cities.add(city);
+                featureRows.add(features);
+            }
+        }
+
+        return predictionService.predictBatchAsync(cities, featureRows)
+                .thenApply(predictions -> batchResponse(items, validIndexes, predictions))
+                .exceptionally(this::predictionError);
+    }
+
+    /**
+     * what-if 扫描接口：在 features 给出的基础特征上，让 axes 中的一到两个特征按取值变化，一次返回整条曲线或整张网格。
+     * 每个维度给出 key 以及 from/to/steps（等距取点，含两端）或 values（取值列表）。
+     */
+    @PostMapping("/price-predict/sweep")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> pricePredictSweep(@RequestBody Map<String, Object> payload) {
+        final String city = asText(payload.get("city"));
+        if (city == null) {
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST, "city 不能为空"));
+        }
+        Object axesValue = payload.get("axes");
+        if (!(axesValue instanceof List) || ((List<?>) axesValue).isEmpty()) {
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST, "axes 不能为空"));
+        }
+        final List<SweepAxis> axes = new ArrayList<SweepAxis>();
         try {
-            double predicted = predictionService.predict(city, features);
-        Map<String, Object> result = new HashMap<String, Object>();
-            result.put("city", city);
-            result.put("features", features);
-            result.put("predictedPricePerSquareMeter", predicted);
-        result.put("unit", "万元/㎡");
-            result.put("message", "预测成功");
-        return ResponseEntity.ok(result);
+            for (Object axis : (List<?>) axesValue) {
+                axes.add(parseSweepAxis(axis));
+            }
         } catch (IllegalArgumentException e) {
-            return error(HttpStatus.BAD_REQUEST, e.getMessage());
-        } catch (FileNotFoundException e) {
-            return error(HttpStatus.NOT_FOUND, e.getMessage());
+            return CompletableFuture.completedFuture(error(HttpStatus.BAD_REQUEST, e.getMessage()));
+        }
+        Object nested = payload.get("features");
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> features = nested instanceof Map
+                ? new HashMap<String, Object>((Map<String, Object>) nested) : new HashMap<String, Object>();
+
+        return predictionService.predictSweepAsync(city, features, axes)
+                .thenApply(grid -> {
+                    List<Map<String, Object>> axisItems = new ArrayList<Map<String, Object>>();
+                    for (SweepAxis axis : axes) {
+                        Map<String, Object> item = new HashMap<String, Object>();
+                        item.put("key", axis.getKey());
+                        item.put("values", axis.getValues());
+                        axisItems.add(item);
+                    }
+                    Map<String, Object> result = new HashMap<String, Object>();
+                    result.put("city", city);
+                    result.put("features", features);
+                    result.put("axes", axisItems);
+                    if (axes.size() == 1) {
+                        double[] curve = new double[grid.length];
+                        for (int i = 0; i < grid.length; i++) {
+                            curve[i] = grid[i][0];
+                        }
+                        result.put("predictions", curve);
+                    } else {
+                        result.put("predictions", grid);
+                    }
+                    result.put("unit", "万元/㎡");
+                    result.put("message", "扫描完成");
+                    return ResponseEntity.ok(result);
+                })
+                .exceptionally(this::predictionError);
+    }
+
+    private SweepAxis parseSweepAxis(Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("axes 中每项应为对象");
+        }
+        Map<?, ?> axis = (Map<?, ?>) value;
+        String key = asText(axis.get("key"));
+        if (key == null) {
+            throw new IllegalArgumentException("扫描维度的 key 不能为空");
+        }
+        Object values = axis.get("values");
+        if (values instanceof List) {
+            List<?> list = (List<?>) values;
+            double[] parsed = new double[list.size()];
+            for (int i = 0; i < parsed.length; i++) {
+                parsed[i] = requireNumber(list.get(i), key + ".values");
+            }
+            return SweepAxis.of(key, parsed);
+        }
+        Long steps = valueAsLong(axis.get("steps"));
+        if (steps == null) {
+            throw new IllegalArgumentException("扫描维度 " + key + " 需要 values，或 from/to/steps");
+        }
+        // 先检查范围再转换为 int，避免超大的 steps 被截断成看似合法的值
+        if (steps < Integer.MIN_VALUE || steps > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("扫描维度 " + key + " 的 steps 超出范围：" + steps);
+        }
+        return SweepAxis.range(key,
+                requireNumber(axis.get("from"), key + ".from"),
+                requireNumber(axis.get("to"), key + ".to"),
+                steps.intValue());
+    }
+
+    private double requireNumber(Object value, String field) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " 应为数字");
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> batchResponse(List<Map<String, Object>> items,
+                                                              List<Integer> validIndexes,
+                                                              List<BatchPrediction> predictions) {
+        for (int i = 0; i < validIndexes.size(); i++) {
+            BatchPrediction prediction = predictions.get(i);
+            Map<String, Object> item = items.get(validIndexes.get(i));
+            if (prediction.isSuccess()) {
+                item.put("predictedPricePerSquareMeter", prediction.getPrediction());
+            } else {
+                item.put("error", prediction.getError());
+            }
+        }
+
+        int successCount = 0;
+        for (Map<String, Object> item : items) {
+            if (!item.containsKey("error")) {
+                successCount++;
+            }
+        }
+        Map<String, Object> body = new HashMap<String, Object>();
+        body.put("items", items);
+        body.put("count", items.size());
+        body.put("successCount", successCount);
+        body.put("failureCount", items.size() - successCount);
+        body.put("unit", "万元/㎡");
+        body.put("message", "批量预测完成");
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * 预测监控指标：各城市分阶段延迟直方图（排队、进程启动、模型加载、特征编译、序列化、进程通信、推理、总耗时）、
+     * 成功/失败/超时/拒绝及均值兜底特征计数（当前与上一个模型版本各一份），以及缓存、模型与线程池状态。
+     */
+    @GetMapping("/price-predict/metrics")
+    public ResponseEntity<Map<String, Object>> pricePredictMetrics() {
+        Map<String, Object> body = new HashMap<String, Object>();
+        body.put("cities", predictionService.getLatencyStats());
+        body.put("cache", predictionService.getCacheStats());
+        body.put("models", predictionService.getModelStats());
+        body.put("executor", predictionService.getExecutorStats());
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * 启动在售房源批量估价任务，结果写入 property_valuations 表。
+     * 默认从上次未完成批次的断点继续；请求体 {"restart": true} 时开始新批次。任务已在运行时返回 409。
+     */
+    @PostMapping("/price-predict/appraisal")
+    public ResponseEntity<Map<String, Object>> startAppraisal(@RequestBody(required = false) Map<String, Object> payload) {
+        boolean restart = payload != null && Boolean.parseBoolean(String.valueOf(payload.get("restart")));
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(appraisalService.start(restart));
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage());
         } catch (Exception e) {
-            return serverError("预测失败", e);
+            return serverError("启动估价任务失败", e);
+        }
+    }
+
+    /**
+     * 批量估价任务进度：已处理/失败数量、每分钟吞吐量、预计剩余时间。
+     */
+    @GetMapping("/price-predict/appraisal")
+    public ResponseEntity<Map<String, Object>> appraisalProgress() {
+        return ResponseEntity.ok(appraisalService.getProgress());
+    }
+
+    /**
+     * 取消批量估价任务：当前页写完并记录断点后停止，可再次启动从断点继续。
+     */
+    @PostMapping("/price-predict/appraisal/cancel")
+    public ResponseEntity<Map<String, Object>> cancelAppraisal() {
+        try {
+            return ResponseEntity.ok(appraisalService.cancel());
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    /**
+     * 预测异常到 HTTP 状态的映射：线程池已满 503，超时 504，参数错误 400，模型缺失 404。
+     */
+    private ResponseEntity<Map<String, Object>> predictionError(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return error(HttpStatus.SERVICE_UNAVAILABLE, cause.getMessage());
+        }
+        if (cause instanceof TimeoutException) {
+            return error(HttpStatus.GATEWAY_TIMEOUT, cause.getMessage());
+        }
+        if (cause instanceof IllegalArgumentException) {
+            return error(HttpStatus.BAD_REQUEST, cause.getMessage());
+        }
+        if (cause instanceof FileNotFoundException) {
+            return error(HttpStatus.NOT_FOUND, cause.getMessage());
         }
+        return serverError("预测失败", cause instanceof Exception ? (Exception) cause : new Exception(cause));
     }
 
     /**
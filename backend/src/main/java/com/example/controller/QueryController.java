@@ -1,5 +1,9 @@
 package com.example.controller;
 
+import com.example.service.IncrementalUserSimilarity;
+import com.example.service.PropertySimilarityService;
+import com.example.service.RecommendationService;
+import com.example.service.SimilarPropertyService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,6 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -33,7 +38,13 @@ import java.util.Map;
 @CrossOrigin(origins = "http://localhost:5173")
 public class QueryController {
 
+    private static final int MAX_SIMILAR = 100;
+
     private final DataSource dataSource;
+    private final SimilarPropertyService similarPropertyService;
+    private final PropertySimilarityService propertySimilarityService;
+    private final IncrementalUserSimilarity incrementalUserSimilarity;
+    private final RecommendationService recommendationService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
@@ -82,6 +93,8 @@ public class QueryController {
                 ps.setLong(2, propertyId);
                 ps.setString(3, "{}");
                 ps.executeUpdate();
+                updateMinHash(userId, propertyId);
+                recommendationService.invalidate(userId);
 
                 Map<String, Object> body = new HashMap<String, Object>();
                 body.put("message", "收藏成功");
@@ -124,6 +137,14 @@ public class QueryController {
             ps.setLong(1, userId);
             ps.setLong(2, propertyId);
             int affected = ps.executeUpdate();
+            if (affected > 0) {
+                try {
+                    incrementalUserSimilarity.recordRemoval(userId.intValue());
+                } catch (RuntimeException e) {
+                    System.err.println("重算用户 MinHash 签名失败：" + e.getMessage());
+                }
+                recommendationService.invalidate(userId);
+            }
 
             Map<String, Object> body = new HashMap<String, Object>();
             body.put("userId", userId);
@@ -177,8 +198,9 @@ public class QueryController {
                 }
             }
 
-            // 增加房源的浏览次数
-            String updateViewCountSql = "UPDATE properties SET view_count = view_count + 1 WHERE property_id = ?";
+            // 增加房源的浏览次数；保持 updated_at 不变，它只反映房源内容的修改（相似度增量计算以此为水位线）
+            String updateViewCountSql = "UPDATE properties SET view_count = view_count + 1, updated_at = updated_at " +
+                    "WHERE property_id = ?";
             try (PreparedStatement ps = connection.prepareStatement(updateViewCountSql)) {
                 ps.setLong(1, propertyId);
                 ps.executeUpdate();
@@ -229,6 +251,8 @@ public class QueryController {
                         ps.setString(3, "{}"); // 默认空的行为数据
                         ps.executeUpdate();
                     }
+                    updateMinHash(userId, propertyId);
+                    recommendationService.invalidate(userId);
                 }
             }
 
@@ -244,8 +268,155 @@ public class QueryController {
     }
 
     @Autowired
-    public QueryController(DataSource dataSource) {
+    public QueryController(DataSource dataSource, SimilarPropertyService similarPropertyService,
+                           PropertySimilarityService propertySimilarityService,
+                           IncrementalUserSimilarity incrementalUserSimilarity,
+                           RecommendationService recommendationService) {
         this.dataSource = dataSource;
+        this.similarPropertyService = similarPropertyService;
+        this.propertySimilarityService = propertySimilarityService;
+        this.incrementalUserSimilarity = incrementalUserSimilarity;
+        this.recommendationService = recommendationService;
+    }
+
+    /**
+     * 把新浏览或收藏的房源交给用户相似度的增量更新（后台更新 MinHash 签名与该用户的邻居），不等待其完成，
+     * 失败不影响本次请求。
+     */
+    private void updateMinHash(Long userId, Long propertyId) {
+        try {
+            incrementalUserSimilarity.recordInteraction(userId.intValue(), propertyId.intValue());
+        } catch (RuntimeException e) {
+            System.err.println("更新用户 MinHash 签名失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 相似房源：从内存中的近似最近邻索引取与指定房源最相似的 k 套在售房源，并附带房源详情。
+     */
+    @GetMapping("/{propertyId}/similar")
+    public ResponseEntity<Map<String, Object>> similar(
+            @PathVariable("propertyId") Integer propertyId,
+            @RequestParam(value = "k", defaultValue = "10") Integer k) {
+
+        if (k < 1 || k > MAX_SIMILAR) {
+            Map<String, Object> error = new HashMap<String, Object>();
+            error.put("message", "k 应在 1 到 " + MAX_SIMILAR + " 之间");
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        long start = System.nanoTime();
+        List<Map<String, Object>> neighbors;
+        try {
+            neighbors = similarPropertyService.findSimilar(propertyId, k);
+        } catch (IllegalStateException e) {
+            Map<String, Object> error = new HashMap<String, Object>();
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+        }
+        if (neighbors == null) {
+            Map<String, Object> error = new HashMap<String, Object>();
+            error.put("message", "房源不存在或不在售");
+            error.put("propertyId", propertyId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        }
+        double searchMs = (System.nanoTime() - start) / 1e6;
+
+        try {
+            Map<Long, Map<String, Object>> details = loadProperties(neighbors);
+            List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+            for (Map<String, Object> neighbor : neighbors) {
+                Map<String, Object> item = details.get(((Integer) neighbor.get("propertyId")).longValue());
+                if (item == null) {
+                    // 索引中仍有但数据库中已删除的房源
+                    continue;
+                }
+                item.put("similarity", neighbor.get("similarity"));
+                items.add(item);
+            }
+
+            Map<String, Object> response = new HashMap<String, Object>();
+            response.put("propertyId", propertyId);
+            response.put("items", items);
+            response.put("count", items.size());
+            response.put("searchMs", searchMs);
+            response.put("message", "查询成功");
+            return ResponseEntity.ok(response);
+        } catch (SQLException e) {
+            return buildError("查询相似房源失败", e);
+        }
+    }
+
+    /**
+     * 按房源当前数据更新相似房源索引（新增或修改后调用；已下架的房源会被移出索引）。
+     */
+    @PostMapping("/{propertyId}/similar/index")
+    public ResponseEntity<Map<String, Object>> indexSimilar(@PathVariable("propertyId") Integer propertyId) {
+        try {
+            boolean forSale = similarPropertyService.indexProperty(propertyId);
+            Map<String, Object> body = new HashMap<String, Object>();
+            body.put("propertyId", propertyId);
+            body.put("indexed", forSale);
+            body.put("message", forSale ? "已更新相似房源索引" : "房源不存在或不在售，已移出索引");
+            return ResponseEntity.ok(body);
+        } catch (IllegalStateException e) {
+            Map<String, Object> error = new HashMap<String, Object>();
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+        }
+    }
+
+    /**
+     * 把房源移出相似房源索引。
+     */
+    @DeleteMapping("/{propertyId}/similar/index")
+    public ResponseEntity<Map<String, Object>> removeSimilar(@PathVariable("propertyId") Integer propertyId) {
+        try {
+            boolean removed = similarPropertyService.removeProperty(propertyId);
+            Map<String, Object> body = new HashMap<String, Object>();
+            body.put("propertyId", propertyId);
+            body.put("message", removed ? "已移出相似房源索引" : "房源不在索引中");
+            return ResponseEntity.ok(body);
+        } catch (IllegalStateException e) {
+            Map<String, Object> error = new HashMap<String, Object>();
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+        }
+    }
+
+    /**
+     * 相似房源索引状态：是否就绪、房源数、墓碑数、最近构建与保存时间。
+     */
+    @GetMapping("/similar/index")
+    public ResponseEntity<Map<String, Object>> similarIndexStatus() {
+        return ResponseEntity.ok(similarPropertyService.getStatus());
+    }
+
+    /**
+     * 在后台全量重建相似房源索引。
+     */
+    @PostMapping("/similar/index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildSimilarIndex() {
+        boolean started = similarPropertyService.rebuild();
+        Map<String, Object> body = similarPropertyService.getStatus();
+        body.put("message", started ? "已开始重建相似房源索引" : "索引正在重建中");
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).body(body);
+    }
+
+    /**
+     * 房源相似度候选分块报告：剪掉的房源对数与抽样召回率。
+     */
+    @GetMapping("/similar/blocking-report")
+    public ResponseEntity<Map<String, Object>> similarityBlockingReport() {
+        return ResponseEntity.ok(propertySimilarityService.getBlockingReport());
+    }
+
+    /**
+     * 用户相似度增量更新状态：是否就绪、内存中的用户数、待处理与丢弃的事件数、已重算邻居的次数。
+     */
+    @GetMapping("/similar-users/status")
+    public ResponseEntity<Map<String, Object>> similarUsersStatus() {
+        return ResponseEntity.ok(incrementalUserSimilarity.getStatus());
     }
 
     /**
@@ -368,6 +539,34 @@ public class QueryController {
         }
     }
 
+    private Map<Long, Map<String, Object>> loadProperties(List<Map<String, Object>> neighbors) throws SQLException {
+        Map<Long, Map<String, Object>> details = new HashMap<Long, Map<String, Object>>();
+        if (neighbors.isEmpty()) {
+            return details;
+        }
+        StringBuilder sql = new StringBuilder("SELECT p.property_id, p.title, p.status, p.price_info, p.layout_info, " +
+                "p.basic_info, p.view_count, p.favorite_count, p.updated_at, c.name AS community_name, c.location_info " +
+                "FROM properties p LEFT JOIN communities c ON p.community_id = c.community_id WHERE p.property_id IN (");
+        for (int i = 0; i < neighbors.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < neighbors.size(); i++) {
+                statement.setObject(i + 1, neighbors.get(i).get("propertyId"));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> item = buildProperty(rs);
+                    details.put((Long) item.get("propertyId"), item);
+                }
+            }
+        }
+        return details;
+    }
+
     private Map<String, Object> buildProperty(ResultSet rs) throws SQLException {
         Map<String, Object> item = new HashMap<String, Object>();
         item.put("propertyId", rs.getLong("property_id"));
@@ -0,0 +1,165 @@
+package com.example.service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有容量上限的 LRU + TTL 缓存，未命中时由调用方加载后放入；推荐结果、房源卡片与单条估价结果共用。
+ * 失效与加载可能并发：会被失效的键在加载前取 {@link #stamp(Object)}，放入时若期间该键被 {@link #invalidate(Object)} 过则丢弃结果，
+ * 避免失效之前读到的旧数据在失效之后才写入缓存。失效戳按键的哈希分段计数，内存固定。
+ */
+public final class ExpiringLruCache<K, V> {
+
+    private static final int STAMP_STRIPES = 256;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Expiring<V>> entries;
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ExpiringLruCache(final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, Expiring<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Expiring<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * 命中返回缓存值，未命中或已过期返回 null。
+     */
+    public V get(K key) {
+        Expiring<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * 开始加载前取得的失效戳，放入时原样传给 {@link #put(Object, Object, long)}。
+     */
+    public long stamp(K key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * 放入加载结果；stamp 之后该键被失效过时不放入，返回是否放入。
+     */
+    public boolean put(K key, V value, long stamp) {
+        if (maxEntries <= 0) {
+            return false;
+        }
+        Expiring<V> entry = new Expiring<V>(value, System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            if (stamps.get(stripe(key)) != stamp) {
+                return false;
+            }
+            entries.put(key, entry);
+        }
+        return true;
+    }
+
+    /**
+     * 放入不会被单独失效的键（只按 TTL 过期）。
+     */
+    public void put(K key, V value) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        Expiring<V> entry = new Expiring<V>(value, System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            stamps.incrementAndGet(stripe(key));
+            entries.remove(key);
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * 失效满足条件的全部键（遍历整个缓存），返回移除的条目数；进行中的加载一律不再放入。
+     */
+    public int invalidateIf(Predicate<? super K> condition) {
+        int removed = 0;
+        synchronized (entries) {
+            for (int i = 0; i < STAMP_STRIPES; i++) {
+                stamps.incrementAndGet(i);
+            }
+            Iterator<K> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (condition.test(iterator.next())) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlMs", ttlMillis);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    private static int stripe(Object key) {
+        int hash = key.hashCode();
+        return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % STAMP_STRIPES;
+    }
+
+    private static final class Expiring<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Expiring(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 只读内存映射的房源特征矩阵：float32、行优先，每行是一套在售房源 MinMax 归一化后的特征向量。
+ * 文件内依次为文件头（版本、代号、行数、维数）、各列最小/最大值、按升序排列的 property_id、向量数据，均为小端序。
+ * 数据在堆外，多个线程或进程可同时映射同一文件，读取不复制、不产生 GC 压力；房源 ID 到行号用二分查找。
+ * 另可用 {@link #inMemory} 在堆内组装一份不落盘的矩阵（如共享矩阵叠加变化房源后的副本）。
+ */
+final class FeatureMatrix {
+
+    private static final int MAGIC = 0x46454154;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    private final Path path;
+    private final long generation;
+    private final int rows;
+    private final int dim;
+    private final double[] featureMin;
+    private final double[] featureMax;
+    private final IntBuffer propertyIds;
+    private final FloatBuffer vectors;
+
+    private FeatureMatrix(Path path, long generation, int rows, int dim, double[] featureMin, double[] featureMax,
+                          IntBuffer propertyIds, FloatBuffer vectors) {
+        this.path = path;
+        this.generation = generation;
+        this.rows = rows;
+        this.dim = dim;
+        this.featureMin = featureMin;
+        this.featureMax = featureMax;
+        this.propertyIds = propertyIds;
+        this.vectors = vectors;
+    }
+
+    /**
+     * 只读映射矩阵文件。映射建立后文件即使被删除或替换，已映射的内容仍可读取。
+     */
+    static FeatureMatrix open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("特征矩阵文件超过 2GB：" + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("不是特征矩阵文件：" + path);
+            }
+            if (buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("不支持的特征矩阵文件版本：" + buffer.getInt(4));
+            }
+            long generation = buffer.getLong(8);
+            int rows = buffer.getInt(16);
+            int dim = buffer.getInt(20);
+            double[] featureMin = new double[dim];
+            double[] featureMax = new double[dim];
+            int offset = HEADER_BYTES;
+            for (int i = 0; i < dim; i++) {
+                featureMin[i] = buffer.getDouble(offset);
+                featureMax[i] = buffer.getDouble(offset + 8);
+                offset += 16;
+            }
+            if (size != (long) offset + 4L * rows + 4L * rows * dim) {
+                throw new IOException("特征矩阵文件长度不符：" + path);
+            }
+            IntBuffer propertyIds = slice(buffer, offset, 4 * rows).asIntBuffer();
+            FloatBuffer vectors = slice(buffer, offset + 4 * rows, 4 * rows * dim).asFloatBuffer();
+            return new FeatureMatrix(path, generation, rows, dim, featureMin, featureMax, propertyIds, vectors);
+        }
+    }
+
+    /**
+     * 堆内矩阵，不对应文件（{@link #path()} 为 null）。propertyIds 须为升序，vectors 为行优先的归一化特征。
+     */
+    static FeatureMatrix inMemory(long generation, int[] propertyIds, float[] vectors, int dim,
+                                  double[] featureMin, double[] featureMax) {
+        return new FeatureMatrix(null, generation, propertyIds.length, dim, featureMin.clone(), featureMax.clone(),
+                IntBuffer.wrap(propertyIds), FloatBuffer.wrap(vectors));
+    }
+
+    /**
+     * 写入矩阵文件：先写临时文件并落盘，再原子改名为 path。propertyIds 须为升序，vectors 为行优先的归一化特征。
+     */
+    static void write(Path path, long generation, int[] propertyIds, float[] vectors, int dim,
+                      double[] featureMin, double[] featureMax) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 16 * dim).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(generation).putInt(propertyIds.length).putInt(dim);
+            for (int i = 0; i < dim; i++) {
+                header.putDouble(featureMin[i]).putDouble(featureMax[i]);
+            }
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int id : propertyIds) {
+                if (chunk.remaining() < 4) {
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                    chunk.clear();
+                }
+                chunk.putInt(id);
+            }
+            for (float value : vectors) {
+                if (chunk.remaining() < 4) {
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                    chunk.clear();
+                }
+                chunk.putFloat(value);
+            }
+            chunk.flip();
+            writeFully(channel, chunk);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    int dim() {
+        return dim;
+    }
+
+    double[] featureMin() {
+        return featureMin.clone();
+    }
+
+    double[] featureMax() {
+        return featureMax.clone();
+    }
+
+    int propertyId(int row) {
+        return propertyIds.get(row);
+    }
+
+    /**
+     * 房源所在行号，不在矩阵中时返回 -1。
+     */
+    int rowOf(int propertyId) {
+        int low = 0;
+        int high = rows - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = propertyIds.get(mid);
+            if (value < propertyId) {
+                low = mid + 1;
+            } else if (value > propertyId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    float get(int row, int column) {
+        return vectors.get(row * dim + column);
+    }
+
+    /**
+     * 把一行拷贝到 target（长度至少为 dim）。
+     */
+    void copyRow(int row, double[] target) {
+        int offset = row * dim;
+        for (int i = 0; i < dim; i++) {
+            target[i] = vectors.get(offset + i);
+        }
+    }
+
+    /**
+     * 整个向量区的只读视图（行优先），供计算核心直接遍历。
+     */
+    FloatBuffer vectors() {
+        return vectors.duplicate();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
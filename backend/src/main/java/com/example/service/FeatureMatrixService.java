@@ -0,0 +1,264 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 房源特征矩阵的构建与共享：从特征库读取在售房源，按列 MinMax 归一化后写成 float32 文件并内存映射，
+ * 相似度批量计算、增量计算和相似房源索引都读同一份矩阵，不再各自经 Spark 组装向量。
+ * <ul>
+ *     <li>每次构建生成一个新代号的文件，写完后原子替换目录下的 CURRENT 指针；正在读旧矩阵的任务不受影响。</li>
+ *     <li>{@link #current()} 最多每秒检查一次指针，其它进程构建的新矩阵也能被发现并重新映射。</li>
+ *     <li>只有全量相似度计算调用 {@link #rebuild()} 重写矩阵；增量计算与相似房源索引重建用 {@link #currentWithChanges()}，
+ *     在共享矩阵上叠加其构建后变化的房源，不重写文件。</li>
+ *     <li>保留当前与上一代文件，更早的文件在构建后删除。</li>
+ * </ul>
+ */
+@Service
+public class FeatureMatrixService {
+
+    private static final String CURRENT_FILE = "CURRENT";
+    private static final String FILE_PREFIX = "property-features.";
+    private static final String FILE_SUFFIX = ".f32";
+    /** 两次检查 CURRENT 指针的最小间隔 */
+    private static final long CHECK_INTERVAL_MS = 1000;
+    /** 查找矩阵构建后变化的房源时往前多取的时间，容忍应用与数据库的时钟偏差（多取的房源只是按原值重新叠加） */
+    private static final long CHANGE_MARGIN_MS = 5 * 60 * 1000;
+
+    private final PropertyFeatureStore featureStore;
+    private final Path directory;
+    private final Object buildLock = new Object();
+    private volatile FeatureMatrix matrix;
+    private volatile long lastCheckedAt;
+    private volatile long lastBuiltAt;
+
+    @Autowired
+    public FeatureMatrixService(PropertyFeatureStore featureStore,
+                                @Value("${features.matrix.dir:data/feature-matrix}") String directory) {
+        this.featureStore = featureStore;
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * 当前最新的特征矩阵；磁盘上还没有时先构建一次。
+     */
+    FeatureMatrix current() {
+        FeatureMatrix current = matrix;
+        long now = System.currentTimeMillis();
+        if (current != null && now - lastCheckedAt < CHECK_INTERVAL_MS) {
+            return current;
+        }
+        lastCheckedAt = now;
+        try {
+            long generation = readCurrentGeneration();
+            if (generation < 0) {
+                return rebuild();
+            }
+            if (current == null || current.generation() != generation) {
+                synchronized (buildLock) {
+                    current = matrix;
+                    if (current == null || current.generation() < generation) {
+                        current = FeatureMatrix.open(fileOf(generation));
+                        matrix = current;
+                    }
+                }
+            }
+            return current;
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取特征矩阵失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 当前矩阵加上其构建后有变化的房源：没有变化时直接返回 {@link #current()}；否则返回一份堆内副本，
+     * 变化的在售房源按当前矩阵的列范围归一化后替换或插入，已不在售的去掉。共享的矩阵文件不变。
+     * 超出原列范围的值不截断，特征范围明显变化后应再做一次全量计算。
+     */
+    FeatureMatrix currentWithChanges() {
+        FeatureMatrix base = current();
+        Map<Integer, PropertyFeatures> changed = new TreeMap<Integer, PropertyFeatures>(
+                featureStore.loadChangedSince(new Timestamp(base.generation() - CHANGE_MARGIN_MS)));
+        if (changed.isEmpty()) {
+            return base;
+        }
+        int dim = base.dim();
+        double[] featureMin = base.featureMin();
+        double[] featureMax = base.featureMax();
+        int capacity = base.rows() + changed.size();
+        int[] propertyIds = new int[capacity];
+        float[] vectors = new float[capacity * dim];
+        int rows = 0;
+        int next = 0;
+        for (Map.Entry<Integer, PropertyFeatures> entry : changed.entrySet()) {
+            int propertyId = entry.getKey();
+            for (; next < base.rows() && base.propertyId(next) < propertyId; next++) {
+                propertyIds[rows] = base.propertyId(next);
+                for (int d = 0; d < dim; d++) {
+                    vectors[rows * dim + d] = base.get(next, d);
+                }
+                rows++;
+            }
+            if (next < base.rows() && base.propertyId(next) == propertyId) {
+                next++;
+            }
+            if (entry.getValue() != null) {
+                double[] raw = entry.getValue().similarityVector();
+                propertyIds[rows] = propertyId;
+                for (int d = 0; d < dim; d++) {
+                    double range = featureMax[d] - featureMin[d];
+                    vectors[rows * dim + d] = (float) (range != 0.0 ? (raw[d] - featureMin[d]) / range : 0.5);
+                }
+                rows++;
+            }
+        }
+        for (; next < base.rows(); next++) {
+            propertyIds[rows] = base.propertyId(next);
+            for (int d = 0; d < dim; d++) {
+                vectors[rows * dim + d] = base.get(next, d);
+            }
+            rows++;
+        }
+        return FeatureMatrix.inMemory(base.generation(), Arrays.copyOf(propertyIds, rows),
+                Arrays.copyOf(vectors, rows * dim), dim, featureMin, featureMax);
+    }
+
+    /**
+     * 按特征库的最新数据重新构建矩阵并切换为当前矩阵。
+     * 多个任务同时请求时只构建一次：等待期间已有其它调用完成构建，则直接返回那份结果。
+     */
+    FeatureMatrix rebuild() {
+        long requestedAt = System.currentTimeMillis();
+        synchronized (buildLock) {
+            FeatureMatrix current = matrix;
+            if (current != null && lastBuiltAt >= requestedAt) {
+                return current;
+            }
+            try {
+                long start = System.currentTimeMillis();
+                Files.createDirectories(directory);
+                long previous = readCurrentGeneration();
+                long generation = Math.max(previous + 1, start);
+                Path file = fileOf(generation);
+                int rows = write(file, generation, featureStore.loadForSale());
+
+                Path pointer = directory.resolve(CURRENT_FILE);
+                Path temp = directory.resolve(CURRENT_FILE + ".tmp");
+                Files.write(temp, Long.toString(generation).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, pointer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                current = FeatureMatrix.open(file);
+                matrix = current;
+                lastBuiltAt = System.currentTimeMillis();
+                lastCheckedAt = lastBuiltAt;
+                deleteOlderThan(previous >= 0 ? previous : generation);
+                System.out.println("房源特征矩阵构建完成：" + rows + " 套，代号 " + generation + "，耗时 "
+                        + (lastBuiltAt - start) + "ms");
+                return current;
+            } catch (IOException e) {
+                throw new UncheckedIOException("构建特征矩阵失败：" + e.getMessage(), e);
+            }
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        FeatureMatrix current = matrix;
+        Map<String, Object> status = new HashMap<String, Object>();
+        status.put("ready", current != null);
+        status.put("generation", current != null ? current.generation() : 0L);
+        status.put("rows", current != null ? current.rows() : 0);
+        status.put("dim", current != null ? current.dim() : 0);
+        status.put("lastBuiltAt", lastBuiltAt);
+        status.put("directory", directory.toAbsolutePath().toString());
+        return status;
+    }
+
+    /**
+     * 按列求最小/最大值并归一化（与 Spark MinMaxScaler 一致：常数列取 0.5），写入矩阵文件，返回行数。
+     */
+    private static int write(Path file, long generation, List<PropertyFeatures> features) throws IOException {
+        int rows = features.size();
+        int dim = new PropertyFeatures().similarityVector().length;
+        int[] propertyIds = new int[rows];
+        double[] raw = new double[rows * dim];
+        for (int i = 0; i < rows; i++) {
+            PropertyFeatures f = features.get(i);
+            propertyIds[i] = f.propertyId;
+            System.arraycopy(f.similarityVector(), 0, raw, i * dim, dim);
+        }
+        double[] featureMin = new double[dim];
+        double[] featureMax = new double[dim];
+        float[] vectors = new float[rows * dim];
+        for (int d = 0; d < dim; d++) {
+            double min = rows > 0 ? Double.POSITIVE_INFINITY : 0.0;
+            double max = rows > 0 ? Double.NEGATIVE_INFINITY : 0.0;
+            for (int i = 0; i < rows; i++) {
+                min = Math.min(min, raw[i * dim + d]);
+                max = Math.max(max, raw[i * dim + d]);
+            }
+            double range = max - min;
+            for (int i = 0; i < rows; i++) {
+                vectors[i * dim + d] = (float) (range != 0.0 ? (raw[i * dim + d] - min) / range : 0.5);
+            }
+            featureMin[d] = min;
+            featureMax[d] = max;
+        }
+        FeatureMatrix.write(file, generation, propertyIds, vectors, dim, featureMin, featureMax);
+        return rows;
+    }
+
+    private long readCurrentGeneration() throws IOException {
+        Path pointer = directory.resolve(CURRENT_FILE);
+        if (!Files.exists(pointer)) {
+            return -1;
+        }
+        String text = new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim();
+        try {
+            long generation = Long.parseLong(text);
+            return Files.exists(fileOf(generation)) ? generation : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path fileOf(long generation) {
+        return directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+    }
+
+    /**
+     * 删除代号小于 keep 的矩阵文件。已映射的文件删除后映射仍有效；删除失败（如 Windows 下仍被映射）时留到下次。
+     */
+    private void deleteOlderThan(long keep) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long generation = Long.parseLong(
+                            name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                    if (generation < keep) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException | IOException e) {
+                    System.err.println("清理旧特征矩阵失败：" + file + "，" + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("清理旧特征矩阵失败：" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,668 @@
+package com.example.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 房源特征向量的 HNSW（分层可导航小世界图）近似最近邻索引，相似度为余弦相似度。
+ * <ul>
+ *     <li>向量插入时归一化为 float 并存入连续数组，距离为 1 - 点积；第 0 层邻接表同样是一整块 int 数组。</li>
+ *     <li>删除只打墓碑：节点仍参与图上的导航，但不会出现在结果中；更新即删除旧节点后插入新节点。墓碑在整体重建时清除。</li>
+ *     <li>查询并发执行（读锁），插入与删除串行（写锁）。</li>
+ *     <li>同时保存特征的最小/最大值，用于把新房源的原始特征按建索引时的口径缩放。</li>
+ * </ul>
+ */
+final class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int FORMAT_VERSION = 1;
+
+    private final int dim;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final double[] featureMin;
+    private final double[] featureMax;
+    private final Random random = new Random(42);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<VisitedSet> visited = new ThreadLocal<VisitedSet>();
+
+    private int capacity;
+    private int size;
+    private int deletedCount;
+    private float[] vectors;
+    private int[] propertyIds;
+    private boolean[] deleted;
+    private int[] levels;
+    /** 第 0 层邻接表：每个节点占 m0 + 1 个位置，首位为邻居数 */
+    private int[] links0;
+    /** 第 1 层及以上的邻接表：每层占 m + 1 个位置，大部分节点为 null */
+    private int[][] upperLinks;
+    private final Map<Integer, Integer> nodeOf = new HashMap<Integer, Integer>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswIndex(int dim, int m, int efConstruction, double[] featureMin, double[] featureMax, int initialCapacity) {
+        this.dim = dim;
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.featureMin = featureMin.clone();
+        this.featureMax = featureMax.clone();
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    int dimension() {
+        return dim;
+    }
+
+    /**
+     * 有效（未删除）的房源数。
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已删除但仍占用图节点的数量。
+     */
+    int deletedSize() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(int propertyId) {
+        lock.readLock().lock();
+        try {
+            return nodeOf.containsKey(propertyId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按建索引时的最小/最大值把原始特征缩放到 [0, 1]（与 Spark MinMaxScaler 的口径一致，常数列取 0.5）。
+     */
+    double[] scale(double[] raw) {
+        double[] scaled = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            double range = featureMax[i] - featureMin[i];
+            scaled[i] = range != 0.0 ? (raw[i] - featureMin[i]) / range : 0.5;
+        }
+        return scaled;
+    }
+
+    /**
+     * 插入房源向量；房源已存在时替换旧向量。
+     */
+    void insert(int propertyId, double[] vector) {
+        float[] query = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            Integer old = nodeOf.remove(propertyId);
+            if (old != null) {
+                deleted[old] = true;
+                deletedCount++;
+            }
+            if (size == capacity) {
+                allocate(capacity * 2);
+            }
+            int node = size++;
+            int level = randomLevel();
+            System.arraycopy(query, 0, vectors, node * dim, dim);
+            propertyIds[node] = propertyId;
+            levels[node] = level;
+            if (level > 0) {
+                upperLinks[node] = new int[level * (m + 1)];
+            }
+            nodeOf.put(propertyId, node);
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(query, current, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NodeHeap found = searchLayer(query, current, efConstruction, l, false);
+                int[] candidates = found.drainAscending();
+                int[] selected = selectNeighbors(query, candidates, m);
+                setLinks(node, l, selected);
+                int maxLinks = l == 0 ? m0 : m;
+                for (int neighbor : selected) {
+                    addLink(neighbor, node, l, maxLinks);
+                }
+                current = candidates[0];
+            }
+            if (level > maxLevel) {
+                entryPoint = node;
+                maxLevel = level;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除房源（打墓碑），返回房源是否在索引中。
+     */
+    boolean remove(int propertyId) {
+        lock.writeLock().lock();
+        try {
+            Integer node = nodeOf.remove(propertyId);
+            if (node == null) {
+                return false;
+            }
+            deleted[node] = true;
+            deletedCount++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 已收录房源的向量（归一化后），不存在时返回 null。
+     */
+    double[] vectorOf(int propertyId) {
+        lock.readLock().lock();
+        try {
+            Integer node = nodeOf.get(propertyId);
+            if (node == null) {
+                return null;
+            }
+            double[] vector = new double[dim];
+            for (int i = 0; i < dim; i++) {
+                vector[i] = vectors[node * dim + i];
+            }
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查询与给定向量最相似的 k 套房源（排除 excludePropertyId），按相似度从高到低排列。
+     * 返回数组每项为 {propertyId, similarity}。
+     */
+    List<double[]> search(double[] vector, int k, int efSearch, int excludePropertyId) {
+        float[] query = normalize(vector);
+        lock.readLock().lock();
+        try {
+            List<double[]> results = new ArrayList<double[]>();
+            if (entryPoint < 0) {
+                return results;
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(query, current, l);
+            }
+            NodeHeap found = searchLayer(query, current, Math.max(efSearch, k + 1), 0, true);
+            int count = found.size();
+            float[] distances = new float[count];
+            int[] nodes = new int[count];
+            for (int i = count - 1; i >= 0; i--) {
+                distances[i] = found.topKey();
+                nodes[i] = found.pop();
+            }
+            for (int i = 0; i < count && results.size() < k; i++) {
+                int propertyId = propertyIds[nodes[i]];
+                if (propertyId != excludePropertyId) {
+                    results.add(new double[]{propertyId, 1.0 - distances[i]});
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入临时文件后原子替换，读取方不会看到写了一半的索引。
+     */
+    void save(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dim);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            for (int i = 0; i < dim; i++) {
+                out.writeDouble(featureMin[i]);
+                out.writeDouble(featureMax[i]);
+            }
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                out.writeInt(propertyIds[node]);
+                out.writeBoolean(deleted[node]);
+                out.writeInt(levels[node]);
+                for (int i = 0; i < dim; i++) {
+                    out.writeFloat(vectors[node * dim + i]);
+                }
+                writeLinks(out, links0, node * (m0 + 1));
+                for (int l = 1; l <= levels[node]; l++) {
+                    writeLinks(out, upperLinks[node], (l - 1) * (m + 1));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static HnswIndex load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是相似房源索引文件：" + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("不支持的索引文件版本：" + version);
+            }
+            int dim = in.readInt();
+            int m = in.readInt();
+            int efConstruction = in.readInt();
+            double[] featureMin = new double[dim];
+            double[] featureMax = new double[dim];
+            for (int i = 0; i < dim; i++) {
+                featureMin[i] = in.readDouble();
+                featureMax[i] = in.readDouble();
+            }
+            int size = in.readInt();
+            HnswIndex index = new HnswIndex(dim, m, efConstruction, featureMin, featureMax, size);
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            for (int node = 0; node < size; node++) {
+                index.propertyIds[node] = in.readInt();
+                index.deleted[node] = in.readBoolean();
+                int level = in.readInt();
+                index.levels[node] = level;
+                for (int i = 0; i < dim; i++) {
+                    index.vectors[node * dim + i] = in.readFloat();
+                }
+                readLinks(in, index.links0, node * (index.m0 + 1));
+                if (level > 0) {
+                    index.upperLinks[node] = new int[level * (m + 1)];
+                    for (int l = 1; l <= level; l++) {
+                        readLinks(in, index.upperLinks[node], (l - 1) * (m + 1));
+                    }
+                }
+                if (index.deleted[node]) {
+                    index.deletedCount++;
+                } else {
+                    index.nodeOf.put(index.propertyIds[node], node);
+                }
+            }
+            index.size = size;
+            return index;
+        }
+    }
+
+    private static void writeLinks(DataOutputStream out, int[] links, int offset) throws IOException {
+        int count = links[offset];
+        out.writeInt(count);
+        for (int i = 1; i <= count; i++) {
+            out.writeInt(links[offset + i]);
+        }
+    }
+
+    private static void readLinks(DataInputStream in, int[] links, int offset) throws IOException {
+        int count = in.readInt();
+        links[offset] = count;
+        for (int i = 1; i <= count; i++) {
+            links[offset + i] = in.readInt();
+        }
+    }
+
+    private void allocate(int newCapacity) {
+        vectors = vectors == null ? new float[newCapacity * dim] : Arrays.copyOf(vectors, newCapacity * dim);
+        propertyIds = propertyIds == null ? new int[newCapacity] : Arrays.copyOf(propertyIds, newCapacity);
+        deleted = deleted == null ? new boolean[newCapacity] : Arrays.copyOf(deleted, newCapacity);
+        levels = levels == null ? new int[newCapacity] : Arrays.copyOf(levels, newCapacity);
+        links0 = links0 == null ? new int[newCapacity * (m0 + 1)] : Arrays.copyOf(links0, newCapacity * (m0 + 1));
+        upperLinks = upperLinks == null ? new int[newCapacity][] : Arrays.copyOf(upperLinks, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private float[] normalize(double[] vector) {
+        if (vector.length != dim) {
+            throw new IllegalArgumentException("向量维度应为 " + dim + "，实际为 " + vector.length);
+        }
+        double norm = 0.0;
+        for (double value : vector) {
+            norm += value * value;
+        }
+        float[] normalized = new float[dim];
+        if (norm > 0.0) {
+            double scale = 1.0 / Math.sqrt(norm);
+            for (int i = 0; i < dim; i++) {
+                normalized[i] = (float) (vector[i] * scale);
+            }
+        }
+        return normalized;
+    }
+
+    private float distance(float[] query, int node) {
+        int offset = node * dim;
+        float dot = 0f;
+        for (int i = 0; i < dim; i++) {
+            dot += query[i] * vectors[offset + i];
+        }
+        return 1f - dot;
+    }
+
+    private float distance(int a, int b) {
+        int offsetA = a * dim;
+        int offsetB = b * dim;
+        float dot = 0f;
+        for (int i = 0; i < dim; i++) {
+            dot += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return 1f - dot;
+    }
+
+    private int[] linksOf(int node, int level) {
+        return level == 0 ? links0 : upperLinks[node];
+    }
+
+    private int linkOffset(int node, int level) {
+        return level == 0 ? node * (m0 + 1) : (level - 1) * (m + 1);
+    }
+
+    /**
+     * 上层的贪心下降：沿邻居不断移动到更近的节点，直到无法改进。
+     */
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = distance(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] links = linksOf(current, level);
+            int offset = linkOffset(current, level);
+            int count = links[offset];
+            for (int i = 1; i <= count; i++) {
+                int neighbor = links[offset + i];
+                float d = distance(query, neighbor);
+                if (d < best) {
+                    best = d;
+                    current = neighbor;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在某一层做 ef 宽度的最佳优先搜索，返回以距离为键的最大堆（堆顶为最远的结果）。
+     * skipDeleted 为 true 时墓碑节点仍用于扩展，但不进入结果。
+     */
+    private NodeHeap searchLayer(float[] query, int start, int ef, int level, boolean skipDeleted) {
+        VisitedSet seen = visitedSet();
+        NodeHeap candidates = new NodeHeap(ef * 2, false);
+        NodeHeap results = new NodeHeap(ef + 1, true);
+        float startDistance = distance(query, start);
+        candidates.push(startDistance, start);
+        if (!skipDeleted || !deleted[start]) {
+            results.push(startDistance, start);
+        }
+        seen.mark(start);
+        while (candidates.size() > 0) {
+            float candidateDistance = candidates.topKey();
+            if (results.size() >= ef && candidateDistance > results.topKey()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] links = linksOf(candidate, level);
+            int offset = linkOffset(candidate, level);
+            int count = links[offset];
+            for (int i = 1; i <= count; i++) {
+                int neighbor = links[offset + i];
+                if (!seen.mark(neighbor)) {
+                    continue;
+                }
+                float d = distance(query, neighbor);
+                if (results.size() < ef || d < results.topKey()) {
+                    candidates.push(d, neighbor);
+                    if (!skipDeleted || !deleted[neighbor]) {
+                        results.push(d, neighbor);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选邻居：候选按距离从近到远，只有当它比已选邻居都更接近查询点时才选中，使邻居分布在不同方向；
+     * 不足 maxCount 时再用被跳过的候选补齐，保证连通性。
+     */
+    private int[] selectNeighbors(float[] query, int[] ascending, int maxCount) {
+        if (ascending.length <= maxCount) {
+            return ascending;
+        }
+        int[] selected = new int[maxCount];
+        int selectedCount = 0;
+        int[] skipped = new int[ascending.length];
+        int skippedCount = 0;
+        for (int candidate : ascending) {
+            if (selectedCount >= maxCount) {
+                break;
+            }
+            float toQuery = distance(query, candidate);
+            boolean diverse = true;
+            for (int i = 0; i < selectedCount; i++) {
+                if (distance(candidate, selected[i]) < toQuery) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[selectedCount++] = candidate;
+            } else {
+                skipped[skippedCount++] = candidate;
+            }
+        }
+        for (int i = 0; i < skippedCount && selectedCount < maxCount; i++) {
+            selected[selectedCount++] = skipped[i];
+        }
+        return Arrays.copyOf(selected, selectedCount);
+    }
+
+    private void setLinks(int node, int level, int[] neighbors) {
+        int[] links = linksOf(node, level);
+        int offset = linkOffset(node, level);
+        links[offset] = neighbors.length;
+        System.arraycopy(neighbors, 0, links, offset + 1, neighbors.length);
+    }
+
+    /**
+     * 给 node 添加一条指向 target 的边；邻居已满时连同新边一起按启发式重新挑选。
+     */
+    private void addLink(int node, int target, int level, int maxLinks) {
+        int[] links = linksOf(node, level);
+        int offset = linkOffset(node, level);
+        int count = links[offset];
+        if (count < maxLinks) {
+            links[offset + 1 + count] = target;
+            links[offset] = count + 1;
+            return;
+        }
+        float[] base = Arrays.copyOfRange(vectors, node * dim, node * dim + dim);
+        NodeHeap heap = new NodeHeap(count + 1, true);
+        for (int i = 1; i <= count; i++) {
+            heap.push(distance(base, links[offset + i]), links[offset + i]);
+        }
+        heap.push(distance(base, target), target);
+        setLinks(node, level, selectNeighbors(base, heap.drainAscending(), maxLinks));
+    }
+
+    private VisitedSet visitedSet() {
+        VisitedSet set = visited.get();
+        if (set == null || set.marks.length < capacity) {
+            set = new VisitedSet(capacity);
+            visited.set(set);
+        }
+        set.reset();
+        return set;
+    }
+
+    /**
+     * 按代号标记的访问集合，每次查询只需递增代号，不必清空数组。
+     */
+    private static final class VisitedSet {
+        private final int[] marks;
+        private int generation;
+
+        private VisitedSet(int capacity) {
+            this.marks = new int[capacity];
+        }
+
+        private void reset() {
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * 标记节点，返回此前是否未访问过。
+         */
+        private boolean mark(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+    /**
+     * 以 float 距离为键的二叉堆，max 为 true 时堆顶为最大距离。
+     */
+    private static final class NodeHeap {
+        private final boolean max;
+        private float[] keys;
+        private int[] nodes;
+        private int size;
+
+        private NodeHeap(int initialCapacity, boolean max) {
+            this.max = max;
+            this.keys = new float[Math.max(4, initialCapacity)];
+            this.nodes = new int[keys.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topKey() {
+            return keys[0];
+        }
+
+        void push(float key, int node) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int child = size++;
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (!above(key, keys[parent])) {
+                    break;
+                }
+                keys[child] = keys[parent];
+                nodes[child] = nodes[parent];
+                child = parent;
+            }
+            keys[child] = key;
+            nodes[child] = node;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            float key = keys[size];
+            int node = nodes[size];
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && above(keys[child + 1], keys[child])) {
+                    child++;
+                }
+                if (!above(keys[child], key)) {
+                    break;
+                }
+                keys[parent] = keys[child];
+                nodes[parent] = nodes[child];
+                parent = child;
+            }
+            keys[parent] = key;
+            nodes[parent] = node;
+            return top;
+        }
+
+        /**
+         * 取出全部节点，按距离从近到远排列（仅用于最大堆）。
+         */
+        int[] drainAscending() {
+            int[] ascending = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                ascending[i] = pop();
+            }
+            return ascending;
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
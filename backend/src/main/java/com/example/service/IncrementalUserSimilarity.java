@@ -0,0 +1,513 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户相似度的在线增量更新：浏览、收藏事件到达后更新该用户的 MinHash 签名，
+ * 累计到一定数量的新事件时重新计算该用户的邻居（不足的在下一个检查点计算），定期把变化的邻居写入 user_similarity
+ * （算法 minhash_incremental）。
+ * <ul>
+ *     <li>内存中只保留最近有事件的 similarity.incremental.max-users 个用户（启动时从 {@link UserMinHashStore} 加载最近更新的签名），
+ *     超出时淘汰最久没有事件的用户；每个用户占 numHashes × 4 + bands × 4 字节，另有一张约 max-users × bands 个 int 的桶表。</li>
+ *     <li>候选邻居按与 {@link MinHashLsh} 相同的分段从内存中的 LSH 桶中查找（至少一段签名完全相同），
+ *     每段最多取 similarity.minhash.max-bucket-size 个（最近有事件的在前），再按签名估计的 Jaccard（相同位数 / 哈希个数）求 Top-K，
+ *     不再扫描全部用户。不在内存中的用户不会成为邻居，由批量计算补全。</li>
+ *     <li>请求线程只把事件按用户合并投递，后台单线程逐个用户处理：同一用户的多个新房源只读写一次签名库。</li>
+ *     <li>写入为按用户对 upsert，不删除已掉出邻居列表的用户对；{@link UserSimilarityService#calculateUserSimilarityMinHash()}
+ *     整表替换时会一并清除 minhash_incremental 记录。</li>
+ *     <li>待处理的用户超过 similarity.incremental.max-queued 时丢弃新用户的事件（已在队列中的用户照常合并），
+ *     丢弃数在检查点时输出；签名与浏览记录的差异由该用户的下一次事件或批量计算时按集合大小发现并重算。</li>
+ * </ul>
+ */
+@Service
+public class IncrementalUserSimilarity {
+
+    static final String ALGORITHM = "minhash_incremental";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO user_similarity (user_id1, user_id2, similarity_score, algorithm) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE similarity_score = VALUES(similarity_score)";
+
+    /** 桶表的最大槽数 */
+    private static final int MAX_TABLE_SIZE = 1 << 26;
+
+    private final UserMinHashStore minHashStore;
+    private final SimilarityTableWriter tableWriter;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int eventsPerUpdate;
+    private final long checkpointIntervalMs;
+    private final int maxQueued;
+    private final int maxUsers;
+    private final int maxBucketSize;
+    private final int topK;
+    private final double minScore;
+    private final MinHashLsh lsh;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "user-similarity");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /** 待处理的事件，按用户合并；请求线程写入，worker 线程整批取走 */
+    private final Object inboxLock = new Object();
+    private Map<Integer, UserEvents> inbox = new LinkedHashMap<Integer, UserEvents>();
+    private boolean drainScheduled;
+
+    // 以下状态只在 worker 线程中读写
+    /** user_id → 编号，按最近一次事件的先后排列（最久没有事件的在前） */
+    private final LinkedHashMap<Integer, Integer> userIndex = new LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+    private int[] userIds = new int[1024];
+    private int[] signatures;
+    private int[] pending = new int[1024];
+    private boolean[] indexed = new boolean[1024];
+    private int[] seen = new int[1024];
+    private int epoch;
+    private int users;
+    /** LSH 桶：各段共用一张表，节点 u × bands + band 表示用户 u 的第 band 段，同一槽的节点用 next 串起 */
+    private int[] heads;
+    private int[] next;
+    private long reportedDropped;
+    /** 有新事件但尚未重算邻居的用户（编号） */
+    private final Set<Integer> waiting = new LinkedHashSet<Integer>();
+    /** 邻居有变化、尚未写入数据库的用户（user_id） */
+    private final Set<Integer> dirty = new LinkedHashSet<Integer>();
+
+    /** 最近一次计算的邻居（user_id → [邻居 user_id, 估计 Jaccard]），供其它线程读取 */
+    private final Map<Integer, List<double[]>> neighbors = new ConcurrentHashMap<Integer, List<double[]>>();
+    private volatile boolean ready;
+
+    @Autowired
+    public IncrementalUserSimilarity(UserMinHashStore minHashStore,
+                                     SimilarityTableWriter tableWriter,
+                                     JdbcTemplate jdbcTemplate,
+                                     @Value("${similarity.incremental.enabled:true}") boolean enabled,
+                                     @Value("${similarity.incremental.events-per-update:5}") int eventsPerUpdate,
+                                     @Value("${similarity.incremental.checkpoint-interval-ms:60000}") long checkpointIntervalMs,
+                                     @Value("${similarity.incremental.max-queued:10000}") int maxQueued,
+                                     @Value("${similarity.incremental.max-users:50000}") int maxUsers,
+                                     @Value("${similarity.minhash.max-bucket-size:500}") int maxBucketSize,
+                                     @Value("${similarity.minhash.top-k:20}") int topK,
+                                     @Value("${similarity.minhash.min-score:0.1}") double minScore) {
+        this.minHashStore = minHashStore;
+        this.tableWriter = tableWriter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.eventsPerUpdate = Math.max(1, eventsPerUpdate);
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        this.maxQueued = maxQueued;
+        this.maxUsers = Math.max(1, maxUsers);
+        this.maxBucketSize = Math.max(1, maxBucketSize);
+        this.topK = Math.max(1, topK);
+        this.minScore = minScore;
+        this.lsh = minHashStore.lsh();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        int capacity = Math.min(userIds.length, maxUsers);
+        signatures = new int[capacity * lsh.numHashes()];
+        next = new int[capacity * lsh.bands()];
+        long target = (long) maxUsers * lsh.bands() / 4;
+        int tableSize = 1024;
+        while (tableSize < target && tableSize < MAX_TABLE_SIZE) {
+            tableSize <<= 1;
+        }
+        heads = new int[tableSize];
+        Arrays.fill(heads, -1);
+        worker.execute(this::loadNow);
+        worker.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+        try {
+            // 等正在执行的事件结束后再由当前线程写入最后一次检查点
+            if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (enabled && ready) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * 用户浏览或收藏了一套新房源。只投递到后台线程，立即返回；关闭或积压过多时丢弃。
+     */
+    public void recordInteraction(int userId, int propertyId) {
+        if (!enabled) {
+            minHashStore.recordInteraction(userId, propertyId);
+            return;
+        }
+        enqueue(userId, propertyId);
+    }
+
+    /**
+     * 用户取消了收藏（浏览/收藏记录减少）。签名不能移除房源，投递到后台线程按当前记录重算。
+     */
+    public void recordRemoval(int userId) {
+        if (!enabled) {
+            minHashStore.rebuild(userId);
+            return;
+        }
+        enqueue(userId, null);
+    }
+
+    /**
+     * 把事件并入该用户待处理的事件（propertyId 为 null 表示记录减少），需要时安排一次处理。
+     */
+    private void enqueue(int userId, Integer propertyId) {
+        synchronized (inboxLock) {
+            UserEvents events = inbox.get(userId);
+            if (events == null) {
+                if (inbox.size() >= maxQueued) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                events = new UserEvents();
+                inbox.put(userId, events);
+            }
+            if (propertyId != null) {
+                events.items.add(propertyId);
+            } else {
+                events.removal = true;
+            }
+            events.count++;
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        try {
+            worker.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * 取走全部待处理的事件，逐个用户更新签名（记录减少时按当前记录重算，否则一次并入全部新房源）。
+     */
+    private void drain() {
+        Map<Integer, UserEvents> batch;
+        synchronized (inboxLock) {
+            batch = inbox;
+            inbox = new LinkedHashMap<Integer, UserEvents>();
+            drainScheduled = false;
+        }
+        for (Map.Entry<Integer, UserEvents> entry : batch.entrySet()) {
+            int userId = entry.getKey();
+            UserEvents events = entry.getValue();
+            try {
+                int[] signature = events.removal ? minHashStore.rebuild(userId)
+                        : minHashStore.recordInteractions(userId, events.items);
+                apply(userId, signature, events.count);
+            } catch (RuntimeException e) {
+                System.err.println("用户相似度增量更新失败：" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 用户最近一次增量计算出的邻居，每项包含 userId 与 similarity（估计的 Jaccard 系数），按相似度从高到低排列；
+     * 启动后还没有新事件或已被淘汰出内存的用户返回空列表。
+     */
+    public List<Map<String, Object>> neighbors(int userId) {
+        List<double[]> current = neighbors.get(userId);
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+        for (double[] neighbor : current) {
+            Map<String, Object> item = new HashMap<String, Object>();
+            item.put("userId", (int) neighbor[0]);
+            item.put("similarity", neighbor[1]);
+            items.add(item);
+        }
+        return items;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<String, Object>();
+        status.put("enabled", enabled);
+        status.put("ready", ready);
+        status.put("users", users);
+        status.put("maxUsers", maxUsers);
+        status.put("evicted", evicted.get());
+        synchronized (inboxLock) {
+            status.put("queued", inbox.size());
+        }
+        status.put("dropped", dropped.get());
+        status.put("neighborUpdates", updates.get());
+        return status;
+    }
+
+    private void loadNow() {
+        long start = System.currentTimeMillis();
+        try {
+            minHashStore.forEachRecentSignature(maxUsers, (userId, signature) -> setSignature(slotOf(userId), signature));
+            System.out.println("用户 MinHash 签名已加载：" + users + " 个用户，耗时 "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (RuntimeException e) {
+            System.err.println("加载用户 MinHash 签名失败，只处理新事件：" + e.getMessage());
+        }
+        ready = true;
+    }
+
+    /**
+     * 更新内存中的签名（签名库已由调用方写回），新事件累计到 eventsPerUpdate 时重算该用户的邻居。
+     */
+    private void apply(int userId, int[] signature, int events) {
+        int u = slotOf(userId);
+        setSignature(u, signature);
+        pending[u] += events;
+        if (pending[u] >= eventsPerUpdate) {
+            refresh(u);
+        } else {
+            waiting.add(u);
+        }
+    }
+
+    private void refresh(int u) {
+        pending[u] = 0;
+        waiting.remove(u);
+        neighbors.put(userIds[u], topK(u));
+        dirty.add(userIds[u]);
+        updates.incrementAndGet();
+    }
+
+    /**
+     * 从 LSH 桶中取至少一段签名相同的用户，按签名估计的 Jaccard 取最高的 k 个（大于 minScore，相同时 user_id 小的在前）。
+     */
+    private List<double[]> topK(int u) {
+        if (!indexed[u]) {
+            return Collections.emptyList();
+        }
+        int numHashes = lsh.numHashes();
+        int bands = lsh.bands();
+        int offset = u * numHashes;
+        int[] bestUsers = new int[topK];
+        int[] bestMatches = new int[topK];
+        int size = 0;
+        int required = (int) Math.floor(minScore * numHashes) + 1;
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            epoch = 1;
+        }
+        seen[u] = epoch;
+        for (int band = 0; band < bands; band++) {
+            int members = 0;
+            for (int node = heads[lsh.bandHash(signatures, u, band) & (heads.length - 1)];
+                 node >= 0 && members < maxBucketSize; node = next[node]) {
+                int v = node / bands;
+                if (node % bands != band || !lsh.sameBand(signatures, u, v, band)) {
+                    continue;
+                }
+                members++;
+                if (seen[v] == epoch) {
+                    continue;
+                }
+                seen[v] = epoch;
+                // 相同位数不足以超过 minScore 或当前第 k 名时提前结束
+                int threshold = size == topK ? bestMatches[topK - 1] : required;
+                int other = v * numHashes;
+                int matches = 0;
+                for (int i = 0; i < numHashes && matches + (numHashes - i) >= threshold; i++) {
+                    if (signatures[offset + i] == signatures[other + i]) {
+                        matches++;
+                    }
+                }
+                if (matches < required
+                        || (size == topK && !better(matches, v, bestMatches[topK - 1], bestUsers[topK - 1]))) {
+                    continue;
+                }
+                int position = size < topK ? size++ : topK - 1;
+                while (position > 0 && better(matches, v, bestMatches[position - 1], bestUsers[position - 1])) {
+                    bestUsers[position] = bestUsers[position - 1];
+                    bestMatches[position] = bestMatches[position - 1];
+                    position--;
+                }
+                bestUsers[position] = v;
+                bestMatches[position] = matches;
+            }
+        }
+        List<double[]> result = new ArrayList<double[]>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new double[]{userIds[bestUsers[i]], (double) bestMatches[i] / numHashes});
+        }
+        return result;
+    }
+
+    private boolean better(int matches, int user, int otherMatches, int otherUser) {
+        return matches > otherMatches || (matches == otherMatches && userIds[user] < userIds[otherUser]);
+    }
+
+    /**
+     * 把有变化的用户的邻居写入 user_similarity。表还是旧结构时跳过，等批量计算完成迁移。
+     */
+    private void checkpoint() {
+        long droppedNow = dropped.get();
+        if (droppedNow > reportedDropped) {
+            System.err.println("用户相似度增量更新积压，丢弃 " + (droppedNow - reportedDropped) + " 个事件（累计 "
+                    + droppedNow + "），可调大 similarity.incremental.max-queued");
+            reportedDropped = droppedNow;
+        }
+        // 新事件不足 eventsPerUpdate 的用户也在检查点时更新，邻居最多滞后一个检查点间隔
+        for (Integer u : new ArrayList<Integer>(waiting)) {
+            refresh(u);
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        try {
+            if (!tableWriter.hasTypedColumns(SimilarityTableWriter.USER)) {
+                return;
+            }
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Integer userId : dirty) {
+                for (double[] neighbor : neighbors.getOrDefault(userId, Collections.<double[]>emptyList())) {
+                    int other = (int) neighbor[0];
+                    rows.add(new Object[]{Math.min(userId, other), Math.max(userId, other), neighbor[1], ALGORITHM});
+                }
+            }
+            jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+            System.out.println("用户相似度增量写入：" + dirty.size() + " 个用户，" + rows.size() + " 条记录");
+            for (Integer userId : dirty) {
+                if (!userIndex.containsKey(userId)) {
+                    neighbors.remove(userId);
+                }
+            }
+            dirty.clear();
+        } catch (RuntimeException e) {
+            System.err.println("用户相似度增量写入失败，下次重试：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 用户在内存中的编号；不在内存中时分配一个（签名为空），已满时淘汰最久没有事件的用户并复用其编号。
+     */
+    private int slotOf(int userId) {
+        Integer slot = userIndex.get(userId);
+        if (slot != null) {
+            return slot;
+        }
+        int u;
+        if (users < maxUsers) {
+            if (users == userIds.length) {
+                grow(Math.min(maxUsers, users * 2));
+            }
+            u = users++;
+        } else {
+            Iterator<Map.Entry<Integer, Integer>> eldest = userIndex.entrySet().iterator();
+            u = eldest.next().getValue();
+            eldest.remove();
+            evict(u);
+        }
+        userIds[u] = userId;
+        userIndex.put(userId, u);
+        Arrays.fill(signatures, u * lsh.numHashes(), (u + 1) * lsh.numHashes(), Integer.MAX_VALUE);
+        return u;
+    }
+
+    private void evict(int u) {
+        unindex(u);
+        pending[u] = 0;
+        waiting.remove(u);
+        // 邻居尚未写入的留到检查点写入后再移除
+        if (!dirty.contains(userIds[u])) {
+            neighbors.remove(userIds[u]);
+        }
+        evicted.incrementAndGet();
+    }
+
+    private void grow(int capacity) {
+        userIds = Arrays.copyOf(userIds, capacity);
+        pending = Arrays.copyOf(pending, capacity);
+        indexed = Arrays.copyOf(indexed, capacity);
+        seen = Arrays.copyOf(seen, capacity);
+        signatures = Arrays.copyOf(signatures, capacity * lsh.numHashes());
+        next = Arrays.copyOf(next, capacity * lsh.bands());
+    }
+
+    /**
+     * 替换用户 u 的签名并重新放入 LSH 桶；空集合的签名各段都相同，不放入桶中。
+     */
+    private void setSignature(int u, int[] signature) {
+        unindex(u);
+        System.arraycopy(signature, 0, signatures, u * lsh.numHashes(), lsh.numHashes());
+        if (signature[0] == Integer.MAX_VALUE) {
+            return;
+        }
+        int bands = lsh.bands();
+        for (int band = 0; band < bands; band++) {
+            int h = lsh.bandHash(signatures, u, band) & (heads.length - 1);
+            int node = u * bands + band;
+            next[node] = heads[h];
+            heads[h] = node;
+        }
+        indexed[u] = true;
+    }
+
+    private void unindex(int u) {
+        if (!indexed[u]) {
+            return;
+        }
+        int bands = lsh.bands();
+        for (int band = 0; band < bands; band++) {
+            int h = lsh.bandHash(signatures, u, band) & (heads.length - 1);
+            int node = u * bands + band;
+            if (heads[h] == node) {
+                heads[h] = next[node];
+                continue;
+            }
+            int previous = heads[h];
+            while (next[previous] != node) {
+                previous = next[previous];
+            }
+            next[previous] = next[node];
+        }
+        indexed[u] = false;
+    }
+
+    /**
+     * 一个用户待处理的事件：新浏览/收藏的房源、是否有记录减少、合并的事件数。
+     */
+    private static final class UserEvents {
+        final Set<Integer> items = new LinkedHashSet<Integer>();
+        boolean removal;
+        int count;
+    }
+}
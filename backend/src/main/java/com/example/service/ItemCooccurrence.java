@@ -0,0 +1,281 @@
+package com.example.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 稀疏的物品共现统计：用户-物品与物品-用户两份压缩行存储（CSR），按物品行并行累加共现次数。
+ * 物品 i 的一行只遍历看过 i 的用户，累加这些用户列表中排在 i 之后的物品，
+ * 累加器是每个线程一块长度为物品数的计数数组，只清理本行实际触及的位置。
+ * 内存为 O(浏览记录数 + 线程数 × 物品数 + 输出对数)，只有真正共现过的物品对才会计算 Jaccard。
+ */
+final class ItemCooccurrence {
+
+    private final int items;
+    private final int[] propertyIds;
+    private final int[] userOffsets;
+    private final int[] userItems;
+    private final int[] itemOffsets;
+    private final int[] itemUsers;
+    private final int[] popularity;
+    /** 每个线程的共现计数与本行触及的物品，跨批次复用 */
+    private final ThreadLocal<int[]> accumulators;
+    private final ThreadLocal<int[]> touchedLists;
+
+    /**
+     * @param propertyIds 物品编号对应的房源 ID
+     * @param userOffsets 第 u 个用户的物品位于 userItems[userOffsets[u], userOffsets[u + 1])，每个用户内升序且不重复
+     */
+    ItemCooccurrence(int[] propertyIds, int[] userOffsets, int[] userItems) {
+        this.items = propertyIds.length;
+        this.propertyIds = propertyIds;
+        this.userOffsets = userOffsets;
+        this.userItems = userItems;
+        int users = userOffsets.length - 1;
+        popularity = new int[items];
+        for (int x = 0; x < userOffsets[users]; x++) {
+            popularity[userItems[x]]++;
+        }
+        itemOffsets = new int[items + 1];
+        for (int i = 0; i < items; i++) {
+            itemOffsets[i + 1] = itemOffsets[i] + popularity[i];
+        }
+        accumulators = ThreadLocal.withInitial(() -> new int[items]);
+        touchedLists = ThreadLocal.withInitial(() -> new int[items]);
+        itemUsers = new int[userOffsets[users]];
+        int[] fill = Arrays.copyOf(itemOffsets, items);
+        for (int u = 0; u < users; u++) {
+            for (int x = userOffsets[u]; x < userOffsets[u + 1]; x++) {
+                itemUsers[fill[userItems[x]]++] = u;
+            }
+        }
+    }
+
+    int items() {
+        return items;
+    }
+
+    int users() {
+        return userOffsets.length - 1;
+    }
+
+    int propertyId(int item) {
+        return propertyIds[item];
+    }
+
+    /**
+     * 看过该物品的用户数。
+     */
+    int popularity(int item) {
+        return popularity[item];
+    }
+
+    /**
+     * 计算 [fromItem, toItem) 中每个物品 i 与编号更大的物品 j 的共现次数，只保留 Jaccard 大于 minJaccard 的物品对。
+     */
+    Pairs pairs(final int fromItem, int toItem, final double minJaccard, ForkJoinPool pool) {
+        final int count = toItem - fromItem;
+        final int[][] partners = new int[count][];
+        final int[][] counts = new int[count][];
+        try {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(position -> {
+                int i = fromItem + position;
+                int[] accumulator = accumulators.get();
+                int[] touched = touchedLists.get();
+                int touchedCount = 0;
+                for (int x = itemOffsets[i]; x < itemOffsets[i + 1]; x++) {
+                    int u = itemUsers[x];
+                    int end = userOffsets[u + 1];
+                    // 用户列表升序，从 i 之后开始即只统计 j > i
+                    int start = Arrays.binarySearch(userItems, userOffsets[u], end, i) + 1;
+                    for (int y = start; y < end; y++) {
+                        int j = userItems[y];
+                        if (accumulator[j]++ == 0) {
+                            touched[touchedCount++] = j;
+                        }
+                    }
+                }
+                int kept = 0;
+                int[] rowPartners = new int[touchedCount];
+                int[] rowCounts = new int[touchedCount];
+                for (int t = 0; t < touchedCount; t++) {
+                    int j = touched[t];
+                    int together = accumulator[j];
+                    accumulator[j] = 0;
+                    if (jaccard(together, popularity[i], popularity[j]) > minJaccard) {
+                        rowPartners[kept] = j;
+                        rowCounts[kept] = together;
+                        kept++;
+                    }
+                }
+                partners[position] = Arrays.copyOf(rowPartners, kept);
+                counts[position] = Arrays.copyOf(rowCounts, kept);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("共现统计被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("共现统计失败", e.getCause());
+        }
+        return new Pairs(fromItem, partners, counts);
+    }
+
+    static double jaccard(int together, int popularity1, int popularity2) {
+        return (double) together / (popularity1 + popularity2 - together);
+    }
+
+    /**
+     * 按用户顺序逐条接收（用户, 房源, 浏览次数），构建共现统计。同一用户的记录须连续出现。
+     * 浏览过的房源超过 maxItemsPerUser 套的用户只保留浏览次数最多的部分：这类用户产生的物品对按平方增长，
+     * 且多为爬虫或批量比价，对相似度贡献很小。
+     */
+    static final class Builder {
+        private final int maxItemsPerUser;
+        private final Map<Integer, Integer> indexOf = new HashMap<Integer, Integer>();
+        private int[] propertyIds = new int[1024];
+        private int[] userOffsets = new int[1024];
+        private int[] userItems = new int[4096];
+        private int users;
+        private int length;
+        private int cappedUsers;
+
+        private long currentUser = Long.MIN_VALUE;
+        private int[] currentItems = new int[64];
+        private long[] currentCounts = new long[64];
+        private int currentSize;
+
+        Builder(int maxItemsPerUser) {
+            this.maxItemsPerUser = maxItemsPerUser;
+        }
+
+        void add(long userId, int propertyId, long viewCount) {
+            if (userId != currentUser) {
+                flushUser();
+                currentUser = userId;
+            }
+            if (currentSize == currentItems.length) {
+                currentItems = Arrays.copyOf(currentItems, currentSize * 2);
+                currentCounts = Arrays.copyOf(currentCounts, currentSize * 2);
+            }
+            currentItems[currentSize] = propertyId;
+            currentCounts[currentSize] = viewCount;
+            currentSize++;
+        }
+
+        /**
+         * 超过上限而被截断的用户数。
+         */
+        int cappedUsers() {
+            return cappedUsers;
+        }
+
+        /**
+         * 物品按房源 ID 升序编号，每个用户的物品列表按编号升序排列。
+         */
+        ItemCooccurrence build() {
+            flushUser();
+            int items = indexOf.size();
+            int[] sorted = Arrays.copyOf(propertyIds, items);
+            Arrays.sort(sorted);
+            int[] remap = new int[items];
+            for (int item = 0; item < items; item++) {
+                remap[indexOf.get(sorted[item])] = item;
+            }
+            for (int x = 0; x < length; x++) {
+                userItems[x] = remap[userItems[x]];
+            }
+            int[] offsets = Arrays.copyOf(userOffsets, users + 1);
+            for (int u = 0; u < users; u++) {
+                Arrays.sort(userItems, offsets[u], offsets[u + 1]);
+            }
+            return new ItemCooccurrence(sorted, offsets, Arrays.copyOf(userItems, length));
+        }
+
+        private void flushUser() {
+            if (currentSize == 0) {
+                return;
+            }
+            int size = currentSize;
+            if (maxItemsPerUser > 0 && size > maxItemsPerUser) {
+                keepMostViewed();
+                size = maxItemsPerUser;
+                cappedUsers++;
+            }
+            if (length + size > userItems.length) {
+                userItems = Arrays.copyOf(userItems, Math.max(length + size, userItems.length * 2));
+            }
+            for (int x = 0; x < size; x++) {
+                Integer item = indexOf.get(currentItems[x]);
+                if (item == null) {
+                    item = indexOf.size();
+                    if (item == propertyIds.length) {
+                        propertyIds = Arrays.copyOf(propertyIds, item * 2);
+                    }
+                    propertyIds[item] = currentItems[x];
+                    indexOf.put(currentItems[x], item);
+                }
+                userItems[length++] = item;
+            }
+            if (users + 2 > userOffsets.length) {
+                userOffsets = Arrays.copyOf(userOffsets, userOffsets.length * 2);
+            }
+            users++;
+            userOffsets[users] = length;
+            currentSize = 0;
+        }
+
+        /**
+         * 把浏览次数最多的 maxItemsPerUser 个房源移到前面（次数相同时房源 ID 小的优先）。
+         */
+        private void keepMostViewed() {
+            Integer[] order = new Integer[currentSize];
+            for (int x = 0; x < currentSize; x++) {
+                order[x] = x;
+            }
+            final long[] counts = currentCounts;
+            final int[] items = currentItems;
+            Arrays.sort(order, (a, b) -> counts[a] != counts[b]
+                    ? Long.compare(counts[b], counts[a]) : Integer.compare(items[a], items[b]));
+            int[] kept = new int[maxItemsPerUser];
+            for (int x = 0; x < maxItemsPerUser; x++) {
+                kept[x] = items[order[x]];
+            }
+            System.arraycopy(kept, 0, currentItems, 0, maxItemsPerUser);
+        }
+    }
+
+    /**
+     * 一段物品行的共现结果：first(p) 与 partners[p] 中各物品共现 counts[p] 次。
+     */
+    static final class Pairs {
+        private final int fromItem;
+        private final int[][] partners;
+        private final int[][] counts;
+
+        private Pairs(int fromItem, int[][] partners, int[][] counts) {
+            this.fromItem = fromItem;
+            this.partners = partners;
+            this.counts = counts;
+        }
+
+        int rows() {
+            return partners.length;
+        }
+
+        int first(int position) {
+            return fromItem + position;
+        }
+
+        int[] partners(int position) {
+            return partners[position];
+        }
+
+        int[] counts(int position) {
+            return counts[position];
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package com.example.service;
+
+import com.example.service.predict_zhz.BatchPrediction;
+import com.example.service.predict_zhz.FeatureCompiler;
+import com.example.service.predict_zhz.HousePricePredictionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量估价任务：为所有在售房源计算模型估价，并把估价单价及其与挂牌单价的差值写入 property_valuations 表。
+ * <ul>
+ *     <li>开始前增量同步 {@link PropertyFeatureStore}，再按 property_id 键集分页读取特征表中已解析好的房源与小区特征；读取下一页与当前页打分并行。</li>
+ *     <li>每页按城市分组切块，多个块并行调用 {@link HousePricePredictionService#predictBatch}，每块只做一次模型调用。</li>
+ *     <li>结果批量 upsert；每页写完后把最后的 property_id 记入 job_checkpoints，任务中断或取消后可从断点继续。</li>
+ * </ul>
+ */
+@Service
+public class MassAppraisalService {
+
+    private static final String JOB_NAME = "mass_appraisal";
+
+    private static final String CREATE_VALUATIONS_SQL =
+            "CREATE TABLE IF NOT EXISTS property_valuations (" +
+            "property_id int NOT NULL COMMENT '房源ID', " +
+            "run_id varchar(64) NOT NULL COMMENT '估价批次', " +
+            "city varchar(50) DEFAULT NULL COMMENT '城市', " +
+            "status varchar(20) NOT NULL COMMENT 'success/failed', " +
+            "predicted_unit_price decimal(12,2) DEFAULT NULL COMMENT '模型估价单价', " +
+            "asking_unit_price decimal(12,2) DEFAULT NULL COMMENT '挂牌单价', " +
+            "price_delta decimal(12,2) DEFAULT NULL COMMENT '挂牌单价 - 估价单价', " +
+            "delta_ratio decimal(10,4) DEFAULT NULL COMMENT '价差 / 估价单价', " +
+            "error_message varchar(255) DEFAULT NULL COMMENT '失败原因', " +
+            "valued_at timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '估价时间', " +
+            "PRIMARY KEY (property_id), " +
+            "KEY idx_run_id (run_id), " +
+            "KEY idx_delta_ratio (delta_ratio)" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='房源估价表'";
+
+    static final String CREATE_CHECKPOINTS_SQL =
+            "CREATE TABLE IF NOT EXISTS job_checkpoints (" +
+            "job_name varchar(64) NOT NULL COMMENT '任务名', " +
+            "run_id varchar(64) NOT NULL COMMENT '当前批次', " +
+            "last_key bigint NOT NULL DEFAULT 0 COMMENT '已处理到的最大主键', " +
+            "processed bigint NOT NULL DEFAULT 0 COMMENT '已处理行数', " +
+            "failed bigint NOT NULL DEFAULT 0 COMMENT '失败行数', " +
+            "status varchar(20) NOT NULL COMMENT 'running/completed/failed/cancelled', " +
+            "started_at timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '批次开始时间', " +
+            "updated_at timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间', " +
+            "PRIMARY KEY (job_name)" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='批处理任务断点表'";
+
+    private static final String PAGE_SQL =
+            "SELECT f.property_id, f.unit_price, f.build_year, f.area, " +
+            "COALESCE(CAST(f.floor AS CHAR), f.floor_level) AS floor, " +
+            "f.total_floors, f.bedroom_count, f.living_room_count, f.orientation, " +
+            "f.city, f.district, f.longitude, f.latitude, f.total_size, f.total_households, " +
+            "f.plot_ratio, f.green_ratio, f.management_fee " +
+            "FROM property_feature_vectors f " +
+            "WHERE f.status = 'for_sale' AND f.property_id > ? " +
+            "ORDER BY f.property_id " +
+            "LIMIT ?";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO property_valuations (property_id, run_id, city, status, predicted_unit_price, " +
+            "asking_unit_price, price_delta, delta_ratio, error_message, valued_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP) " +
+            "ON DUPLICATE KEY UPDATE run_id = VALUES(run_id), city = VALUES(city), status = VALUES(status), " +
+            "predicted_unit_price = VALUES(predicted_unit_price), asking_unit_price = VALUES(asking_unit_price), " +
+            "price_delta = VALUES(price_delta), delta_ratio = VALUES(delta_ratio), " +
+            "error_message = VALUES(error_message), valued_at = CURRENT_TIMESTAMP";
+
+    private static final Map<String, Double> ORIENTATION_SCORES = new HashMap<String, Double>();
+
+    static {
+        // 与训练数据的朝向评分口径一致：南向最高，北向最低
+        ORIENTATION_SCORES.put("south", 5.0);
+        ORIENTATION_SCORES.put("南", 5.0);
+        ORIENTATION_SCORES.put("north_south", 5.0);
+        ORIENTATION_SCORES.put("南北", 5.0);
+        ORIENTATION_SCORES.put("southeast", 4.0);
+        ORIENTATION_SCORES.put("东南", 4.0);
+        ORIENTATION_SCORES.put("southwest", 4.0);
+        ORIENTATION_SCORES.put("西南", 4.0);
+        ORIENTATION_SCORES.put("east", 3.0);
+        ORIENTATION_SCORES.put("东", 3.0);
+        ORIENTATION_SCORES.put("west", 3.0);
+        ORIENTATION_SCORES.put("西", 3.0);
+        ORIENTATION_SCORES.put("northeast", 2.0);
+        ORIENTATION_SCORES.put("东北", 2.0);
+        ORIENTATION_SCORES.put("northwest", 2.0);
+        ORIENTATION_SCORES.put("西北", 2.0);
+        ORIENTATION_SCORES.put("north", 1.0);
+        ORIENTATION_SCORES.put("北", 1.0);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final HousePricePredictionService predictionService;
+    private final PropertyFeatureStore featureStore;
+    private final int pageSize;
+    private final int batchSize;
+    private final int parallelism;
+    private final Object lock = new Object();
+    private volatile Run currentRun;
+
+    @Autowired
+    public MassAppraisalService(JdbcTemplate jdbcTemplate,
+                                HousePricePredictionService predictionService,
+                                PropertyFeatureStore featureStore,
+                                @Value("${appraisal.page-size:5000}") int pageSize,
+                                @Value("${appraisal.batch-size:500}") int batchSize,
+                                @Value("${appraisal.parallelism:4}") int parallelism) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.predictionService = predictionService;
+        this.featureStore = featureStore;
+        this.pageSize = pageSize;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 启动估价任务。默认从上次未完成批次的断点继续；上次已完成或 restart=true 时开始新批次。
+     * 任务已在运行时抛出 {@link IllegalStateException}。
+     */
+    public Map<String, Object> start(boolean restart) {
+        synchronized (lock) {
+            if (currentRun != null && currentRun.isActive()) {
+                throw new IllegalStateException("估价任务正在运行：" + currentRun.runId);
+            }
+            jdbcTemplate.execute(CREATE_VALUATIONS_SQL);
+            jdbcTemplate.execute(CREATE_CHECKPOINTS_SQL);
+
+            Run run = restart ? null : resumeFromCheckpoint();
+            if (run == null) {
+                run = new Run(UUID.randomUUID().toString(), 0L, 0L, 0L, false);
+            }
+            run.total = countForSale(0L);
+            run.remainingAtStart = countForSale(run.lastKey);
+            saveCheckpoint(run, "running");
+            currentRun = run;
+
+            final Run started = run;
+            Thread runner = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    execute(started);
+                }
+            }, "appraisal-runner");
+            runner.setDaemon(true);
+            runner.start();
+            System.out.println((run.resumed ? "继续估价任务：" : "开始估价任务：") + run.runId
+                    + "，断点 property_id=" + run.lastKey + "，待处理 " + run.remainingAtStart + " 套");
+            return run.snapshot();
+        }
+    }
+
+    /**
+     * 请求取消：当前页写完并记录断点后停止，之后可从断点继续。
+     */
+    public Map<String, Object> cancel() {
+        Run run = currentRun;
+        if (run == null || !run.isActive()) {
+            throw new IllegalStateException("当前没有运行中的估价任务");
+        }
+        run.cancelRequested = true;
+        return run.snapshot();
+    }
+
+    /**
+     * 当前（或最近一次）估价任务的进度：已处理数、失败数、吞吐量与预计剩余时间。
+     */
+    public Map<String, Object> getProgress() {
+        Run run = currentRun;
+        if (run != null) {
+            return run.snapshot();
+        }
+        Map<String, Object> progress = new HashMap<String, Object>();
+        progress.put("status", "idle");
+        return progress;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Run run = currentRun;
+        if (run != null && run.isActive()) {
+            run.cancelRequested = true;
+        }
+    }
+
+    private void execute(Run run) {
+        ExecutorService reader = Executors.newSingleThreadExecutor(daemonThreads("appraisal-reader"));
+        ExecutorService scorers = Executors.newFixedThreadPool(parallelism, daemonThreads("appraisal-scorer"));
+        try {
+            featureStore.sync(false);
+            Future<List<Listing>> nextPage = reader.submit(readPage(run.lastKey));
+            while (!run.cancelRequested) {
+                List<Listing> page = nextPage.get();
+                if (page.isEmpty()) {
+                    break;
+                }
+                long pageLastKey = page.get(page.size() - 1).propertyId;
+                // 预读下一页，与本页的打分、写库重叠
+                nextPage = reader.submit(readPage(pageLastKey));
+
+                List<Object[]> rows = scorePage(page, run.runId, scorers);
+                jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+
+                long failedInPage = 0;
+                for (Object[] row : rows) {
+                    if ("failed".equals(row[3])) {
+                        failedInPage++;
+                    }
+                }
+                run.lastKey = pageLastKey;
+                run.processed.addAndGet(page.size());
+                run.failed.addAndGet(failedInPage);
+                run.processedThisSession.addAndGet(page.size());
+                saveCheckpoint(run, "running");
+            }
+            run.status = run.cancelRequested ? "cancelled" : "completed";
+        } catch (Exception e) {
+            run.status = "failed";
+            run.lastError = e.getMessage();
+            System.err.println("估价任务失败：" + run.runId + "，断点 property_id=" + run.lastKey + "，" + e.getMessage());
+        } finally {
+            run.finishedAt = System.currentTimeMillis();
+            reader.shutdownNow();
+            scorers.shutdownNow();
+            try {
+                saveCheckpoint(run, run.status);
+            } catch (Exception e) {
+                System.err.println("保存估价任务断点失败：" + e.getMessage());
+            }
+        }
+        System.out.println("估价任务结束：" + run.runId + "，状态 " + run.status
+                + "，已处理 " + run.processed.get() + " 套，失败 " + run.failed.get() + " 套");
+    }
+
+    private Callable<List<Listing>> readPage(final long afterKey) {
+        return new Callable<List<Listing>>() {
+            @Override
+            public List<Listing> call() {
+                return jdbcTemplate.query(PAGE_SQL, new ListingMapper(), afterKey, pageSize);
+            }
+        };
+    }
+
+    /**
+     * 按城市分组、切块并行打分，返回与 page 顺序一致的 upsert 参数。
+     */
+    private List<Object[]> scorePage(List<Listing> page, final String runId, ExecutorService scorers) throws Exception {
+        Map<String, List<Listing>> byCity = new LinkedHashMap<String, List<Listing>>();
+        for (Listing listing : page) {
+            List<Listing> group = byCity.get(listing.city);
+            if (group == null) {
+                group = new ArrayList<Listing>();
+                byCity.put(listing.city, group);
+            }
+            group.add(listing);
+        }
+
+        List<Future<List<Object[]>>> chunks = new ArrayList<Future<List<Object[]>>>();
+        for (List<Listing> group : byCity.values()) {
+            for (int from = 0; from < group.size(); from += batchSize) {
+                final List<Listing> chunk = group.subList(from, Math.min(from + batchSize, group.size()));
+                chunks.add(scorers.submit(new Callable<List<Object[]>>() {
+                    @Override
+                    public List<Object[]> call() {
+                        return scoreChunk(chunk, runId);
+                    }
+                }));
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>(page.size());
+        for (Future<List<Object[]>> chunk : chunks) {
+            rows.addAll(chunk.get());
+        }
+        return rows;
+    }
+
+    private List<Object[]> scoreChunk(List<Listing> chunk, String runId) {
+        List<String> cities = new ArrayList<String>(chunk.size());
+        List<Map<String, Object>> features = new ArrayList<Map<String, Object>>(chunk.size());
+        for (Listing listing : chunk) {
+            cities.add(listing.city);
+            features.add(listing.features);
+        }
+        List<BatchPrediction> predictions = predictionService.predictBatch(cities, features);
+
+        List<Object[]> rows = new ArrayList<Object[]>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Listing listing = chunk.get(i);
+            BatchPrediction prediction = predictions.get(i);
+            if (!prediction.isSuccess()) {
+                rows.add(new Object[]{listing.propertyId, runId, listing.city, "failed",
+                        null, listing.askingUnitPrice, null, null, truncate(prediction.getError())});
+                continue;
+            }
+            // 模型训练目标即每平米成交单价，与 price_info.unit_price 同口径，可直接相减
+            double predicted = prediction.getPrediction();
+            Double asking = listing.askingUnitPrice;
+            Double delta = asking == null ? null : asking - predicted;
+            Double ratio = delta == null || predicted == 0.0 ? null : delta / predicted;
+            rows.add(new Object[]{listing.propertyId, runId, listing.city, "success",
+                    predicted, asking, delta, ratio, null});
+        }
+        return rows;
+    }
+
+    private Run resumeFromCheckpoint() {
+        try {
+            return jdbcTemplate.queryForObject(
+                    "SELECT run_id, last_key, processed, failed, status FROM job_checkpoints WHERE job_name = ?",
+                    new RowMapper<Run>() {
+                        @Override
+                        public Run mapRow(ResultSet rs, int rowNum) throws SQLException {
+                            if ("completed".equals(rs.getString("status"))) {
+                                return null;
+                            }
+                            return new Run(rs.getString("run_id"), rs.getLong("last_key"),
+                                    rs.getLong("processed"), rs.getLong("failed"), true);
+                        }
+                    },
+                    JOB_NAME);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+
+    private void saveCheckpoint(Run run, String status) {
+        jdbcTemplate.update(
+                "INSERT INTO job_checkpoints (job_name, run_id, last_key, processed, failed, status, started_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP) " +
+                "ON DUPLICATE KEY UPDATE started_at = IF(run_id = VALUES(run_id), started_at, VALUES(started_at)), " +
+                "run_id = VALUES(run_id), last_key = VALUES(last_key), processed = VALUES(processed), " +
+                "failed = VALUES(failed), status = VALUES(status)",
+                JOB_NAME, run.runId, run.lastKey, run.processed.get(), run.failed.get(), status);
+    }
+
+    private long countForSale(long afterKey) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM properties WHERE status = 'for_sale' AND property_id > ?", Long.class, afterKey);
+        return count == null ? 0L : count;
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= 255) {
+            return message;
+        }
+        return message.substring(0, 255);
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * 把一行房源 + 小区数据映射为 {@link FeatureCompiler} 认识的原始字段，缺失值不放入，由编译器按训练均值补齐。
+     */
+    private static final class ListingMapper implements RowMapper<Listing> {
+        @Override
+        public Listing mapRow(ResultSet rs, int rowNum) throws SQLException {
+            Listing listing = new Listing();
+            listing.propertyId = rs.getLong("property_id");
+            listing.city = normalizeCity(rs.getString("city"));
+            double asking = number(rs.getString("unit_price"));
+            listing.askingUnitPrice = Double.isNaN(asking) ? null : asking;
+
+            Map<String, Object> features = new HashMap<String, Object>();
+            putNumber(features, FeatureCompiler.Input.LONGITUDE.getKey(), rs.getString("longitude"));
+            putNumber(features, FeatureCompiler.Input.LATITUDE.getKey(), rs.getString("latitude"));
+            putNumber(features, FeatureCompiler.Input.AREA.getKey(), rs.getString("area"));
+            putNumber(features, FeatureCompiler.Input.ROOMS.getKey(), rs.getString("bedroom_count"));
+            putNumber(features, FeatureCompiler.Input.HALLS.getKey(), rs.getString("living_room_count"));
+            putNumber(features, FeatureCompiler.Input.TOTAL_FLOORS.getKey(), rs.getString("total_floors"));
+            putNumber(features, FeatureCompiler.Input.COMMUNITY_AREA.getKey(), rs.getString("total_size"));
+            putNumber(features, FeatureCompiler.Input.HOUSEHOLDS.getKey(), rs.getString("total_households"));
+            putNumber(features, FeatureCompiler.Input.PLOT_RATIO.getKey(), rs.getString("plot_ratio"));
+            putNumber(features, FeatureCompiler.Input.PROPERTY_FEE.getKey(), rs.getString("management_fee"));
+            putNumber(features, FeatureCompiler.KEY_BUILD_YEAR, rs.getString("build_year"));
+
+            // 库中绿化率是小数（0.35），训练数据是百分数
+            double greenRatio = number(rs.getString("green_ratio"));
+            if (!Double.isNaN(greenRatio)) {
+                features.put(FeatureCompiler.Input.GREEN_RATE.getKey(), greenRatio <= 1.0 ? greenRatio * 100 : greenRatio);
+            }
+
+            // 楼层可能是具体层数，也可能是“低/中/高楼层”
+            String floor = rs.getString("floor");
+            if (!Double.isNaN(number(floor))) {
+                features.put(FeatureCompiler.KEY_FLOOR, number(floor));
+            } else if (floor != null) {
+                features.put(FeatureCompiler.KEY_FLOOR_LEVEL, floor);
+            }
+
+            String district = rs.getString("district");
+            if (district != null && !"null".equals(district)) {
+                features.put(FeatureCompiler.KEY_DISTRICT_NAME, district);
+            }
+
+            String orientation = rs.getString("orientation");
+            if (orientation != null) {
+                Double score = ORIENTATION_SCORES.get(orientation.trim().toLowerCase(Locale.ROOT));
+                if (score != null) {
+                    features.put(FeatureCompiler.Input.ORIENTATION.getKey(), score);
+                }
+            }
+            listing.features = features;
+            return listing;
+        }
+
+        private static void putNumber(Map<String, Object> features, String key, String raw) {
+            double value = number(raw);
+            if (!Double.isNaN(value)) {
+                features.put(key, value);
+            }
+        }
+
+        private static double number(String raw) {
+            if (raw == null) {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(raw.trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        private static String normalizeCity(String city) {
+            if (city == null || "null".equals(city)) {
+                return null;
+            }
+            String trimmed = city.trim();
+            return trimmed.endsWith("市") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+        }
+    }
+
+    private static final class Listing {
+        private long propertyId;
+        private String city;
+        private Double askingUnitPrice;
+        private Map<String, Object> features;
+    }
+
+    /**
+     * 一次估价批次的运行状态；断点续跑时沿用原批次号与累计计数。
+     */
+    private static final class Run {
+        private final String runId;
+        private final boolean resumed;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicLong processed;
+        private final AtomicLong failed;
+        private final AtomicLong processedThisSession = new AtomicLong();
+        private volatile long lastKey;
+        private volatile long total;
+        private volatile long remainingAtStart;
+        private volatile String status = "running";
+        private volatile String lastError;
+        private volatile long finishedAt;
+        private volatile boolean cancelRequested;
+
+        private Run(String runId, long lastKey, long processed, long failed, boolean resumed) {
+            this.runId = runId;
+            this.lastKey = lastKey;
+            this.processed = new AtomicLong(processed);
+            this.failed = new AtomicLong(failed);
+            this.resumed = resumed;
+        }
+
+        private boolean isActive() {
+            return "running".equals(status);
+        }
+
+        private Map<String, Object> snapshot() {
+            long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+            long elapsed = Math.max(1L, end - startedAt);
+            long done = processedThisSession.get();
+            double perMinute = done * 60000.0 / elapsed;
+            long remaining = Math.max(0L, remainingAtStart - done);
+
+            Map<String, Object> progress = new HashMap<String, Object>();
+            progress.put("runId", runId);
+            progress.put("status", status);
+            progress.put("resumed", resumed);
+            progress.put("total", total);
+            progress.put("processed", processed.get());
+            progress.put("failed", failed.get());
+            progress.put("remaining", remaining);
+            progress.put("lastPropertyId", lastKey);
+            progress.put("startedAt", startedAt);
+            progress.put("elapsedMs", end - startedAt);
+            progress.put("listingsPerMinute", Math.round(perMinute));
+            progress.put("etaMs", perMinute > 0 && isActive() ? Math.round(remaining * 60000.0 / perMinute) : null);
+            progress.put("cancelRequested", cancelRequested);
+            progress.put("lastError", lastError);
+            return progress;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * 用户浏览/收藏集合的 MinHash 签名与分段局部敏感哈希（LSH）。
+ * <ul>
+ *     <li>签名：numHashes 个形如 h(x) = (a·x + b) mod (2^31 − 1) 的哈希函数在集合上的最小值；两个集合签名某一位相等的概率
+ *     即二者的 Jaccard 系数。a、b 由 seed 确定，seed 或哈希个数改变后旧签名作废。新增元素时逐位取最小值即可更新签名。</li>
+ *     <li>LSH：签名分为 bands 段、每段 rows 位，至少一段完全相同的用户成为候选对，Jaccard 为 s 的用户对成为候选的概率为
+ *     1 − (1 − s^rows)^bands。候选对再按集合精确计算 Jaccard，结果没有估计误差，近似只体现在漏掉的用户对上。</li>
+ *     <li>同一用户对在多段中相同时只在第一段比较；某段中同一桶的用户超过 maxBucketSize 时只比较其中 maxBucketSize 个
+ *     （这类桶通常来自同时浏览了热门房源的大量用户），避免候选对按平方增长。抽取按用户编号与段号的哈希进行，每段抽到的用户不同，
+ *     不偏向 user_id 小的用户。前面的段中因未被抽中而没有比较的用户对，在后面的段中签名相同时照常比较。</li>
+ * </ul>
+ * 签名按用户连续存放在一个 int 数组中（用户 u 占 [u·numHashes, (u + 1)·numHashes)），内存为 用户数 × numHashes × 4 字节。
+ */
+final class MinHashLsh {
+
+    private static final long PRIME = (1L << 31) - 1;
+
+    private final int numHashes;
+    private final int bands;
+    private final int rows;
+    private final long seed;
+    private final long[] a;
+    private final long[] b;
+
+    MinHashLsh(int numHashes, int bands, long seed) {
+        if (numHashes <= 0 || bands <= 0 || numHashes % bands != 0) {
+            throw new IllegalArgumentException("哈希个数须为分段数的整数倍：" + numHashes + " / " + bands);
+        }
+        this.numHashes = numHashes;
+        this.bands = bands;
+        this.rows = numHashes / bands;
+        this.seed = seed;
+        a = new long[numHashes];
+        b = new long[numHashes];
+        Random random = new Random(seed);
+        for (int i = 0; i < numHashes; i++) {
+            a[i] = 1 + random.nextInt((int) PRIME - 1);
+            b[i] = random.nextInt((int) PRIME);
+        }
+    }
+
+    int numHashes() {
+        return numHashes;
+    }
+
+    int bands() {
+        return bands;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    /**
+     * 空集合的签名（各位为 Integer.MAX_VALUE）。
+     */
+    int[] emptySignature() {
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        return signature;
+    }
+
+    /**
+     * 把元素并入签名，返回签名是否改变。
+     */
+    boolean update(int[] signature, int offset, int item) {
+        boolean changed = false;
+        long x = item & 0xFFFFFFFFL;
+        for (int i = 0; i < numHashes; i++) {
+            int hash = (int) ((a[i] * x + b[i]) % PRIME);
+            if (hash < signature[offset + i]) {
+                signature[offset + i] = hash;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 计算用户 u 的签名，写入 signatures 中 u 的位置。
+     */
+    void fill(UserItemSets sets, int u, int[] signatures) {
+        int offset = u * numHashes;
+        Arrays.fill(signatures, offset, offset + numHashes, Integer.MAX_VALUE);
+        for (int x = sets.start(u); x < sets.end(u); x++) {
+            update(signatures, offset, sets.item(x));
+        }
+    }
+
+    /**
+     * 由 LSH 候选对求每个用户 Jaccard 最高的 k 个邻居（大于 minScore，按 Jaccard 降序、user_id 升序）。
+     *
+     * @param signatures 各用户的签名，见类说明
+     * @param stats      累加候选对数、超限的桶数等统计，可为 null
+     */
+    SparseUserSimilarity.Neighbors topK(final UserItemSets sets, final int[] signatures, final int k,
+                                        final double minScore, final int maxBucketSize, ForkJoinPool pool,
+                                        final Stats stats) {
+        final int users = sets.users();
+        final List<PairBuffer> buffers = new ArrayList<PairBuffer>();
+        final ThreadLocal<PairBuffer> localBuffer = ThreadLocal.withInitial(() -> {
+            PairBuffer buffer = new PairBuffer();
+            synchronized (buffers) {
+                buffers.add(buffer);
+            }
+            return buffer;
+        });
+        final AtomicLong candidates = new AtomicLong();
+        final AtomicLong cappedBuckets = new AtomicLong();
+        // 各段中所在的桶超限且未被抽中、因而没有参与比较的用户（位图，该段没有超限的桶时为 null）
+        final long[][] unsampled = new long[bands][];
+        long[] keys = new long[users];
+        try {
+            for (int band = 0; band < bands; band++) {
+                // 段哈希在高 32 位、用户编号在低 32 位，排序后同一桶的用户相邻且按编号升序
+                for (int u = 0; u < users; u++) {
+                    keys[u] = ((long) bandHash(signatures, u, band) << 32) | u;
+                }
+                Arrays.sort(keys);
+                int[] buckets = buckets(keys);
+                final long[] sorted = keys;
+                final int currentBand = band;
+                // 先抽样超限的桶并记下未抽中的用户，后面的段据此判断用户对是否真的比较过
+                final long[][] samples = new long[buckets.length / 2][];
+                for (int bucket = 0; bucket < samples.length; bucket++) {
+                    int start = buckets[2 * bucket];
+                    int end = buckets[2 * bucket + 1];
+                    if (end - start > maxBucketSize) {
+                        cappedBuckets.incrementAndGet();
+                        samples[bucket] = sample(sorted, start, end, maxBucketSize, currentBand);
+                        if (unsampled[band] == null) {
+                            unsampled[band] = new long[(users + 63) >>> 6];
+                        }
+                        markUnsampled(unsampled[band], sorted, start, end, samples[bucket]);
+                    }
+                }
+                pool.submit(() -> IntStream.range(0, buckets.length / 2).parallel().forEach(bucket -> {
+                    int start = buckets[2 * bucket];
+                    int end = buckets[2 * bucket + 1];
+                    long[] members = sorted;
+                    if (samples[bucket] != null) {
+                        members = samples[bucket];
+                        start = 0;
+                        end = maxBucketSize;
+                    }
+                    PairBuffer buffer = localBuffer.get();
+                    long compared = 0;
+                    for (int i = start; i < end; i++) {
+                        int u = (int) members[i];
+                        for (int j = i + 1; j < end; j++) {
+                            int v = (int) members[j];
+                            // 排除段哈希碰撞，以及已在前面某段比较过的用户对
+                            if (!sameBand(signatures, u, v, currentBand) || collidedBefore(signatures, unsampled, u, v, currentBand)) {
+                                continue;
+                            }
+                            compared++;
+                            double score = sets.jaccard(u, v);
+                            if (score > minScore) {
+                                buffer.add(u, v, score);
+                            }
+                        }
+                    }
+                    candidates.addAndGet(compared);
+                })).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("MinHash 候选对计算被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("MinHash 候选对计算失败", e.getCause());
+        }
+        if (stats != null) {
+            stats.candidatePairs += candidates.get();
+            stats.cappedBuckets += cappedBuckets.get();
+            for (PairBuffer buffer : buffers) {
+                stats.matchedPairs += buffer.size;
+            }
+        }
+        return selectTopK(users, buffers, k);
+    }
+
+    /**
+     * 把用户对按两端用户展开，每个用户保留得分最高的 k 个。
+     */
+    private static SparseUserSimilarity.Neighbors selectTopK(int users, List<PairBuffer> buffers, int k) {
+        int[] degrees = new int[users + 1];
+        for (PairBuffer buffer : buffers) {
+            for (int p = 0; p < buffer.size; p++) {
+                degrees[buffer.first[p] + 1]++;
+                degrees[buffer.second[p] + 1]++;
+            }
+        }
+        for (int u = 0; u < users; u++) {
+            degrees[u + 1] += degrees[u];
+        }
+        int[] others = new int[degrees[users]];
+        double[] scores = new double[degrees[users]];
+        int[] fill = Arrays.copyOf(degrees, users);
+        for (PairBuffer buffer : buffers) {
+            for (int p = 0; p < buffer.size; p++) {
+                int u = buffer.first[p];
+                int v = buffer.second[p];
+                others[fill[u]] = v;
+                scores[fill[u]++] = buffer.score[p];
+                others[fill[v]] = u;
+                scores[fill[v]++] = buffer.score[p];
+            }
+        }
+        int[][] neighbors = new int[users][];
+        double[][] neighborScores = new double[users][];
+        for (int u = 0; u < users; u++) {
+            int start = degrees[u];
+            int count = degrees[u + 1] - start;
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = start + i;
+            }
+            // 用户编号与 user_id 同序，得分相同时 user_id 小的在前
+            Arrays.sort(order, (x, y) -> scores[x] != scores[y]
+                    ? Double.compare(scores[y], scores[x]) : Integer.compare(others[x], others[y]));
+            int size = Math.min(k, count);
+            neighbors[u] = new int[size];
+            neighborScores[u] = new double[size];
+            for (int i = 0; i < size; i++) {
+                neighbors[u][i] = others[order[i]];
+                neighborScores[u][i] = scores[order[i]];
+            }
+        }
+        return new SparseUserSimilarity.Neighbors(neighbors, neighborScores);
+    }
+
+    /**
+     * 排好序的键中至少含两个用户的桶，第 i 个桶为 [buckets[2i], buckets[2i + 1])。
+     */
+    private static int[] buckets(long[] keys) {
+        int[] buckets = new int[16];
+        int count = 0;
+        int start = 0;
+        for (int i = 1; i <= keys.length; i++) {
+            if (i == keys.length || (keys[i] >>> 32) != (keys[start] >>> 32)) {
+                if (i - start >= 2) {
+                    if (count + 2 > buckets.length) {
+                        buckets = Arrays.copyOf(buckets, buckets.length * 2);
+                    }
+                    buckets[count++] = start;
+                    buckets[count++] = i;
+                }
+                start = i;
+            }
+        }
+        return Arrays.copyOf(buckets, count);
+    }
+
+    /**
+     * 从桶 [start, end) 中抽取 count 个用户（低 32 位为用户编号）：按用户编号与段号的哈希排序取前 count 个，
+     * 结果确定，且各段抽到的用户互不相关。
+     */
+    private static long[] sample(long[] keys, int start, int end, int count, int band) {
+        long[] shuffled = new long[end - start];
+        for (int i = start; i < end; i++) {
+            long u = keys[i] & 0xFFFFFFFFL;
+            long hash = (u + 1) * 0x9E3779B97F4A7C15L + (band + 1) * 0xC2B2AE3D27D4EB4FL;
+            hash = (hash ^ (hash >>> 31)) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 29;
+            shuffled[i - start] = (hash & 0xFFFFFFFF00000000L) | u;
+        }
+        Arrays.sort(shuffled);
+        return Arrays.copyOf(shuffled, count);
+    }
+
+    /**
+     * 用户 u 第 band 段签名的哈希（已混入段号，不同段可共用一张哈希表）。
+     */
+    int bandHash(int[] signatures, int u, int band) {
+        long hash = 0x9E3779B97F4A7C15L * (band + 1);
+        int offset = u * numHashes + band * rows;
+        for (int i = 0; i < rows; i++) {
+            hash = (hash ^ signatures[offset + i]) * 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+        }
+        return (int) hash;
+    }
+
+    boolean sameBand(int[] signatures, int u, int v, int band) {
+        int x = u * numHashes + band * rows;
+        int y = v * numHashes + band * rows;
+        for (int i = 0; i < rows; i++) {
+            if (signatures[x + i] != signatures[y + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 用户对是否已在前面某段比较过：该段签名相同，且两人都参与了该段的比较（所在的桶未超限或都被抽中）。
+     */
+    private boolean collidedBefore(int[] signatures, long[][] unsampled, int u, int v, int band) {
+        for (int earlier = 0; earlier < band; earlier++) {
+            if (sameBand(signatures, u, v, earlier)
+                    && (unsampled[earlier] == null || (!isSet(unsampled[earlier], u) && !isSet(unsampled[earlier], v)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在位图中标记桶 [start, end) 里未被抽中的用户。
+     */
+    private static void markUnsampled(long[] bits, long[] keys, int start, int end, long[] sampled) {
+        for (int i = start; i < end; i++) {
+            int u = (int) keys[i];
+            bits[u >>> 6] |= 1L << u;
+        }
+        for (long key : sampled) {
+            int u = (int) key;
+            bits[u >>> 6] &= ~(1L << u);
+        }
+    }
+
+    private static boolean isSet(long[] bits, int u) {
+        return (bits[u >>> 6] & (1L << u)) != 0;
+    }
+
+    /**
+     * LSH 的统计：精确比较的候选对数、Jaccard 超过阈值的用户对数、被截断的桶数。
+     */
+    static final class Stats {
+        long candidatePairs;
+        long matchedPairs;
+        long cappedBuckets;
+    }
+
+    /**
+     * 单个线程找到的用户对（first < second）。
+     */
+    private static final class PairBuffer {
+        private int[] first = new int[256];
+        private int[] second = new int[256];
+        private double[] score = new double[256];
+        private int size;
+
+        void add(int u, int v, double value) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+                score = Arrays.copyOf(score, size * 2);
+            }
+            first[size] = Math.min(u, v);
+            second[size] = Math.max(u, v);
+            score[size] = value;
+            size++;
+        }
+    }
+}
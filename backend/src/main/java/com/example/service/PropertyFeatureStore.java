@@ -0,0 +1,429 @@
+package com.example.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 房源特征库：把 properties 与 communities 中 JSON 字段里的数值和分类特征解析一次，
+ * 按类型存入 property_feature_vectors 表（每套房源一行），相似度计算与批量估价直接读取，不再逐次解析 JSON。
+ * <ul>
+ *     <li>解析使用 Jackson 流式 API，只读取需要的顶层字段，嵌套对象与数组整体跳过；数值支持负数、小数与科学计数法。</li>
+ *     <li>{@link #sync(boolean)} 按 properties.updated_at 增量同步（新增、修改、下架的房源），full=true 时全部重新解析
+ *     （communities 没有更新时间，修改小区信息后需全量同步）；房源删除时特征行随外键级联删除。</li>
+ *     <li>单套房源写入后可调用 {@link #refresh(int)} 立即更新。</li>
+ * </ul>
+ */
+@Service
+public class PropertyFeatureStore {
+
+    private static final String CREATE_SQL =
+            "CREATE TABLE IF NOT EXISTS property_feature_vectors (" +
+            "property_id int NOT NULL COMMENT '房源ID', " +
+            "status varchar(20) DEFAULT NULL COMMENT '房源状态', " +
+            "city varchar(50) DEFAULT NULL COMMENT '城市', " +
+            "district varchar(50) DEFAULT NULL COMMENT '区县', " +
+            "total_price double DEFAULT NULL COMMENT '总价', " +
+            "unit_price double DEFAULT NULL COMMENT '单价', " +
+            "area double DEFAULT NULL COMMENT '面积', " +
+            "bedroom_count int DEFAULT NULL COMMENT '卧室数', " +
+            "living_room_count int DEFAULT NULL COMMENT '客厅数', " +
+            "floor int DEFAULT NULL COMMENT '所在楼层（数值）', " +
+            "floor_level varchar(20) DEFAULT NULL COMMENT '楼层描述（低/中/高楼层）', " +
+            "total_floors int DEFAULT NULL COMMENT '总楼层', " +
+            "orientation varchar(20) DEFAULT NULL COMMENT '朝向', " +
+            "decoration varchar(20) DEFAULT NULL COMMENT '装修', " +
+            "build_year int DEFAULT NULL COMMENT '建成年份（房源缺失时取小区）', " +
+            "longitude double DEFAULT NULL COMMENT '经度', " +
+            "latitude double DEFAULT NULL COMMENT '纬度', " +
+            "management_fee double DEFAULT NULL COMMENT '物业费', " +
+            "green_ratio double DEFAULT NULL COMMENT '绿化率（小数）', " +
+            "plot_ratio double DEFAULT NULL COMMENT '容积率', " +
+            "parking_spaces int DEFAULT NULL COMMENT '车位数', " +
+            "total_size double DEFAULT NULL COMMENT '小区占地面积', " +
+            "total_households int DEFAULT NULL COMMENT '小区户数', " +
+            "orientation_code double NOT NULL DEFAULT 0 COMMENT '朝向编码', " +
+            "decoration_code double NOT NULL DEFAULT 0 COMMENT '装修编码', " +
+            "district_code double NOT NULL DEFAULT 0 COMMENT '区县编码', " +
+            "floor_ratio double DEFAULT NULL COMMENT '楼层 / 总楼层', " +
+            "price_per_area double DEFAULT NULL COMMENT '总价 / 面积', " +
+            "room_count int DEFAULT NULL COMMENT '卧室数 + 客厅数', " +
+            "source_updated_at timestamp NULL DEFAULT NULL COMMENT '解析时房源的 updated_at', " +
+            "extracted_at timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '解析时间', " +
+            "PRIMARY KEY (property_id), " +
+            "KEY idx_status (status), " +
+            "CONSTRAINT property_feature_vectors_ibfk_1 FOREIGN KEY (property_id) REFERENCES properties (property_id) ON DELETE CASCADE" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='房源类型化特征表（相似度与估价使用）'";
+
+    private static final String SOURCE_SQL =
+            "SELECT p.property_id, p.status, p.updated_at, p.basic_info, p.price_info, p.layout_info, " +
+            "c.basic_info AS community_basic_info, c.location_info, c.facility_info " +
+            "FROM properties p " +
+            "JOIN communities c ON p.community_id = c.community_id ";
+
+    private static final String[] COLUMNS = {
+            "property_id", "status", "city", "district", "total_price", "unit_price", "area",
+            "bedroom_count", "living_room_count", "floor", "floor_level", "total_floors", "orientation", "decoration",
+            "build_year", "longitude", "latitude", "management_fee", "green_ratio", "plot_ratio", "parking_spaces",
+            "total_size", "total_households", "orientation_code", "decoration_code", "district_code",
+            "floor_ratio", "price_per_area", "room_count", "source_updated_at"
+    };
+
+    private static final String UPSERT_SQL = buildUpsertSql();
+
+    private static final Set<String> PROPERTY_BASIC_KEYS = keys("build_year", "decoration");
+    private static final Set<String> PRICE_KEYS = keys("total_price", "unit_price");
+    private static final Set<String> LAYOUT_KEYS = keys("area", "bedroom_count", "living_room_count", "floor",
+            "total_floors", "orientation");
+    private static final Set<String> COMMUNITY_BASIC_KEYS = keys("build_year", "total_size", "total_households");
+    private static final Set<String> LOCATION_KEYS = keys("city", "district", "longitude", "latitude");
+    private static final Set<String> FACILITY_KEYS = keys("management_fee", "green_ratio", "plot_ratio",
+            "parking_spaces");
+
+    private static final Map<String, Double> ORIENTATION_CODES = new HashMap<String, Double>();
+    private static final Map<String, Double> DECORATION_CODES = new HashMap<String, Double>();
+    private static final Map<String, Double> DISTRICT_CODES = new HashMap<String, Double>();
+
+    static {
+        ORIENTATION_CODES.put("south", 1.0);
+        ORIENTATION_CODES.put("southeast", 0.8);
+        ORIENTATION_CODES.put("east", 0.6);
+        ORIENTATION_CODES.put("northeast", 0.4);
+        ORIENTATION_CODES.put("north", 0.2);
+
+        DECORATION_CODES.put("luxury", 1.0);
+        DECORATION_CODES.put("hard", 0.7);
+        DECORATION_CODES.put("simple", 0.4);
+
+        // 基于区域房价水平的编码，其余区县取 0.3
+        DISTRICT_CODES.put("南山区", 1.0);
+        DISTRICT_CODES.put("福田区", 0.9);
+        DISTRICT_CODES.put("宝安区", 0.7);
+        DISTRICT_CODES.put("龙岗区", 0.5);
+        DISTRICT_CODES.put("罗湖区", 0.6);
+    }
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int pageSize;
+    private volatile boolean tableReady;
+
+    @Autowired
+    public PropertyFeatureStore(JdbcTemplate jdbcTemplate,
+                                @Value("${features.sync.page-size:5000}") int pageSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * 同步特征库，返回重新解析的房源数。full=false 时只处理特征库中没有或 updated_at 有变化的房源。
+     */
+    public int sync(boolean full) {
+        ensureTable();
+        long start = System.currentTimeMillis();
+        String sql = SOURCE_SQL +
+                "LEFT JOIN property_feature_vectors f ON f.property_id = p.property_id " +
+                "WHERE p.property_id > ? " +
+                (full ? "" : "AND (f.property_id IS NULL OR NOT (f.source_updated_at <=> p.updated_at)) ") +
+                "ORDER BY p.property_id LIMIT ?";
+        int total = 0;
+        long lastKey = 0;
+        while (true) {
+            List<Object[]> rows = jdbcTemplate.query(sql, new SourceMapper(), lastKey, pageSize);
+            if (rows.isEmpty()) {
+                break;
+            }
+            jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+            total += rows.size();
+            lastKey = ((Number) rows.get(rows.size() - 1)[0]).longValue();
+        }
+        if (total > 0) {
+            System.out.println("房源特征库同步完成：" + (full ? "全量" : "增量") + "解析 " + total + " 套，耗时 "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+        return total;
+    }
+
+    /**
+     * 重新解析单套房源（房源新增或修改后调用），房源不存在时返回 false。
+     */
+    public boolean refresh(int propertyId) {
+        ensureTable();
+        List<Object[]> rows = jdbcTemplate.query(SOURCE_SQL + "WHERE p.property_id = ?", new SourceMapper(), propertyId);
+        if (rows.isEmpty()) {
+            return false;
+        }
+        jdbcTemplate.update(UPSERT_SQL, rows.get(0));
+        return true;
+    }
+
+    /**
+     * 所有在售房源的特征（读取前先增量同步）。
+     */
+    List<PropertyFeatures> loadForSale() {
+        sync(false);
+        return jdbcTemplate.query("SELECT * FROM property_feature_vectors WHERE status = 'for_sale' ORDER BY property_id",
+                new FeaturesMapper());
+    }
+
+    /**
+     * 单套在售房源的特征（读取前先重新解析），房源不存在或不在售时返回 null。
+     */
+    PropertyFeatures loadForSale(int propertyId) {
+        if (!refresh(propertyId)) {
+            return null;
+        }
+        List<PropertyFeatures> rows = jdbcTemplate.query(
+                "SELECT * FROM property_feature_vectors WHERE property_id = ? AND status = 'for_sale'",
+                new FeaturesMapper(), propertyId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * since 之后重新解析过的房源（读取前先增量同步）：仍在售的映射到其特征，已不在售的映射到 null。
+     */
+    Map<Integer, PropertyFeatures> loadChangedSince(Date since) {
+        sync(false);
+        Map<Integer, PropertyFeatures> changed = new HashMap<Integer, PropertyFeatures>();
+        FeaturesMapper mapper = new FeaturesMapper();
+        jdbcTemplate.query("SELECT * FROM property_feature_vectors WHERE extracted_at >= ?",
+                (RowCallbackHandler) rs -> {
+                    PropertyFeatures features = mapper.mapRow(rs, 0);
+                    changed.put(features.propertyId, "for_sale".equals(rs.getString("status")) ? features : null);
+                }, since);
+        return changed;
+    }
+
+    /**
+     * 给定房源中当前在售的（直接读 properties，不依赖特征表是否已同步）。
+     */
+    Set<Integer> forSaleIds(Collection<Integer> propertyIds) {
+        Set<Integer> forSale = new HashSet<Integer>();
+        if (propertyIds.isEmpty()) {
+            return forSale;
+        }
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < propertyIds.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        forSale.addAll(jdbcTemplate.queryForList(
+                "SELECT property_id FROM properties WHERE status = 'for_sale' AND property_id IN (" + placeholders + ")",
+                Integer.class, propertyIds.toArray()));
+        return forSale;
+    }
+
+    /**
+     * 确保特征表存在，供直接读表的任务（如批量估价）在读取前调用。
+     */
+    void ensureTable() {
+        if (!tableReady) {
+            jdbcTemplate.execute(CREATE_SQL);
+            tableReady = true;
+        }
+    }
+
+    /**
+     * 把一行源数据解析为特征表的一行（列顺序同 COLUMNS），缺失值为 null。
+     */
+    private static final class SourceMapper implements RowMapper<Object[]> {
+        @Override
+        public Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+            Map<String, Object> basic = readTopLevel(rs.getString("basic_info"), PROPERTY_BASIC_KEYS);
+            Map<String, Object> price = readTopLevel(rs.getString("price_info"), PRICE_KEYS);
+            Map<String, Object> layout = readTopLevel(rs.getString("layout_info"), LAYOUT_KEYS);
+            Map<String, Object> community = readTopLevel(rs.getString("community_basic_info"), COMMUNITY_BASIC_KEYS);
+            Map<String, Object> location = readTopLevel(rs.getString("location_info"), LOCATION_KEYS);
+            Map<String, Object> facility = readTopLevel(rs.getString("facility_info"), FACILITY_KEYS);
+
+            Double totalPrice = number(price.get("total_price"));
+            Double area = number(layout.get("area"));
+            Integer bedrooms = integer(layout.get("bedroom_count"));
+            Integer livingRooms = integer(layout.get("living_room_count"));
+            Integer totalFloors = integer(layout.get("total_floors"));
+            // 楼层可能是具体层数，也可能是“低/中/高楼层”
+            Object floorValue = layout.get("floor");
+            Integer floor = integer(floorValue);
+            String floorLevel = floor == null && floorValue instanceof String ? (String) floorValue : null;
+            Integer buildYear = integer(basic.get("build_year"));
+            if (buildYear == null) {
+                buildYear = integer(community.get("build_year"));
+            }
+            String orientation = text(layout.get("orientation"));
+            String decoration = text(basic.get("decoration"));
+            String district = text(location.get("district"));
+
+            return new Object[]{
+                    rs.getInt("property_id"),
+                    rs.getString("status"),
+                    text(location.get("city")),
+                    district,
+                    totalPrice,
+                    number(price.get("unit_price")),
+                    area,
+                    bedrooms,
+                    livingRooms,
+                    floor,
+                    floorLevel,
+                    totalFloors,
+                    orientation,
+                    decoration,
+                    buildYear,
+                    number(location.get("longitude")),
+                    number(location.get("latitude")),
+                    number(facility.get("management_fee")),
+                    number(facility.get("green_ratio")),
+                    number(facility.get("plot_ratio")),
+                    integer(facility.get("parking_spaces")),
+                    number(community.get("total_size")),
+                    integer(community.get("total_households")),
+                    code(ORIENTATION_CODES, orientation, 0.0),
+                    code(DECORATION_CODES, decoration, 0.0),
+                    code(DISTRICT_CODES, district, 0.3),
+                    (double) (floor != null ? floor : 0) / Math.max(1, totalFloors != null ? totalFloors : 0),
+                    (totalPrice != null ? totalPrice : 0.0) / Math.max(1, area != null ? area : 0.0),
+                    (bedrooms != null ? bedrooms : 0) + (livingRooms != null ? livingRooms : 0),
+                    rs.getTimestamp("updated_at")
+            };
+        }
+    }
+
+    private static final class FeaturesMapper implements RowMapper<PropertyFeatures> {
+        @Override
+        public PropertyFeatures mapRow(ResultSet rs, int rowNum) throws SQLException {
+            PropertyFeatures features = new PropertyFeatures();
+            features.propertyId = rs.getInt("property_id");
+            features.totalPrice = rs.getDouble("total_price");
+            features.unitPrice = rs.getDouble("unit_price");
+            features.area = rs.getDouble("area");
+            features.bedroomCount = rs.getInt("bedroom_count");
+            features.livingRoomCount = rs.getInt("living_room_count");
+            features.floor = rs.getInt("floor");
+            features.totalFloors = rs.getInt("total_floors");
+            features.orientationCode = rs.getDouble("orientation_code");
+            features.decorationCode = rs.getDouble("decoration_code");
+            features.buildYear = rs.getInt("build_year");
+            features.districtCode = rs.getDouble("district_code");
+            features.longitude = rs.getDouble("longitude");
+            features.latitude = rs.getDouble("latitude");
+            features.managementFee = rs.getDouble("management_fee");
+            features.greenRatio = rs.getDouble("green_ratio");
+            features.parkingSpaces = rs.getInt("parking_spaces");
+            features.floorRatio = rs.getDouble("floor_ratio");
+            features.pricePerArea = rs.getDouble("price_per_area");
+            features.roomCount = rs.getInt("room_count");
+            return features;
+        }
+    }
+
+    /**
+     * 流式读取 JSON 对象的顶层字段，只保留 wanted 中的键；数值为 Double，字符串为 String，嵌套对象与数组整体跳过。
+     * 不是合法 JSON 对象时返回已读到的部分。
+     */
+    static Map<String, Object> readTopLevel(String json, Set<String> wanted) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        if (json == null || json.isEmpty()) {
+            return values;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return values;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                } else if (wanted.contains(name)) {
+                    if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                        values.put(name, parser.getDoubleValue());
+                    } else if (token == JsonToken.VALUE_STRING) {
+                        values.put(name, parser.getText());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // 保留出错前已读取的字段
+        }
+        return values;
+    }
+
+    private static Double number(Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        if (value instanceof String) {
+            try {
+                double parsed = Double.parseDouble(((String) value).trim());
+                return Double.isNaN(parsed) || Double.isInfinite(parsed) ? null : parsed;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Integer integer(Object value) {
+        Double number = number(value);
+        return number == null ? null : (int) Math.round(number);
+    }
+
+    private static String text(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String text = value instanceof Double && ((Double) value) == Math.rint((Double) value)
+                ? String.valueOf(((Double) value).longValue()) : value.toString();
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static double code(Map<String, Double> codes, String value, double unknown) {
+        if (value == null) {
+            return unknown;
+        }
+        Double code = codes.get(value.trim().toLowerCase());
+        if (code == null) {
+            code = codes.get(value.trim());
+        }
+        return code != null ? code : unknown;
+    }
+
+    private static Set<String> keys(String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+
+    private static String buildUpsertSql() {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        StringBuilder updates = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String column = COLUMNS[i];
+            columns.append(i == 0 ? "" : ", ").append(column);
+            values.append(i == 0 ? "?" : ", ?");
+            if (i > 0) {
+                updates.append(i == 1 ? "" : ", ").append(column).append(" = VALUES(").append(column).append(")");
+            }
+        }
+        return "INSERT INTO property_feature_vectors (" + columns + ") VALUES (" + values + ") " +
+                "ON DUPLICATE KEY UPDATE " + updates;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.service;
+
+/**
+ * 特征库中一套房源的数值特征（缺失值为 0），分类特征已编码为数值。
+ */
+final class PropertyFeatures {
+    int propertyId;
+    double totalPrice;
+    double unitPrice;
+    double area;
+    int bedroomCount;
+    int livingRoomCount;
+    int floor;
+    int totalFloors;
+    double orientationCode;
+    double decorationCode;
+    int buildYear;
+    double districtCode;
+    double longitude;
+    double latitude;
+    double managementFee;
+    double greenRatio;
+    int parkingSpaces;
+    double floorRatio;
+    double pricePerArea;
+    int roomCount;
+
+    /**
+     * 参与内容相似度计算的特征（未归一化），顺序即特征矩阵各列的顺序。
+     */
+    double[] similarityVector() {
+        return new double[]{
+                totalPrice, unitPrice, area, bedroomCount,
+                livingRoomCount, floor, totalFloors, buildYear,
+                managementFee, greenRatio, parkingSpaces,
+                floorRatio, pricePerArea, roomCount
+        };
+    }
+}
@@ -5,327 +5,590 @@ import org.springframework.stereotype.Service;
 import org.apache.spark.sql.SparkSession;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
-import org.apache.spark.sql.RowFactory;
-import org.apache.spark.sql.types.StructType;
-import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.functions;
 import org.apache.spark.ml.feature.VectorAssembler;
 import org.apache.spark.ml.feature.MinMaxScaler;
+import org.apache.spark.ml.feature.MinMaxScalerModel;
 import org.apache.spark.ml.feature.StandardScaler;
 import org.apache.spark.ml.linalg.DenseVector;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.concurrent.ForkJoinPool;
 
 @Service
 public class PropertySimilarityService {
     
+    private static final String SIMILARITY_JOB = "property_similarity";
+    
+    /** 内容相似度的算法名：全量/增量 Top-K 与旧的阈值模式，整表替换时一并替换 */
+    private static final List<String> CONTENT_ALGORITHMS = Arrays.asList("cosine_topk", "cosine_vector");
+    
+    /** 协同过滤每批并行统计的房源数，统计完一批即写库 */
+    private static final int CF_ITEM_CHUNK = 2048;
+    
+    /** 参与相似度计算的数值特征列，顺序即向量各维的顺序 */
+    private static final String[] FEATURE_COLUMNS = new String[]{
+        "total_price", "unit_price", "area", "bedroom_count", 
+        "living_room_count", "floor", "total_floors", "build_year",
+        "management_fee", "green_ratio", "parking_spaces",
+        "floor_ratio", "price_per_area", "room_count"
+    };
+    
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
     @Autowired
     private SparkSession sparkSession;
     
+    @Autowired
+    private PropertyFeatureStore featureStore;
+    
+    @Autowired
+    private FeatureMatrixService featureMatrixService;
+    
+    @Autowired
+    private SimilarityTableWriter tableWriter;
+    
+    @Autowired
+    private SparkJdbcReader sparkJdbcReader;
+    
+    /** 每个房源保留的最相似邻居数；为 0 时退回旧的全量两两比较（保留所有相似度大于 0.3 的房源对） */
+    @Value("${similarity.property.top-k:20}")
+    private int topK;
+    
+    /** Top-K 计算的并行度，0 表示使用全部 CPU 核 */
+    @Value("${similarity.property.parallelism:0}")
+    private int parallelism;
+    
+    /** Top-K 模式下邻居的最低相似度 */
+    @Value("${similarity.property.min-score:0.3}")
+    private double minScore;
+    
+    /** 候选分块半径（公里）：只比较 geohash 格子相邻的房源，0 表示不分块、与全部房源比较 */
+    @Value("${similarity.blocking.radius-km:5}")
+    private double blockingRadiusKm;
+    
+    /** 分块时是否只比较同区县的房源 */
+    @Value("${similarity.blocking.same-district:false}")
+    private boolean blockingSameDistrict;
+    
+    /** 分块时总价相差的最大倍数，不大于 1 表示不限制 */
+    @Value("${similarity.blocking.price-band:0}")
+    private double blockingPriceBand;
+    
+    /** 全量计算后抽样评估分块召回率的房源数，0 表示不评估 */
+    @Value("${similarity.blocking.recall-sample:200}")
+    private int blockingRecallSample;
+    
+    /** 最近一次全量计算的分块报告 */
+    private volatile Map<String, Object> blockingReport;
+    
+    /** 协同过滤时每个用户最多计入的房源数（按浏览次数取前若干套），0 表示不限制 */
+    @Value("${similarity.cf.max-items-per-user:200}")
+    private int cfMaxItemsPerUser;
+    
     /**
      * 基于房源特征计算相似度
      */
     public void calculatePropertySimilarity() {
         System.out.println("开始计算房源相似度...");
+        Date runStart = currentDatabaseTime();
+        long processed;
         
-        // 1. 获取房源数据
-        String sql = "SELECT p.property_id, p.community_id, " +
-                    "p.basic_info, p.price_info, p.layout_info, " +
-                    "c.location_info, c.facility_info " +
-                    "FROM properties p " +
-                    "JOIN communities c ON p.community_id = c.community_id " +
-                    "WHERE p.status = 'for_sale'";
-        
-        List<Map<String, Object>> properties = jdbcTemplate.queryForList(sql);
-        
-        // 2. 提取特征向量
-        List<PropertyFeatures> featuresList = extractPropertyFeatures(properties);
-        
-        // 3. 转换为Spark DataFrame
-        Dataset<Row> featuresDF = convertToDataFrame(featuresList);
-        
-        // 4. 特征标准化
-        featuresDF = normalizeFeatures(featuresDF);
-        
-        // 5. 计算相似度矩阵
-        calculateAndSaveSimilarities(featuresDF, featuresList);
-        
-        System.out.println("房源相似度计算完成");
-    }
-    
-    private List<PropertyFeatures> extractPropertyFeatures(List<Map<String, Object>> properties) {
-        List<PropertyFeatures> featuresList = new ArrayList<>();
-        
-        for (Map<String, Object> prop : properties) {
-            PropertyFeatures features = new PropertyFeatures();
-            features.propertyId = (Integer) prop.get("property_id");
-            
-            // 解析JSON数据
-            String basicInfo = (String) prop.get("basic_info");
-            String priceInfo = (String) prop.get("price_info");
-            String layoutInfo = (String) prop.get("layout_info");
-            String locationInfo = (String) prop.get("location_info");
-            String facilityInfo = (String) prop.get("facility_info");
-            
-            // 提取数值特征
-            features.totalPrice = extractDouble(priceInfo, "total_price");
-            features.unitPrice = extractDouble(priceInfo, "unit_price");
-            features.area = extractDouble(layoutInfo, "area");
-            features.bedroomCount = extractInt(layoutInfo, "bedroom_count");
-            features.livingRoomCount = extractInt(layoutInfo, "living_room_count");
-            features.floor = extractInt(layoutInfo, "floor");
-            features.totalFloors = extractInt(layoutInfo, "total_floors");
+        if (topK > 0) {
+            // 1-4. 从特征库重建归一化后的内存映射特征矩阵（读取前增量同步有变化的房源）
+            FeatureMatrix matrix = featureMatrixService.rebuild();
             
-            // 提取分类特征（one-hot编码）
-            features.orientation = extractOrientation(layoutInfo);
-            features.decoration = extractDecoration(basicInfo);
-            features.buildYear = extractInt(basicInfo, "build_year");
+            // 5. 计算相似度矩阵
+            calculateAndSaveTopK(matrix);
+            processed = matrix.rows();
+        } else {
+            // 1-2. 增量同步特征库，再由 Spark 按 property_id 分区读取在售房源的特征
+            featureStore.sync(false);
+            Dataset<Row> featuresDF = loadFeaturesDataFrame();
             
-            // 地理位置特征
-            features.district = extractDistrict(locationInfo);
-            features.longitude = extractDouble(locationInfo, "longitude");
-            features.latitude = extractDouble(locationInfo, "latitude");
+            // 3-4. 特征标准化（在各分区上并行组装、归一化）
+            featuresDF = normalizeFeatures(featuresDF);
             
-            // 小区特征
-            features.managementFee = extractDouble(facilityInfo, "management_fee");
-            features.greenRatio = extractDouble(facilityInfo, "green_ratio");
-            features.parkingSpaces = extractInt(facilityInfo, "parking_spaces");
-            
-            // 特征工程：计算衍生特征
-            features.floorRatio = (double) features.floor / Math.max(1, features.totalFloors);
-            features.pricePerArea = features.totalPrice / Math.max(1, features.area);
-            features.roomCount = features.bedroomCount + features.livingRoomCount;
-            
-            featuresList.add(features);
+            // 5. 计算相似度矩阵
+            processed = calculateAndSaveSimilarities(featuresDF);
         }
         
-        return featuresList;
+        // 6. 记录水位线，之后可增量计算
+        saveWatermark(runStart, processed);
+        
+        System.out.println("房源相似度计算完成");
     }
     
-    private double extractDouble(String json, String key) {
-        if (json == null) return 0.0;
-        Pattern pattern = Pattern.compile("\"" + key + "\":\\s*(\\d+\\.?\\d*)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            return Double.parseDouble(matcher.group(1));
+    /**
+     * 分区读取 property_feature_vectors 中的在售房源，列与 FEATURE_COLUMNS 一致；缺失值按 0 处理，与特征库读取时相同。
+     */
+    private Dataset<Row> loadFeaturesDataFrame() {
+        List<Column> columns = new ArrayList<>();
+        columns.add(functions.col("property_id").cast(DataTypes.DoubleType).alias("property_id"));
+        for (String name : FEATURE_COLUMNS) {
+            columns.add(functions.coalesce(functions.col(name).cast(DataTypes.DoubleType), functions.lit(0.0)).alias(name));
         }
-        return 0.0;
+        return sparkJdbcReader.read("property_feature_vectors", "property_id")
+            .where(functions.col("status").equalTo("for_sale"))
+            .select(columns.toArray(new Column[0]));
     }
     
-    private int extractInt(String json, String key) {
-        if (json == null) return 0;
-        Pattern pattern = Pattern.compile("\"" + key + "\":\\s*(\\d+)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            return Integer.parseInt(matcher.group(1));
-        }
-        return 0;
+    private Dataset<Row> normalizeFeatures(Dataset<Row> df) {
+        Dataset<Row> assembled = assembleFeatures(df);
+        return fitScaler(assembled).transform(assembled);
     }
     
-    private String extractOrientation(String layoutInfo) {
-        // 简化处理，实际应该用JSON解析
-        if (layoutInfo == null) return "unknown";
-        if (layoutInfo.contains("south")) return "south";
-        if (layoutInfo.contains("north")) return "north";
-        if (layoutInfo.contains("east")) return "east";
-        if (layoutInfo.contains("west")) return "west";
-        return "unknown";
+    private Dataset<Row> assembleFeatures(Dataset<Row> df) {
+        // 选择数值型特征列
+        VectorAssembler assembler = new VectorAssembler()
+            .setInputCols(FEATURE_COLUMNS)
+            .setOutputCol("raw_features");
+        
+        return assembler.transform(df);
     }
     
-    private String extractDecoration(String basicInfo) {
-        if (basicInfo == null) return "unknown";
-        if (basicInfo.contains("luxury")) return "luxury";
-        if (basicInfo.contains("hard")) return "hard";
-        if (basicInfo.contains("simple")) return "simple";
-        return "unknown";
+    private MinMaxScalerModel fitScaler(Dataset<Row> assembled) {
+        // 使用MinMaxScaler归一化
+        MinMaxScaler scaler = new MinMaxScaler()
+            .setInputCol("raw_features")
+            .setOutputCol("scaled_features")
+            .setMin(0.0)
+            .setMax(1.0);
+        
+        return scaler.fit(assembled);
     }
     
-    private String extractDistrict(String locationInfo) {
-        if (locationInfo == null) return "unknown";
-        Pattern pattern = Pattern.compile("\"district\":\\s*\"([^\"]+)\"");
-        Matcher matcher = pattern.matcher(locationInfo);
-        if (matcher.find()) {
-            return matcher.group(1);
-        }
-        return "unknown";
+    /**
+     * 单套在售房源未归一化的特征（列顺序同特征矩阵），房源不存在或不在售时返回 null。
+     */
+    public double[] loadRawFeatures(int propertyId) {
+        PropertyFeatures f = featureStore.loadForSale(propertyId);
+        return f == null ? null : f.similarityVector();
     }
     
-    private Dataset<Row> convertToDataFrame(List<PropertyFeatures> featuresList) {
-        List<Row> rows = new ArrayList<>();
+    private long calculateAndSaveSimilarities(Dataset<Row> featuresDF) {
+        // 收集特征向量
+        List<Row> rows = featuresDF.select("property_id", "scaled_features").collectAsList();
+        Map<Integer, DenseVector> propertyVectors = new HashMap<>();
         
-        for (PropertyFeatures features : featuresList) {
-            rows.add(RowFactory.create(
-                (double) features.propertyId,
-                features.totalPrice,
-                features.unitPrice,
-                features.area,
-                (double) features.bedroomCount,
-                (double) features.livingRoomCount,
-                (double) features.floor,
-                (double) features.totalFloors,
-                encodeOrientation(features.orientation),
-                encodeDecoration(features.decoration),
-                (double) features.buildYear,
-                encodeDistrict(features.district),
-                features.longitude,
-                features.latitude,
-                features.managementFee,
-                features.greenRatio,
-                (double) features.parkingSpaces,
-                features.floorRatio,
-                features.pricePerArea,
-                (double) features.roomCount
-            ));
+        for (Row row : rows) {
+            int propertyId = (int) row.getDouble(0);
+            DenseVector vector = (DenseVector) row.get(1);
+            propertyVectors.put(propertyId, vector);
         }
         
-        // 创建schema
-        StructType schema = DataTypes.createStructType(new StructField[]{
-            DataTypes.createStructField("property_id", DataTypes.DoubleType, false),
-            DataTypes.createStructField("total_price", DataTypes.DoubleType, false),
-            DataTypes.createStructField("unit_price", DataTypes.DoubleType, false),
-            DataTypes.createStructField("area", DataTypes.DoubleType, false),
-            DataTypes.createStructField("bedroom_count", DataTypes.DoubleType, false),
-            DataTypes.createStructField("living_room_count", DataTypes.DoubleType, false),
-            DataTypes.createStructField("floor", DataTypes.DoubleType, false),
-            DataTypes.createStructField("total_floors", DataTypes.DoubleType, false),
-            DataTypes.createStructField("orientation", DataTypes.DoubleType, false),
-            DataTypes.createStructField("decoration", DataTypes.DoubleType, false),
-            DataTypes.createStructField("build_year", DataTypes.DoubleType, false),
-            DataTypes.createStructField("district", DataTypes.DoubleType, false),
-            DataTypes.createStructField("longitude", DataTypes.DoubleType, false),
-            DataTypes.createStructField("latitude", DataTypes.DoubleType, false),
-            DataTypes.createStructField("management_fee", DataTypes.DoubleType, false),
-            DataTypes.createStructField("green_ratio", DataTypes.DoubleType, false),
-            DataTypes.createStructField("parking_spaces", DataTypes.DoubleType, false),
-            DataTypes.createStructField("floor_ratio", DataTypes.DoubleType, false),
-            DataTypes.createStructField("price_per_area", DataTypes.DoubleType, false),
-            DataTypes.createStructField("room_count", DataTypes.DoubleType, false)
-        });
+        // 计算相似度，结果写入暂存文件后整表替换
+        List<Integer> propertyIds = new ArrayList<>(propertyVectors.keySet());
         
-        return sparkSession.createDataFrame(rows, schema);
-    }
-    
-    private double encodeOrientation(String orientation) {
-        switch (orientation) {
-            case "south": return 1.0;
-            case "southeast": return 0.8;
-            case "east": return 0.6;
-            case "northeast": return 0.4;
-            case "north": return 0.2;
-            default: return 0.0;
+        try (SimilarityTableWriter.Replacement replacement =
+                 tableWriter.replace(SimilarityTableWriter.PROPERTY, CONTENT_ALGORITHMS)) {
+            for (int i = 0; i < propertyIds.size(); i++) {
+                for (int j = i + 1; j < propertyIds.size(); j++) {
+                    int prop1 = propertyIds.get(i);
+                    int prop2 = propertyIds.get(j);
+                    
+                    DenseVector vec1 = propertyVectors.get(prop1);
+                    DenseVector vec2 = propertyVectors.get(prop2);
+                    
+                    double similarity = cosineSimilarity(vec1, vec2);
+                    
+                    // 只保存有意义的相似度
+                    if (similarity > 0.3) {
+                        replacement.add(prop1, prop2, similarity, "cosine_vector", null, null);
+                    }
+                }
+            }
+            replacement.commit();
         }
+        return propertyIds.size();
     }
     
-    private double encodeDecoration(String decoration) {
-        switch (decoration) {
-            case "luxury": return 1.0;
-            case "hard": return 0.7;
-            case "simple": return 0.4;
-            default: return 0.0;
+    /**
+     * 每个房源只保存最相似的 topK 个邻居（property_id1 为房源本身，property_id2 为邻居），
+     * 结果条数为 O(n·K)。结果整表替换原有的内容相似度记录，不会与旧结果混在一起。
+     */
+    private void calculateAndSaveTopK(FeatureMatrix matrix) {
+        int n = matrix.rows();
+        if (n < 2) {
+            return;
         }
-    }
-    
-    private double encodeDistrict(String district) {
-        // 简化处理，实际应该根据地区热度编码
-        Map<String, Double> districtMap = new HashMap<>();
-        districtMap.put("南山区", 1.0);
-        districtMap.put("福田区", 0.9);
-        districtMap.put("宝安区", 0.7);
-        districtMap.put("龙岗区", 0.5);
-        districtMap.put("罗湖区", 0.6);
         
-        return districtMap.getOrDefault(district, 0.3);
+        long startTime = System.currentTimeMillis();
+        int threads = threads();
+        SimilarityBlocking blocking = buildBlocking(matrix);
+        double[] inverseNorms = TopKSimilarity.inverseNorms(matrix);
+        TopKSimilarity.Neighbors neighbors = TopKSimilarity.compute(matrix, inverseNorms, null, blocking, topK,
+                minScore, threads);
+        System.out.println("Top-" + topK + " 相似度计算完成: 房源 " + n + " 套, 线程 " + threads
+                + (blocking != null ? ", 分块半径 " + blockingRadiusKm + "km" : "")
+                + ", 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+        if (blocking != null) {
+            blockingReport = evaluateBlocking(matrix, inverseNorms, blocking, neighbors, threads);
+            System.out.println("候选分块报告: " + blockingReport);
+        }
+        
+        try (SimilarityTableWriter.Replacement replacement =
+                 tableWriter.replace(SimilarityTableWriter.PROPERTY, CONTENT_ALGORITHMS)) {
+            for (int row = 0; row < n; row++) {
+                int source = matrix.propertyId(row);
+                int[] indices = neighbors.sortedIndices(row);
+                double[] scores = neighbors.sortedScores(row);
+                for (int rank = 0; rank < indices.length; rank++) {
+                    replacement.add(source, matrix.propertyId(indices[rank]), scores[rank], "cosine_topk", rank + 1, null);
+                }
+            }
+            replacement.commit();
+            System.out.println("Top-" + topK + " 相似度已保存 " + replacement.rows() + " 条");
+        }
     }
     
-    private Dataset<Row> normalizeFeatures(Dataset<Row> df) {
-        // 选择数值型特征列
-        String[] featureCols = new String[]{
-            "total_price", "unit_price", "area", "bedroom_count", 
-            "living_room_count", "floor", "total_floors", "build_year",
-            "management_fee", "green_ratio", "parking_spaces",
-            "floor_ratio", "price_per_area", "room_count"
-        };
+    /**
+     * 增量计算房源相似度：只处理上次计算以来 updated_at 有变化的房源（新增、修改、下架）。
+     * <ul>
+     *     <li>下架房源相关的记录直接删除；</li>
+     *     <li>需要重算 Top-K 的行：变化的在售房源本身、当前邻居中含有变化房源的行，
+     *     以及与某个变化房源的相似度超过自身第 K 名的行；其余行保持不变。</li>
+     * </ul>
+     * 计算量为 O((变化数 + 受影响行数) × n)，开启候选分块时只与候选行比较。归一化仍按当前全部在售房源拟合，未受影响的行沿用旧分数，
+     * 特征范围明显变化后应再做一次全量计算。仅支持 Top-K 模式，阈值模式或没有水位线时退回全量计算。
+     */
+    public void calculatePropertySimilarityIncremental() {
+        if (topK <= 0) {
+            System.out.println("阈值模式不支持增量计算，改为全量计算");
+            calculatePropertySimilarity();
+            return;
+        }
+        jdbcTemplate.execute(MassAppraisalService.CREATE_CHECKPOINTS_SQL);
+        Timestamp watermark = loadWatermark();
+        if (watermark != null && !tableWriter.hasTypedColumns(SimilarityTableWriter.PROPERTY)) {
+            System.out.println("房源相似度表仍是旧结构，先做一次全量计算完成迁移");
+            calculatePropertySimilarity();
+            return;
+        }
+        if (watermark == null) {
+            System.out.println("未找到房源相似度水位线，先做一次全量计算");
+            calculatePropertySimilarity();
+            return;
+        }
         
-        // 使用MinMaxScaler归一化
-        VectorAssembler assembler = new VectorAssembler()
-            .setInputCols(featureCols)
-            .setOutputCol("raw_features");
+        Date runStart = currentDatabaseTime();
+        List<Map<String, Object>> changed = jdbcTemplate.queryForList(
+            "SELECT property_id, status FROM properties WHERE updated_at >= ?", watermark);
+        if (changed.isEmpty()) {
+            saveWatermark(runStart, 0);
+            System.out.println("自 " + watermark + " 以来没有房源变化，无需重算相似度");
+            return;
+        }
+        Set<Integer> changedIds = new HashSet<>();
+        List<Integer> soldIds = new ArrayList<>();
+        for (Map<String, Object> row : changed) {
+            int propertyId = ((Number) row.get("property_id")).intValue();
+            changedIds.add(propertyId);
+            if (!"for_sale".equals(row.get("status"))) {
+                soldIds.add(propertyId);
+            }
+        }
         
-        Dataset<Row> assembled = assembler.transform(df);
+        long startTime = System.currentTimeMillis();
+        // 读共享矩阵并叠加其构建后变化的房源，不重写矩阵文件（重写只在全量计算中做）
+        FeatureMatrix matrix = featureMatrixService.currentWithChanges();
+        int n = matrix.rows();
+        List<Integer> changedRowList = new ArrayList<>();
+        for (Integer propertyId : changedIds) {
+            int row = matrix.rowOf(propertyId);
+            if (row >= 0) {
+                changedRowList.add(row);
+            }
+        }
+        int[] changedRows = toIntArray(changedRowList);
+        int threads = threads();
+        double[] inverseNorms = TopKSimilarity.inverseNorms(matrix);
+        SimilarityBlocking blocking = buildBlocking(matrix);
+        
+        // 需要重算的行：变化的房源本身 + 邻居中有变化房源的行 + 可能被变化房源挤入 Top-K 的行
+        Set<Integer> affected = new HashSet<>();
+        for (int row : changedRows) {
+            affected.add(matrix.propertyId(row));
+        }
+        affected.addAll(findSourcesPointingTo(new ArrayList<>(changedIds)));
+        Map<Integer, Double> thresholds = loadTopKThresholds();
+        double[] best = TopKSimilarity.maxSimilarity(matrix, inverseNorms, changedRows, blocking, threads);
+        for (int i = 0; i < n; i++) {
+            Double threshold = thresholds.get(matrix.propertyId(i));
+            if (best[i] > minScore && best[i] > (threshold != null ? threshold : minScore)) {
+                affected.add(matrix.propertyId(i));
+            }
+        }
         
-        MinMaxScaler scaler = new MinMaxScaler()
-            .setInputCol("raw_features")
-            .setOutputCol("scaled_features")
-            .setMin(0.0)
-            .setMax(1.0);
+        int removed = deleteSimilaritiesOf(soldIds);
         
-        return scaler.fit(assembled).transform(assembled);
+        List<Integer> queryRowList = new ArrayList<>();
+        for (Integer propertyId : affected) {
+            int row = matrix.rowOf(propertyId);
+            if (row >= 0) {
+                queryRowList.add(row);
+            }
+        }
+        int[] queryRows = toIntArray(queryRowList);
+        TopKSimilarity.Neighbors neighbors = TopKSimilarity.compute(matrix, inverseNorms, queryRows, blocking, topK,
+                minScore, threads);
+        long saved = saveTopKRows(matrix, queryRows, neighbors);
+        saveWatermark(runStart, changed.size());
+        
+        System.out.println("房源相似度增量计算完成: 变化 " + changed.size() + " 套（下架 " + soldIds.size() + "）, 重算 "
+                + queryRows.length + "/" + n + " 行, 保存 " + saved + " 条, 删除下架记录 " + removed + " 条, 耗时 "
+                + (System.currentTimeMillis() - startTime) + "ms");
     }
     
-    private void calculateAndSaveSimilarities(Dataset<Row> featuresDF, 
-                                             List<PropertyFeatures> featuresList) {
-        // 收集特征向量
-        List<Row> rows = featuresDF.select("property_id", "scaled_features").collectAsList();
-        Map<Integer, DenseVector> propertyVectors = new HashMap<>();
-        
-        for (Row row : rows) {
-            int propertyId = (int) row.getDouble(0);
-            DenseVector vector = (DenseVector) row.get(1);
-            propertyVectors.put(propertyId, vector);
+    /**
+     * 最近一次全量计算的候选分块报告：剪掉的房源对数，以及抽样房源与不分块的精确 Top-K 相比的召回率。
+     */
+    public Map<String, Object> getBlockingReport() {
+        Map<String, Object> report = blockingReport;
+        if (report == null) {
+            Map<String, Object> empty = new HashMap<>();
+            empty.put("enabled", blockingRadiusKm > 0);
+            empty.put("message", "尚未进行过分块的全量相似度计算");
+            return empty;
         }
-        
-        // 计算相似度
+        return new LinkedHashMap<>(report);
+    }
+    
+    /**
+     * 按特征库中的坐标、区县与总价为矩阵各行建立候选分块；半径不大于 0 时返回 null（不分块）。
+     */
+    private SimilarityBlocking buildBlocking(FeatureMatrix matrix) {
+        if (blockingRadiusKm <= 0) {
+            return null;
+        }
+        SimilarityBlocking.Builder builder = new SimilarityBlocking.Builder(matrix.rows());
+        jdbcTemplate.query(
+            "SELECT property_id, longitude, latitude, district, total_price FROM property_feature_vectors " +
+            "WHERE status = 'for_sale'",
+            (RowCallbackHandler) rs -> {
+                int row = matrix.rowOf(rs.getInt("property_id"));
+                if (row >= 0) {
+                    builder.set(row, nullableDouble(rs, "longitude"), nullableDouble(rs, "latitude"),
+                        rs.getString("district"), nullableDouble(rs, "total_price"));
+                }
+            });
+        return builder.build(blockingRadiusKm, blockingSameDistrict, blockingPriceBand);
+    }
+    
+    /**
+     * 统计分块剪掉的房源对，并抽样若干行做不分块的精确 Top-K，比较两者邻居的重合比例（recall@K）。
+     */
+    private Map<String, Object> evaluateBlocking(FeatureMatrix matrix, double[] inverseNorms,
+                                                 SimilarityBlocking blocking, TopKSimilarity.Neighbors blocked,
+                                                 int threads) {
+        int n = matrix.rows();
+        long totalPairs = (long) n * (n - 1);
+        long candidatePairs = blocking.candidatePairs();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("radiusKm", blockingRadiusKm);
+        report.put("sameDistrict", blockingSameDistrict);
+        report.put("priceBand", blockingPriceBand);
+        report.put("geohashBits", blocking.bits());
+        report.put("cellHeightKm", Math.round(blocking.cellHeightKm() * 100) / 100.0);
+        report.put("cellWidthKm", Math.round(blocking.cellWidthKm() * 100) / 100.0);
+        report.put("cells", blocking.cells());
+        report.put("properties", n);
+        report.put("totalPairs", totalPairs);
+        report.put("candidatePairs", candidatePairs);
+        report.put("prunedPairs", totalPairs - candidatePairs);
+        report.put("prunedRatio", totalPairs > 0
+            ? Math.round((totalPairs - candidatePairs) * 10000.0 / totalPairs) / 10000.0 : 0.0);
+        
+        if (blockingRecallSample > 0) {
+            int step = Math.max(1, n / blockingRecallSample);
+            List<Integer> sample = new ArrayList<>();
+            for (int i = 0; i < n && sample.size() < blockingRecallSample; i += step) {
+                sample.add(i);
+            }
+            int[] sampleRows = toIntArray(sample);
+            TopKSimilarity.Neighbors exact = TopKSimilarity.compute(matrix, inverseNorms, sampleRows, null, topK,
+                    minScore, threads);
+            long expected = 0;
+            long hits = 0;
+            for (int position = 0; position < sampleRows.length; position++) {
+                Set<Integer> found = new HashSet<>();
+                for (int j : blocked.sortedIndices(sampleRows[position])) {
+                    found.add(j);
+                }
+                for (int j : exact.sortedIndices(position)) {
+                    expected++;
+                    if (found.contains(j)) {
+                        hits++;
+                    }
+                }
+            }
+            double recall = expected > 0 ? (double) hits / expected : 1.0;
+            report.put("recallSample", sampleRows.length);
+            report.put("recallAtK", Math.round(recall * 10000) / 10000.0);
+            report.put("recallLoss", Math.round((1 - recall) * 10000) / 10000.0);
+        }
+        report.put("generatedAt", new Date());
+        return report;
+    }
+    
+    private static Double nullableDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+    
+    /**
+     * 增量写入 Top-K 结果：rows 给出 neighbors 中每个位置对应的矩阵行。
+     * 写入前先删除这些房源原有的内容相似度记录，使每个房源的邻居与本次结果完全一致。
+     * 增量的行数很少，直接写正式表；全量结果走 {@link SimilarityTableWriter} 整表替换。
+     */
+    private long saveTopKRows(FeatureMatrix matrix, int[] rows, TopKSimilarity.Neighbors neighbors) {
+        String deleteSql = "DELETE FROM property_similarity WHERE property_id1 = ? " +
+                          "AND algorithm IN ('cosine_topk', 'cosine_vector')";
         String insertSql = "INSERT INTO property_similarity " +
-                          "(property_id1, property_id2, similarity_data, created_at, updated_at) " +
-                          "VALUES (?, ?, ?, NOW(), NOW()) " +
+                          "(property_id1, property_id2, similarity_score, algorithm, neighbor_rank, created_at, updated_at) " +
+                          "VALUES (?, ?, ?, 'cosine_topk', ?, NOW(), NOW()) " +
                           "ON DUPLICATE KEY UPDATE " +
-                          "similarity_data = VALUES(similarity_data), " +
+                          "similarity_score = VALUES(similarity_score), " +
+                          "neighbor_rank = VALUES(neighbor_rank), " +
                           "updated_at = NOW()";
         
+        int count = rows.length;
+        List<Object[]> deleteArgs = new ArrayList<>();
         List<Object[]> batchArgs = new ArrayList<>();
-        List<Integer> propertyIds = new ArrayList<>(propertyVectors.keySet());
-        
-        for (int i = 0; i < propertyIds.size(); i++) {
-            for (int j = i + 1; j < propertyIds.size(); j++) {
-                int prop1 = propertyIds.get(i);
-                int prop2 = propertyIds.get(j);
-                
-                DenseVector vec1 = propertyVectors.get(prop1);
-                DenseVector vec2 = propertyVectors.get(prop2);
-                
-                double similarity = cosineSimilarity(vec1, vec2);
-                
-                // 只保存有意义的相似度
-                if (similarity > 0.3) {
-                    String similarityData = String.format(
-                        "{\"similarity_score\": %.4f, \"algorithm\": \"cosine_vector\", " +
-                        "\"feature_weights\": {\"price\": 0.3, \"area\": 0.2, \"location\": 0.2, " +
-                        "\"layout\": 0.15, \"facility\": 0.15}}",
-                        similarity
-                    );
-                    
-                    batchArgs.add(new Object[]{prop1, prop2, similarityData});
-                }
+        long saved = 0;
+        for (int position = 0; position < count; position++) {
+            int source = matrix.propertyId(rows[position]);
+            deleteArgs.add(new Object[]{source});
+            int[] indices = neighbors.sortedIndices(position);
+            double[] scores = neighbors.sortedScores(position);
+            for (int rank = 0; rank < indices.length; rank++) {
+                batchArgs.add(new Object[]{source, matrix.propertyId(indices[rank]), scores[rank], rank + 1});
             }
             
             // 批量插入，每1000条提交一次
-            if (batchArgs.size() >= 1000) {
-                jdbcTemplate.batchUpdate(insertSql, batchArgs);
-                batchArgs.clear();
+            if (batchArgs.size() >= 1000 || position == count - 1) {
+                if (!deleteArgs.isEmpty()) {
+                    jdbcTemplate.batchUpdate(deleteSql, deleteArgs);
+                    deleteArgs.clear();
+                }
+                if (!batchArgs.isEmpty()) {
+                    jdbcTemplate.batchUpdate(insertSql, batchArgs);
+                    saved += batchArgs.size();
+                    batchArgs.clear();
+                }
             }
         }
-        
-        // 插入剩余数据
-        if (!batchArgs.isEmpty()) {
-            jdbcTemplate.batchUpdate(insertSql, batchArgs);
+        return saved;
+    }
+    
+    /**
+     * 邻居中含有指定房源的行。
+     */
+    private Set<Integer> findSourcesPointingTo(List<Integer> propertyIds) {
+        Set<Integer> sources = new HashSet<>();
+        for (List<Integer> chunk : chunks(propertyIds)) {
+            sources.addAll(jdbcTemplate.queryForList(
+                "SELECT DISTINCT property_id1 FROM property_similarity " +
+                "WHERE algorithm = 'cosine_topk' AND property_id2 IN (" + placeholders(chunk.size()) + ")",
+                Integer.class, chunk.toArray()));
+        }
+        return sources;
+    }
+    
+    /**
+     * 已满 K 个邻居的行的第 K 名分数；不足 K 个的行不在结果中（任何超过最低分的房源都能进入）。
+     */
+    private Map<Integer, Double> loadTopKThresholds() {
+        Map<Integer, Double> thresholds = new HashMap<>();
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT property_id1, COUNT(*) AS neighbor_count, " +
+            "MIN(similarity_score) AS kth_score " +
+            "FROM property_similarity " +
+            "WHERE algorithm = 'cosine_topk' " +
+            "GROUP BY property_id1");
+        for (Map<String, Object> row : rows) {
+            if (((Number) row.get("neighbor_count")).intValue() >= topK) {
+                thresholds.put(((Number) row.get("property_id1")).intValue(), ((Number) row.get("kth_score")).doubleValue());
+            }
         }
+        return thresholds;
+    }
+    
+    /**
+     * 删除涉及指定房源（下架）的全部相似度记录。
+     */
+    private int deleteSimilaritiesOf(List<Integer> propertyIds) {
+        int removed = 0;
+        for (List<Integer> chunk : chunks(propertyIds)) {
+            String in = placeholders(chunk.size());
+            List<Object> args = new ArrayList<>(chunk);
+            args.addAll(chunk);
+            removed += jdbcTemplate.update(
+                "DELETE FROM property_similarity WHERE property_id1 IN (" + in + ") OR property_id2 IN (" + in + ")",
+                args.toArray());
+        }
+        return removed;
+    }
+    
+    private Timestamp loadWatermark() {
+        List<Long> watermark = jdbcTemplate.queryForList(
+            "SELECT last_key FROM job_checkpoints WHERE job_name = ? AND status = 'completed'",
+            Long.class, SIMILARITY_JOB);
+        return watermark.isEmpty() ? null : new Timestamp(watermark.get(0));
+    }
+    
+    /**
+     * 记录本轮开始时的数据库时间为水位线（last_key 存毫秒时间戳），下次增量计算从这里开始。
+     */
+    private void saveWatermark(Date runStart, long processed) {
+        jdbcTemplate.execute(MassAppraisalService.CREATE_CHECKPOINTS_SQL);
+        jdbcTemplate.update(
+            "INSERT INTO job_checkpoints (job_name, run_id, last_key, processed, failed, status, started_at) " +
+            "VALUES (?, ?, ?, ?, 0, 'completed', ?) " +
+            "ON DUPLICATE KEY UPDATE run_id = VALUES(run_id), last_key = VALUES(last_key), " +
+            "processed = VALUES(processed), failed = 0, status = 'completed', started_at = VALUES(started_at)",
+            SIMILARITY_JOB, UUID.randomUUID().toString(), runStart.getTime(), processed, runStart);
+    }
+    
+    private Date currentDatabaseTime() {
+        return jdbcTemplate.queryForObject("SELECT NOW()", Timestamp.class);
+    }
+    
+    private int threads() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+    
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+    
+    private static List<List<Integer>> chunks(List<Integer> values) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += 1000) {
+            chunks.add(values.subList(i, Math.min(values.size(), i + 1000)));
+        }
+        return chunks;
+    }
+    
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
     }
     
     private double cosineSimilarity(DenseVector v1, DenseVector v2) {
@@ -353,122 +616,59 @@ public class PropertySimilarityService {
      * 基于用户行为计算房源相似度（物品-物品协同过滤）
      */
     public void calculatePropertySimilarityCF() {
-        // 从浏览历史计算房源共现相似度
+        // 从浏览历史计算房源共现相似度：按用户顺序流式读取，直接写入压缩的用户-房源列表
         String sql = "SELECT user_id, property_id, COUNT(*) as view_count " +
                     "FROM browsing_history " +
                     "WHERE created_at >= DATE_SUB(NOW(), INTERVAL 30 DAY) " +
-                    "GROUP BY user_id, property_id";
-        
-        List<Map<String, Object>> views = jdbcTemplate.queryForList(sql);
-        
-        // 构建用户-物品矩阵
-        Map<Integer, Map<Integer, Double>> userItemMatrix = new HashMap<>();
-        
-        for (Map<String, Object> view : views) {
-            Integer userId = (Integer) view.get("user_id");
-            Integer propertyId = (Integer) view.get("property_id");
-            Double count = ((Number) view.get("view_count")).doubleValue();
-            
-            userItemMatrix.computeIfAbsent(userId, k -> new HashMap<>())
-                         .put(propertyId, count);
+                    "GROUP BY user_id, property_id " +
+                    "ORDER BY user_id";
+        
+        ItemCooccurrence.Builder builder = new ItemCooccurrence.Builder(cfMaxItemsPerUser);
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+            builder.add(rs.getLong("user_id"), rs.getInt("property_id"), rs.getLong("view_count")));
+        ItemCooccurrence cooccurrence = builder.build();
+        if (builder.cappedUsers() > 0) {
+            System.out.println("协同过滤: " + builder.cappedUsers() + " 个用户浏览房源超过 "
+                    + cfMaxItemsPerUser + " 套，只保留浏览次数最多的部分");
         }
         
         // 计算物品-物品相似度（基于共现）
-        calculateItemItemSimilarity(userItemMatrix);
+        calculateItemItemSimilarity(cooccurrence);
     }
     
-    private void calculateItemItemSimilarity(Map<Integer, Map<Integer, Double>> userItemMatrix) {
-        // 获取所有房源ID
-        Set<Integer> allProperties = new HashSet<>();
-        for (Map<Integer, Double> items : userItemMatrix.values()) {
-            allProperties.addAll(items.keySet());
-        }
-        
-        List<Integer> propertyList = new ArrayList<>(allProperties);
-        Map<Integer, Integer> propertyIndex = new HashMap<>();
-        
-        for (int i = 0; i < propertyList.size(); i++) {
-            propertyIndex.put(propertyList.get(i), i);
-        }
-        
-        // 构建共现矩阵
-        int n = propertyList.size();
-        double[][] cooccurrence = new double[n][n];
-        double[] itemPopularity = new double[n];
-        
-        for (Map<Integer, Double> items : userItemMatrix.values()) {
-            List<Integer> userItems = new ArrayList<>(items.keySet());
-            
-            for (int i = 0; i < userItems.size(); i++) {
-                int idx1 = propertyIndex.get(userItems.get(i));
-                itemPopularity[idx1] += 1;
-                
-                for (int j = i + 1; j < userItems.size(); j++) {
-                    int idx2 = propertyIndex.get(userItems.get(j));
-                    cooccurrence[idx1][idx2] += 1;
-                    cooccurrence[idx2][idx1] += 1;
-                }
-            }
-        }
-        
-        // 计算Jaccard相似度并保存
-        String insertSql = "INSERT INTO property_similarity " +
-                          "(property_id1, property_id2, similarity_data, created_at, updated_at) " +
-                          "VALUES (?, ?, ?, NOW(), NOW()) " +
-                          "ON DUPLICATE KEY UPDATE " +
-                          "similarity_data = VALUES(similarity_data), " +
-                          "updated_at = NOW()";
-        
-        List<Object[]> batchArgs = new ArrayList<>();
-        
-        for (int i = 0; i < n; i++) {
-            for (int j = i + 1; j < n; j++) {
-                if (cooccurrence[i][j] > 0) {
-                    double jaccard = cooccurrence[i][j] / 
-                                    (itemPopularity[i] + itemPopularity[j] - cooccurrence[i][j]);
-                    
-                    if (jaccard > 0.1) {
-                        int prop1 = propertyList.get(i);
-                        int prop2 = propertyList.get(j);
-                        
-                        String similarityData = String.format(
-                            "{\"similarity_score\": %.4f, \"algorithm\": \"jaccard_cf\", " +
-                            "\"cooccurrence_count\": %.0f, \"calculation_method\": \"user_behavior\"}",
-                            jaccard, cooccurrence[i][j]
-                        );
-                        
-                        batchArgs.add(new Object[]{prop1, prop2, similarityData});
+    /**
+     * 只对真正共现过的房源对计算 Jaccard 相似度，按房源分段并行统计、分段写库，
+     * 内存随共现记录数增长而不是随房源数的平方增长。每对房源只保存一条（property_id1 < property_id2）。
+     */
+    private void calculateItemItemSimilarity(ItemCooccurrence cooccurrence) {
+        long startTime = System.currentTimeMillis();
+        int n = cooccurrence.items();
+        int threads = threads();
+        long saved;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (SimilarityTableWriter.Replacement replacement =
+                 tableWriter.replace(SimilarityTableWriter.PROPERTY, Collections.singletonList("jaccard_cf"))) {
+            for (int from = 0; from < n; from += CF_ITEM_CHUNK) {
+                ItemCooccurrence.Pairs pairs = cooccurrence.pairs(from, Math.min(n, from + CF_ITEM_CHUNK), 0.1, pool);
+                for (int position = 0; position < pairs.rows(); position++) {
+                    int i = pairs.first(position);
+                    int[] partners = pairs.partners(position);
+                    int[] counts = pairs.counts(position);
+                    for (int p = 0; p < partners.length; p++) {
+                        int j = partners[p];
+                        double jaccard = ItemCooccurrence.jaccard(counts[p],
+                            cooccurrence.popularity(i), cooccurrence.popularity(j));
+                        replacement.add(cooccurrence.propertyId(i), cooccurrence.propertyId(j), jaccard, "jaccard_cf",
+                            null, counts[p]);
                     }
                 }
             }
+            saved = replacement.commit();
+        } finally {
+            pool.shutdown();
         }
         
-        if (!batchArgs.isEmpty()) {
-            jdbcTemplate.batchUpdate(insertSql, batchArgs);
-        }
-    }
-    
-    // 房源特征内部类
-    private static class PropertyFeatures {
-        int propertyId;
-        double totalPrice;
-        double unitPrice;
-        double area;
-        int bedroomCount;
-        int livingRoomCount;
-        int floor;
-        int totalFloors;
-        String orientation;
-        String decoration;
-        int buildYear;
-        String district;
-        double longitude;
-        double latitude;
-        double managementFee;
-        double greenRatio;
-        int parkingSpaces;
-        double floorRatio;
-        double pricePerArea;
-        int roomCount;
+        System.out.println("协同过滤相似度计算完成: 用户 " + cooccurrence.users() + ", 房源 " + n + ", 线程 " + threads
+                + ", 保存 " + saved + " 条, 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
     }
-}
\ No newline at end of file
+}
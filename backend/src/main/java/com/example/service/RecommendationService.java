@@ -0,0 +1,532 @@
+package com.example.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 猜你喜欢：按用户返回 Top-N 推荐房源，结果缓存在内存中，稳定状态下一次请求不访问数据库。
+ * <ul>
+ *     <li>候选依次来自 user_recommendations（按 score 降序）、相似用户看过或收藏过的房源（邻居取自
+ *     {@link IncrementalUserSimilarity}，没有时取 user_similarity）、与用户最近看过的房源相似的房源（property_similarity），
+ *     不足 N 套时用热门在售房源补齐；用户自己看过或收藏过的、已售出的房源不推荐。</li>
+ *     <li>每个用户的结果在第一次请求时加载，按 LRU 最多缓存 recommend.cache.max-users 个用户，recommend.cache.ttl-ms 后过期；
+ *     收藏、取消收藏、新浏览、修改偏好时由 {@link #invalidate(long)} 立即失效。房源卡片（标题、状态、摘要、价格）另按房源缓存，各用户共享。</li>
+ *     <li>后台每 recommend.cache.status-refresh-ms 按 updated_at 找出有变化的房源，失效其卡片；命中的推荐结果按卡片重新确认仍在售，
+ *     有已下架的房源时重新加载，已售房源最多被推荐一个检查间隔。</li>
+ *     <li>热门房源由后台线程每 recommend.trending.refresh-ms 刷新，未登录用户直接返回热门房源。</li>
+ * </ul>
+ */
+@Service
+public class RecommendationService {
+
+    public static final String SOURCE_RECOMMENDATION = "recommendation";
+    public static final String SOURCE_SIMILAR_USERS = "similar_users";
+    public static final String SOURCE_SIMILAR_ITEMS = "similar_items";
+    public static final String SOURCE_TRENDING = "trending";
+
+    /** 读取用户自己的浏览/收藏记录的上限（按最近时间），用于排除已看过的房源和选取相似房源的种子 */
+    private static final int HISTORY_LIMIT = 500;
+    /**
+     * user_similarity 中多种算法的邻居只取一种：行为相似优先，没有行为的用户再用偏好相似。
+     * minhash_incremental 只含有过新事件的用户对，不完整，最新的增量邻居直接从内存读取。
+     */
+    private static final List<String> USER_ALGORITHMS =
+            Arrays.asList("minhash_jaccard", "pearson_cf", "cosine_content");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IncrementalUserSimilarity incrementalUserSimilarity;
+    private final int topN;
+    private final int similarUsers;
+    private final int seedItems;
+    private final long trendingRefreshMs;
+    private final long statusRefreshMs;
+    private final ExpiringLruCache<Long, List<Recommendation>> userCache;
+    private final ExpiringLruCache<Integer, Map<String, Object>> cardCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recommendation-trending");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile List<Recommendation> trending;
+    /** 上次检查房源变化时的数据库时间，只在 scheduler 线程中读写 */
+    private Timestamp statusCheckedAt;
+
+    @Autowired
+    public RecommendationService(JdbcTemplate jdbcTemplate,
+                                 IncrementalUserSimilarity incrementalUserSimilarity,
+                                 @Value("${recommend.top-n:12}") int topN,
+                                 @Value("${recommend.similar-users:20}") int similarUsers,
+                                 @Value("${recommend.seed-items:10}") int seedItems,
+                                 @Value("${recommend.cache.max-users:10000}") int maxUsers,
+                                 @Value("${recommend.cache.ttl-ms:600000}") long ttlMillis,
+                                 @Value("${recommend.cache.max-properties:20000}") int maxProperties,
+                                 @Value("${recommend.trending.refresh-ms:300000}") long trendingRefreshMs,
+                                 @Value("${recommend.cache.status-refresh-ms:5000}") long statusRefreshMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.incrementalUserSimilarity = incrementalUserSimilarity;
+        this.topN = Math.max(1, topN);
+        this.similarUsers = similarUsers;
+        this.seedItems = seedItems;
+        this.trendingRefreshMs = trendingRefreshMs;
+        this.statusRefreshMs = statusRefreshMs;
+        this.userCache = new ExpiringLruCache<Long, List<Recommendation>>(maxUsers, ttlMillis);
+        this.cardCache = new ExpiringLruCache<Integer, Map<String, Object>>(maxProperties, ttlMillis);
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler.scheduleWithFixedDelay(this::refreshTrending, 0, trendingRefreshMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::refreshStatus, 0, statusRefreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 用户的推荐房源卡片（propertyId、title、summary、totalPrice、cover、detailUrl、tags，另有 source、score、reason），
+     * userId 为 null 时返回热门房源。
+     */
+    public List<Map<String, Object>> recommend(Long userId) {
+        if (userId == null) {
+            List<Recommendation> current = trending();
+            return toItems(current.subList(0, Math.min(topN, current.size())));
+        }
+        List<Recommendation> cached = userCache.get(userId);
+        if (cached != null && !allForSale(cached)) {
+            userCache.invalidate(userId);
+            cached = null;
+        }
+        if (cached == null) {
+            long stamp = userCache.stamp(userId);
+            try {
+                cached = load(userId);
+            } catch (DataAccessException e) {
+                System.err.println("加载用户 " + userId + " 的推荐失败，返回热门房源：" + e.getMessage());
+                return recommend(null);
+            }
+            userCache.put(userId, cached, stamp);
+        }
+        return toItems(cached);
+    }
+
+    /**
+     * 用户的行为或偏好有变化，丢弃其缓存的推荐，下次请求时重新加载。
+     */
+    public void invalidate(long userId) {
+        userCache.invalidate(userId);
+    }
+
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("users", userCache.snapshot());
+        stats.put("properties", cardCache.snapshot());
+        List<Recommendation> current = trending;
+        stats.put("trending", current == null ? 0 : current.size());
+        return stats;
+    }
+
+    /**
+     * 按来源顺序收集候选房源，去掉看过的、重复的和不在售的，取前 N 个。
+     */
+    private List<Recommendation> load(long userId) {
+        List<Integer> history = jdbcTemplate.queryForList(
+                "SELECT property_id FROM (" +
+                "SELECT property_id, created_at FROM favorites WHERE user_id = ? " +
+                "UNION ALL SELECT property_id, created_at FROM browsing_history WHERE user_id = ?) h " +
+                "GROUP BY property_id ORDER BY MAX(created_at) DESC LIMIT ?",
+                Integer.class, userId, userId, HISTORY_LIMIT);
+        Set<Integer> seen = new HashSet<Integer>(history);
+
+        // 候选多取一些，过滤掉不在售的房源后仍有 N 个
+        int wanted = topN * 2;
+        LinkedHashMap<Integer, Candidate> candidates = new LinkedHashMap<Integer, Candidate>();
+        addStored(userId, seen, candidates, wanted);
+        if (candidates.size() < wanted) {
+            addFromSimilarUsers(userId, seen, candidates, wanted);
+        }
+        if (candidates.size() < wanted) {
+            addFromSimilarItems(history, seen, candidates, wanted);
+        }
+
+        List<Recommendation> result = new ArrayList<Recommendation>(topN);
+        Map<Integer, Map<String, Object>> cards = cards(candidates.keySet());
+        for (Candidate candidate : candidates.values()) {
+            Map<String, Object> card = cards.get(candidate.propertyId);
+            if (result.size() < topN && card != null && "for_sale".equals(card.get("status"))) {
+                result.add(new Recommendation(card, candidate.source, candidate.score, candidate.reason));
+            }
+        }
+        for (Recommendation item : trending()) {
+            if (result.size() >= topN) {
+                break;
+            }
+            Integer propertyId = (Integer) item.card.get("propertyId");
+            if (!seen.contains(propertyId) && !candidates.containsKey(propertyId)) {
+                result.add(item);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private void addStored(long userId, Set<Integer> seen, Map<Integer, Candidate> candidates, int wanted) {
+        try {
+            // 排序表达式与 idx_score 函数索引一致
+            jdbcTemplate.query(
+                    "SELECT property_id, recommendation_data FROM user_recommendations WHERE user_id = ? " +
+                    "ORDER BY CAST(JSON_UNQUOTE(JSON_EXTRACT(recommendation_data, '$.score')) AS DECIMAL(5,4)) DESC, " +
+                    "recommendation_id DESC LIMIT ?",
+                    rs -> {
+                        int propertyId = rs.getInt("property_id");
+                        if (seen.contains(propertyId) || candidates.containsKey(propertyId)) {
+                            return;
+                        }
+                        Map<String, Object> data = parseJson(rs.getString("recommendation_data"));
+                        Object score = data.get("score");
+                        Object reason = data.get("reason");
+                        candidates.put(propertyId, new Candidate(propertyId, SOURCE_RECOMMENDATION,
+                                score instanceof Number ? ((Number) score).doubleValue() : 0.0,
+                                reason != null ? reason.toString() : "为你推荐"));
+                    }, userId, wanted + seen.size());
+        } catch (DataAccessException e) {
+            System.err.println("读取 user_recommendations 失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 相似用户看过或收藏过的房源，得分为看过它的相似用户的相似度之和。
+     */
+    private void addFromSimilarUsers(long userId, Set<Integer> seen, Map<Integer, Candidate> candidates, int wanted) {
+        try {
+            Map<Integer, Double> neighbors = similarUsers(userId);
+            if (neighbors.isEmpty()) {
+                return;
+            }
+            String placeholders = placeholders(neighbors.size());
+            List<Object> args = new ArrayList<Object>(neighbors.keySet());
+            args.addAll(neighbors.keySet());
+            Map<Integer, Double> scores = new HashMap<Integer, Double>();
+            jdbcTemplate.query(
+                    "SELECT user_id, property_id FROM favorites WHERE user_id IN (" + placeholders + ") " +
+                    "UNION SELECT user_id, property_id FROM browsing_history WHERE user_id IN (" + placeholders + ")",
+                    rs -> {
+                        int propertyId = rs.getInt("property_id");
+                        if (!seen.contains(propertyId)) {
+                            scores.merge(propertyId, neighbors.get(rs.getInt("user_id")), Double::sum);
+                        }
+                    }, args.toArray());
+            addRanked(scores, SOURCE_SIMILAR_USERS, "和你相似的用户也在看", candidates, wanted);
+        } catch (DataAccessException e) {
+            System.err.println("读取相似用户的推荐失败：" + e.getMessage());
+        }
+    }
+
+    private Map<Integer, Double> similarUsers(long userId) {
+        Map<Integer, Double> neighbors = new LinkedHashMap<Integer, Double>();
+        for (Map<String, Object> neighbor : incrementalUserSimilarity.neighbors((int) userId)) {
+            if (neighbors.size() < similarUsers) {
+                neighbors.put((Integer) neighbor.get("userId"), (Double) neighbor.get("similarity"));
+            }
+        }
+        if (!neighbors.isEmpty()) {
+            return neighbors;
+        }
+        Map<String, Map<Integer, Double>> byAlgorithm = new HashMap<String, Map<Integer, Double>>();
+        jdbcTemplate.query(
+                "SELECT user_id2 AS other_id, similarity_score, algorithm FROM user_similarity WHERE user_id1 = ? " +
+                "UNION ALL SELECT user_id1, similarity_score, algorithm FROM user_similarity WHERE user_id2 = ? " +
+                "ORDER BY similarity_score DESC",
+                rs -> {
+                    Map<Integer, Double> users = byAlgorithm.computeIfAbsent(rs.getString("algorithm"),
+                            algorithm -> new LinkedHashMap<Integer, Double>());
+                    if (users.size() < similarUsers) {
+                        users.putIfAbsent(rs.getInt("other_id"), rs.getDouble("similarity_score"));
+                    }
+                }, userId, userId);
+        for (String algorithm : USER_ALGORITHMS) {
+            if (byAlgorithm.containsKey(algorithm)) {
+                return byAlgorithm.get(algorithm);
+            }
+        }
+        return neighbors;
+    }
+
+    /**
+     * 与用户最近看过或收藏过的房源相似的房源，得分为与各个种子房源的相似度之和。
+     */
+    private void addFromSimilarItems(List<Integer> history, Set<Integer> seen, Map<Integer, Candidate> candidates,
+                                     int wanted) {
+        List<Integer> seeds = history.subList(0, Math.min(seedItems, history.size()));
+        if (seeds.isEmpty()) {
+            return;
+        }
+        try {
+            String placeholders = placeholders(seeds.size());
+            List<Object> args = new ArrayList<Object>(seeds);
+            args.addAll(seeds);
+            Map<Integer, Double> scores = new HashMap<Integer, Double>();
+            jdbcTemplate.query(
+                    "SELECT property_id2 AS other_id, similarity_score FROM property_similarity " +
+                    "WHERE property_id1 IN (" + placeholders + ") " +
+                    "UNION ALL SELECT property_id1, similarity_score FROM property_similarity " +
+                    "WHERE property_id2 IN (" + placeholders + ")",
+                    rs -> {
+                        int propertyId = rs.getInt("other_id");
+                        if (!seen.contains(propertyId)) {
+                            scores.merge(propertyId, rs.getDouble("similarity_score"), Double::sum);
+                        }
+                    }, args.toArray());
+            addRanked(scores, SOURCE_SIMILAR_ITEMS, "与你看过的房源相似", candidates, wanted);
+        } catch (DataAccessException e) {
+            System.err.println("读取相似房源的推荐失败：" + e.getMessage());
+        }
+    }
+
+    private static void addRanked(Map<Integer, Double> scores, String source, String reason,
+                                  Map<Integer, Candidate> candidates, int wanted) {
+        List<Map.Entry<Integer, Double>> ranked = new ArrayList<Map.Entry<Integer, Double>>(scores.entrySet());
+        ranked.sort((x, y) -> !x.getValue().equals(y.getValue())
+                ? Double.compare(y.getValue(), x.getValue()) : Integer.compare(x.getKey(), y.getKey()));
+        for (Map.Entry<Integer, Double> entry : ranked) {
+            if (candidates.size() >= wanted) {
+                return;
+            }
+            candidates.putIfAbsent(entry.getKey(), new Candidate(entry.getKey(), source, entry.getValue(), reason));
+        }
+    }
+
+    private List<Recommendation> trending() {
+        List<Recommendation> current = trending;
+        if (current == null) {
+            // 启动后第一次刷新完成前的请求同步加载一次
+            synchronized (this) {
+                if (trending == null) {
+                    refreshTrending();
+                }
+                current = trending;
+            }
+        }
+        return current == null ? Collections.<Recommendation>emptyList() : current;
+    }
+
+    /**
+     * 热门在售房源：按 浏览次数 + 3 × 收藏次数 排序。多取一些，供已看过部分热门房源的用户补齐。
+     */
+    private synchronized void refreshTrending() {
+        try {
+            List<Integer> ids = jdbcTemplate.queryForList(
+                    "SELECT property_id FROM properties WHERE status = 'for_sale' " +
+                    "ORDER BY view_count + 3 * favorite_count DESC, property_id DESC LIMIT ?",
+                    Integer.class, topN * 4);
+            Map<Integer, Map<String, Object>> cards = cards(ids);
+            List<Recommendation> items = new ArrayList<Recommendation>(ids.size());
+            for (Integer propertyId : ids) {
+                Map<String, Object> card = cards.get(propertyId);
+                if (card != null) {
+                    items.add(new Recommendation(card, SOURCE_TRENDING, 0.0, "近期热门"));
+                }
+            }
+            trending = Collections.unmodifiableList(items);
+        } catch (RuntimeException e) {
+            System.err.println("刷新热门房源失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 找出上次检查以来有变化的房源（按 updated_at），失效其卡片；热门房源中有变化的立即刷新热门列表。
+     */
+    private void refreshStatus() {
+        try {
+            Timestamp now = jdbcTemplate.queryForObject("SELECT NOW()", Timestamp.class);
+            Timestamp since = statusCheckedAt;
+            statusCheckedAt = now;
+            if (since == null) {
+                return;
+            }
+            // updated_at 只精确到秒，与上次检查同一秒内的变化会被再取一次，重复失效不影响结果
+            List<Integer> changed = jdbcTemplate.queryForList(
+                    "SELECT property_id FROM properties WHERE updated_at >= ?", Integer.class, since);
+            Set<Integer> trendingIds = new HashSet<Integer>();
+            for (Recommendation item : trending()) {
+                trendingIds.add((Integer) item.card.get("propertyId"));
+            }
+            boolean trendingChanged = false;
+            for (Integer propertyId : changed) {
+                cardCache.invalidate(propertyId);
+                trendingChanged |= trendingIds.contains(propertyId);
+            }
+            if (trendingChanged) {
+                refreshTrending();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("检查房源状态变化失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 缓存的推荐是否仍全部在售（按卡片缓存确认，被失效的卡片重新查询）。
+     */
+    private boolean allForSale(List<Recommendation> recommendations) {
+        List<Integer> ids = new ArrayList<Integer>(recommendations.size());
+        for (Recommendation item : recommendations) {
+            ids.add((Integer) item.card.get("propertyId"));
+        }
+        Map<Integer, Map<String, Object>> cards = cards(ids);
+        for (Integer propertyId : ids) {
+            Map<String, Object> card = cards.get(propertyId);
+            if (card == null || !"for_sale".equals(card.get("status"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 房源卡片，缓存中没有的一次查询补齐。
+     */
+    private Map<Integer, Map<String, Object>> cards(Collection<Integer> propertyIds) {
+        Map<Integer, Map<String, Object>> cards = new HashMap<Integer, Map<String, Object>>();
+        List<Object> missing = new ArrayList<Object>();
+        for (Integer propertyId : propertyIds) {
+            Map<String, Object> card = cardCache.get(propertyId);
+            if (card != null) {
+                cards.put(propertyId, card);
+            } else {
+                missing.add(propertyId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return cards;
+        }
+        jdbcTemplate.query(
+                "SELECT p.property_id, p.title, p.status, p.price_info, p.layout_info, c.location_info " +
+                "FROM properties p LEFT JOIN communities c ON p.community_id = c.community_id " +
+                "WHERE p.property_id IN (" + placeholders(missing.size()) + ")",
+                rs -> {
+                    Map<String, Object> card = buildCard(rs.getInt("property_id"), rs.getString("title"),
+                            rs.getString("status"), parseJson(rs.getString("price_info")),
+                            parseJson(rs.getString("layout_info")), parseJson(rs.getString("location_info")));
+                    cards.put(rs.getInt("property_id"), card);
+                    cardCache.put(rs.getInt("property_id"), card);
+                }, missing.toArray());
+        return cards;
+    }
+
+    private Map<String, Object> buildCard(int propertyId, String title, String status, Map<String, Object> price,
+                                          Map<String, Object> layout, Map<String, Object> location) {
+        List<String> summary = new ArrayList<String>();
+        if (location.get("district") != null) {
+            summary.add(location.get("district").toString());
+        }
+        if (layout.get("area") instanceof Number) {
+            double area = ((Number) layout.get("area")).doubleValue();
+            summary.add((area == Math.rint(area) ? String.valueOf((long) area) : String.valueOf(area)) + "㎡");
+        }
+        if (layout.get("bedroom_count") instanceof Number) {
+            summary.add(layout.get("bedroom_count") + "室" + number(layout.get("living_room_count")) + "厅"
+                    + number(layout.get("bathroom_count")) + "卫");
+        }
+        Map<String, Object> card = new HashMap<String, Object>();
+        card.put("propertyId", propertyId);
+        card.put("title", title);
+        card.put("status", status);
+        card.put("summary", String.join(" · ", summary));
+        card.put("totalPrice", price.get("total_price") instanceof Number
+                ? ((Number) price.get("total_price")).doubleValue() : null);
+        card.put("cover", "https://picsum.photos/seed/" + propertyId + "/300/200");
+        card.put("detailUrl", "https://example.com/property/" + propertyId);
+        return Collections.unmodifiableMap(card);
+    }
+
+    private static List<Map<String, Object>> toItems(List<Recommendation> recommendations) {
+        List<Map<String, Object>> items = new ArrayList<Map<String, Object>>(recommendations.size());
+        for (Recommendation recommendation : recommendations) {
+            Map<String, Object> item = new HashMap<String, Object>(recommendation.card);
+            item.put("source", recommendation.source);
+            item.put("score", recommendation.score);
+            item.put("reason", recommendation.reason);
+            item.put("tags", Collections.singletonList(recommendation.reason));
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static int number(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.toString();
+    }
+
+    private Map<String, Object> parseJson(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            return objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {
+            });
+        } catch (Exception e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    private static final class Candidate {
+        private final int propertyId;
+        private final String source;
+        private final double score;
+        private final String reason;
+
+        private Candidate(int propertyId, String source, double score, String reason) {
+            this.propertyId = propertyId;
+            this.source = source;
+            this.score = score;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * 缓存的一条推荐：共享的房源卡片加上推荐来源。
+     */
+    private static final class Recommendation {
+        private final Map<String, Object> card;
+        private final String source;
+        private final double score;
+        private final String reason;
+
+        private Recommendation(Map<String, Object> card, String source, double score, String reason) {
+            this.card = card;
+            this.source = source;
+            this.score = score;
+            this.reason = reason;
+        }
+    }
+}
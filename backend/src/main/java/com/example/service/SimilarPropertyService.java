@@ -0,0 +1,270 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 在线相似房源查询：在内存中维护房源特征向量的 HNSW 索引，毫秒级返回最相似的 k 套在售房源。
+ * <ul>
+ *     <li>向量取自 {@link FeatureMatrixService} 的共享特征矩阵，与 {@link PropertySimilarityService} 批量计算完全一致。</li>
+ *     <li>启动时从磁盘加载索引，文件不存在或损坏时在后台全量构建；之后定期（有变更时）落盘，关闭前再保存一次。</li>
+ *     <li>房源新增、修改或下架时可单独更新索引；删除只打墓碑，墓碑比例过高时在后台重建。</li>
+ *     <li>查询时按 properties 核对查询房源与结果的在售状态，已售出但仍在索引中的房源不返回并移出索引，
+ *     因此未调用索引更新接口时结果也不含已下架房源。</li>
+ * </ul>
+ */
+@Service
+public class SimilarPropertyService {
+
+    /** 墓碑占比超过该值时后台重建索引 */
+    private static final double REBUILD_DELETED_RATIO = 0.3;
+    /** 结果中有已下架房源时最多重新查询的次数（已下架的已移出索引，重新查询会补上其它房源） */
+    private static final int MAX_SEARCH_ROUNDS = 3;
+
+    private final PropertySimilarityService propertySimilarityService;
+    private final FeatureMatrixService featureMatrixService;
+    private final PropertyFeatureStore featureStore;
+    private final Path indexPath;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final long saveIntervalMs;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "similar-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile HnswIndex index;
+    private volatile long lastBuiltAt;
+    private volatile long lastSavedAt;
+    private volatile String lastError;
+
+    @Autowired
+    public SimilarPropertyService(PropertySimilarityService propertySimilarityService,
+                                  FeatureMatrixService featureMatrixService,
+                                  PropertyFeatureStore featureStore,
+                                  @Value("${similarity.ann.index-path:data/property-ann.idx}") String indexPath,
+                                  @Value("${similarity.ann.m:16}") int m,
+                                  @Value("${similarity.ann.ef-construction:100}") int efConstruction,
+                                  @Value("${similarity.ann.ef-search:64}") int efSearch,
+                                  @Value("${similarity.ann.save-interval-ms:60000}") long saveIntervalMs) {
+        this.propertySimilarityService = propertySimilarityService;
+        this.featureMatrixService = featureMatrixService;
+        this.featureStore = featureStore;
+        this.indexPath = Paths.get(indexPath);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.saveIntervalMs = saveIntervalMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler.execute(() -> {
+            if (Files.exists(indexPath)) {
+                try {
+                    long start = System.currentTimeMillis();
+                    index = HnswIndex.load(indexPath);
+                    lastBuiltAt = Files.getLastModifiedTime(indexPath).toMillis();
+                    System.out.println("相似房源索引已加载：" + index.size() + " 套，耗时 "
+                            + (System.currentTimeMillis() - start) + "ms");
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("相似房源索引加载失败，将重新构建：" + e.getMessage());
+                }
+            }
+            rebuildNow();
+        });
+        scheduler.scheduleWithFixedDelay(this::saveIfDirty, saveIntervalMs, saveIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        saveIfDirty();
+    }
+
+    /**
+     * 与指定房源最相似的 k 套在售房源，每项包含 propertyId 与 similarity，按相似度从高到低排列。
+     * 房源不在索引中（如新上架尚未收录）时按其当前特征查询；房源不存在或不在售时返回 null。
+     * 索引尚未就绪时抛出 {@link IllegalStateException}。
+     */
+    public List<Map<String, Object>> findSimilar(int propertyId, int k) {
+        HnswIndex current = requireIndex();
+        double[] vector = current.vectorOf(propertyId);
+        boolean indexed = vector != null;
+        if (!indexed) {
+            double[] raw = propertySimilarityService.loadRawFeatures(propertyId);
+            if (raw == null) {
+                return null;
+            }
+            vector = current.scale(raw);
+        }
+        List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+        Set<Integer> returned = new HashSet<Integer>();
+        for (int round = 0; round < MAX_SEARCH_ROUNDS && items.size() < k; round++) {
+            List<double[]> hits = current.search(vector, k, efSearch, propertyId);
+            List<Integer> ids = new ArrayList<Integer>();
+            if (indexed && round == 0) {
+                ids.add(propertyId);
+            }
+            for (double[] hit : hits) {
+                ids.add((int) hit[0]);
+            }
+            Set<Integer> forSale = featureStore.forSaleIds(ids);
+            if (indexed && round == 0 && !forSale.contains(propertyId)) {
+                removeProperty(propertyId);
+                return null;
+            }
+            boolean sold = false;
+            for (double[] hit : hits) {
+                int hitId = (int) hit[0];
+                if (!forSale.contains(hitId)) {
+                    removeProperty(hitId);
+                    sold = true;
+                } else if (items.size() < k && returned.add(hitId)) {
+                    Map<String, Object> item = new HashMap<String, Object>();
+                    item.put("propertyId", hitId);
+                    item.put("similarity", hit[1]);
+                    items.add(item);
+                }
+            }
+            if (!sold || hits.size() < k) {
+                break;
+            }
+        }
+        items.sort((x, y) -> Double.compare((Double) y.get("similarity"), (Double) x.get("similarity")));
+        return items;
+    }
+
+    /**
+     * 按房源当前数据更新索引：在售则插入或替换向量，否则从索引中删除。返回房源是否在售。
+     */
+    public boolean indexProperty(int propertyId) {
+        HnswIndex current = requireIndex();
+        double[] raw = propertySimilarityService.loadRawFeatures(propertyId);
+        if (raw == null) {
+            removeProperty(propertyId);
+            return false;
+        }
+        current.insert(propertyId, current.scale(raw));
+        dirty.set(true);
+        return true;
+    }
+
+    /**
+     * 从索引中删除房源，返回房源此前是否在索引中。
+     */
+    public boolean removeProperty(int propertyId) {
+        HnswIndex current = requireIndex();
+        boolean removed = current.remove(propertyId);
+        if (removed) {
+            dirty.set(true);
+            int deleted = current.deletedSize();
+            if (deleted > (current.size() + deleted) * REBUILD_DELETED_RATIO) {
+                rebuild();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 在后台全量重建索引，完成后替换当前索引；已在重建时返回 false。
+     */
+    public boolean rebuild() {
+        if (building.get()) {
+            return false;
+        }
+        scheduler.execute(this::rebuildNow);
+        return true;
+    }
+
+    public Map<String, Object> getStatus() {
+        HnswIndex current = index;
+        Map<String, Object> status = new HashMap<String, Object>();
+        status.put("ready", current != null);
+        status.put("building", building.get());
+        status.put("size", current != null ? current.size() : 0);
+        status.put("deleted", current != null ? current.deletedSize() : 0);
+        status.put("lastBuiltAt", lastBuiltAt);
+        status.put("lastSavedAt", lastSavedAt);
+        status.put("indexPath", indexPath.toAbsolutePath().toString());
+        if (lastError != null) {
+            status.put("lastError", lastError);
+        }
+        status.put("featureMatrix", featureMatrixService.getStatus());
+        return status;
+    }
+
+    private HnswIndex requireIndex() {
+        HnswIndex current = index;
+        if (current == null) {
+            throw new IllegalStateException(building.get() ? "相似房源索引正在构建，请稍后重试" : "相似房源索引尚未就绪");
+        }
+        return current;
+    }
+
+    private void rebuildNow() {
+        if (!building.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            FeatureMatrix matrix = featureMatrixService.currentWithChanges();
+            HnswIndex built = new HnswIndex(matrix.dim(), m, efConstruction,
+                    matrix.featureMin(), matrix.featureMax(), matrix.rows());
+            double[] vector = new double[matrix.dim()];
+            for (int i = 0; i < matrix.rows(); i++) {
+                matrix.copyRow(i, vector);
+                built.insert(matrix.propertyId(i), vector);
+            }
+            // 构建期间对旧索引的单条更新不会带到新索引中，以新索引读取的数据库快照为准
+            index = built;
+            lastBuiltAt = System.currentTimeMillis();
+            lastError = null;
+            System.out.println("相似房源索引构建完成：" + built.size() + " 套，耗时 " + (lastBuiltAt - start) + "ms");
+            dirty.set(true);
+            saveIfDirty();
+        } catch (RuntimeException e) {
+            lastError = e.getMessage();
+            System.err.println("相似房源索引构建失败：" + e.getMessage());
+        } finally {
+            building.set(false);
+        }
+    }
+
+    private void saveIfDirty() {
+        HnswIndex current = index;
+        if (current == null || !dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            current.save(indexPath);
+            lastSavedAt = System.currentTimeMillis();
+        } catch (IOException e) {
+            dirty.set(true);
+            lastError = e.getMessage();
+            System.err.println("相似房源索引保存失败：" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 相似度与协同过滤任务的规模压测：依次运行指定任务，记录每个任务的耗时、堆内存峰值和写入的结果行数，
+ * 结果打印到控制台并追加到 CSV 报告，便于在不同规模、不同版本之间比较，提前发现扩展性退化。
+ * <ul>
+ *     <li>堆内存峰值由后台线程每 10ms 采样一次，任务开始前先做一次 GC，同时报告开始时的堆占用。</li>
+ *     <li>结果行数为任务结束后相似度表中该算法的记录数（整表替换的任务即本次写入的行数）。</li>
+ *     <li>单个任务失败时记录错误并继续下一个任务。</li>
+ * </ul>
+ */
+@Service
+@Profile("benchmark")
+public class SimilarityBenchmark {
+
+    /** 可压测的任务，按默认执行顺序排列 */
+    public static final List<String> JOBS = Collections.unmodifiableList(Arrays.asList(
+            "feature-sync", "property-topk", "property-cf", "user-cf", "user-minhash", "user-content"));
+
+    private static final long SAMPLE_INTERVAL_MS = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PropertyFeatureStore featureStore;
+    private final PropertySimilarityService propertySimilarityService;
+    private final UserSimilarityService userSimilarityService;
+    private final SimilarityTableWriter tableWriter;
+    private final Path reportFile;
+
+    @Autowired
+    public SimilarityBenchmark(JdbcTemplate jdbcTemplate,
+                               PropertyFeatureStore featureStore,
+                               PropertySimilarityService propertySimilarityService,
+                               UserSimilarityService userSimilarityService,
+                               SimilarityTableWriter tableWriter,
+                               @Value("${benchmark.report-file:data/benchmark/similarity-benchmark.csv}") String reportFile) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.featureStore = featureStore;
+        this.propertySimilarityService = propertySimilarityService;
+        this.userSimilarityService = userSimilarityService;
+        this.tableWriter = tableWriter;
+        this.reportFile = Paths.get(reportFile);
+    }
+
+    /**
+     * 依次运行任务并返回每个任务的结果。
+     *
+     * @param label 本次压测的说明（通常是数据规模），写入报告
+     * @param jobs  任务名，见 {@link #JOBS}
+     */
+    public List<Map<String, Object>> run(String label, List<String> jobs) {
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+        for (String job : jobs) {
+            Callable<Long> task = task(job.trim());
+            if (task == null) {
+                System.err.println("未知的压测任务：" + job + "，可选 " + JOBS);
+                continue;
+            }
+            results.add(measure(job.trim(), task));
+        }
+        print(label, results);
+        append(label, results);
+        return results;
+    }
+
+    /**
+     * 任务本体，返回写入的结果行数。
+     */
+    private Callable<Long> task(String job) {
+        switch (job) {
+            case "feature-sync":
+                return () -> (long) featureStore.sync(false);
+            case "property-topk":
+                return () -> {
+                    propertySimilarityService.calculatePropertySimilarity();
+                    return countRows(SimilarityTableWriter.PROPERTY, "cosine_topk");
+                };
+            case "property-cf":
+                return () -> {
+                    propertySimilarityService.calculatePropertySimilarityCF();
+                    return countRows(SimilarityTableWriter.PROPERTY, "jaccard_cf");
+                };
+            case "user-cf":
+                return () -> {
+                    userSimilarityService.calculateUserSimilarityCF();
+                    return countRows(SimilarityTableWriter.USER, "pearson_cf");
+                };
+            case "user-minhash":
+                return () -> {
+                    userSimilarityService.calculateUserSimilarityMinHash();
+                    return countRows(SimilarityTableWriter.USER, "minhash_jaccard");
+                };
+            case "user-content":
+                return () -> {
+                    userSimilarityService.calculateUserSimilarityContent();
+                    return countRows(SimilarityTableWriter.USER, "cosine_content");
+                };
+            default:
+                return null;
+        }
+    }
+
+    private Map<String, Object> measure(String job, Callable<Long> task) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        final long baseline = memory.getHeapMemoryUsage().getUsed();
+        final AtomicLong peak = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                if (used > peak.get()) {
+                    peak.set(used);
+                }
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "benchmark-heap-sampler");
+        sampler.setDaemon(true);
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("job", job);
+        System.out.println("压测任务开始：" + job);
+        long start = System.currentTimeMillis();
+        sampler.start();
+        try {
+            Long rows = task.call();
+            result.put("status", "ok");
+            result.put("rowsWritten", rows);
+        } catch (Exception e) {
+            result.put("status", "failed");
+            result.put("rowsWritten", null);
+            result.put("error", e.getMessage());
+            System.err.println("压测任务失败：" + job + "，" + e.getMessage());
+        } finally {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        result.put("wallMs", System.currentTimeMillis() - start);
+        result.put("baselineHeapMb", toMb(baseline));
+        result.put("peakHeapMb", toMb(Math.max(peak.get(), memory.getHeapMemoryUsage().getUsed())));
+        return result;
+    }
+
+    /**
+     * 相似度表中某算法的记录数；表还是旧结构（没有 algorithm 列）时返回 -1。
+     */
+    private long countRows(SimilarityTableWriter.Table table, String algorithm) {
+        if (!tableWriter.hasTypedColumns(table)) {
+            return -1;
+        }
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + table.name + " WHERE algorithm = ?", Long.class, algorithm);
+        return count == null ? 0 : count;
+    }
+
+    private void print(String label, List<Map<String, Object>> results) {
+        System.out.println("压测结果（" + label + "）：");
+        System.out.println(String.format(Locale.ROOT, "%-16s %-8s %12s %14s %14s", "job", "status", "wall_ms",
+                "peak_heap_mb", "rows_written"));
+        for (Map<String, Object> result : results) {
+            System.out.println(String.format(Locale.ROOT, "%-16s %-8s %12d %14.1f %14s", result.get("job"),
+                    result.get("status"), result.get("wallMs"), result.get("peakHeapMb"),
+                    String.valueOf(result.get("rowsWritten"))));
+        }
+    }
+
+    /**
+     * 追加到 CSV 报告（文件不存在时先写表头）。
+     */
+    private void append(String label, List<Map<String, Object>> results) {
+        try {
+            if (reportFile.getParent() != null) {
+                Files.createDirectories(reportFile.getParent());
+            }
+            StringBuilder lines = new StringBuilder();
+            if (!Files.exists(reportFile)) {
+                lines.append("run_at,scale,job,status,wall_ms,baseline_heap_mb,peak_heap_mb,rows_written\n");
+            }
+            String runAt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            for (Map<String, Object> result : results) {
+                lines.append(runAt).append(",\"").append(label.replace("\"", "'")).append("\",")
+                        .append(result.get("job")).append(',')
+                        .append(result.get("status")).append(',')
+                        .append(result.get("wallMs")).append(',')
+                        .append(result.get("baselineHeapMb")).append(',')
+                        .append(result.get("peakHeapMb")).append(',')
+                        .append(result.get("rowsWritten") != null ? result.get("rowsWritten") : "").append('\n');
+            }
+            Files.write(reportFile, lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            System.out.println("压测报告已追加到 " + reportFile.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("写入压测报告失败：" + e.getMessage());
+        }
+    }
+
+    private static double toMb(long bytes) {
+        return Math.round(bytes / 1024.0 / 1024.0 * 10) / 10.0;
+    }
+}
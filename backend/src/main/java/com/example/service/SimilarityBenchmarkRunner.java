@@ -0,0 +1,83 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * 以 benchmark 配置文件启动时执行的压测入口：按 benchmark.* 配置生成合成数据（可关闭），再运行指定的相似度任务，
+ * 完成后退出进程。例如：
+ * <pre>
+ * java -jar app.jar --spring.profiles.active=benchmark --benchmark.listings=200000 --benchmark.jobs=property-topk,property-cf
+ * </pre>
+ * 加上 h2 配置文件（--spring.profiles.active=benchmark,h2）时数据写入内存 H2，只适合验证生成器本身。
+ */
+@Component
+@Profile("benchmark")
+public class SimilarityBenchmarkRunner implements CommandLineRunner {
+
+    @Autowired
+    private SyntheticDataGenerator generator;
+
+    @Autowired
+    private SimilarityBenchmark benchmark;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    /** 是否先生成合成数据；已有数据时可关闭，直接压测 */
+    @Value("${benchmark.generate:true}")
+    private boolean generate;
+
+    @Value("${benchmark.seed:42}")
+    private long seed;
+
+    @Value("${benchmark.listings:10000}")
+    private int listings;
+
+    /** 小区数，0 为按房源数推算 */
+    @Value("${benchmark.communities:0}")
+    private int communities;
+
+    /** 用户数，0 为按房源数推算 */
+    @Value("${benchmark.users:0}")
+    private int users;
+
+    @Value("${benchmark.views-per-user:20}")
+    private double viewsPerUser;
+
+    /** 逗号分隔的任务名，为空时运行全部任务 */
+    @Value("${benchmark.jobs:}")
+    private String jobs;
+
+    @Override
+    public void run(String... args) {
+        SyntheticDataGenerator.Scale scale = new SyntheticDataGenerator.Scale();
+        scale.seed = seed;
+        scale.listings = listings;
+        scale.communities = communities;
+        scale.users = users;
+        scale.viewsPerUser = viewsPerUser;
+        int exitCode = 0;
+        try {
+            if (generate) {
+                generator.generate(scale);
+            }
+            benchmark.run(generate ? scale.toString() : "existing data",
+                    jobs.trim().isEmpty() ? SimilarityBenchmark.JOBS : Arrays.asList(jobs.split(",")));
+        } catch (RuntimeException e) {
+            System.err.println("压测失败：" + e.getMessage());
+            e.printStackTrace();
+            exitCode = 1;
+        }
+        final int code = exitCode;
+        // Spark 与各服务的线程池不是守护线程，需主动关闭上下文并退出
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
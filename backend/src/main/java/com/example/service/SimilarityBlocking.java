@@ -0,0 +1,280 @@
+package com.example.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 相似度计算的候选分块：按经纬度的 geohash 格子把房源分桶，每套房源只与本格及周围 8 格内的房源比较，
+ * 可再要求同区县、总价在一定倍数以内。格子边长按半径选取：取边长不小于半径的最细 geohash 位数
+ * （按位而不是按 base32 字符取精度，相邻精度的边长只差一倍），因此相距不超过半径的房源对一定会进入候选。
+ * <ul>
+ *     <li>没有坐标的房源放在一个公共桶里，与所有房源互为候选（仍受区县、价格条件约束）。</li>
+ *     <li>区县或总价缺失时不做对应的限制。</li>
+ *     <li>候选关系是对称的：i 是 j 的候选当且仅当 j 是 i 的候选，增量计算据此判断受影响的行。</li>
+ * </ul>
+ */
+final class SimilarityBlocking {
+
+    private static final double KM_PER_DEGREE = 111.32;
+    private static final int MAX_BITS = 50;
+
+    private final int bits;
+    private final int lonBits;
+    private final int latBits;
+    private final double cellHeightKm;
+    private final double cellWidthKm;
+    private final boolean sameDistrict;
+    private final double priceBand;
+    private final int[] cellX;
+    private final int[] cellY;
+    private final boolean[] located;
+    private final int[] districts;
+    private final double[] prices;
+    private final Map<Long, int[]> buckets;
+    private final int[] unlocated;
+
+    private SimilarityBlocking(int bits, double cellHeightKm, double cellWidthKm, boolean sameDistrict,
+                               double priceBand, int[] cellX, int[] cellY, boolean[] located, int[] districts,
+                               double[] prices, Map<Long, int[]> buckets, int[] unlocated) {
+        this.bits = bits;
+        this.lonBits = (bits + 1) / 2;
+        this.latBits = bits / 2;
+        this.cellHeightKm = cellHeightKm;
+        this.cellWidthKm = cellWidthKm;
+        this.sameDistrict = sameDistrict;
+        this.priceBand = priceBand;
+        this.cellX = cellX;
+        this.cellY = cellY;
+        this.located = located;
+        this.districts = districts;
+        this.prices = prices;
+        this.buckets = buckets;
+        this.unlocated = unlocated;
+    }
+
+    /**
+     * 按行接收分块所需的字段，行号与特征矩阵一致；未设置的行视为没有坐标、区县和价格。
+     */
+    static final class Builder {
+        private final double[] longitudes;
+        private final double[] latitudes;
+        private final int[] districts;
+        private final double[] prices;
+        private final Map<String, Integer> districtIds = new HashMap<String, Integer>();
+
+        Builder(int rows) {
+            longitudes = new double[rows];
+            latitudes = new double[rows];
+            districts = new int[rows];
+            prices = new double[rows];
+            Arrays.fill(longitudes, Double.NaN);
+            Arrays.fill(latitudes, Double.NaN);
+            Arrays.fill(districts, -1);
+        }
+
+        void set(int row, Double longitude, Double latitude, String district, Double totalPrice) {
+            // 经纬度缺失或为 (0, 0) 时视为没有坐标
+            if (longitude != null && latitude != null && (longitude != 0.0 || latitude != 0.0)
+                    && Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180) {
+                longitudes[row] = longitude;
+                latitudes[row] = latitude;
+            }
+            if (district != null && !district.isEmpty()) {
+                Integer id = districtIds.get(district);
+                if (id == null) {
+                    id = districtIds.size();
+                    districtIds.put(district, id);
+                }
+                districts[row] = id;
+            }
+            prices[row] = totalPrice != null && totalPrice > 0 ? totalPrice : 0.0;
+        }
+
+        /**
+         * @param radiusKm     分块半径（公里），相距不超过该距离的房源对一定保留
+         * @param sameDistrict 是否只比较同区县的房源
+         * @param priceBand    总价倍数上限（如 2 表示总价相差不超过 2 倍），不大于 1 时不限制
+         */
+        SimilarityBlocking build(double radiusKm, boolean sameDistrict, double priceBand) {
+            int rows = longitudes.length;
+            double maxLatitude = 0.0;
+            for (int i = 0; i < rows; i++) {
+                if (!Double.isNaN(latitudes[i])) {
+                    maxLatitude = Math.max(maxLatitude, Math.abs(latitudes[i]));
+                }
+            }
+            // 经线间距随纬度升高而缩小，按离赤道最远的房源估算格子宽度，保证所有房源处的格子都不窄于半径
+            double cosLatitude = Math.cos(Math.toRadians(maxLatitude));
+            int bits = 2;
+            for (int b = MAX_BITS; b > 2; b--) {
+                if (cellHeightKm(b) >= radiusKm && cellWidthKm(b) * cosLatitude >= radiusKm) {
+                    bits = b;
+                    break;
+                }
+            }
+            int lonBits = (bits + 1) / 2;
+            int latBits = bits / 2;
+
+            int[] cellX = new int[rows];
+            int[] cellY = new int[rows];
+            boolean[] located = new boolean[rows];
+            Map<Long, int[]> counts = new HashMap<Long, int[]>();
+            int unlocatedCount = 0;
+            for (int i = 0; i < rows; i++) {
+                if (Double.isNaN(latitudes[i])) {
+                    unlocatedCount++;
+                    continue;
+                }
+                located[i] = true;
+                cellX[i] = cellIndex(longitudes[i] + 180.0, 360.0, lonBits);
+                cellY[i] = cellIndex(latitudes[i] + 90.0, 180.0, latBits);
+                long key = geohash(cellX[i], cellY[i], lonBits, latBits);
+                int[] count = counts.get(key);
+                if (count == null) {
+                    counts.put(key, new int[]{1});
+                } else {
+                    count[0]++;
+                }
+            }
+            Map<Long, int[]> buckets = new HashMap<Long, int[]>();
+            Map<Long, int[]> fill = new HashMap<Long, int[]>();
+            for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+                buckets.put(entry.getKey(), new int[entry.getValue()[0]]);
+                fill.put(entry.getKey(), new int[1]);
+            }
+            int[] unlocated = new int[unlocatedCount];
+            unlocatedCount = 0;
+            for (int i = 0; i < rows; i++) {
+                if (!located[i]) {
+                    unlocated[unlocatedCount++] = i;
+                    continue;
+                }
+                long key = geohash(cellX[i], cellY[i], lonBits, latBits);
+                buckets.get(key)[fill.get(key)[0]++] = i;
+            }
+            return new SimilarityBlocking(bits, cellHeightKm(bits), cellWidthKm(bits) * cosLatitude,
+                    sameDistrict, priceBand, cellX, cellY, located, districts.clone(), prices.clone(), buckets,
+                    unlocated);
+        }
+    }
+
+    /**
+     * i 与 j 是否互为候选（对称）。
+     */
+    boolean allows(int i, int j) {
+        if (located[i] && located[j]
+                && (Math.abs(cellX[i] - cellX[j]) > 1 || Math.abs(cellY[i] - cellY[j]) > 1)) {
+            return false;
+        }
+        if (sameDistrict && districts[i] >= 0 && districts[j] >= 0 && districts[i] != districts[j]) {
+            return false;
+        }
+        if (priceBand > 1.0 && prices[i] > 0 && prices[j] > 0) {
+            double ratio = prices[i] > prices[j] ? prices[i] / prices[j] : prices[j] / prices[i];
+            if (ratio > priceBand) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 第 i 行的候选行（不含自身），写入 target 并返回个数；target 长度须不小于总行数。
+     */
+    int candidates(int i, int[] target) {
+        int size = 0;
+        if (located[i]) {
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int x = cellX[i] + dx;
+                    int y = cellY[i] + dy;
+                    if (x < 0 || y < 0 || x >= 1 << lonBits || y >= 1 << latBits) {
+                        continue;
+                    }
+                    int[] bucket = buckets.get(geohash(x, y, lonBits, latBits));
+                    if (bucket != null) {
+                        size = collect(i, bucket, target, size);
+                    }
+                }
+            }
+            return collect(i, unlocated, target, size);
+        }
+        // 没有坐标的房源与全部房源比较
+        for (int[] bucket : buckets.values()) {
+            size = collect(i, bucket, target, size);
+        }
+        return collect(i, unlocated, target, size);
+    }
+
+    /**
+     * 所有行的候选数之和（有向计数，即需要打分的次数）。
+     */
+    long candidatePairs() {
+        int[] target = new int[located.length];
+        long total = 0;
+        for (int i = 0; i < located.length; i++) {
+            total += candidates(i, target);
+        }
+        return total;
+    }
+
+    /**
+     * geohash 位数（经度位与纬度位之和，5 位对应一个 base32 字符）。
+     */
+    int bits() {
+        return bits;
+    }
+
+    int cells() {
+        return buckets.size();
+    }
+
+    double cellHeightKm() {
+        return cellHeightKm;
+    }
+
+    double cellWidthKm() {
+        return cellWidthKm;
+    }
+
+    private int collect(int i, int[] bucket, int[] target, int size) {
+        for (int j : bucket) {
+            if (j != i && allows(i, j)) {
+                target[size++] = j;
+            }
+        }
+        return size;
+    }
+
+    private static double cellHeightKm(int bits) {
+        return 180.0 / (1L << (bits / 2)) * KM_PER_DEGREE;
+    }
+
+    private static double cellWidthKm(int bits) {
+        return 360.0 / (1L << ((bits + 1) / 2)) * KM_PER_DEGREE;
+    }
+
+    private static int cellIndex(double offset, double span, int bits) {
+        int cells = 1 << bits;
+        return Math.min(cells - 1, (int) (offset / span * cells));
+    }
+
+    /**
+     * geohash 的整数形式：经度位与纬度位交错（经度在前），与 base32 字符串一一对应。
+     */
+    private static long geohash(int x, int y, int lonBits, int latBits) {
+        long hash = 0;
+        int bits = lonBits + latBits;
+        int lon = lonBits;
+        int lat = latBits;
+        for (int b = 0; b < bits; b++) {
+            if (b % 2 == 0) {
+                hash = (hash << 1) | ((x >>> --lon) & 1);
+            } else {
+                hash = (hash << 1) | ((y >>> --lat) & 1);
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 相似度结果的批量写入：整表重算时先把结果流式写入暂存文件，用 LOAD DATA LOCAL INFILE 装入影子表，
+ * 再用 RENAME TABLE 原子替换正式表。装载期间线上读取的一直是旧表，不会看到写了一半的结果，
+ * 也不再逐条做唯一键探测和 ON DUPLICATE KEY UPDATE。
+ * <ul>
+ *     <li>分数、算法、名次、共现次数都是普通列，不再为每一对拼 JSON；旧的 similarity_data 仅保留给历史数据。</li>
+ *     <li>同一张表里其它算法的结果在替换前整体复制到影子表，只有本次重算的算法被替换。</li>
+ *     <li>服务端或驱动未开启 LOCAL INFILE 时退回为对影子表的批量 INSERT，替换过程不变。</li>
+ *     <li>首次替换时按新表结构建表，并从旧表的 similarity_data 中取出分数与算法，旧结构自动迁移。</li>
+ * </ul>
+ * 同一张表同时只允许一次替换（本进程内加锁）；替换期间对正式表的增量写入会随旧表一起丢弃。
+ */
+@Service
+public class SimilarityTableWriter {
+
+    /**
+     * 房源相似度表：property_id1 为房源本身，property_id2 为相似房源。
+     */
+    static final Table PROPERTY = new Table("property_similarity", "property_id", "properties", "房源", "房源相似度表");
+
+    /**
+     * 用户相似度表：user_id1 < user_id2。
+     */
+    static final Table USER = new Table("user_similarity", "user_id", "users", "用户", "用户相似度表");
+
+    private static final int BATCH_SIZE = 5000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Path stagingDir;
+
+    @Autowired
+    public SimilarityTableWriter(JdbcTemplate jdbcTemplate,
+                                 @Value("${similarity.bulk.staging-dir:data/similarity-staging}") String stagingDir) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.stagingDir = Paths.get(stagingDir);
+    }
+
+    /**
+     * 正式表是否已是带类型列的新结构（旧结构只有 similarity_data，需先做一次整表替换完成迁移）。
+     */
+    boolean hasTypedColumns(Table table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = 'algorithm'",
+                Integer.class, table.name);
+        return count != null && count > 0;
+    }
+
+    private boolean tableExists(String tableName) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?",
+                Integer.class, tableName);
+        return count != null && count > 0;
+    }
+
+    /**
+     * 开始一次整表替换：replacedAlgorithms 中算法的旧结果将被本次写入的结果整体替换，其它算法的结果保留。
+     */
+    Replacement replace(Table table, Collection<String> replacedAlgorithms) {
+        if (replacedAlgorithms.isEmpty()) {
+            throw new IllegalArgumentException("至少指定一个被替换的算法");
+        }
+        return new Replacement(table, new ArrayList<String>(replacedAlgorithms));
+    }
+
+    /**
+     * 一次整表替换：{@link #add} 逐行写入暂存文件，{@link #commit()} 装载并换表，{@link #close()} 清理暂存文件与影子表。
+     */
+    final class Replacement implements AutoCloseable {
+        private final Table table;
+        private final List<String> replacedAlgorithms;
+        private final Path file;
+        private final BufferedWriter writer;
+        private final StringBuilder line = new StringBuilder(64);
+        private long rows;
+        private boolean committed;
+
+        private Replacement(Table table, List<String> replacedAlgorithms) {
+            this.table = table;
+            this.replacedAlgorithms = replacedAlgorithms;
+            try {
+                Files.createDirectories(stagingDir);
+                file = Files.createTempFile(stagingDir, table.name + "-", ".tsv");
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("创建相似度暂存文件失败：" + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * 写入一行；rank、cooccurrence 为 null 时存 NULL。
+         */
+        void add(int id1, int id2, double score, String algorithm, Integer rank, Integer cooccurrence) {
+            line.setLength(0);
+            line.append(id1).append('\t').append(id2).append('\t').append(score).append('\t').append(algorithm)
+                    .append('\t');
+            appendNullable(rank);
+            line.append('\t');
+            appendNullable(cooccurrence);
+            line.append('\n');
+            try {
+                writer.append(line);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入相似度暂存文件失败：" + e.getMessage(), e);
+            }
+            rows++;
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        /**
+         * 建影子表、复制保留的旧结果、装载新结果，然后原子换表并删除旧表。返回装载的行数。
+         */
+        long commit() {
+            synchronized (table) {
+                long start = System.currentTimeMillis();
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("写入相似度暂存文件失败：" + e.getMessage(), e);
+                }
+                boolean exists = tableExists(table.name);
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + table.shadow());
+                jdbcTemplate.execute(table.createSql(table.shadow(), start));
+                int kept = exists ? copyKeptRows(hasTypedColumns(table)) : 0;
+                boolean loadedWithInfile = load();
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + table.old());
+                if (exists) {
+                    jdbcTemplate.execute("RENAME TABLE " + table.name + " TO " + table.old() + ", "
+                            + table.shadow() + " TO " + table.name);
+                    jdbcTemplate.execute("DROP TABLE IF EXISTS " + table.old());
+                } else {
+                    jdbcTemplate.execute("RENAME TABLE " + table.shadow() + " TO " + table.name);
+                }
+                committed = true;
+                System.out.println(table.name + " 已整表替换：新结果 " + rows + " 条（"
+                        + (loadedWithInfile ? "LOAD DATA" : "批量 INSERT") + "），保留其它算法 " + kept
+                        + " 条，耗时 " + (System.currentTimeMillis() - start) + "ms");
+                return rows;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // 已在 commit 中关闭或写入失败，直接删除文件
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("删除相似度暂存文件失败：" + file + "，" + e.getMessage());
+            }
+            if (!committed) {
+                try {
+                    jdbcTemplate.execute("DROP TABLE IF EXISTS " + table.shadow());
+                } catch (DataAccessException e) {
+                    System.err.println("删除影子表失败：" + e.getMessage());
+                }
+            }
+        }
+
+        private int copyKeptRows(boolean typed) {
+            String id1 = table.idColumn + "1";
+            String id2 = table.idColumn + "2";
+            String placeholders = String.join(", ", Collections.nCopies(replacedAlgorithms.size(), "?"));
+            if (typed) {
+                return jdbcTemplate.update(
+                        "INSERT INTO " + table.shadow() + " (" + id1 + ", " + id2 + ", similarity_score, algorithm, "
+                        + "neighbor_rank, cooccurrence_count, similarity_data, created_at, updated_at) "
+                        + "SELECT " + id1 + ", " + id2 + ", similarity_score, algorithm, neighbor_rank, "
+                        + "cooccurrence_count, similarity_data, created_at, updated_at FROM " + table.name
+                        + " WHERE algorithm NOT IN (" + placeholders + ")",
+                        replacedAlgorithms.toArray());
+            }
+            // 旧结构：从 similarity_data 中取出分数与算法
+            return jdbcTemplate.update(
+                    "INSERT IGNORE INTO " + table.shadow() + " (" + id1 + ", " + id2 + ", similarity_score, algorithm, "
+                    + "similarity_data, created_at, updated_at) "
+                    + "SELECT " + id1 + ", " + id2 + ", "
+                    + "COALESCE(CAST(JSON_UNQUOTE(JSON_EXTRACT(similarity_data, '$.similarity_score')) AS DOUBLE), 0), "
+                    + "COALESCE(JSON_UNQUOTE(JSON_EXTRACT(similarity_data, '$.algorithm')), ''), "
+                    + "similarity_data, created_at, updated_at FROM " + table.name
+                    + " WHERE COALESCE(JSON_UNQUOTE(JSON_EXTRACT(similarity_data, '$.algorithm')), '') NOT IN ("
+                    + placeholders + ")",
+                    replacedAlgorithms.toArray());
+        }
+
+        /**
+         * 用 LOAD DATA LOCAL INFILE 装载暂存文件，不可用时退回批量 INSERT。返回是否使用了 LOAD DATA。
+         */
+        private boolean load() {
+            String columns = "(" + table.idColumn + "1, " + table.idColumn + "2, similarity_score, algorithm, "
+                    + "@neighbor_rank, @cooccurrence_count)";
+            final String loadSql = "LOAD DATA LOCAL INFILE '" + file.toAbsolutePath().toString().replace("\\", "/")
+                    + "' IGNORE INTO TABLE " + table.shadow() + " CHARACTER SET utf8mb4 "
+                    + "FIELDS TERMINATED BY '\\t' LINES TERMINATED BY '\\n' " + columns
+                    + " SET neighbor_rank = NULLIF(@neighbor_rank, ''), "
+                    + "cooccurrence_count = NULLIF(@cooccurrence_count, ''), "
+                    + "created_at = NOW(), updated_at = NOW()";
+            try {
+                jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        // 装载期间不逐行检查外键：结果都来自刚读取的房源/用户，换表后外键照常生效
+                        statement.execute("SET foreign_key_checks = 0");
+                        try {
+                            statement.execute(loadSql);
+                        } finally {
+                            statement.execute("SET foreign_key_checks = 1");
+                        }
+                    }
+                    return null;
+                });
+                return true;
+            } catch (DataAccessException e) {
+                System.err.println("LOAD DATA LOCAL INFILE 不可用，改为批量 INSERT：" + e.getMostSpecificCause().getMessage());
+            }
+            insertFromFile();
+            return false;
+        }
+
+        private void insertFromFile() {
+            String sql = "INSERT IGNORE INTO " + table.shadow() + " (" + table.idColumn + "1, " + table.idColumn
+                    + "2, similarity_score, algorithm, neighbor_rank, cooccurrence_count, created_at, updated_at) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, NOW(), NOW())";
+            List<Object[]> batchArgs = new ArrayList<Object[]>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    String[] fields = text.split("\t", -1);
+                    batchArgs.add(new Object[]{
+                            Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Double.parseDouble(fields[2]),
+                            fields[3], fields[4].isEmpty() ? null : Integer.valueOf(fields[4]),
+                            fields[5].isEmpty() ? null : Integer.valueOf(fields[5])});
+                    if (batchArgs.size() >= BATCH_SIZE) {
+                        jdbcTemplate.batchUpdate(sql, batchArgs);
+                        batchArgs.clear();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("读取相似度暂存文件失败：" + e.getMessage(), e);
+            }
+            if (!batchArgs.isEmpty()) {
+                jdbcTemplate.batchUpdate(sql, batchArgs);
+            }
+        }
+
+        private void appendNullable(Integer value) {
+            if (value != null) {
+                line.append(value.intValue());
+            }
+        }
+    }
+
+    /**
+     * 相似度表的结构描述，两张表结构相同，只是 ID 列与外键指向不同。
+     */
+    static final class Table {
+        final String name;
+        final String idColumn;
+        private final String referencedTable;
+        private final String label;
+        private final String comment;
+
+        private Table(String name, String idColumn, String referencedTable, String label, String comment) {
+            this.name = name;
+            this.idColumn = idColumn;
+            this.referencedTable = referencedTable;
+            this.label = label;
+            this.comment = comment;
+        }
+
+        String shadow() {
+            return name + "_shadow";
+        }
+
+        String old() {
+            return name + "_old";
+        }
+
+        /**
+         * 建表语句。外键名在同一库内必须唯一，影子表用带时间戳的名字，换表后沿用。
+         */
+        String createSql(String tableName, long suffix) {
+            String id1 = idColumn + "1";
+            String id2 = idColumn + "2";
+            return "CREATE TABLE " + tableName + " (" +
+                    "similarity_id int NOT NULL AUTO_INCREMENT COMMENT '相似度ID', " +
+                    id1 + " int NOT NULL COMMENT '" + label + "1ID', " +
+                    id2 + " int NOT NULL COMMENT '" + label + "2ID', " +
+                    "similarity_score double NOT NULL COMMENT '相似度分数', " +
+                    "algorithm varchar(32) NOT NULL COMMENT '算法', " +
+                    "neighbor_rank int DEFAULT NULL COMMENT 'Top-K 名次（从 1 开始）', " +
+                    "cooccurrence_count int DEFAULT NULL COMMENT '共现次数（协同过滤）', " +
+                    "similarity_data json DEFAULT NULL COMMENT '历史相似度数据（旧版 JSON）', " +
+                    "created_at timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '计算时间', " +
+                    "updated_at timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间', " +
+                    "PRIMARY KEY (similarity_id), " +
+                    "UNIQUE KEY uk_pair_algorithm (" + id1 + ", " + id2 + ", algorithm), " +
+                    "KEY idx_" + id1 + "_score (" + id1 + ", algorithm, similarity_score), " +
+                    "KEY idx_" + id2 + " (" + id2 + "), " +
+                    "CONSTRAINT " + name + "_fk1_" + suffix + " FOREIGN KEY (" + id1 + ") REFERENCES "
+                    + referencedTable + " (" + idColumn + ") ON DELETE CASCADE, " +
+                    "CONSTRAINT " + name + "_fk2_" + suffix + " FOREIGN KEY (" + id2 + ") REFERENCES "
+                    + referencedTable + " (" + idColumn + ") ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='" + comment + "'";
+        }
+    }
+}
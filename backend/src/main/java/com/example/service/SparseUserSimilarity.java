@@ -0,0 +1,345 @@
+package com.example.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 稀疏的用户-用户相似度：用户-房源评分与房源-用户倒排两份压缩行存储（CSR），只对浏览过同一房源的用户对累加内积。
+ * 相似度是把每个用户看作长度为房源数的评分向量（未浏览为 0）时的皮尔逊相关系数，用每个用户的评分和与平方和直接算出，
+ * 与稠密矩阵上的结果相同：
+ * <pre>
+ * r(u, v) = (n·Σx·y − Σx·Σy) / sqrt((n·Σx² − (Σx)²)(n·Σy² − (Σy)²))，n 为房源数
+ * </pre>
+ * 没有共同浏览的用户对内积为 0、相关系数不为正，因此不必比较。每个用户只保留相关系数最高的 K 个邻居，
+ * 内存为 O(评分数 + 线程数 × 用户数 + 用户数 × K)。
+ */
+final class SparseUserSimilarity {
+
+    private final int users;
+    private final int items;
+    private final int[] userIds;
+    private final int[] userOffsets;
+    private final int[] userItems;
+    private final double[] userScores;
+    private final int[] itemOffsets;
+    private final int[] itemUsers;
+    private final double[] itemScores;
+    private final double[] sums;
+    private final double[] squareSums;
+    /** 每个线程的内积累加器、本行触及的用户及其标记，跨调用复用 */
+    private final ThreadLocal<double[]> accumulators;
+    private final ThreadLocal<int[]> touchedLists;
+    private final ThreadLocal<boolean[]> touchedFlags;
+
+    /**
+     * @param userIds     用户编号对应的 user_id
+     * @param userOffsets 第 u 个用户的评分位于 [userOffsets[u], userOffsets[u + 1])，同一用户内房源不重复
+     * @param items       房源数（向量维数）
+     */
+    private SparseUserSimilarity(int[] userIds, int items, int[] userOffsets, int[] userItems, double[] userScores) {
+        this.users = userIds.length;
+        this.items = items;
+        this.userIds = userIds;
+        this.userOffsets = userOffsets;
+        this.userItems = userItems;
+        this.userScores = userScores;
+        sums = new double[users];
+        squareSums = new double[users];
+        int[] popularity = new int[items];
+        for (int u = 0; u < users; u++) {
+            for (int x = userOffsets[u]; x < userOffsets[u + 1]; x++) {
+                sums[u] += userScores[x];
+                squareSums[u] += userScores[x] * userScores[x];
+                popularity[userItems[x]]++;
+            }
+        }
+        itemOffsets = new int[items + 1];
+        for (int i = 0; i < items; i++) {
+            itemOffsets[i + 1] = itemOffsets[i] + popularity[i];
+        }
+        itemUsers = new int[userOffsets[users]];
+        itemScores = new double[userOffsets[users]];
+        int[] fill = Arrays.copyOf(itemOffsets, items);
+        for (int u = 0; u < users; u++) {
+            for (int x = userOffsets[u]; x < userOffsets[u + 1]; x++) {
+                int position = fill[userItems[x]]++;
+                itemUsers[position] = u;
+                itemScores[position] = userScores[x];
+            }
+        }
+        accumulators = ThreadLocal.withInitial(() -> new double[users]);
+        touchedLists = ThreadLocal.withInitial(() -> new int[users]);
+        touchedFlags = ThreadLocal.withInitial(() -> new boolean[users]);
+    }
+
+    int users() {
+        return users;
+    }
+
+    int items() {
+        return items;
+    }
+
+    int userId(int user) {
+        return userIds[user];
+    }
+
+    /**
+     * 浏览过该房源的用户数。
+     */
+    int popularity(int item) {
+        return itemOffsets[item + 1] - itemOffsets[item];
+    }
+
+    /**
+     * 两个用户的皮尔逊相关系数（按定义逐项计算，供抽样核对）。
+     */
+    double pearson(int u, int v) {
+        double dot = 0.0;
+        for (int x = userOffsets[u]; x < userOffsets[u + 1]; x++) {
+            for (int y = userOffsets[v]; y < userOffsets[v + 1]; y++) {
+                if (userItems[x] == userItems[y]) {
+                    dot += userScores[x] * userScores[y];
+                }
+            }
+        }
+        return correlation(dot, u, v);
+    }
+
+    /**
+     * 每个用户相关系数最高的 k 个邻居（大于 minScore，按相关系数降序）。
+     * 浏览人数超过 maxUsersPerItem 的房源只是不用来寻找候选用户：这类房源产生的用户对按平方增长，
+     * 只共同浏览过这类房源的用户对不比较；找到的用户对再补上这类房源上的内积，相关系数与 {@link #pearson(int, int)} 一致。
+     * 0 表示不限制。
+     */
+    Neighbors topK(final int k, final double minScore, final int maxUsersPerItem, ForkJoinPool pool) {
+        final int[][] neighbors = new int[users][];
+        final double[][] scores = new double[users][];
+        try {
+            pool.submit(() -> IntStream.range(0, users).parallel().forEach(u -> {
+                double[] accumulator = accumulators.get();
+                int[] touched = touchedLists.get();
+                boolean[] flags = touchedFlags.get();
+                int touchedCount = 0;
+                int[] popular = null;
+                int popularCount = 0;
+                for (int x = userOffsets[u]; x < userOffsets[u + 1]; x++) {
+                    int item = userItems[x];
+                    if (maxUsersPerItem > 0 && popularity(item) > maxUsersPerItem) {
+                        if (popular == null) {
+                            popular = new int[userOffsets[u + 1] - x];
+                        }
+                        popular[popularCount++] = x;
+                        continue;
+                    }
+                    double score = userScores[x];
+                    for (int y = itemOffsets[item]; y < itemOffsets[item + 1]; y++) {
+                        int v = itemUsers[y];
+                        if (v == u) {
+                            continue;
+                        }
+                        if (!flags[v]) {
+                            flags[v] = true;
+                            touched[touchedCount++] = v;
+                        }
+                        accumulator[v] += score * itemScores[y];
+                    }
+                }
+                int[] bestUsers = new int[k];
+                double[] bestScores = new double[k];
+                int size = 0;
+                for (int t = 0; t < touchedCount; t++) {
+                    int v = touched[t];
+                    double dot = accumulator[v];
+                    // 补上热门房源上的内积（各用户的评分按房源编号升序存放）
+                    for (int p = 0; p < popularCount; p++) {
+                        int x = popular[p];
+                        int y = Arrays.binarySearch(userItems, userOffsets[v], userOffsets[v + 1], userItems[x]);
+                        if (y >= 0) {
+                            dot += userScores[x] * userScores[y];
+                        }
+                    }
+                    double r = correlation(dot, u, v);
+                    accumulator[v] = 0.0;
+                    flags[v] = false;
+                    if (!(r > minScore)) {
+                        continue;
+                    }
+                    // 有序插入，相关系数相同时 user_id 小的在前
+                    if (size == k && !better(r, v, bestScores[k - 1], bestUsers[k - 1])) {
+                        continue;
+                    }
+                    int position = size < k ? size++ : k - 1;
+                    while (position > 0 && better(r, v, bestScores[position - 1], bestUsers[position - 1])) {
+                        bestUsers[position] = bestUsers[position - 1];
+                        bestScores[position] = bestScores[position - 1];
+                        position--;
+                    }
+                    bestUsers[position] = v;
+                    bestScores[position] = r;
+                }
+                neighbors[u] = Arrays.copyOf(bestUsers, size);
+                scores[u] = Arrays.copyOf(bestScores, size);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("用户相似度计算被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("用户相似度计算失败", e.getCause());
+        }
+        return new Neighbors(neighbors, scores);
+    }
+
+    private boolean better(double score, int user, double otherScore, int otherUser) {
+        return score > otherScore || (score == otherScore && userIds[user] < userIds[otherUser]);
+    }
+
+    private double correlation(double dot, int u, int v) {
+        double n = items;
+        double numerator = n * dot - sums[u] * sums[v];
+        double varianceU = n * squareSums[u] - sums[u] * sums[u];
+        double varianceV = n * squareSums[v] - sums[v] * sums[v];
+        if (varianceU <= 0.0 || varianceV <= 0.0) {
+            return Double.NaN;
+        }
+        return numerator / Math.sqrt(varianceU * varianceV);
+    }
+
+    /**
+     * 按任意顺序接收（用户, 房源, 评分），同一用户对同一房源的多条记录累加。
+     */
+    static final class Builder {
+        private final Map<Integer, Integer> userIndex = new HashMap<Integer, Integer>();
+        private final Map<Integer, Integer> itemIndex = new HashMap<Integer, Integer>();
+        private int[] userIds = new int[1024];
+        private int[] tripletUsers = new int[4096];
+        private int[] tripletItems = new int[4096];
+        private double[] tripletScores = new double[4096];
+        private int length;
+
+        void add(int userId, int propertyId, double score) {
+            Integer user = userIndex.get(userId);
+            if (user == null) {
+                user = userIndex.size();
+                if (user == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, user * 2);
+                }
+                userIds[user] = userId;
+                userIndex.put(userId, user);
+            }
+            Integer item = itemIndex.get(propertyId);
+            if (item == null) {
+                item = itemIndex.size();
+                itemIndex.put(propertyId, item);
+            }
+            if (length == tripletUsers.length) {
+                tripletUsers = Arrays.copyOf(tripletUsers, length * 2);
+                tripletItems = Arrays.copyOf(tripletItems, length * 2);
+                tripletScores = Arrays.copyOf(tripletScores, length * 2);
+            }
+            tripletUsers[length] = user;
+            tripletItems[length] = item;
+            tripletScores[length] = score;
+            length++;
+        }
+
+        /**
+         * 用户按 user_id 升序编号；每个用户的评分按房源编号排序并合并重复项。
+         */
+        SparseUserSimilarity build() {
+            int users = userIndex.size();
+            int[] sorted = Arrays.copyOf(userIds, users);
+            Arrays.sort(sorted);
+            int[] remap = new int[users];
+            for (int u = 0; u < users; u++) {
+                remap[userIndex.get(sorted[u])] = u;
+            }
+            int[] offsets = new int[users + 1];
+            for (int x = 0; x < length; x++) {
+                offsets[remap[tripletUsers[x]] + 1]++;
+            }
+            for (int u = 0; u < users; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+            int[] items = new int[length];
+            double[] scores = new double[length];
+            int[] fill = Arrays.copyOf(offsets, users);
+            for (int x = 0; x < length; x++) {
+                int position = fill[remap[tripletUsers[x]]]++;
+                items[position] = tripletItems[x];
+                scores[position] = tripletScores[x];
+            }
+            // 每个用户内按房源排序并合并重复的 (用户, 房源)
+            int[] compactOffsets = new int[users + 1];
+            int write = 0;
+            for (int u = 0; u < users; u++) {
+                int start = offsets[u];
+                int end = offsets[u + 1];
+                sortByItem(items, scores, start, end);
+                for (int x = start; x < end; x++) {
+                    if (write > compactOffsets[u] && items[write - 1] == items[x]) {
+                        scores[write - 1] += scores[x];
+                    } else {
+                        items[write] = items[x];
+                        scores[write] = scores[x];
+                        write++;
+                    }
+                }
+                compactOffsets[u + 1] = write;
+            }
+            return new SparseUserSimilarity(sorted, itemIndex.size(), compactOffsets,
+                    Arrays.copyOf(items, write), Arrays.copyOf(scores, write));
+        }
+
+        private static void sortByItem(int[] items, double[] scores, int start, int end) {
+            // 房源编号在高 32 位、原位置在低 32 位，排序后按原位置取回评分
+            long[] keys = new long[end - start];
+            for (int x = start; x < end; x++) {
+                keys[x - start] = ((long) items[x] << 32) | (x - start);
+            }
+            Arrays.sort(keys);
+            double[] original = Arrays.copyOfRange(scores, start, end);
+            for (int x = 0; x < keys.length; x++) {
+                items[start + x] = (int) (keys[x] >>> 32);
+                scores[start + x] = original[(int) keys[x]];
+            }
+        }
+    }
+
+    /**
+     * 每个用户的 Top-K 邻居（用户编号）与相关系数，均按相关系数降序。
+     */
+    static final class Neighbors {
+        private final int[][] neighbors;
+        private final double[][] scores;
+
+        Neighbors(int[][] neighbors, double[][] scores) {
+            this.neighbors = neighbors;
+            this.scores = scores;
+        }
+
+        int[] neighbors(int user) {
+            return neighbors[user];
+        }
+
+        double[] scores(int user) {
+            return scores[user];
+        }
+
+        /**
+         * v 是否在 u 的邻居中。
+         */
+        boolean contains(int u, int v) {
+            for (int neighbor : neighbors[u]) {
+                if (neighbor == v) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
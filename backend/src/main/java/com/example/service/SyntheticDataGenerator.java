@@ -0,0 +1,397 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 压测用的合成数据：按给定规模生成小区、房源、用户、浏览记录与用户偏好，同一种子与规模总是生成相同的数据。
+ * 分布尽量接近真实情况：
+ * <ul>
+ *     <li>小区按区县权重分布在区县中心附近（约 3 公里的正态分布），区县房价水平不同，小区规模为对数正态。</li>
+ *     <li>房源面积为对数正态，户型随面积变化；单价 = 区县基准 × 小区系数 × 房龄系数 × 随机扰动。</li>
+ *     <li>房源热度为帕累托分布（少数房源占大部分浏览），用户活跃度为几何分布并带少量重度用户；
+ *     用户 80% 的浏览集中在自己关注的区县，浏览时间分布在最近 45 天内。</li>
+ *     <li>约六成用户有偏好记录，价格、面积、户型区间围绕其关注的一套房源。</li>
+ * </ul>
+ * 写入当前数据源（MySQL 或 H2）：ID 从各表现有最大值之后连续分配，不影响已有数据；
+ * 数据源为 H2 且表不存在时先建表（JSON 字段以文本存储）。
+ */
+@Service
+@Profile("benchmark")
+public class SyntheticDataGenerator {
+
+    private static final int BATCH_SIZE = 5000;
+
+    /** 区县：名称、中心经纬度、基准单价（元/平方米）、小区数权重 */
+    private static final String[] DISTRICTS = {"南山区", "福田区", "罗湖区", "宝安区", "龙岗区", "龙华区", "光明区"};
+    private static final double[][] DISTRICT_CENTERS = {
+            {113.93, 22.53}, {114.05, 22.54}, {114.13, 22.55}, {113.88, 22.58},
+            {114.25, 22.72}, {114.04, 22.66}, {113.93, 22.75}
+    };
+    private static final double[] DISTRICT_UNIT_PRICES = {105000, 95000, 60000, 65000, 40000, 60000, 45000};
+    private static final double[] DISTRICT_WEIGHTS = {0.14, 0.12, 0.10, 0.20, 0.22, 0.14, 0.08};
+
+    private static final String[] ORIENTATIONS = {"south", "southeast", "east", "southwest", "west", "northeast", "north"};
+    private static final double[] ORIENTATION_WEIGHTS = {0.45, 0.2, 0.1, 0.08, 0.07, 0.05, 0.05};
+    private static final String[] DECORATIONS = {"hard", "simple", "luxury", "rough"};
+    private static final double[] DECORATION_WEIGHTS = {0.5, 0.3, 0.1, 0.1};
+    private static final int[] TOTAL_FLOORS = {6, 7, 11, 18, 26, 33, 45};
+    private static final double[] TOTAL_FLOOR_WEIGHTS = {0.1, 0.1, 0.15, 0.2, 0.2, 0.2, 0.05};
+
+    private static final String H2_SCHEMA =
+            "CREATE TABLE IF NOT EXISTS communities (community_id int PRIMARY KEY, name varchar(200) NOT NULL, " +
+            "basic_info varchar(2000), location_info varchar(2000), facility_info varchar(2000), " +
+            "created_at timestamp DEFAULT CURRENT_TIMESTAMP);" +
+            "CREATE TABLE IF NOT EXISTS properties (property_id int PRIMARY KEY, community_id int NOT NULL, " +
+            "title varchar(200) NOT NULL, basic_info varchar(2000), price_info varchar(2000), layout_info varchar(2000), " +
+            "status varchar(20) DEFAULT 'for_sale', view_count int DEFAULT 0, favorite_count int DEFAULT 0, " +
+            "created_at timestamp DEFAULT CURRENT_TIMESTAMP, updated_at timestamp DEFAULT CURRENT_TIMESTAMP, " +
+            "FOREIGN KEY (community_id) REFERENCES communities (community_id) ON DELETE CASCADE);" +
+            "CREATE TABLE IF NOT EXISTS users (user_id int PRIMARY KEY, username varchar(50) NOT NULL UNIQUE, " +
+            "password varchar(255) NOT NULL, phone_number varchar(20) NOT NULL UNIQUE, user_profile varchar(2000), " +
+            "created_at timestamp DEFAULT CURRENT_TIMESTAMP);" +
+            "CREATE TABLE IF NOT EXISTS user_preferences (preference_id int PRIMARY KEY, user_id int NOT NULL, " +
+            "preference_data varchar(2000), created_at timestamp DEFAULT CURRENT_TIMESTAMP, " +
+            "updated_at timestamp DEFAULT CURRENT_TIMESTAMP, " +
+            "FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE);" +
+            "CREATE TABLE IF NOT EXISTS browsing_history (history_id int PRIMARY KEY, user_id int NOT NULL, " +
+            "property_id int NOT NULL, behavior_data varchar(2000), created_at timestamp DEFAULT CURRENT_TIMESTAMP, " +
+            "FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE, " +
+            "FOREIGN KEY (property_id) REFERENCES properties (property_id) ON DELETE CASCADE);" +
+            "CREATE INDEX IF NOT EXISTS idx_history_user ON browsing_history (user_id);" +
+            "CREATE INDEX IF NOT EXISTS idx_history_created ON browsing_history (created_at)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public SyntheticDataGenerator(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 生成规模。communities、users 为 0 时按房源数推算（每小区约 40 套、每两套房源一个用户）。
+     */
+    public static final class Scale {
+        public long seed = 42;
+        public int listings = 10000;
+        public int communities;
+        public int users;
+        /** 每个用户的平均浏览房源数 */
+        public double viewsPerUser = 20;
+        /** 有偏好记录的用户比例 */
+        public double preferenceRatio = 0.6;
+        /** 已售房源比例 */
+        public double soldRatio = 0.15;
+
+        int communities() {
+            return communities > 0 ? communities : Math.max(1, listings / 40);
+        }
+
+        int users() {
+            return users > 0 ? users : Math.max(1, listings / 2);
+        }
+
+        @Override
+        public String toString() {
+            return "seed=" + seed + ", listings=" + listings + ", communities=" + communities()
+                    + ", users=" + users() + ", viewsPerUser=" + viewsPerUser;
+        }
+    }
+
+    /**
+     * 按规模生成并写入数据，返回各表写入的行数。
+     */
+    public Map<String, Long> generate(Scale scale) {
+        long start = System.currentTimeMillis();
+        if (isH2()) {
+            for (String statement : H2_SCHEMA.split(";")) {
+                jdbcTemplate.execute(statement);
+            }
+        }
+        Random random = new Random(scale.seed);
+        // 时间以当天零点为基准，同一天内重复生成的数据完全相同
+        long today = System.currentTimeMillis() / 86400000L * 86400000L;
+        Map<String, Long> written = new LinkedHashMap<String, Long>();
+
+        int communityCount = scale.communities();
+        int communityBase = nextId("communities", "community_id");
+        int[] communityDistrict = new int[communityCount];
+        double[] communityFactor = new double[communityCount];
+        int[] communityBuildYear = new int[communityCount];
+        int[] communityFloors = new int[communityCount];
+        double[] communitySize = new double[communityCount];
+        List<Object[]> batch = new ArrayList<Object[]>();
+        for (int c = 0; c < communityCount; c++) {
+            int district = pick(random, DISTRICT_WEIGHTS);
+            communityDistrict[c] = district;
+            communityFactor[c] = Math.exp(0.15 * random.nextGaussian());
+            communityBuildYear[c] = 2023 - (int) Math.min(33, Math.abs(12 * random.nextGaussian()));
+            communityFloors[c] = TOTAL_FLOORS[pick(random, TOTAL_FLOOR_WEIGHTS)];
+            communitySize[c] = Math.exp(random.nextGaussian() * 0.8);
+            double longitude = DISTRICT_CENTERS[district][0] + 0.03 * random.nextGaussian();
+            double latitude = DISTRICT_CENTERS[district][1] + 0.025 * random.nextGaussian();
+            int households = (int) Math.max(80, 800 * communitySize[c]);
+            double fee = Math.round(DISTRICT_UNIT_PRICES[district] / 15000.0 * communityFactor[c] * 10) / 10.0;
+            batch.add(new Object[]{
+                    communityBase + c,
+                    "合成小区" + (communityBase + c),
+                    String.format(Locale.ROOT, "{\"build_year\": %d, \"total_size\": %.0f, \"total_households\": %d}",
+                            communityBuildYear[c], households * 95.0, households),
+                    String.format(Locale.ROOT, "{\"city\": \"深圳市\", \"district\": \"%s\", \"longitude\": %.6f, \"latitude\": %.6f}",
+                            DISTRICTS[district], longitude, latitude),
+                    String.format(Locale.ROOT, "{\"management_fee\": %.1f, \"green_ratio\": %.2f, \"plot_ratio\": %.1f, \"parking_spaces\": %d}",
+                            fee, 0.25 + 0.2 * random.nextDouble(), 1.5 + 4.5 * random.nextDouble(),
+                            (int) (households * (0.3 + 0.9 * random.nextDouble()))),
+                    new Timestamp(today - 400L * 86400000L)
+            });
+            flush(batch, "INSERT INTO communities (community_id, name, basic_info, location_info, facility_info, created_at) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)", false);
+        }
+        flush(batch, "INSERT INTO communities (community_id, name, basic_info, location_info, facility_info, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", true);
+        written.put("communities", (long) communityCount);
+
+        // 小区规模越大分到的房源越多
+        double[] communityCumulative = cumulative(communitySize);
+        int listingCount = scale.listings;
+        int propertyBase = nextId("properties", "property_id");
+        int[] listingDistrict = new int[listingCount];
+        double[] popularity = new double[listingCount];
+        double[] listingPrice = new double[listingCount];
+        double[] listingArea = new double[listingCount];
+        int[] listingBedrooms = new int[listingCount];
+        String propertySql = "INSERT INTO properties (property_id, community_id, title, basic_info, price_info, layout_info, " +
+                "status, view_count, favorite_count, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        for (int i = 0; i < listingCount; i++) {
+            int c = Math.min(communityCount - 1, search(communityCumulative, random.nextDouble()));
+            int district = communityDistrict[c];
+            listingDistrict[i] = district;
+            popularity[i] = Math.pow(1.0 - random.nextDouble(), -1.0 / 1.2);
+            double area = Math.min(400, Math.max(25, 89 * Math.exp(0.35 * random.nextGaussian())));
+            int bedrooms = (int) Math.min(6, Math.max(1, Math.round(area / 35)));
+            int livingRooms = area > 100 ? 2 : 1;
+            int totalFloors = communityFloors[c];
+            int floor = 1 + random.nextInt(totalFloors);
+            double ageFactor = 1.0 - 0.006 * (2023 - communityBuildYear[c]);
+            double unitPrice = Math.round(DISTRICT_UNIT_PRICES[district] * communityFactor[c] * ageFactor
+                    * Math.exp(0.08 * random.nextGaussian()));
+            double totalPrice = Math.round(unitPrice * area / 1000.0) / 10.0;
+            listingPrice[i] = totalPrice;
+            listingArea[i] = area;
+            listingBedrooms[i] = bedrooms;
+            String orientation = ORIENTATIONS[pick(random, ORIENTATION_WEIGHTS)];
+            String decoration = DECORATIONS[pick(random, DECORATION_WEIGHTS)];
+            int views = (int) Math.min(100000, popularity[i] * 20);
+            long listedAt = today - (long) (random.nextDouble() * 180) * 86400000L;
+            batch.add(new Object[]{
+                    propertyBase + i,
+                    communityBase + c,
+                    String.format(Locale.ROOT, "合成小区%d %d室%d厅 %.0f㎡", communityBase + c, bedrooms, livingRooms, area),
+                    String.format(Locale.ROOT, "{\"property_type\": \"住宅\", \"build_year\": %d, \"decoration\": \"%s\"}",
+                            communityBuildYear[c], decoration),
+                    String.format(Locale.ROOT, "{\"total_price\": %.1f, \"unit_price\": %.0f}", totalPrice, unitPrice),
+                    String.format(Locale.ROOT, "{\"area\": %.2f, \"bedroom_count\": %d, \"living_room_count\": %d, " +
+                            "\"floor\": %d, \"total_floors\": %d, \"orientation\": \"%s\"}",
+                            area, bedrooms, livingRooms, floor, totalFloors, orientation),
+                    random.nextDouble() < scale.soldRatio ? "sold" : "for_sale",
+                    views,
+                    (int) (views * 0.05 * random.nextDouble()),
+                    new Timestamp(listedAt),
+                    new Timestamp(listedAt)
+            });
+            flush(batch, propertySql, false);
+        }
+        flush(batch, propertySql, true);
+        written.put("properties", (long) listingCount);
+
+        // 按区县分组的热度累积分布，用于抽样浏览的房源
+        int[][] districtListings = new int[DISTRICTS.length][];
+        double[][] districtCumulative = new double[DISTRICTS.length][];
+        for (int d = 0; d < DISTRICTS.length; d++) {
+            int count = 0;
+            for (int i = 0; i < listingCount; i++) {
+                if (listingDistrict[i] == d) {
+                    count++;
+                }
+            }
+            int[] members = new int[count];
+            double[] weights = new double[count];
+            count = 0;
+            for (int i = 0; i < listingCount; i++) {
+                if (listingDistrict[i] == d) {
+                    weights[count] = popularity[i];
+                    members[count++] = i;
+                }
+            }
+            districtListings[d] = members;
+            districtCumulative[d] = cumulative(weights);
+        }
+        double[] allCumulative = cumulative(popularity);
+
+        int userCount = scale.users();
+        int userBase = nextId("users", "user_id");
+        int preferenceBase = nextId("user_preferences", "preference_id");
+        int historyBase = nextId("browsing_history", "history_id");
+        String userSql = "INSERT INTO users (user_id, username, password, phone_number, user_profile, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        String preferenceSql = "INSERT INTO user_preferences (preference_id, user_id, preference_data, created_at, updated_at) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        String historySql = "INSERT INTO browsing_history (history_id, user_id, property_id, behavior_data, created_at) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        List<Object[]> preferences = new ArrayList<Object[]>();
+        List<Object[]> history = new ArrayList<Object[]>();
+        long preferenceCount = 0;
+        long historyCount = 0;
+        double continueProbability = scale.viewsPerUser > 1 ? 1.0 - 1.0 / scale.viewsPerUser : 0.0;
+        for (int u = 0; u < userCount; u++) {
+            int userId = userBase + u;
+            int district = pick(random, DISTRICT_WEIGHTS);
+            if (districtListings[district].length == 0) {
+                district = listingDistrict[search(allCumulative, random.nextDouble())];
+            }
+            int anchor = districtListings[district][search(districtCumulative[district], random.nextDouble())];
+            batch.add(new Object[]{
+                    userId,
+                    "bench_" + scale.seed + "_" + userId,
+                    "123456",
+                    String.format(Locale.ROOT, "199%08d", userId % 100000000),
+                    String.format(Locale.ROOT, "{\"budget\": %.0f, \"family_size\": %d}",
+                            listingPrice[anchor] * 1.1, 1 + random.nextInt(5)),
+                    new Timestamp(today - (long) (random.nextDouble() * 365) * 86400000L)
+            });
+            flush(batch, userSql, false);
+
+            if (random.nextDouble() < scale.preferenceRatio) {
+                Timestamp at = new Timestamp(today - (long) (random.nextDouble() * 60) * 86400000L);
+                preferences.add(new Object[]{
+                        preferenceBase + (int) preferenceCount++,
+                        userId,
+                        String.format(Locale.ROOT, "{\"price_range\": {\"min\": %.0f, \"max\": %.0f}, " +
+                                "\"area_range\": {\"min\": %.0f, \"max\": %.0f}, " +
+                                "\"bedroom_range\": {\"min\": %d, \"max\": %d}, \"districts\": [\"%s\"]}",
+                                listingPrice[anchor] * 0.8, listingPrice[anchor] * 1.2,
+                                listingArea[anchor] * 0.85, listingArea[anchor] * 1.15,
+                                Math.max(1, listingBedrooms[anchor] - 1), listingBedrooms[anchor],
+                                DISTRICTS[district]),
+                        at,
+                        at
+                });
+            }
+
+            // 浏览数为几何分布，1% 的重度用户浏览量放大 10 倍
+            int views = 1;
+            while (random.nextDouble() < continueProbability) {
+                views++;
+            }
+            if (random.nextDouble() < 0.01) {
+                views *= 10;
+            }
+            for (int v = 0; v < views; v++) {
+                int listing = random.nextDouble() < 0.8
+                        ? districtListings[district][search(districtCumulative[district], random.nextDouble())]
+                        : search(allCumulative, random.nextDouble());
+                int count = 1;
+                while (count < 20 && random.nextDouble() < 0.4) {
+                    count++;
+                }
+                history.add(new Object[]{
+                        historyBase + (int) historyCount++,
+                        userId,
+                        propertyBase + listing,
+                        String.format(Locale.ROOT, "{\"duration\": %d, \"count\": %d}",
+                                (int) Math.min(3600, 45 * Math.exp(0.9 * random.nextGaussian())), count),
+                        new Timestamp(today - (long) (random.nextDouble() * 45 * 86400000L))
+                });
+            }
+            if (history.size() >= BATCH_SIZE) {
+                // 先写完本批用户，浏览记录与偏好的外键才成立
+                flush(batch, userSql, true);
+                flush(preferences, preferenceSql, true);
+                flush(history, historySql, true);
+            }
+        }
+        flush(batch, userSql, true);
+        flush(preferences, preferenceSql, true);
+        flush(history, historySql, true);
+        written.put("users", (long) userCount);
+        written.put("user_preferences", preferenceCount);
+        written.put("browsing_history", historyCount);
+
+        System.out.println("合成数据生成完成（" + scale + "）：" + written + "，耗时 "
+                + (System.currentTimeMillis() - start) + "ms");
+        return written;
+    }
+
+    private boolean isH2() {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        return product != null && product.toUpperCase(Locale.ROOT).contains("H2");
+    }
+
+    private int nextId(String table, String column) {
+        Integer max = jdbcTemplate.queryForObject("SELECT MAX(" + column + ") FROM " + table, Integer.class);
+        return max == null ? 1 : max + 1;
+    }
+
+    /**
+     * 攒够一批（或 force）时批量写入并清空。
+     */
+    private void flush(List<Object[]> batch, String sql, boolean force) {
+        if (batch.isEmpty() || (!force && batch.size() < BATCH_SIZE)) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(sql, batch);
+        batch.clear();
+    }
+
+    private static int pick(Random random, double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double target = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * 归一化的累积分布（最后一项为 1）。
+     */
+    private static double[] cumulative(double[] weights) {
+        double[] cumulative = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    /**
+     * 累积分布中第一个不小于 u 的位置。
+     */
+    private static int search(double[] cumulative, double u) {
+        int index = Arrays.binarySearch(cumulative, u);
+        return Math.min(cumulative.length - 1, index >= 0 ? index : -index - 1);
+    }
+}
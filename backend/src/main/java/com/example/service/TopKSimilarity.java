@@ -0,0 +1,348 @@
+package com.example.service;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * 精确 Top-K 余弦相似度：直接读取内存映射的 {@link FeatureMatrix}（float32、行优先），不拷贝整个矩阵，
+ * 只额外保存每行的 L2 范数倒数。用 ForkJoin 按行块并行计算点积，列方向按块遍历以复用缓存，
+ * 每行只保留一个大小为 K 的最小堆。计算量仍为 O(n²·d)，但内存与输出都是 O(n·K)。
+ * 给出 {@link SimilarityBlocking} 时每行只与自己的候选行打分，计算量降为 O(候选对数·d)。
+ */
+final class TopKSimilarity {
+
+    /** 每个并行任务负责的行数 */
+    private static final int ROW_BLOCK = 64;
+    /** 列块大小：一个列块的向量约占十几 KB，可常驻 L2 */
+    private static final int COLUMN_BLOCK = 256;
+
+    private TopKSimilarity() {
+    }
+
+    /**
+     * 每行 L2 范数的倒数；零向量记为 0（与任何向量的相似度都为 0）。
+     */
+    static double[] inverseNorms(FeatureMatrix matrix) {
+        FloatBuffer vectors = matrix.vectors();
+        int rows = matrix.rows();
+        int dim = matrix.dim();
+        double[] result = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            int offset = i * dim;
+            double norm = 0.0;
+            for (int d = 0; d < dim; d++) {
+                double value = vectors.get(offset + d);
+                norm += value * value;
+            }
+            result[i] = norm == 0.0 ? 0.0 : 1.0 / Math.sqrt(norm);
+        }
+        return result;
+    }
+
+    /**
+     * 对矩阵中每一行求相似度最高的 k 个其它行（不含自身），只保留分数大于 minScore 的邻居。
+     */
+    static Neighbors compute(FeatureMatrix matrix, int k, double minScore, int parallelism) {
+        return compute(matrix, inverseNorms(matrix), null, null, k, minScore, parallelism);
+    }
+
+    /**
+     * 只为 queryRows 中的行求 Top-K，结果按 queryRows 中的位置编号；queryRows 为 null 表示全部行。
+     * blocking 为 null 时与全部行比较，否则只与各自的候选行比较。
+     */
+    static Neighbors compute(FeatureMatrix matrix, double[] inverseNorms, int[] queryRows, SimilarityBlocking blocking,
+                             int k, double minScore, int parallelism) {
+        int count = queryRows == null ? matrix.rows() : queryRows.length;
+        Neighbors neighbors = new Neighbors(count, k);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.invoke(new RowBlockTask(matrix.vectors(), inverseNorms, matrix.rows(), matrix.dim(), queryRows,
+                    blocking, minScore, neighbors, 0, count));
+        } finally {
+            pool.shutdown();
+        }
+        return neighbors;
+    }
+
+    /**
+     * 每一行与 columns 中各行（不含自身，给出 blocking 时只算候选行）的最大相似度，没有可比较的行时为负无穷。
+     * 用于增量计算时判断哪些行的 Top-K 可能被变化的房源挤入。
+     */
+    static double[] maxSimilarity(FeatureMatrix matrix, final double[] inverseNorms, final int[] columns,
+                                  final SimilarityBlocking blocking, int parallelism) {
+        final FloatBuffer vectors = matrix.vectors();
+        final int rows = matrix.rows();
+        final int dim = matrix.dim();
+        // 变化的房源通常很少，先拷贝成连续数组
+        final float[] columnVectors = new float[columns.length * dim];
+        for (int c = 0; c < columns.length; c++) {
+            for (int d = 0; d < dim; d++) {
+                columnVectors[c * dim + d] = vectors.get(columns[c] * dim + d);
+            }
+        }
+        final double[] result = new double[rows];
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.submit(() -> IntStream.range(0, rows).parallel().forEach(i -> {
+                double best = Double.NEGATIVE_INFINITY;
+                float[] row = new float[dim];
+                for (int d = 0; d < dim; d++) {
+                    row[d] = vectors.get(i * dim + d);
+                }
+                for (int c = 0; c < columns.length; c++) {
+                    int j = columns[c];
+                    if (j == i || (blocking != null && !blocking.allows(i, j))) {
+                        continue;
+                    }
+                    int columnOffset = c * dim;
+                    double dot = 0.0;
+                    for (int d = 0; d < dim; d++) {
+                        dot += (double) row[d] * columnVectors[columnOffset + d];
+                    }
+                    dot *= inverseNorms[i] * inverseNorms[j];
+                    if (dot > best) {
+                        best = dot;
+                    }
+                }
+                result[i] = best;
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("相似度计算被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("相似度计算失败", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    private static final class RowBlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FloatBuffer vectors;
+        private final double[] inverseNorms;
+        private final int rows;
+        private final int dim;
+        private final int[] queryRows;
+        private final SimilarityBlocking blocking;
+        private final double minScore;
+        private final Neighbors neighbors;
+        private final int from;
+        private final int to;
+
+        private RowBlockTask(FloatBuffer vectors, double[] inverseNorms, int rows, int dim, int[] queryRows,
+                             SimilarityBlocking blocking, double minScore, Neighbors neighbors, int from, int to) {
+            this.vectors = vectors;
+            this.inverseNorms = inverseNorms;
+            this.rows = rows;
+            this.dim = dim;
+            this.queryRows = queryRows;
+            this.blocking = blocking;
+            this.minScore = minScore;
+            this.neighbors = neighbors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROW_BLOCK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RowBlockTask(vectors, inverseNorms, rows, dim, queryRows, blocking, minScore, neighbors,
+                                from, mid),
+                        new RowBlockTask(vectors, inverseNorms, rows, dim, queryRows, blocking, minScore, neighbors,
+                                mid, to));
+                return;
+            }
+            if (blocking != null) {
+                computeBlocked();
+                return;
+            }
+            // 本块的查询行与当前列块各拷贝一份归一化后的 double 副本，内层循环只读堆上的小数组
+            int count = to - from;
+            double[] block = new double[count * dim];
+            for (int position = from; position < to; position++) {
+                int i = queryRows == null ? position : queryRows[position];
+                copyNormalized(i, block, (position - from) * dim);
+            }
+            double[] columns = new double[COLUMN_BLOCK * dim];
+            for (int columnStart = 0; columnStart < rows; columnStart += COLUMN_BLOCK) {
+                int columnEnd = Math.min(rows, columnStart + COLUMN_BLOCK);
+                for (int j = columnStart; j < columnEnd; j++) {
+                    copyNormalized(j, columns, (j - columnStart) * dim);
+                }
+                for (int position = from; position < to; position++) {
+                    int i = queryRows == null ? position : queryRows[position];
+                    int rowOffset = (position - from) * dim;
+                    for (int j = columnStart; j < columnEnd; j++) {
+                        if (j == i) {
+                            continue;
+                        }
+                        int columnOffset = (j - columnStart) * dim;
+                        double dot = 0.0;
+                        for (int d = 0; d < dim; d++) {
+                            dot += block[rowOffset + d] * columns[columnOffset + d];
+                        }
+                        if (dot > minScore) {
+                            neighbors.offer(position, j, dot);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 分块模式：候选行分散在各个格子里，逐行取候选、逐个打分。
+         */
+        private void computeBlocked() {
+            double[] row = new double[dim];
+            double[] column = new double[dim];
+            int[] candidates = new int[rows];
+            for (int position = from; position < to; position++) {
+                int i = queryRows == null ? position : queryRows[position];
+                copyNormalized(i, row, 0);
+                int size = blocking.candidates(i, candidates);
+                for (int c = 0; c < size; c++) {
+                    int j = candidates[c];
+                    copyNormalized(j, column, 0);
+                    double dot = 0.0;
+                    for (int d = 0; d < dim; d++) {
+                        dot += row[d] * column[d];
+                    }
+                    if (dot > minScore) {
+                        neighbors.offer(position, j, dot);
+                    }
+                }
+            }
+        }
+
+        private void copyNormalized(int row, double[] target, int offset) {
+            double scale = inverseNorms[row];
+            int source = row * dim;
+            for (int d = 0; d < dim; d++) {
+                target[offset + d] = vectors.get(source + d) * scale;
+            }
+        }
+    }
+
+    /**
+     * 每行一个容量为 k 的最小堆（堆顶为当前第 k 名），所有行共用两块连续数组。
+     * 每行只由一个任务写入，无需同步。
+     */
+    static final class Neighbors {
+        private final int k;
+        private final int[] sizes;
+        private final int[] indices;
+        private final double[] scores;
+
+        private Neighbors(int rows, int k) {
+            this.k = k;
+            this.sizes = new int[rows];
+            this.indices = new int[rows * k];
+            this.scores = new double[rows * k];
+        }
+
+        private void offer(int row, int index, double score) {
+            int base = row * k;
+            int size = sizes[row];
+            if (size < k) {
+                // 上浮
+                int child = size;
+                while (child > 0) {
+                    int parent = (child - 1) >>> 1;
+                    if (scores[base + parent] <= score) {
+                        break;
+                    }
+                    scores[base + child] = scores[base + parent];
+                    indices[base + child] = indices[base + parent];
+                    child = parent;
+                }
+                scores[base + child] = score;
+                indices[base + child] = index;
+                sizes[row] = size + 1;
+                return;
+            }
+            if (score <= scores[base]) {
+                return;
+            }
+            // 替换堆顶后下沉
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= k) {
+                    break;
+                }
+                if (child + 1 < k && scores[base + child + 1] < scores[base + child]) {
+                    child++;
+                }
+                if (scores[base + child] >= score) {
+                    break;
+                }
+                scores[base + parent] = scores[base + child];
+                indices[base + parent] = indices[base + child];
+                parent = child;
+            }
+            scores[base + parent] = score;
+            indices[base + parent] = index;
+        }
+
+        /**
+         * 某行的邻居个数（可能少于 k）。
+         */
+        int size(int row) {
+            return sizes[row];
+        }
+
+        /**
+         * 某行邻居按相似度从高到低排序后的下标。
+         */
+        int[] sortedIndices(int row) {
+            int[] order = sortedOrder(row);
+            int[] result = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                result[i] = indices[row * k + order[i]];
+            }
+            return result;
+        }
+
+        /**
+         * 与 {@link #sortedIndices} 对应的相似度。
+         */
+        double[] sortedScores(int row) {
+            int[] order = sortedOrder(row);
+            double[] result = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                result[i] = scores[row * k + order[i]];
+            }
+            return result;
+        }
+
+        private int[] sortedOrder(int row) {
+            int base = row * k;
+            int size = sizes[row];
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // k 通常只有几十，插入排序即可；分数相同时按下标升序，保证结果稳定
+            for (int i = 1; i < size; i++) {
+                int current = order[i];
+                int j = i - 1;
+                while (j >= 0 && before(base + current, base + order[j])) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = current;
+            }
+            return order;
+        }
+
+        private boolean before(int a, int b) {
+            return scores[a] > scores[b] || (scores[a] == scores[b] && indices[a] < indices[b]);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 每个用户浏览/收藏过的房源集合：压缩行存储（CSR），用户按 user_id 升序编号，每个用户的房源 ID 升序且不重复，
+ * 另有房源到用户的倒排，用于按定义精确求某个用户的 Jaccard 最近邻（评估近似算法的召回率）。
+ */
+final class UserItemSets {
+
+    private final int[] userIds;
+    private final int[] offsets;
+    private final int[] items;
+    private int[] itemKeys;
+    private int[] itemOffsets;
+    private int[] itemUsers;
+
+    private UserItemSets(int[] userIds, int[] offsets, int[] items) {
+        this.userIds = userIds;
+        this.offsets = offsets;
+        this.items = items;
+    }
+
+    int users() {
+        return userIds.length;
+    }
+
+    int userId(int user) {
+        return userIds[user];
+    }
+
+    /**
+     * 用户编号，不存在时返回 -1。
+     */
+    int indexOf(int userId) {
+        int index = Arrays.binarySearch(userIds, userId);
+        return index >= 0 ? index : -1;
+    }
+
+    int size(int user) {
+        return offsets[user + 1] - offsets[user];
+    }
+
+    int start(int user) {
+        return offsets[user];
+    }
+
+    int end(int user) {
+        return offsets[user + 1];
+    }
+
+    int item(int position) {
+        return items[position];
+    }
+
+    long totalItems() {
+        return items.length;
+    }
+
+    /**
+     * 两个用户房源集合的 Jaccard 系数（有序数组归并求交集）。
+     */
+    double jaccard(int u, int v) {
+        int x = offsets[u];
+        int xEnd = offsets[u + 1];
+        int y = offsets[v];
+        int yEnd = offsets[v + 1];
+        int common = 0;
+        while (x < xEnd && y < yEnd) {
+            if (items[x] < items[y]) {
+                x++;
+            } else if (items[x] > items[y]) {
+                y++;
+            } else {
+                common++;
+                x++;
+                y++;
+            }
+        }
+        int union = (xEnd - offsets[u]) + (yEnd - offsets[v]) - common;
+        return union == 0 ? 0.0 : (double) common / union;
+    }
+
+    /**
+     * 按定义精确求用户 u 的 Jaccard 最高的 k 个用户（大于 minScore），返回用户编号，按相似度降序、编号升序。
+     * 只遍历与 u 有共同房源的用户；第一次调用时建立倒排。
+     */
+    int[] exactTopK(int u, int k, double minScore) {
+        buildInvertedIndex();
+        Map<Integer, Integer> common = new HashMap<Integer, Integer>();
+        for (int x = offsets[u]; x < offsets[u + 1]; x++) {
+            int item = Arrays.binarySearch(itemKeys, items[x]);
+            for (int y = itemOffsets[item]; y < itemOffsets[item + 1]; y++) {
+                int v = itemUsers[y];
+                if (v != u) {
+                    common.merge(v, 1, Integer::sum);
+                }
+            }
+        }
+        int[] candidates = new int[common.size()];
+        double[] scores = new double[common.size()];
+        int size = 0;
+        for (Map.Entry<Integer, Integer> entry : common.entrySet()) {
+            int v = entry.getKey();
+            double score = (double) entry.getValue() / (size(u) + size(v) - entry.getValue());
+            if (score > minScore) {
+                candidates[size] = v;
+                scores[size] = score;
+                size++;
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b]
+                ? Double.compare(scores[b], scores[a]) : Integer.compare(candidates[a], candidates[b]));
+        int[] result = new int[Math.min(k, size)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = candidates[order[i]];
+        }
+        return result;
+    }
+
+    private synchronized void buildInvertedIndex() {
+        if (itemKeys != null) {
+            return;
+        }
+        int[] sorted = items.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        int[] keys = Arrays.copyOf(sorted, distinct);
+        int[] counts = new int[distinct + 1];
+        for (int item : items) {
+            counts[Arrays.binarySearch(keys, item) + 1]++;
+        }
+        for (int i = 0; i < distinct; i++) {
+            counts[i + 1] += counts[i];
+        }
+        int[] users = new int[items.length];
+        int[] fill = Arrays.copyOf(counts, distinct);
+        for (int u = 0; u < userIds.length; u++) {
+            for (int x = offsets[u]; x < offsets[u + 1]; x++) {
+                users[fill[Arrays.binarySearch(keys, items[x])]++] = u;
+            }
+        }
+        itemOffsets = counts;
+        itemUsers = users;
+        itemKeys = keys;
+    }
+
+    /**
+     * 按用户顺序逐条接收（用户, 房源），同一用户的记录须连续出现，重复的房源会被合并。
+     */
+    static final class Builder {
+        private int[] userIds = new int[1024];
+        private int[] offsets = new int[1025];
+        private int[] items = new int[4096];
+        private int users;
+        private int length;
+        private long currentUser = Long.MIN_VALUE;
+
+        void add(int userId, int propertyId) {
+            if (userId != currentUser) {
+                flushUser();
+                if (users == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, users * 2);
+                    offsets = Arrays.copyOf(offsets, users * 2 + 1);
+                }
+                userIds[users] = userId;
+                currentUser = userId;
+            }
+            if (length == items.length) {
+                items = Arrays.copyOf(items, length * 2);
+            }
+            items[length++] = propertyId;
+        }
+
+        UserItemSets build() {
+            flushUser();
+            int[] ids = Arrays.copyOf(userIds, users);
+            for (int u = 1; u < users; u++) {
+                if (ids[u] <= ids[u - 1]) {
+                    throw new IllegalStateException("用户记录须按 user_id 升序且连续出现");
+                }
+            }
+            return new UserItemSets(ids, Arrays.copyOf(offsets, users + 1), Arrays.copyOf(items, length));
+        }
+
+        /**
+         * 结束当前用户：排序去重后登记其区间。
+         */
+        private void flushUser() {
+            if (currentUser == Long.MIN_VALUE) {
+                return;
+            }
+            int start = offsets[users];
+            Arrays.sort(items, start, length);
+            int write = start;
+            for (int x = start; x < length; x++) {
+                if (write == start || items[write - 1] != items[x]) {
+                    items[write++] = items[x];
+                }
+            }
+            length = write;
+            users++;
+            offsets[users] = length;
+            currentUser = Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 用户浏览/收藏集合的 MinHash 签名库：每个用户一行，签名按小端序 int 紧凑存为 VARBINARY（numHashes × 4 字节），
+ * 同时记录签名对应的集合大小。
+ * <ul>
+ *     <li>浏览或收藏新房源时由 {@link #recordInteractions(int, Collection)} 逐位取最小值更新签名，不重读用户的全部记录；
+ *     用户还没有签名时按其当前记录计算。</li>
+ *     <li>签名只能并入、不能移除房源：取消收藏后由 {@link #rebuild(int)} 按当前记录重算。set_size 只在并入新房源时加一，
+ *     不用当前计数覆盖，因此绕过接口删除的记录会让 set_size 与实际集合大小不一致，
+ *     下一次事件或批量计算时（{@link UserSimilarityService#calculateUserSimilarityMinHash()}）据此发现并重算。</li>
+ *     <li>签名与哈希个数、种子绑定，配置改变后旧签名视为不存在。</li>
+ * </ul>
+ */
+@Service
+public class UserMinHashStore {
+
+    private static final String CREATE_SQL =
+            "CREATE TABLE IF NOT EXISTS user_minhash_signatures (" +
+            "user_id int NOT NULL COMMENT '用户ID', " +
+            "num_hashes int NOT NULL COMMENT '哈希个数', " +
+            "hash_seed bigint NOT NULL COMMENT '哈希函数种子', " +
+            "signature varbinary(4096) NOT NULL COMMENT 'MinHash 签名（小端序 int 数组）', " +
+            "set_size int NOT NULL COMMENT '签名对应的浏览/收藏房源数', " +
+            "updated_at timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间', " +
+            "PRIMARY KEY (user_id), " +
+            "CONSTRAINT user_minhash_signatures_ibfk_1 FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='用户浏览集合 MinHash 签名表'";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO user_minhash_signatures (user_id, num_hashes, hash_seed, signature, set_size) " +
+            "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE num_hashes = VALUES(num_hashes), " +
+            "hash_seed = VALUES(hash_seed), signature = VALUES(signature), set_size = VALUES(set_size)";
+
+    /** 用户浏览过或收藏过的房源（去重） */
+    private static final String ITEMS_SQL =
+            "SELECT property_id FROM browsing_history WHERE user_id = ? " +
+            "UNION SELECT property_id FROM favorites WHERE user_id = ?";
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int LOCK_STRIPES = 64;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MinHashLsh lsh;
+    /** 同一用户的更新串行执行（读出签名、取最小值、写回） */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private volatile boolean tableReady;
+
+    @Autowired
+    public UserMinHashStore(JdbcTemplate jdbcTemplate,
+                            @Value("${similarity.minhash.num-hashes:256}") int numHashes,
+                            @Value("${similarity.minhash.bands:128}") int bands,
+                            @Value("${similarity.minhash.seed:1}") long seed) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lsh = new MinHashLsh(numHashes, bands, seed);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    MinHashLsh lsh() {
+        return lsh;
+    }
+
+    /**
+     * 用户浏览或收藏了一套房源（记录已写入）：把房源并入该用户的签名，返回更新后的签名。
+     */
+    public int[] recordInteraction(int userId, int propertyId) {
+        return recordInteractions(userId, Collections.singleton(propertyId));
+    }
+
+    /**
+     * 用户浏览或收藏了若干房源（记录已写入）：依次并入该用户的签名，读写签名与统计记录数各一次，返回更新后的签名。
+     * 并入时签名改变的房源不在签名对应的集合中，集合应增加这些房源；
+     * 与当前记录数一致时只写回签名与新的 set_size，不一致说明签名已与记录不符（有记录被删除或漏掉了事件），按当前记录重算。
+     */
+    public int[] recordInteractions(int userId, Collection<Integer> propertyIds) {
+        ensureTable();
+        synchronized (locks[Math.floorMod(userId, LOCK_STRIPES)]) {
+            List<Map<String, Object>> stored = jdbcTemplate.queryForList(
+                    "SELECT signature, set_size FROM user_minhash_signatures " +
+                    "WHERE user_id = ? AND num_hashes = ? AND hash_seed = ?",
+                    userId, lsh.numHashes(), lsh.seed());
+            if (stored.isEmpty()) {
+                return rebuildLocked(userId);
+            }
+            int storedSize = ((Number) stored.get(0).get("set_size")).intValue();
+            Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM (" + ITEMS_SQL + ") items",
+                    Integer.class, userId, userId);
+            int setSize = count == null ? 0 : count;
+            int[] signature = decode((byte[]) stored.get(0).get("signature"));
+            int added = 0;
+            for (Integer propertyId : new HashSet<Integer>(propertyIds)) {
+                if (lsh.update(signature, 0, propertyId)) {
+                    added++;
+                }
+            }
+            if (setSize != storedSize + added) {
+                return rebuildLocked(userId);
+            }
+            if (added == 0) {
+                return signature;
+            }
+            // 新房源只取最小值，不读取用户的全部记录
+            jdbcTemplate.update(UPSERT_SQL, userId, lsh.numHashes(), lsh.seed(), encode(signature, 0, lsh.numHashes()),
+                    setSize);
+            return signature;
+        }
+    }
+
+    /**
+     * 按用户当前的浏览/收藏记录重算签名（取消收藏等记录减少时调用），返回新签名。
+     */
+    public int[] rebuild(int userId) {
+        ensureTable();
+        synchronized (locks[Math.floorMod(userId, LOCK_STRIPES)]) {
+            return rebuildLocked(userId);
+        }
+    }
+
+    private int[] rebuildLocked(int userId) {
+        List<Integer> items = jdbcTemplate.queryForList(ITEMS_SQL, Integer.class, userId, userId);
+        int[] signature = lsh.emptySignature();
+        for (Integer item : items) {
+            lsh.update(signature, 0, item);
+        }
+        jdbcTemplate.update(UPSERT_SQL, userId, lsh.numHashes(), lsh.seed(), encode(signature, 0, lsh.numHashes()),
+                items.size());
+        return signature;
+    }
+
+    /**
+     * 逐个读取与当前配置一致、最近更新的 limit 个签名，按更新时间从早到晚。
+     */
+    void forEachRecentSignature(int limit, BiConsumer<Integer, int[]> consumer) {
+        ensureTable();
+        jdbcTemplate.query("SELECT user_id, signature FROM (" +
+                        "SELECT user_id, signature, updated_at FROM user_minhash_signatures " +
+                        "WHERE num_hashes = ? AND hash_seed = ? ORDER BY updated_at DESC, user_id DESC LIMIT ?" +
+                        ") recent ORDER BY updated_at, user_id",
+                rs -> {
+                    consumer.accept(rs.getInt("user_id"), decode(rs.getBytes("signature")));
+                }, lsh.numHashes(), lsh.seed(), limit);
+    }
+
+    /**
+     * 读取 sets 中各用户的签名写入 signatures（布局见 {@link MinHashLsh}），返回读到的用户；
+     * 签名缺失或集合大小与 sets 不一致的用户不读取，由调用方重算。
+     */
+    boolean[] load(UserItemSets sets, int[] signatures) {
+        ensureTable();
+        final boolean[] loaded = new boolean[sets.users()];
+        final int numHashes = lsh.numHashes();
+        jdbcTemplate.query("SELECT user_id, signature, set_size FROM user_minhash_signatures " +
+                        "WHERE num_hashes = ? AND hash_seed = ?",
+                rs -> {
+                    int u = sets.indexOf(rs.getInt("user_id"));
+                    if (u < 0 || rs.getInt("set_size") != sets.size(u)) {
+                        return;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(rs.getBytes("signature")).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int i = 0; i < numHashes; i++) {
+                        signatures[u * numHashes + i] = buffer.getInt();
+                    }
+                    loaded[u] = true;
+                }, numHashes, lsh.seed());
+        return loaded;
+    }
+
+    /**
+     * 保存 sets 中 loaded 为 false 的用户的签名，返回写入的用户数。
+     */
+    int save(UserItemSets sets, int[] signatures, boolean[] loaded) {
+        ensureTable();
+        int numHashes = lsh.numHashes();
+        List<Object[]> batch = new ArrayList<Object[]>(BATCH_SIZE);
+        int saved = 0;
+        for (int u = 0; u < sets.users(); u++) {
+            if (loaded[u]) {
+                continue;
+            }
+            batch.add(new Object[]{sets.userId(u), numHashes, lsh.seed(),
+                    encode(signatures, u * numHashes, numHashes), sets.size(u)});
+            if (batch.size() == BATCH_SIZE) {
+                jdbcTemplate.batchUpdate(UPSERT_SQL, batch);
+                saved += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, batch);
+            saved += batch.size();
+        }
+        return saved;
+    }
+
+    private void ensureTable() {
+        if (!tableReady) {
+            jdbcTemplate.execute(CREATE_SQL);
+            tableReady = true;
+        }
+    }
+
+    private static byte[] encode(int[] signatures, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < length; i++) {
+            buffer.putInt(signatures[offset + i]);
+        }
+        return buffer.array();
+    }
+
+    private int[] decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int[] signature = new int[lsh.numHashes()];
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = buffer.getInt();
+        }
+        return signature;
+    }
+}
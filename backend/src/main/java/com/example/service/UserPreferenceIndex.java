@@ -0,0 +1,402 @@
+package com.example.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * 用户偏好区间索引：价格、面积、卧室数三个偏好区间解析一次后按列存为 double 数组，
+ * 只有三个区间都有交集的用户才计算相似度。
+ * <ul>
+ *     <li>价格 × 面积区间构成一个矩形，按对数坐标划分网格，每个用户登记到其矩形覆盖的所有格子；
+ *     两个矩形相交时必有一个格子同时登记了双方，因此只需扫描 u 覆盖的格子。</li>
+ *     <li>格子宽度取各用户区间宽度（对数）的中位数，使典型用户只覆盖 1～4 个格子；每维最多 {@link #MAX_CELLS} 格。</li>
+ *     <li>相似度沿用偏好向量 [价格下限, 价格上限, 面积下限, 面积上限, 卧室下限, 卧室上限] 的余弦相似度，
+ *     每个用户保留最高的 k 个邻居。</li>
+ *     <li>偏好区间往往大面积重叠，只按交集筛选仍接近两两比较。对单位化的偏好向量，cos(u, v) = 1 − |û − v̂|² / 2
+ *     ≤ 1 − ((û − v̂)·w)² / 2 对任一单位方向 w 成立；格子内的用户按在第一主成分上的投影排序，从 u 的位置向两侧扫描，
+ *     上界低于当前第 k 名（或 minScore）时停止，结果与逐对比较相同。</li>
+ * </ul>
+ */
+final class UserPreferenceIndex {
+
+    /** 每维最多的格子数，避免区间很窄时格子过多、区间很宽的用户登记过多格子 */
+    static final int MAX_CELLS = 256;
+
+    private static final int DIMENSIONS = 6;
+
+    /** 排序键（0～2）按 2^-30 量化后排序，扫描时的上界按量化误差放宽 */
+    private static final double KEY_SLACK = 1.0 / (1L << 29);
+
+    private final int users;
+    private final int[] userIds;
+    /** 用户 u 的偏好向量位于 [u·6, u·6 + 6)：价格下限、价格上限、面积下限、面积上限、卧室下限、卧室上限 */
+    private final double[] features;
+    private final double[] norms;
+    private final Axis price;
+    private final Axis area;
+    /** 格子 (x, y) 的编号为 x·area.cells + y，其中的用户位于 cellUsers[cellOffsets[c], cellOffsets[c + 1]) */
+    private final int[] cellOffsets;
+    private final int[] cellUsers;
+    /** cellUsers 中各用户的排序键（单位化偏好向量在第一主成分上的投影），每个格子内递增 */
+    private final double[] cellKeys;
+    private final double[] keys;
+
+    private UserPreferenceIndex(int[] userIds, double[] features) {
+        this.users = userIds.length;
+        this.userIds = userIds;
+        this.features = features;
+        norms = new double[users];
+        for (int u = 0; u < users; u++) {
+            double sum = 0.0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                sum += features[u * DIMENSIONS + d] * features[u * DIMENSIONS + d];
+            }
+            norms[u] = Math.sqrt(sum);
+        }
+        price = new Axis(features, 0, users);
+        area = new Axis(features, 2, users);
+
+        int cells = price.cells * area.cells;
+        cellOffsets = new int[cells + 1];
+        for (int u = 0; u < users; u++) {
+            for (int x = price.first(u); x <= price.last(u); x++) {
+                for (int y = area.first(u); y <= area.last(u); y++) {
+                    cellOffsets[x * area.cells + y + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cells; c++) {
+            cellOffsets[c + 1] += cellOffsets[c];
+        }
+        keys = sortKeys(features, norms, users);
+        // 按排序键的顺序登记，每个格子内自然有序
+        long[] order = new long[users];
+        for (int u = 0; u < users; u++) {
+            order[u] = ((long) (keys[u] * (1L << 30)) << 32) | u;
+        }
+        Arrays.sort(order);
+        cellUsers = new int[cellOffsets[cells]];
+        cellKeys = new double[cellOffsets[cells]];
+        int[] fill = Arrays.copyOf(cellOffsets, cells);
+        for (long packed : order) {
+            int u = (int) packed;
+            for (int x = price.first(u); x <= price.last(u); x++) {
+                for (int y = area.first(u); y <= area.last(u); y++) {
+                    int position = fill[x * area.cells + y]++;
+                    cellUsers[position] = u;
+                    cellKeys[position] = keys[u];
+                }
+            }
+        }
+    }
+
+    /**
+     * 各用户单位化偏好向量在第一主成分方向上的投影（协方差矩阵幂迭代求得）。
+     * 对任一单位方向 w 都有 |(û − v̂)·w| ≤ |û − v̂|，取方差最大的方向使排序键最分散、扫描最早停止。
+     */
+    private static double[] sortKeys(double[] features, double[] norms, int users) {
+        double[] mean = new double[DIMENSIONS];
+        for (int u = 0; u < users; u++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                mean[d] += unit(features, norms, u, d) / users;
+            }
+        }
+        double[][] covariance = new double[DIMENSIONS][DIMENSIONS];
+        for (int u = 0; u < users; u++) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                double a = unit(features, norms, u, i) - mean[i];
+                for (int j = 0; j < DIMENSIONS; j++) {
+                    covariance[i][j] += a * (unit(features, norms, u, j) - mean[j]);
+                }
+            }
+        }
+        double[] direction = new double[DIMENSIONS];
+        Arrays.fill(direction, 1.0 / Math.sqrt(DIMENSIONS));
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double[] next = new double[DIMENSIONS];
+            double length = 0.0;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                for (int j = 0; j < DIMENSIONS; j++) {
+                    next[i] += covariance[i][j] * direction[j];
+                }
+                length += next[i] * next[i];
+            }
+            if (length == 0.0) {
+                break;
+            }
+            length = Math.sqrt(length);
+            for (int i = 0; i < DIMENSIONS; i++) {
+                direction[i] = next[i] / length;
+            }
+        }
+        // 投影平移到 [0, 2] 区间，便于量化排序
+        double[] keys = new double[users];
+        for (int u = 0; u < users; u++) {
+            double key = 1.0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                key += unit(features, norms, u, d) * direction[d];
+            }
+            keys[u] = key;
+        }
+        return keys;
+    }
+
+    private static double unit(double[] features, double[] norms, int u, int d) {
+        return norms[u] == 0.0 ? 0.0 : features[u * DIMENSIONS + d] / norms[u];
+    }
+
+    int users() {
+        return users;
+    }
+
+    int userId(int user) {
+        return userIds[user];
+    }
+
+    /**
+     * 网格的格子数与各用户登记的格子总数，供日志估计索引的选择性。
+     */
+    String describe() {
+        return price.cells + " × " + area.cells + " 格，登记 " + cellUsers.length + " 次";
+    }
+
+    /**
+     * 三个偏好区间是否都有交集。
+     */
+    boolean overlaps(int u, int v) {
+        int x = u * DIMENSIONS;
+        int y = v * DIMENSIONS;
+        for (int d = 0; d < DIMENSIONS; d += 2) {
+            if (features[x + d] > features[y + d + 1] || features[y + d] > features[x + d + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    double cosine(int u, int v) {
+        if (norms[u] == 0.0 || norms[v] == 0.0) {
+            return 0.0;
+        }
+        double dot = 0.0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            dot += features[u * DIMENSIONS + d] * features[v * DIMENSIONS + d];
+        }
+        return dot / (norms[u] * norms[v]);
+    }
+
+    /**
+     * 每个用户在偏好区间有交集的用户中余弦相似度最高的 k 个（大于 minScore，按相似度降序、user_id 升序）。
+     *
+     * @param compared 累加实际计算相似度的次数，可为 null
+     */
+    SparseUserSimilarity.Neighbors topK(final int k, final double minScore, ForkJoinPool pool,
+                                        final AtomicLong compared) {
+        final int[][] neighbors = new int[users][];
+        final double[][] scores = new double[users][];
+        try {
+            pool.submit(() -> IntStream.range(0, users).parallel().forEach(u -> {
+                Candidates best = new Candidates(k);
+                long count = 0;
+                for (int x = price.first(u); x <= price.last(u); x++) {
+                    for (int y = area.first(u); y <= area.last(u); y++) {
+                        count += scan(u, x, y, minScore, best);
+                    }
+                }
+                neighbors[u] = Arrays.copyOf(best.users, best.size);
+                scores[u] = Arrays.copyOf(best.scores, best.size);
+                if (compared != null) {
+                    compared.addAndGet(count);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("用户内容相似度计算被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("用户内容相似度计算失败", e.getCause());
+        }
+        return new SparseUserSimilarity.Neighbors(neighbors, scores);
+    }
+
+    /**
+     * 在格子 (x, y) 中从 u 的排序键位置向两侧扫描，每次取键更接近的一侧，上界不足时停止；返回计算相似度的次数。
+     */
+    private long scan(int u, int x, int y, double minScore, Candidates best) {
+        int cell = x * area.cells + y;
+        int start = cellOffsets[cell];
+        int end = cellOffsets[cell + 1];
+        double key = keys[u];
+        int up = lowerBound(start, end, key);
+        int down = up - 1;
+        long count = 0;
+        while (up < end || down >= start) {
+            boolean takeUp = down < start || (up < end && cellKeys[up] - key <= key - cellKeys[down]);
+            int i = takeUp ? up++ : down--;
+            double gap = Math.max(0.0, Math.abs(cellKeys[i] - key) - KEY_SLACK);
+            double bound = 1.0 - gap * gap / 2 + 1e-9;
+            // 另一侧的键离得更远，上界只会更低
+            if (bound <= minScore || (best.size == best.users.length && bound < best.scores[best.size - 1])) {
+                break;
+            }
+            int v = cellUsers[i];
+            if (v == u || !overlaps(u, v)) {
+                continue;
+            }
+            count++;
+            double score = cosine(u, v);
+            if (score > minScore) {
+                best.offer(v, score);
+            }
+        }
+        return count;
+    }
+
+    private int lowerBound(int start, int end, double key) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cellKeys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean better(double score, int user, double otherScore, int otherUser) {
+        return score > otherScore || (score == otherScore && userIds[user] < userIds[otherUser]);
+    }
+
+    /**
+     * 单个用户的 Top-K 候选，有序插入，相似度相同时 user_id 小的在前。
+     */
+    private final class Candidates {
+        private final int[] users;
+        private final double[] scores;
+        private int size;
+
+        Candidates(int k) {
+            users = new int[k];
+            scores = new double[k];
+        }
+
+        void offer(int user, double score) {
+            int k = users.length;
+            if (size == k && !better(score, user, scores[k - 1], users[k - 1])) {
+                return;
+            }
+            // 同一用户可能出现在 u 覆盖的多个格子里
+            for (int i = 0; i < size; i++) {
+                if (users[i] == user) {
+                    return;
+                }
+            }
+            int position = size < k ? size++ : k - 1;
+            while (position > 0 && better(score, user, scores[position - 1], users[position - 1])) {
+                users[position] = users[position - 1];
+                scores[position] = scores[position - 1];
+                position--;
+            }
+            users[position] = user;
+            scores[position] = score;
+        }
+    }
+
+    /**
+     * 一个维度（价格或面积）的对数网格。
+     */
+    private static final class Axis {
+        private final double origin;
+        private final double width;
+        private final int cells;
+        private final int[] first;
+        private final int[] last;
+
+        Axis(double[] features, int offset, int users) {
+            double low = Double.MAX_VALUE;
+            double high = -Double.MAX_VALUE;
+            double[] widths = new double[users];
+            for (int u = 0; u < users; u++) {
+                double min = Math.log(features[u * DIMENSIONS + offset]);
+                double max = Math.log(features[u * DIMENSIONS + offset + 1]);
+                low = Math.min(low, min);
+                high = Math.max(high, max);
+                widths[u] = max - min;
+            }
+            double span = users == 0 ? 0.0 : high - low;
+            Arrays.sort(widths);
+            double median = users == 0 ? 0.0 : widths[users / 2];
+            double cellWidth = Math.max(median, span / MAX_CELLS);
+            origin = low;
+            width = cellWidth > 0.0 ? cellWidth : 1.0;
+            cells = Math.max(1, Math.min(MAX_CELLS, (int) (span / width) + 1));
+            first = new int[users];
+            last = new int[users];
+            for (int u = 0; u < users; u++) {
+                first[u] = cell(features[u * DIMENSIONS + offset]);
+                last[u] = cell(features[u * DIMENSIONS + offset + 1]);
+            }
+        }
+
+        int first(int user) {
+            return first[user];
+        }
+
+        int last(int user) {
+            return last[user];
+        }
+
+        int cell(double value) {
+            int cell = (int) ((Math.log(value) - origin) / width);
+            return Math.max(0, Math.min(cells - 1, cell));
+        }
+    }
+
+    /**
+     * 按 user_id 升序逐条接收偏好，同一用户有多条时以最后一条为准。
+     * 缺失或为 0 的区间端点取默认值（价格 200～800 万、面积 60～150 平米、卧室 1～4 间），下限大于上限时交换。
+     */
+    static final class Builder {
+        private static final double[] DEFAULTS = {200.0, 800.0, 60.0, 150.0, 1.0, 4.0};
+
+        private int[] userIds = new int[1024];
+        private double[] features = new double[1024 * DIMENSIONS];
+        private int users;
+
+        void add(int userId, double priceMin, double priceMax, double areaMin, double areaMax,
+                 double bedroomMin, double bedroomMax) {
+            if (users > 0 && userIds[users - 1] == userId) {
+                users--;
+            } else if (users > 0 && userIds[users - 1] > userId) {
+                throw new IllegalStateException("偏好记录须按 user_id 升序出现");
+            }
+            if (users == userIds.length) {
+                userIds = Arrays.copyOf(userIds, users * 2);
+                features = Arrays.copyOf(features, users * 2 * DIMENSIONS);
+            }
+            double[] values = {priceMin, priceMax, areaMin, areaMax, bedroomMin, bedroomMax};
+            for (int d = 0; d < DIMENSIONS; d++) {
+                // 旧版正则解析只识别非负数，负数与缺失一样取默认值
+                features[users * DIMENSIONS + d] = values[d] > 0.0 ? values[d] : DEFAULTS[d];
+            }
+            for (int d = 0; d < DIMENSIONS; d += 2) {
+                int index = users * DIMENSIONS + d;
+                if (features[index] > features[index + 1]) {
+                    double swap = features[index];
+                    features[index] = features[index + 1];
+                    features[index + 1] = swap;
+                }
+            }
+            userIds[users++] = userId;
+        }
+
+        UserPreferenceIndex build() {
+            return new UserPreferenceIndex(Arrays.copyOf(userIds, users), Arrays.copyOf(features, users * DIMENSIONS));
+        }
+    }
+}
@@ -3,15 +3,16 @@ package com.example.service;
 import org.springframework.stereotype.Service;
 import org.apache.spark.sql.*;
 import org.apache.spark.sql.types.*;
-import org.apache.spark.ml.linalg.Matrix;
-import org.apache.spark.ml.feature.VectorAssembler;
-import org.apache.spark.ml.stat.Correlation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import java.util.*;
 import java.sql.Timestamp;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 @Service
 public class UserSimilarityService {
@@ -22,301 +23,337 @@ public class UserSimilarityService {
     @Autowired
     private SparkSession sparkSession;
     
+    @Autowired
+    private SimilarityTableWriter tableWriter;
+    
+    @Autowired
+    private SparkJdbcReader sparkJdbcReader;
+    
+    @Autowired
+    private UserMinHashStore minHashStore;
+    
+    /** 协同过滤时每个用户保留的最相似用户数 */
+    @Value("${similarity.user.top-k:20}")
+    private int cfTopK;
+    
+    /** 协同过滤保留的最低相关系数 */
+    @Value("${similarity.user.min-score:0.1}")
+    private double cfMinScore;
+    
+    /** 浏览人数超过该值的房源不用来寻找候选用户对（相关系数仍按全部房源计算），0 表示不限制 */
+    @Value("${similarity.user.max-users-per-item:1000}")
+    private int cfMaxUsersPerItem;
+    
+    /** 协同过滤的并行度，0 表示使用全部 CPU 核 */
+    @Value("${similarity.user.parallelism:0}")
+    private int cfParallelism;
+    
+    /** 基于偏好的内容相似度每个用户保留的最相似用户数 */
+    @Value("${similarity.user.content-top-k:20}")
+    private int contentTopK;
+    
+    /** 内容相似度保留的最低余弦相似度 */
+    @Value("${similarity.user.content-min-score:0.1}")
+    private double contentMinScore;
+    
+    /** MinHash 近似计算时每个用户保留的最相似用户数 */
+    @Value("${similarity.minhash.top-k:20}")
+    private int minHashTopK;
+    
+    /** MinHash 近似计算保留的最低 Jaccard 系数 */
+    @Value("${similarity.minhash.min-score:0.1}")
+    private double minHashMinScore;
+    
+    /** LSH 同一桶中参与两两比较的最多用户数 */
+    @Value("${similarity.minhash.max-bucket-size:500}")
+    private int minHashMaxBucketSize;
+    
+    /** 评估召回率时抽样精确计算的用户数，0 表示不评估 */
+    @Value("${similarity.minhash.recall-sample:200}")
+    private int minHashRecallSample;
+    
+    /** 最近一次 MinHash 计算的耗时、候选对与召回率 */
+    private volatile Map<String, Object> minHashReport = Collections.emptyMap();
+    
     /**
      * 基于用户行为计算用户相似度（协同过滤）
-     * 
+     * 用户-房源评分保持稀疏，只比较浏览过同一房源的用户对，每个用户保留相关系数最高的 top-k 个邻居。
      */
     public void calculateUserSimilarityCF() {
-        // 1. 从数据库获取用户行为数据
-        String sql = "SELECT user_id, property_id, " +
-                    "COALESCE(JSON_EXTRACT(behavior_data, '$.duration'), 0) as duration, " +
-                    "COALESCE(JSON_EXTRACT(behavior_data, '$.count'), 1) as view_count " +
-                    "FROM browsing_history " +
-                    "WHERE created_at >= DATE_SUB(NOW(), INTERVAL 30 DAY)";
-        
-        List<Map<String, Object>> behaviorData = jdbcTemplate.queryForList(sql);
-        
-        if (behaviorData.isEmpty()) {
-            System.out.println("没有用户行为数据");
-            return;
-        }
-        
-        // 2. 转换为Spark DataFrame
-        List<Row> rows = new ArrayList<>();
-        for (Map<String, Object> row : behaviorData) {
-            rows.add(RowFactory.create(
-                row.get("user_id").toString(),
-                row.get("property_id").toString(),
-                Double.parseDouble(row.get("duration").toString()),
-                Double.parseDouble(row.get("view_count").toString())
-            ));
-        }
-        
-        // 创建schema
-        StructType schema = DataTypes.createStructType(Arrays.asList(
-            DataTypes.createStructField("user_id", 
-                DataTypes.StringType, false),
-            DataTypes.createStructField("property_id", 
-                DataTypes.StringType, false),
-            DataTypes.createStructField("duration", 
-                DataTypes.DoubleType, false),
-            DataTypes.createStructField("view_count", 
-                DataTypes.DoubleType, false)
-        ));
-        
-        Dataset<Row> behaviorDF = sparkSession.createDataFrame(rows, schema);
-        
-        // 3. 构建用户-房源评分矩阵
-        Dataset<Row> userItemMatrix = behaviorDF
+        // 1. 由 Spark 按 history_id 分区读取近 30 天的浏览记录，时间条件下推到各分区的 SQL
+        Timestamp since = new Timestamp(System.currentTimeMillis() - 30L * 24 * 60 * 60 * 1000);
+        
+        // 2. 在各分区上解析行为 JSON，不再经 driver 端中转
+        Dataset<Row> behaviorDF = sparkJdbcReader.read("browsing_history", "history_id")
+            .where(functions.col("created_at").geq(functions.lit(since)))
+            .select(
+                functions.col("user_id").cast(DataTypes.IntegerType).alias("user_id"),
+                functions.col("property_id").cast(DataTypes.IntegerType).alias("property_id"),
+                functions.coalesce(
+                    functions.get_json_object(functions.col("behavior_data"), "$.duration").cast(DataTypes.DoubleType),
+                    functions.lit(0.0)).alias("duration"),
+                functions.coalesce(
+                    functions.get_json_object(functions.col("behavior_data"), "$.count").cast(DataTypes.DoubleType),
+                    functions.lit(1.0)).alias("view_count"));
+        
+        // 3. 按 (用户, 房源) 汇总评分，逐个分区取回 driver 并直接写入压缩的稀疏行
+        Dataset<Row> scores = behaviorDF
             .withColumn("score", 
                 functions.col("duration").multiply(0.3)
                 .plus(functions.col("view_count").multiply(0.7)))
             .groupBy("user_id", "property_id")
-            .agg(functions.sum("score").alias("score"))
-            .groupBy("user_id")
-            .pivot("property_id")
-            .agg(functions.first("score"))
-            .na().fill(0.0);
+            .agg(functions.sum("score").alias("score"));
+        
+        SparseUserSimilarity.Builder builder = new SparseUserSimilarity.Builder();
+        Iterator<Row> rows = scores.toLocalIterator();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            builder.add(row.getInt(0), row.getInt(1), row.getDouble(2));
+        }
+        SparseUserSimilarity similarity = builder.build();
         
         // 检查是否有足够的数据
-        if (userItemMatrix.count() < 2) {
+        if (similarity.users() < 2) {
             System.out.println("用户数量不足，无法计算相似度");
             return;
         }
         
-        // 4. 转换为特征向量
-        String[] featureCols = userItemMatrix.columns();
-        featureCols = Arrays.copyOfRange(featureCols, 1, featureCols.length);
-        
-        if (featureCols.length == 0) {
-            System.out.println("没有房源特征数据");
-            return;
+        // 4. 计算每个用户的 Top-K 邻居（皮尔逊相关系数）
+        long startTime = System.currentTimeMillis();
+        int threads = cfParallelism > 0 ? cfParallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        SparseUserSimilarity.Neighbors neighbors;
+        try {
+            neighbors = similarity.topK(Math.max(1, cfTopK), cfMinScore, cfMaxUsersPerItem, pool);
+        } finally {
+            pool.shutdown();
         }
+        System.out.println("用户协同过滤: 用户 " + similarity.users() + ", 房源 " + similarity.items()
+                + ", 线程 " + threads + ", 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
         
-        VectorAssembler assembler = new VectorAssembler()
-            .setInputCols(featureCols)
-            .setOutputCol("features");
-        
-        Dataset<Row> featureDF = assembler.transform(userItemMatrix);
-        
-        // 5. 计算相关性（使用皮尔逊相关系数）
-        Row corrRow = Correlation.corr(featureDF, "features", "pearson").head();
-        Matrix corrMatrix = (Matrix) corrRow.get(0);
-        
-        // 6. 获取用户ID列表
-        List<String> userIds = userItemMatrix.select("user_id")
-            .as(org.apache.spark.sql.Encoders.STRING())
-            .collectAsList();
-        
-        // 7. 保存相似度到数据库
-        saveUserSimilarities(userIds, corrMatrix);
+        // 5. 保存相似度到数据库
+        saveUserSimilarities("pearson_cf", Collections.singletonList("pearson_cf"), similarity.users(), similarity::userId, neighbors);
     }
     
     /**
-     * 基于用户偏好计算用户相似度（基于内容）
+     * 基于浏览/收藏集合的近似用户相似度（MinHash + LSH）。
+     * 用户的集合为浏览过或收藏过的全部房源，签名优先取自签名库（浏览、收藏时已增量更新），缺失或过期的重新计算并写回；
+     * 只对 LSH 候选对精确计算 Jaccard，每个用户保留 top-k 个邻居，算法记为 minhash_jaccard。
+     * 结束后抽样若干用户按定义精确求 Top-K，与近似结果比较得到召回率，连同各阶段耗时见 {@link #getMinHashReport()}。
      */
-    public void calculateUserSimilarityContent() {
-        // 1. 获取用户偏好数据
-        String sql = "SELECT u.user_id, up.preference_data " +
-                    "FROM users u " +
-                    "LEFT JOIN user_preferences up ON u.user_id = up.user_id " +
-                    "WHERE up.preference_data IS NOT NULL";
-        
-        List<Map<String, Object>> preferences = jdbcTemplate.queryForList(sql);
-        
-        if (preferences.isEmpty()) {
-            System.out.println("没有用户偏好数据");
-            return;
+    public void calculateUserSimilarityMinHash() {
+        long startTime = System.currentTimeMillis();
+        MinHashLsh lsh = minHashStore.lsh();
+        
+        // 1. 由 Spark 分区读取浏览记录与收藏，去重后按用户顺序取回 driver
+        Dataset<Row> interactions = sparkJdbcReader.read("browsing_history", "history_id")
+            .select(functions.col("user_id").cast(DataTypes.IntegerType).alias("user_id"),
+                functions.col("property_id").cast(DataTypes.IntegerType).alias("property_id"))
+            .union(sparkJdbcReader.read("favorites", "favorite_id")
+                .select(functions.col("user_id").cast(DataTypes.IntegerType).alias("user_id"),
+                    functions.col("property_id").cast(DataTypes.IntegerType).alias("property_id")))
+            .distinct()
+            .orderBy("user_id");
+        UserItemSets.Builder builder = new UserItemSets.Builder();
+        Iterator<Row> rows = interactions.toLocalIterator();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            builder.add(row.getInt(0), row.getInt(1));
         }
-        
-        // 2. 提取特征向量
-        Map<Integer, Map<String, Double>> userFeatures = new HashMap<>();
-        
-        for (Map<String, Object> pref : preferences) {
-            Integer userId = (Integer) pref.get("user_id");
-            String preferenceData = (String) pref.get("preference_data");
-            
-            // 解析JSON并提取特征（这里简化处理）
-            Map<String, Double> features = extractFeaturesFromPreferences(preferenceData);
-            userFeatures.put(userId, features);
-        }
-        
-        // 3. 计算用户间相似度
-        List<Integer> userIds = new ArrayList<>(userFeatures.keySet());
-        
-        for (int i = 0; i < userIds.size(); i++) {
-            for (int j = i + 1; j < userIds.size(); j++) {
-                Integer user1 = userIds.get(i);
-                Integer user2 = userIds.get(j);
-                
-                double similarity = calculateCosineSimilarity(
-                    userFeatures.get(user1), 
-                    userFeatures.get(user2)
-                );
-                
-                // 4. 保存到数据库
-                if (similarity > 0.1) { // 只保存有意义的相似度
-                    saveUserSimilarity(user1, user2, similarity);
-                }
-            }
+        UserItemSets sets = builder.build();
+        if (sets.users() < 2) {
+            System.out.println("用户数量不足，无法计算相似度");
+            return;
         }
-    }
-    
-    private Map<String, Double> extractFeaturesFromPreferences(String preferenceData) {
-        Map<String, Double> features = new HashMap<>();
+        long loadMs = System.currentTimeMillis() - startTime;
         
+        int threads = cfParallelism > 0 ? cfParallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Map<String, Object> report = new LinkedHashMap<>();
         try {
-            // 这里简化处理，实际应该用JSON解析器
-            // 提取价格偏好
-            features.put("price_min", extractDoubleValue(preferenceData, "min", "price_range"));
-            features.put("price_max", extractDoubleValue(preferenceData, "max", "price_range"));
+            // 2. 签名：读取签名库，缺失或集合大小已变化的用户重新计算并写回
+            long signatureStart = System.currentTimeMillis();
+            int[] signatures = new int[sets.users() * lsh.numHashes()];
+            boolean[] loaded = minHashStore.load(sets, signatures);
+            pool.submit(() -> IntStream.range(0, sets.users()).parallel()
+                .filter(u -> !loaded[u])
+                .forEach(u -> lsh.fill(sets, u, signatures))).get();
+            int recomputed = minHashStore.save(sets, signatures, loaded);
+            long signatureMs = System.currentTimeMillis() - signatureStart;
             
-            // 提取面积偏好
-            features.put("area_min", extractDoubleValue(preferenceData, "min", "area_range"));
-            features.put("area_max", extractDoubleValue(preferenceData, "max", "area_range"));
+            // 3. LSH 候选对精确比较，取每个用户的 Top-K
+            long lshStart = System.currentTimeMillis();
+            int k = Math.max(1, minHashTopK);
+            MinHashLsh.Stats stats = new MinHashLsh.Stats();
+            SparseUserSimilarity.Neighbors neighbors =
+                lsh.topK(sets, signatures, k, minHashMinScore, Math.max(2, minHashMaxBucketSize), pool, stats);
+            long lshMs = System.currentTimeMillis() - lshStart;
             
-            // 提取卧室数量偏好
-            features.put("bedroom_min", extractDoubleValue(preferenceData, "min", "bedroom_range"));
-            features.put("bedroom_max", extractDoubleValue(preferenceData, "max", "bedroom_range"));
+            long allPairs = (long) sets.users() * (sets.users() - 1) / 2;
+            report.put("users", sets.users());
+            report.put("interactions", sets.totalItems());
+            report.put("numHashes", lsh.numHashes());
+            report.put("bands", lsh.bands());
+            report.put("rowsPerBand", lsh.rows());
+            report.put("signaturesReused", sets.users() - recomputed);
+            report.put("signaturesRecomputed", recomputed);
+            report.put("candidatePairs", stats.candidatePairs);
+            report.put("allPairs", allPairs);
+            report.put("comparedRatio", (double) stats.candidatePairs / allPairs);
+            report.put("matchedPairs", stats.matchedPairs);
+            report.put("cappedBuckets", stats.cappedBuckets);
+            report.put("loadMs", loadMs);
+            report.put("signatureMs", signatureMs);
+            report.put("lshMs", lshMs);
             
-            // 添加默认值防止空值
-            if (features.get("price_min") == 0) features.put("price_min", 200.0);
-            if (features.get("price_max") == 0) features.put("price_max", 800.0);
-            if (features.get("area_min") == 0) features.put("area_min", 60.0);
-            if (features.get("area_max") == 0) features.put("area_max", 150.0);
-            if (features.get("bedroom_min") == 0) features.put("bedroom_min", 1.0);
-            if (features.get("bedroom_max") == 0) features.put("bedroom_max", 4.0);
+            // 4. 抽样评估召回率：与按定义精确求出的 Top-K 比较，并按抽样耗时估算精确计算全部用户的耗时
+            evaluateMinHashRecall(sets, neighbors, k, report);
             
-        } catch (Exception e) {
-            System.err.println("解析用户偏好数据失败: " + e.getMessage());
-            // 设置默认特征值
-            features.put("price_min", 200.0);
-            features.put("price_max", 800.0);
-            features.put("area_min", 60.0);
-            features.put("area_max", 150.0);
-            features.put("bedroom_min", 1.0);
-            features.put("bedroom_max", 4.0);
+            // 5. 保存相似度到数据库，同时替换在线增量写入的近似邻居
+            saveUserSimilarities("minhash_jaccard", Arrays.asList("minhash_jaccard", IncrementalUserSimilarity.ALGORITHM),
+                sets.users(), sets::userId, neighbors);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("MinHash 签名计算被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("MinHash 签名计算失败", e.getCause());
+        } finally {
+            pool.shutdown();
         }
-        
-        return features;
+        report.put("totalMs", System.currentTimeMillis() - startTime);
+        minHashReport = Collections.unmodifiableMap(report);
+        System.out.println("用户 MinHash 相似度: " + report);
+    }
+    
+    /**
+     * 最近一次 {@link #calculateUserSimilarityMinHash()} 的统计：用户数、签名复用/重算数、候选对数与占全部用户对的比例、
+     * 各阶段耗时（ms）、抽样召回率 recallAtK 及精确计算全部用户的估算耗时 exactEstimatedMs。尚未计算时为空。
+     */
+    public Map<String, Object> getMinHashReport() {
+        return minHashReport;
     }
     
-    private double extractDoubleValue(String json, String key, String parent) {
-        if (json == null) return 0.0;
-        Pattern pattern = Pattern.compile("\"" + parent + "\":\\s*\\{[^}]*\"" + key + "\":\\s*(\\d+\\.?\\d*)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            return Double.parseDouble(matcher.group(1));
+    private void evaluateMinHashRecall(UserItemSets sets, SparseUserSimilarity.Neighbors neighbors, int k,
+                                       Map<String, Object> report) {
+        int sample = Math.min(minHashRecallSample, sets.users());
+        if (sample <= 0) {
+            return;
+        }
+        // 固定种子抽样，便于不同参数之间比较
+        Random random = new Random(42);
+        int[] users = random.ints(0, sets.users()).distinct().limit(sample).toArray();
+        long start = System.currentTimeMillis();
+        long expected = 0;
+        long found = 0;
+        for (int u : users) {
+            int[] exact = sets.exactTopK(u, k, minHashMinScore);
+            expected += exact.length;
+            for (int v : exact) {
+                if (neighbors.contains(u, v)) {
+                    found++;
+                }
+            }
         }
-        return 0.0;
+        long exactMs = System.currentTimeMillis() - start;
+        report.put("recallSample", sample);
+        report.put("recallAtK", expected == 0 ? 1.0 : (double) found / expected);
+        report.put("exactSampleMs", exactMs);
+        report.put("exactEstimatedMs", exactMs * sets.users() / sample);
     }
     
-    private double calculateCosineSimilarity(Map<String, Double> vec1, Map<String, Double> vec2) {
-        double dotProduct = 0.0;
-        double norm1 = 0.0;
-        double norm2 = 0.0;
-        
-        // 获取所有特征键
-        Set<String> allKeys = new HashSet<>();
-        allKeys.addAll(vec1.keySet());
-        allKeys.addAll(vec2.keySet());
-        
-        for (String key : allKeys) {
-            double v1 = vec1.getOrDefault(key, 0.0);
-            double v2 = vec2.getOrDefault(key, 0.0);
-            
-            dotProduct += v1 * v2;
-            norm1 += v1 * v1;
-            norm2 += v2 * v2;
+    /**
+     * 基于用户偏好计算用户相似度（基于内容）
+     * 偏好 JSON 在 Spark 各分区内解析为价格、面积、卧室数区间，只比较三个区间都有交集的用户对，
+     * 每个用户保留余弦相似度最高的 top-k 个邻居，结果整表替换 cosine_content 记录。
+     */
+    public void calculateUserSimilarityContent() {
+        // 1. 由 Spark 按 preference_id 分区读取偏好，在各分区内取出区间端点
+        Dataset<Row> preferences = sparkJdbcReader.read("user_preferences", "preference_id")
+            .where(functions.col("preference_data").isNotNull())
+            .select(
+                functions.col("user_id").cast(DataTypes.IntegerType).alias("user_id"),
+                functions.col("preference_id"),
+                rangeBound("price_range", "min"), rangeBound("price_range", "max"),
+                rangeBound("area_range", "min"), rangeBound("area_range", "max"),
+                rangeBound("bedroom_range", "min"), rangeBound("bedroom_range", "max"))
+            .orderBy("user_id", "preference_id");
+        
+        // 2. 按用户顺序取回 driver，写入按列存放的数组（同一用户有多条偏好时取最后一条）
+        UserPreferenceIndex.Builder builder = new UserPreferenceIndex.Builder();
+        Iterator<Row> rows = preferences.toLocalIterator();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            builder.add(row.getInt(0), row.getDouble(2), row.getDouble(3), row.getDouble(4),
+                row.getDouble(5), row.getDouble(6), row.getDouble(7));
+        }
+        UserPreferenceIndex index = builder.build();
+        if (index.users() < 2) {
+            System.out.println("没有用户偏好数据");
+            return;
         }
         
-        if (norm1 == 0.0 || norm2 == 0.0) {
-            return 0.0;
+        // 3. 并行计算每个用户在区间有交集的用户中的 Top-K
+        long startTime = System.currentTimeMillis();
+        int threads = cfParallelism > 0 ? cfParallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        AtomicLong compared = new AtomicLong();
+        SparseUserSimilarity.Neighbors neighbors;
+        try {
+            neighbors = index.topK(Math.max(1, contentTopK), contentMinScore, pool, compared);
+        } finally {
+            pool.shutdown();
         }
+        System.out.println("用户内容相似度: 用户 " + index.users() + ", 区间索引 " + index.describe()
+                + ", 计算相似度 " + compared.get() + " 次, 线程 " + threads
+                + ", 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
         
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+        // 4. 整表替换原有的内容相似度记录
+        saveUserSimilarities("cosine_content", Collections.singletonList("cosine_content"), index.users(), index::userId, neighbors);
     }
     
-    private void saveUserSimilarities(List<String> userIds, Matrix correlation) {
-        // 清理旧数据
-        jdbcTemplate.update("DELETE FROM user_similarity WHERE created_at < DATE_SUB(NOW(), INTERVAL 7 DAY)");
-        
-        // 批量插入新数据
-        String insertSql = "INSERT INTO user_similarity " +
-                        "(user_id1, user_id2, similarity_data, created_at, updated_at) " +
-                        "VALUES (?, ?, ?, NOW(), NOW()) " +
-                        "ON DUPLICATE KEY UPDATE " +
-                        "similarity_data = VALUES(similarity_data), " +
-                        "updated_at = NOW()";
-        
-        List<Object[]> batchArgs = new ArrayList<>();
-        
-        // 获取相关系数矩阵 - 修正这里：Matrix.toArray() 返回的是 double[] 不是 double[][]
-        int numRows = correlation.numRows();
-        int numCols = correlation.numCols();
-        double[] corrValues = correlation.toArray(); // 这是一个一维数组
-        
-        System.out.println("相关系数矩阵维度: " + numRows + " x " + numCols);
-        
-        // 将一维数组按二维矩阵的方式访问
-        for (int i = 0; i < numRows; i++) {
-            for (int j = i + 1; j < numCols; j++) {
-                // 在一维数组中的索引：i * numCols + j
-                int index = i * numCols + j;
-                if (index < corrValues.length) {
-                    double similarity = corrValues[index];
-                    
-                    if (!Double.isNaN(similarity) && similarity > 0.1) {
-                        try {
-                            int user1 = Integer.parseInt(userIds.get(i));
-                            int user2 = Integer.parseInt(userIds.get(j));
-                            
-                            String similarityData = String.format(
-                                "{\"similarity_score\": %.4f, \"algorithm\": \"pearson_cf\", " +
-                                "\"features_used\": [\"browsing_duration\", \"view_count\"]}",
-                                similarity
-                            );
-                            
-                            // 确保user_id1 < user_id2以保持一致性
-                            int minId = Math.min(user1, user2);
-                            int maxId = Math.max(user1, user2);
-                            
-                            batchArgs.add(new Object[]{minId, maxId, similarityData});
-                        } catch (Exception e) {
-                            System.err.println("处理相似度数据错误: " + e.getMessage());
-                        }
+    /**
+     * 偏好 JSON 中区间端点的数值列，缺失时为 0（由 {@link UserPreferenceIndex.Builder} 取默认值）。
+     */
+    private static Column rangeBound(String range, String bound) {
+        return functions.coalesce(
+            functions.get_json_object(functions.col("preference_data"), "$." + range + "." + bound)
+                .cast(DataTypes.DoubleType),
+            functions.lit(0.0)).alias(range + "_" + bound);
+    }
+    
+    /**
+     * 保存每个用户的 Top-K 邻居。每对用户只存一条（user_id1 < user_id2），只要在任一方的邻居中即保留，
+     * 因此按 user_id1 或 user_id2 查询都能取到该用户完整的 Top-K。replacedAlgorithms 中算法的旧记录被整体替换。
+     */
+    private void saveUserSimilarities(String algorithm, Collection<String> replacedAlgorithms, int users,
+                                      IntUnaryOperator userIds, SparseUserSimilarity.Neighbors neighbors) {
+        // 结果写入暂存文件后整表替换该算法原有的相似度记录，不再逐批 upsert
+        try (SimilarityTableWriter.Replacement replacement =
+                 tableWriter.replace(SimilarityTableWriter.USER, replacedAlgorithms)) {
+            for (int u = 0; u < users; u++) {
+                int[] userNeighbors = neighbors.neighbors(u);
+                double[] userScores = neighbors.scores(u);
+                for (int rank = 0; rank < userNeighbors.length; rank++) {
+                    int v = userNeighbors[rank];
+                    // 双方互为邻居时只在编号小的一方写入
+                    if (v < u && neighbors.contains(v, u)) {
+                        continue;
                     }
+                    int user1 = userIds.applyAsInt(u);
+                    int user2 = userIds.applyAsInt(v);
+                    // 确保user_id1 < user_id2以保持一致性
+                    replacement.add(Math.min(user1, user2), Math.max(user1, user2), userScores[rank],
+                        algorithm, null, null);
                 }
             }
+            
+            if (replacement.rows() > 0) {
+                long saved = replacement.commit();
+                System.out.println("保存了 " + saved + " 条用户相似度记录");
+            } else {
+                System.out.println("没有找到有意义的相似度数据");
+            }
         }
-        
-        if (!batchArgs.isEmpty()) {
-            jdbcTemplate.batchUpdate(insertSql, batchArgs);
-            System.out.println("保存了 " + batchArgs.size() + " 条用户相似度记录");
-        } else {
-            System.out.println("没有找到有意义的相似度数据");
-        }
-    }
-    
-    private void saveUserSimilarity(int user1, int user2, double similarity) {
-        String sql = "INSERT INTO user_similarity " +
-                    "(user_id1, user_id2, similarity_data, created_at, updated_at) " +
-                    "VALUES (?, ?, ?, NOW(), NOW()) " +
-                    "ON DUPLICATE KEY UPDATE " +
-                    "similarity_data = VALUES(similarity_data), " +
-                    "updated_at = NOW()";
-        
-        String similarityData = String.format(
-            "{\"similarity_score\": %.4f, \"algorithm\": \"cosine_content\", " +
-            "\"features_used\": [\"price_range\", \"area_range\", \"bedroom_range\"]}",
-            similarity
-        );
-        
-        // 确保user_id1 < user_id2以保持一致性
-        int minId = Math.min(user1, user2);
-        int maxId = Math.max(user1, user2);
-        
-        jdbcTemplate.update(sql, minId, maxId, similarityData);
     }
     
     /**
@@ -0,0 +1,41 @@
+package com.example.service.predict_zhz;
+
+/**
+ * 批量预测中单行的结果：成功时带预测值，失败时带错误信息，互不影响。
+ */
+public class BatchPrediction {
+
+    private final String city;
+    private final Double prediction;
+    private final String error;
+
+    private BatchPrediction(String city, Double prediction, String error) {
+        this.city = city;
+        this.prediction = prediction;
+        this.error = error;
+    }
+
+    public static BatchPrediction success(String city, double prediction) {
+        return new BatchPrediction(city, prediction, null);
+    }
+
+    public static BatchPrediction failure(String city, String error) {
+        return new BatchPrediction(city, null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Double getPrediction() {
+        return prediction;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.service.predict_zhz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 某个城市某一版本的已加载模型：配置、特征编译器与推理后端（JVM 内树模型或常驻 Python 进程池）。
+ * 调用方通过 {@link ModelRegistry#acquire} 取得并在用完后 {@link #release()}；
+ * 新版本替换后旧版本被标记为退役，等进行中的调用全部结束才真正释放资源。
+ */
+abstract class CityModel implements Closeable {
+
+    private final String folderName;
+    private final long version;
+    private final CityModelConfig config;
+    private final long loadedAt = System.currentTimeMillis();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean retired;
+
+    CityModel(String folderName, long version, CityModelConfig config) {
+        this.folderName = folderName;
+        this.version = version;
+        this.config = config;
+    }
+
+    String getFolderName() {
+        return folderName;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    CityModelConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 对已按模型列顺序编译好的向量做推理。
+     */
+    abstract double[] predict(double[][] vectors) throws Exception;
+
+    /**
+     * 等待推理后端可用（进程池需要等所有进程加载完模型）。
+     */
+    void awaitReady(long timeoutMillis) throws Exception {
+    }
+
+    void healthCheck() {
+    }
+
+    /**
+     * 用合成样本（均值向量及其上下浮动）预热：让每个进程、JIT 都先跑过一遍，替换后的首个请求不再有冷启动延迟。
+     */
+    void warmUp() throws Exception {
+        double[] mean = config.defaultVector();
+        double[] lower = mean.clone();
+        double[] upper = mean.clone();
+        for (int i = 0; i < mean.length; i++) {
+            lower[i] *= 0.9;
+            upper[i] *= 1.1;
+        }
+        double[][] samples = new double[][]{mean, lower, upper};
+        for (int round = 0; round < warmUpRounds(); round++) {
+            predict(samples);
+        }
+    }
+
+    int warmUpRounds() {
+        return 1;
+    }
+
+    boolean tryAcquire() {
+        inFlight.incrementAndGet();
+        if (retired) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    void release() {
+        if (inFlight.decrementAndGet() == 0 && retired) {
+            closeOnce();
+        }
+    }
+
+    /**
+     * 标记退役：不再接受新的调用，进行中的调用结束后释放资源。
+     */
+    void retire() {
+        retired = true;
+        if (inFlight.get() == 0) {
+            closeOnce();
+        }
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("version", version);
+        stats.put("loadedAt", loadedAt);
+        stats.put("inFlight", inFlight.get());
+        return stats;
+    }
+
+    private void closeOnce() {
+        if (closed.compareAndSet(false, true)) {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * predictor.engine=java：JVM 内随机森林推理。
+     */
+    static final class InProcess extends CityModel {
+
+        private final RandomForestScorer scorer;
+        private final PredictionMetrics.CityMetrics metrics;
+
+        InProcess(String folderName, long version, CityModelConfig config, RandomForestScorer scorer,
+                  PredictionMetrics.CityMetrics metrics) {
+            super(folderName, version, config);
+            this.scorer = scorer;
+            this.metrics = metrics;
+        }
+
+        @Override
+        double[] predict(double[][] vectors) {
+            long start = System.nanoTime();
+            double[] predictions = scorer.predictBatch(vectors);
+            metrics.record(PredictionMetrics.Stage.EVALUATE, System.nanoTime() - start);
+            return predictions;
+        }
+
+        @Override
+        int warmUpRounds() {
+            return 3;
+        }
+
+        @Override
+        Map<String, Object> snapshot() {
+            Map<String, Object> stats = super.snapshot();
+            stats.put("engine", "java");
+            stats.put("trees", scorer.treeCount());
+            return stats;
+        }
+    }
+
+    /**
+     * predictor.engine=python：常驻 Python 进程池推理。
+     */
+    static final class Python extends CityModel {
+
+        private final PythonWorkerPool pool;
+
+        Python(String folderName, long version, CityModelConfig config, PythonWorkerPool pool) {
+            super(folderName, version, config);
+            this.pool = pool;
+        }
+
+        @Override
+        double[] predict(double[][] vectors) throws Exception {
+            Map<String, Object> request = new HashMap<String, Object>();
+            request.put("vectors", vectors);
+
+            JsonNode node = pool.call(request);
+            if (node.has("error")) {
+                throw new IllegalStateException("预测脚本执行失败：" + node.get("error").asText());
+            }
+            JsonNode predictions = node.get("predictions");
+            if (predictions == null || predictions.size() != vectors.length) {
+                throw new IllegalStateException("预测脚本返回的 predictions 数量不匹配：" + node);
+            }
+            double[] result = new double[vectors.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = predictions.get(i).asDouble();
+            }
+            return result;
+        }
+
+        @Override
+        void awaitReady(long timeoutMillis) throws Exception {
+            pool.awaitReady(timeoutMillis);
+        }
+
+        @Override
+        void healthCheck() {
+            pool.healthCheck();
+        }
+
+        @Override
+        int warmUpRounds() {
+            // 空闲队列先进先出，依次调用即可让每个进程都处理一次
+            return pool.size();
+        }
+
+        @Override
+        Map<String, Object> snapshot() {
+            Map<String, Object> stats = super.snapshot();
+            stats.put("engine", "python");
+            stats.put("pool", pool.snapshot());
+            return stats;
+        }
+
+        @Override
+        public void close() {
+            pool.close();
+        }
+    }
+}
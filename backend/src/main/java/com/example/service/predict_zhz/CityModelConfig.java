@@ -0,0 +1,163 @@
+package com.example.service.predict_zhz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 城市模型配置（model_config.json）的只读视图，加载时一并编译该城市的 {@link FeatureCompiler}。
+ * 显式给出的列与 predict_price.py 的 build_vector 规则一致：按 feature_columns 顺序取值，无法解析的值记为 0；
+ * 未给出的派生列由原始输入推导，仍无法得到时使用 scaler_info.means。
+ * 建成年份换算房龄的参照年份取 age_reference_year，未配置时取 training_date 的年份。
+ */
+public class CityModelConfig {
+
+    private final List<String> featureColumns;
+    private final double[] defaultValues;
+    private final FeatureCompiler featureCompiler;
+
+    private CityModelConfig(List<String> featureColumns, double[] defaultValues, FeatureCompiler featureCompiler) {
+        this.featureColumns = featureColumns;
+        this.defaultValues = defaultValues;
+        this.featureCompiler = featureCompiler;
+    }
+
+    public static CityModelConfig load(Path configPath, ObjectMapper objectMapper) throws IOException {
+        JsonNode root;
+        try (InputStream in = Files.newInputStream(configPath)) {
+            root = objectMapper.readTree(in);
+        }
+        JsonNode columnsNode = root.path("feature_columns");
+        JsonNode meansNode = root.path("scaler_info").path("means");
+        Map<String, Double> means = readNumbers(meansNode);
+        Map<String, Double> stds = readNumbers(root.path("scaler_info").path("stds"));
+        Map<String, Double> areaEncoder = readNumbers(root.path("area_encoder"));
+
+        List<String> columns = new ArrayList<String>(columnsNode.size());
+        double[] defaults = new double[columnsNode.size()];
+        for (int i = 0; i < columnsNode.size(); i++) {
+            String column = columnsNode.get(i).asText();
+            columns.add(column);
+            JsonNode mean = meansNode.get(column);
+            defaults[i] = mean == null || mean.isNull() ? 0.0 : mean.asDouble();
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalStateException("feature_columns 为空：" + configPath);
+        }
+        double[] center = null;
+        JsonNode centerNode = root.path("city_center");
+        if (centerNode.has("longitude") && centerNode.has("latitude")) {
+            center = new double[]{centerNode.get("longitude").asDouble(), centerNode.get("latitude").asDouble()};
+        }
+        Path cityDir = configPath.toAbsolutePath().getParent();
+        String cityFolder = cityDir == null ? "" : cityDir.getFileName().toString();
+
+        int ageReferenceYear = ageReferenceYear(root, configPath);
+
+        List<String> featureColumns = Collections.unmodifiableList(columns);
+        FeatureCompiler compiler = new FeatureCompiler(featureColumns, defaults, means, stds, areaEncoder, cityFolder, center,
+                ageReferenceYear);
+        return new CityModelConfig(featureColumns, defaults, compiler);
+    }
+
+    /**
+     * 房龄的参照年份：age_reference_year，其次为 training_date（如 "2025-10-31 20:31:48"）的年份；
+     * 都没有时退回加载时的当前年份并告警，此时房龄会随时间偏离训练数据。
+     */
+    private static int ageReferenceYear(JsonNode root, Path configPath) {
+        JsonNode configured = root.get("age_reference_year");
+        if (configured != null && configured.canConvertToInt() && configured.asInt() > 0) {
+            return configured.asInt();
+        }
+        String trainingDate = root.path("training_date").asText("").trim();
+        if (trainingDate.length() >= 4) {
+            try {
+                return Integer.parseInt(trainingDate.substring(0, 4));
+            } catch (NumberFormatException ignored) {
+                // 格式不符时按缺失处理
+            }
+        }
+        int year = Year.now().getValue();
+        System.err.println("模型配置缺少 age_reference_year 与 training_date，房龄按当前年份 " + year + " 计算：" + configPath);
+        return year;
+    }
+
+    private static Map<String, Double> readNumbers(JsonNode node) {
+        Map<String, Double> values = new HashMap<String, Double>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNumber()) {
+                values.put(field.getKey(), field.getValue().asDouble());
+            }
+        }
+        return values;
+    }
+
+    public List<String> getFeatureColumns() {
+        return featureColumns;
+    }
+
+    public int featureCount() {
+        return featureColumns.size();
+    }
+
+    /**
+     * 均值填充的默认特征向量（调用方可修改返回的副本）。
+     */
+    public double[] defaultVector() {
+        return defaultValues.clone();
+    }
+
+    /**
+     * 向量中取值等于训练均值的列数，即缺少输入或无法推导而按均值兜底的特征数。
+     */
+    int countFallbacks(double[] vector) {
+        int count = 0;
+        for (int i = 0; i < vector.length; i++) {
+            if (Double.doubleToLongBits(vector[i]) == Double.doubleToLongBits(defaultValues[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public FeatureCompiler getFeatureCompiler() {
+        return featureCompiler;
+    }
+
+    /**
+     * 将接口传入的特征 Map 转为模型列顺序的稠密向量。
+     */
+    public double[] toVector(Map<String, Object> features) {
+        return featureCompiler.compile(features);
+    }
+
+    static double safeDouble(Object value) {
+        if (value == null) {
+            return 0.0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1.0 : 0.0;
+        }
+        try {
+            return Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package com.example.service.predict_zhz;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 特征编译器：加载配置时把 feature_columns 中每一列解析成一个"原始输入 -> 列值"的计算函数，
+ * 预测时只需把少量原始输入（经纬度、面积、户型、楼层、建成年份、区域等）整理成定长数组，
+ * 再按模型列顺序逐列计算，直接得到稠密特征向量。
+ * <p>
+ * 派生列的公式与训练脚本保持一致（由 scaler_info 中的均值/极值反推校验）：
+ * 面积/距离/房龄的平方、对数（log1p）、分段哑变量，两两及三维交互，{@code *_标准化} 为 (x-均值)/标准差。
+ * 取值优先级：请求中显式给出的列值 > 由原始输入推导 > scaler_info.means。
+ */
+public class FeatureCompiler {
+
+    /**
+     * 原始输入。键名与模型中的同名基础列一致，另有若干便于业务侧填写的别名（见 {@link #resolveInputs}）。
+     */
+    public enum Input {
+        LONGITUDE("经度"),
+        LATITUDE("纬度"),
+        DISTANCE("到市中心距离_km"),
+        DISTRICT("area_encoded"),
+        AREA("面积（m²）"),
+        ROOMS("室数"),
+        HALLS("厅数"),
+        TOTAL_FLOORS("总楼层数"),
+        CURRENT_FLOOR("当前楼层估算"),
+        FLOOR_RATIO("楼层比例"),
+        ORIENTATION("朝向评分"),
+        AGE("房龄"),
+        COMMUNITY_AREA("小区面积_数值"),
+        HOUSEHOLDS("小区户数_数值"),
+        PLOT_RATIO("容积率_数值"),
+        GREEN_RATE("绿化率_数值"),
+        PROPERTY_FEE("物业费_数值");
+
+        private final String key;
+
+        Input(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        long bit() {
+            return 1L << ordinal();
+        }
+    }
+
+    /** 区域名称（如"海淀"），按 area_encoder 转为 area_encoded */
+    public static final String KEY_DISTRICT_NAME = "区域";
+    /** 建成年份，换算为房龄 */
+    public static final String KEY_BUILD_YEAR = "建成年份";
+    /** 楼层位置文本（低楼层/中楼层/高楼层），换算为楼层比例 */
+    public static final String KEY_FLOOR_LEVEL = "楼层";
+    /** 实际所在楼层 */
+    public static final String KEY_FLOOR = "所在楼层";
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final String STANDARDIZED_SUFFIX = "_标准化";
+
+    /** 各城市市中心坐标（经度, 纬度），model_config.json 中的 city_center 优先 */
+    private static final Map<String, double[]> DEFAULT_CITY_CENTERS;
+
+    static {
+        Map<String, double[]> centers = new HashMap<String, double[]>();
+        centers.put("beijng", new double[]{116.4074, 39.9042});
+        centers.put("shanghai", new double[]{121.4737, 31.2304});
+        centers.put("tianjin", new double[]{117.2009, 39.0842});
+        centers.put("shijiazhuang", new double[]{114.5149, 38.0428});
+        DEFAULT_CITY_CENTERS = Collections.unmodifiableMap(centers);
+    }
+
+    /**
+     * 单列的计算函数，入参为按 {@link Input} 下标排列的原始输入，缺失项为 NaN。
+     */
+    interface ColumnFunction {
+        double apply(double[] in);
+    }
+
+    private static final class Column {
+        private final long dependencies;
+        private final ColumnFunction function;
+
+        private Column(long dependencies, ColumnFunction function) {
+            this.dependencies = dependencies;
+            this.function = function;
+        }
+    }
+
+    private final List<String> featureColumns;
+    private final Map<String, Integer> columnIndex;
+    private final double[] defaultValues;
+    private final Map<String, Double> areaEncoder;
+    private final double[] cityCenter;
+    /** 建成年份换算房龄时的参照年份，取自模型配置，与训练数据一致且不随运行时间变化 */
+    private final int ageReferenceYear;
+    private final Column[] columns;
+
+    FeatureCompiler(List<String> featureColumns,
+                    double[] defaultValues,
+                    Map<String, Double> means,
+                    Map<String, Double> stds,
+                    Map<String, Double> areaEncoder,
+                    String cityFolder,
+                    double[] configuredCenter,
+                    int ageReferenceYear) {
+        this.featureColumns = featureColumns;
+        this.defaultValues = defaultValues;
+        this.areaEncoder = areaEncoder;
+        this.ageReferenceYear = ageReferenceYear;
+        this.cityCenter = configuredCenter != null ? configuredCenter : DEFAULT_CITY_CENTERS.get(cityFolder);
+        this.columnIndex = new HashMap<String, Integer>();
+        this.columns = new Column[featureColumns.size()];
+        for (int i = 0; i < featureColumns.size(); i++) {
+            columnIndex.put(featureColumns.get(i), i);
+            columns[i] = compileColumn(featureColumns.get(i), means, stds);
+        }
+    }
+
+    /**
+     * 将请求中的特征 Map 编译为模型列顺序的稠密向量。
+     */
+    public double[] compile(Map<String, Object> features) {
+        double[] vector = compileInputs(resolveInputs(features));
+        if (features != null) {
+            // 显式给出的模型列（含派生列）原样覆盖，兼容直接传入全部工程特征的老调用方式
+            for (Map.Entry<String, Object> entry : features.entrySet()) {
+                Integer index = columnIndex.get(entry.getKey());
+                if (index != null) {
+                    vector[index] = CityModelConfig.safeDouble(entry.getValue());
+                }
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * 由原始输入数组计算特征向量。依赖的输入有缺失或计算结果无效时，该列取均值。
+     */
+    public double[] compileInputs(double[] inputs) {
+        long present = presentMask(inputs);
+        double[] vector = defaultValues.clone();
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            if (column == null || (column.dependencies & present) != column.dependencies) {
+                continue;
+            }
+            double value = column.function.apply(inputs);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                vector[i] = value;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * 从请求中提取原始输入，缺失项为 NaN。除与模型列同名的键外，还支持：
+     * 区域（名称）、建成年份、楼层（低/中/高楼层）、所在楼层；未给出到市中心距离时由经纬度计算。
+     */
+    public double[] resolveInputs(Map<String, Object> features) {
+        double[] in = readInputs(features);
+        deriveInputs(in);
+        return in;
+    }
+
+    /**
+     * 读取请求中直接给出的原始输入及别名，不做相互推导。
+     */
+    private double[] readInputs(Map<String, Object> features) {
+        double[] in = new double[Input.values().length];
+        Arrays.fill(in, Double.NaN);
+        if (features == null || features.isEmpty()) {
+            return in;
+        }
+        for (Input input : Input.values()) {
+            Object value = features.get(input.key);
+            if (value != null) {
+                in[input.ordinal()] = CityModelConfig.safeDouble(value);
+            }
+        }
+
+        int district = Input.DISTRICT.ordinal();
+        if (Double.isNaN(in[district]) && features.get(KEY_DISTRICT_NAME) != null) {
+            in[district] = encodeDistrict(features.get(KEY_DISTRICT_NAME).toString().trim());
+        }
+
+        int age = Input.AGE.ordinal();
+        if (Double.isNaN(in[age]) && features.get(KEY_BUILD_YEAR) != null) {
+            in[age] = ageOf(CityModelConfig.safeDouble(features.get(KEY_BUILD_YEAR)));
+        }
+
+        int current = Input.CURRENT_FLOOR.ordinal();
+        int ratio = Input.FLOOR_RATIO.ordinal();
+        if (Double.isNaN(in[current]) && features.get(KEY_FLOOR) != null) {
+            in[current] = CityModelConfig.safeDouble(features.get(KEY_FLOOR));
+        }
+        if (Double.isNaN(in[ratio]) && features.get(KEY_FLOOR_LEVEL) != null) {
+            in[ratio] = floorLevelRatio(features.get(KEY_FLOOR_LEVEL).toString());
+        }
+        return in;
+    }
+
+    /**
+     * 由已有输入补齐可推导的缺失项：楼层比例、当前楼层、到市中心距离。
+     */
+    private void deriveInputs(double[] in) {
+        int total = Input.TOTAL_FLOORS.ordinal();
+        int current = Input.CURRENT_FLOOR.ordinal();
+        int ratio = Input.FLOOR_RATIO.ordinal();
+        if (Double.isNaN(in[ratio]) && !Double.isNaN(in[current]) && in[total] > 0) {
+            in[ratio] = Math.min(1.0, in[current] / in[total]);
+        }
+        if (Double.isNaN(in[current]) && !Double.isNaN(in[total]) && !Double.isNaN(in[ratio])) {
+            // 训练数据只有"低/中/高楼层"，当前楼层按 总楼层数 × 楼层比例 估算
+            in[current] = in[total] * in[ratio];
+        }
+
+        int distance = Input.DISTANCE.ordinal();
+        int lng = Input.LONGITUDE.ordinal();
+        int lat = Input.LATITUDE.ordinal();
+        if (Double.isNaN(in[distance]) && cityCenter != null && !Double.isNaN(in[lng]) && !Double.isNaN(in[lat])) {
+            in[distance] = haversineKm(in[lng], in[lat], cityCenter[0], cityCenter[1]);
+        }
+    }
+
+    private double ageOf(double buildYear) {
+        return buildYear > 0 ? Math.max(0, ageReferenceYear - buildYear) : Double.NaN;
+    }
+
+    /**
+     * 固定一组基础特征，供 what-if 扫描反复只改变少数几个输入时使用：
+     * 基础输入与基础向量只计算一次，之后每个取值点只替换变化的输入、重算依赖它们的列。
+     */
+    public BaseFeatures prepare(Map<String, Object> baseFeatures) {
+        Map<String, Object> base = baseFeatures == null
+                ? new HashMap<String, Object>() : new HashMap<String, Object>(baseFeatures);
+        boolean[] pinned = new boolean[columns.length];
+        for (String key : base.keySet()) {
+            Integer index = columnIndex.get(key);
+            if (index != null) {
+                pinned[index] = true;
+            }
+        }
+        double[] read = readInputs(base);
+        double[] inputs = read.clone();
+        deriveInputs(inputs);
+        return new BaseFeatures(base.keySet(), read, inputs, compile(base), pinned);
+    }
+
+    /**
+     * 某个键能否作为扫描维度：原始输入、建成年份、所在楼层或模型列名。
+     */
+    public boolean isSweepable(String key) {
+        return KEY_BUILD_YEAR.equals(key) || KEY_FLOOR.equals(key) || columnIndex.containsKey(key) || inputOf(key) != null;
+    }
+
+    private static Input inputOf(String key) {
+        for (Input input : Input.values()) {
+            if (input.key.equals(key)) {
+                return input;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 由 {@link #prepare} 得到的基础特征。
+     */
+    public final class BaseFeatures {
+        private final Set<String> keys;
+        private final double[] read;
+        private final double[] inputs;
+        private final double[] vector;
+        private final boolean[] pinned;
+
+        private BaseFeatures(Set<String> keys, double[] read, double[] inputs, double[] vector, boolean[] pinned) {
+            this.keys = keys;
+            this.read = read;
+            this.inputs = inputs;
+            this.vector = vector;
+            this.pinned = pinned;
+        }
+
+        /**
+         * 在基础特征上替换若干键（须满足 {@link #isSweepable}）后的特征向量，
+         * 结果与对合并后的 Map 调用 {@link #compile} 一致；扫描别名时基础特征中同义的模型输入被替换。
+         */
+        public double[] vary(Map<String, Object> changes) {
+            double[] varied = read.clone();
+            boolean[] fixed = pinned;
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                String key = entry.getKey();
+                double value = CityModelConfig.safeDouble(entry.getValue());
+                Input input = inputOf(key);
+                String shadowed = null;
+                if (input != null) {
+                    varied[input.ordinal()] = value;
+                } else if (KEY_BUILD_YEAR.equals(key)) {
+                    shadowed = Input.AGE.key;
+                    if (!changes.containsKey(shadowed)) {
+                        varied[Input.AGE.ordinal()] = ageOf(value);
+                    }
+                } else if (KEY_FLOOR.equals(key)) {
+                    shadowed = Input.CURRENT_FLOOR.key;
+                    if (!changes.containsKey(shadowed)) {
+                        varied[Input.CURRENT_FLOOR.ordinal()] = value;
+                    }
+                }
+                // 被替换的模型输入若在基础特征中显式给出，该列不再保持原值
+                if (shadowed != null && keys.contains(shadowed) && !changes.containsKey(shadowed)) {
+                    Integer index = columnIndex.get(shadowed);
+                    if (index != null && fixed[index]) {
+                        fixed = fixed == pinned ? pinned.clone() : fixed;
+                        fixed[index] = false;
+                    }
+                }
+            }
+            deriveInputs(varied);
+
+            long changed = 0L;
+            for (int i = 0; i < varied.length; i++) {
+                if (Double.doubleToLongBits(varied[i]) != Double.doubleToLongBits(inputs[i])) {
+                    changed |= 1L << i;
+                }
+            }
+            double[] result = vector.clone();
+            long present = presentMask(varied);
+            for (int i = 0; i < columns.length; i++) {
+                Column column = columns[i];
+                if (column == null || fixed[i] || ((column.dependencies & changed) == 0 && !pinned[i])) {
+                    continue;
+                }
+                result[i] = defaultValues[i];
+                if ((column.dependencies & present) == column.dependencies) {
+                    double value = column.function.apply(varied);
+                    if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                        result[i] = value;
+                    }
+                }
+            }
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                Integer index = columnIndex.get(entry.getKey());
+                if (index != null) {
+                    result[index] = CityModelConfig.safeDouble(entry.getValue());
+                }
+            }
+            return result;
+        }
+    }
+
+    public List<String> getFeatureColumns() {
+        return featureColumns;
+    }
+
+    /**
+     * 某一列是否能由原始输入推导（否则只能显式传入或取均值）。
+     */
+    public boolean isDerived(int columnIndex) {
+        return columns[columnIndex] != null;
+    }
+
+    private double encodeDistrict(String name) {
+        Double code = areaEncoder.get(name);
+        if (code == null && name.endsWith("区")) {
+            code = areaEncoder.get(name.substring(0, name.length() - 1));
+        }
+        if (code == null) {
+            code = areaEncoder.get(name + "区");
+        }
+        return code == null ? Double.NaN : code;
+    }
+
+    private static double floorLevelRatio(String level) {
+        if (level.contains("低") || level.contains("底")) {
+            return 0.2;
+        }
+        if (level.contains("中")) {
+            return 0.5;
+        }
+        if (level.contains("高") || level.contains("顶")) {
+            return 0.8;
+        }
+        return Double.NaN;
+    }
+
+    private Column compileColumn(String name, Map<String, Double> means, Map<String, Double> stds) {
+        if (name.endsWith(STANDARDIZED_SUFFIX)) {
+            String baseName = name.substring(0, name.length() - STANDARDIZED_SUFFIX.length());
+            // 上海、天津模型中简写为 面积_标准化 / 距离_标准化
+            if ("面积".equals(baseName)) {
+                baseName = Input.AREA.key;
+            } else if ("距离".equals(baseName)) {
+                baseName = Input.DISTANCE.key;
+            }
+            return standardize(compileColumn(baseName, means, stds), means.get(baseName), stds.get(baseName));
+        }
+        if ("面积_距离_标准化交互".equals(name)) {
+            Column area = compileColumn("面积_标准化", means, stds);
+            Column distance = compileColumn("距离_标准化", means, stds);
+            return product(area, distance);
+        }
+
+        for (Input input : Input.values()) {
+            if (input.key.equals(name)) {
+                // 部分城市训练时 当前楼层估算 直接取了总楼层数，按训练数据的统计量保持一致
+                if (input == Input.CURRENT_FLOOR && sameStats(means, stds, name, Input.TOTAL_FLOORS.key)) {
+                    return raw(Input.TOTAL_FLOORS);
+                }
+                return raw(input);
+            }
+        }
+
+        final int area = Input.AREA.ordinal();
+        final int distance = Input.DISTANCE.ordinal();
+        final int age = Input.AGE.ordinal();
+        final int rooms = Input.ROOMS.ordinal();
+        final int halls = Input.HALLS.ordinal();
+        final int total = Input.TOTAL_FLOORS.ordinal();
+        final int current = Input.CURRENT_FLOOR.ordinal();
+        final int ratio = Input.FLOOR_RATIO.ordinal();
+        final int lng = Input.LONGITUDE.ordinal();
+        final int lat = Input.LATITUDE.ordinal();
+        long a = Input.AREA.bit();
+        long d = Input.DISTANCE.bit();
+        long g = Input.AGE.bit();
+
+        switch (name) {
+            case "区域编码":
+                // 北京模型中 区域编码 与 area_encoded 为同一编码；其它城市使用了配置中未保存的编码，只能取均值
+                return sameStats(means, stds, name, Input.DISTRICT.key) ? raw(Input.DISTRICT) : null;
+            case "总房间数":
+            case "户型_厅室和":
+                return new Column(Input.ROOMS.bit() | Input.HALLS.bit(), in -> in[rooms] + in[halls]);
+            case "每室面积":
+                return new Column(a | Input.ROOMS.bit(), in -> in[area] / Math.max(1.0, in[rooms]));
+            case "户型_室厅比":
+                return new Column(Input.ROOMS.bit() | Input.HALLS.bit(), in -> in[rooms] / (in[halls] + 1));
+            case "面积_平方":
+                return new Column(a, in -> in[area] * in[area]);
+            case "面积_立方":
+                return new Column(a, in -> in[area] * in[area] * in[area]);
+            case "面积_平方根":
+                return new Column(a, in -> Math.sqrt(in[area]));
+            case "面积_对数":
+                return new Column(a, in -> Math.log1p(in[area]));
+            case "面积_小户型":
+                return new Column(a, in -> indicator(in[area] <= 60));
+            case "面积_中户型":
+                return new Column(a, in -> indicator(in[area] > 60 && in[area] <= 90));
+            case "面积_大户型":
+                return new Column(a, in -> indicator(in[area] > 90 && in[area] <= 144));
+            case "面积_豪宅":
+                return new Column(a, in -> indicator(in[area] > 144));
+            case "距离_平方":
+                return new Column(d, in -> in[distance] * in[distance]);
+            case "距离_倒数":
+                return new Column(d, in -> 1.0 / (in[distance] + 0.1));
+            case "距离_对数":
+                return new Column(d, in -> Math.log1p(in[distance]));
+            case "距离_核心区":
+                return new Column(d, in -> indicator(in[distance] <= 5));
+            case "距离_内环":
+                return new Column(d, in -> indicator(in[distance] > 5 && in[distance] <= 10));
+            case "距离_中环":
+                return new Column(d, in -> indicator(in[distance] > 10 && in[distance] <= 20));
+            case "距离_外环":
+                return new Column(d, in -> indicator(in[distance] > 20));
+            case "房龄_平方":
+                return new Column(g, in -> in[age] * in[age]);
+            case "房龄_对数":
+                return new Column(g, in -> Math.log1p(in[age]));
+            case "房龄_次新房":
+                return new Column(g, in -> indicator(in[age] <= 5));
+            case "房龄_较新":
+                return new Column(g, in -> indicator(in[age] > 5 && in[age] <= 10));
+            case "房龄_中等":
+                return new Column(g, in -> indicator(in[age] > 10 && in[age] <= 20));
+            case "房龄_老旧":
+                return new Column(g, in -> indicator(in[age] > 20));
+            case "面积_距离_交互":
+                return new Column(a | d, in -> in[area] * in[distance]);
+            case "面积_距离倒数_交互":
+                return new Column(a | d, in -> in[area] / (in[distance] + 0.1));
+            case "面积对数_距离对数_交互":
+                return new Column(a | d, in -> Math.log1p(in[area]) * Math.log1p(in[distance]));
+            case "面积_房龄_交互":
+                return new Column(a | g, in -> in[area] * in[age]);
+            case "面积对数_房龄对数_交互":
+                return new Column(a | g, in -> Math.log1p(in[area]) * Math.log1p(in[age]));
+            case "距离_房龄_交互":
+                return new Column(d | g, in -> in[distance] * in[age]);
+            case "面积_距离_房龄_三维交互":
+                return new Column(a | d | g, in -> in[area] * in[distance] * in[age]);
+            case "楼层_中间度":
+                return new Column(Input.TOTAL_FLOORS.bit() | Input.CURRENT_FLOOR.bit(),
+                        in -> 1.0 - 2.0 * Math.abs(in[current] / (in[total] + 1) - 0.5));
+            case "楼层_黄金层":
+                return new Column(Input.FLOOR_RATIO.bit(), in -> indicator(in[ratio] >= 0.3 && in[ratio] <= 0.7));
+            case "小区品质_综合":
+                final int green = Input.GREEN_RATE.ordinal();
+                final int plot = Input.PLOT_RATIO.ordinal();
+                return new Column(Input.GREEN_RATE.bit() | Input.PLOT_RATIO.bit(),
+                        in -> in[plot] > 0 ? in[green] / in[plot] : Double.NaN);
+            case "经纬度_交互":
+                return new Column(Input.LONGITUDE.bit() | Input.LATITUDE.bit(), in -> in[lng] * in[lat]);
+            case "到中心_欧式距离":
+                if (cityCenter == null) {
+                    return null;
+                }
+                final double centerLng = cityCenter[0];
+                final double centerLat = cityCenter[1];
+                return new Column(Input.LONGITUDE.bit() | Input.LATITUDE.bit(),
+                        in -> Math.hypot(in[lng] - centerLng, in[lat] - centerLat));
+            default:
+                // 卫数、楼层_顶底惩罚 等训练时为空或恒定的列，以及无法由原始输入推导的列，均取均值
+                return null;
+        }
+    }
+
+    private static Column raw(Input input) {
+        final int index = input.ordinal();
+        return new Column(input.bit(), in -> in[index]);
+    }
+
+    private static Column standardize(final Column base, Double mean, Double std) {
+        if (base == null || mean == null || std == null || std <= 0) {
+            return null;
+        }
+        final double m = mean;
+        final double s = std;
+        return new Column(base.dependencies, in -> (base.function.apply(in) - m) / s);
+    }
+
+    private static Column product(final Column left, final Column right) {
+        if (left == null || right == null) {
+            return null;
+        }
+        return new Column(left.dependencies | right.dependencies,
+                in -> left.function.apply(in) * right.function.apply(in));
+    }
+
+    private static boolean sameStats(Map<String, Double> means, Map<String, Double> stds, String a, String b) {
+        Double meanA = means.get(a);
+        Double meanB = means.get(b);
+        Double stdA = stds.get(a);
+        Double stdB = stds.get(b);
+        return meanA != null && meanA.equals(meanB) && stdA != null && stdA.equals(stdB);
+    }
+
+    private static double indicator(boolean condition) {
+        return condition ? 1.0 : 0.0;
+    }
+
+    private static long presentMask(double[] inputs) {
+        long mask = 0L;
+        for (int i = 0; i < inputs.length; i++) {
+            if (!Double.isNaN(inputs[i])) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    static double haversineKm(double lng1, double lat1, double lng2, double lat2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(h));
+    }
+}
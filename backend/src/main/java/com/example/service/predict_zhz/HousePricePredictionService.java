@@ -1,30 +1,58 @@
 package com.example.service.predict_zhz;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedWriter;
-import java.io.File;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * 调用房价模型的服务，封装城市映射与Python脚本调用逻辑。
+ * 请求特征统一在 JVM 内由 {@link FeatureCompiler} 编译为模型列顺序的向量，再交给推理引擎。
+ * predictor.engine=python（默认）时，每个城市维护一个常驻 Python 进程池（见 {@link PythonWorkerPool}），
+ * 模型只在进程启动时加载一次；predictor.engine=java 时，直接在 JVM 内用 {@link RandomForestScorer}
+ * 推理 export_forest.py 导出的树结构，不再启动 Python。
+ * 各城市模型由 {@link ModelRegistry} 管理，替换模型文件后新版本在后台加载、预热并原子切换，无需重启。
  */
 @Service
 public class HousePricePredictionService {
 
+    private static final String ENGINE_PYTHON = "python";
+    private static final String ENGINE_JAVA = "java";
+    private static final String MODEL_FILE = "house_price_model.pkl";
+    private static final String CONFIG_FILE = "model_config.json";
+    private static final String FOREST_FILE = "house_price_model.forest";
+
     private static final Map<String, String> CITY_FOLDER_MAP;
 
     static {
@@ -48,10 +76,39 @@ public class HousePricePredictionService {
     private final Path modelBaseDir;
     private final Path pythonScript;
     private final String pythonExecutable;
+    private final String engine;
+    private final int poolSize;
+    private final long callTimeoutMillis;
+    private final long startupTimeoutMillis;
+    private final long healthCheckIntervalMillis;
+    private final String warmUpCities;
+    private final int maxBatchRows;
+    private final PredictionCache predictionCache;
+    private final PredictionMetrics metrics = new PredictionMetrics();
+    private final ModelRegistry modelRegistry;
+    private final ExecutorService ioExecutor = Executors.newCachedThreadPool(daemonThreads("predict-io"));
+    private final ExecutorService modelLoader = Executors.newSingleThreadExecutor(daemonThreads("predict-loader"));
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("predict-scheduler"));
+    private final ScheduledExecutorService deadlineTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("predict-deadline"));
+    private final ThreadPoolExecutor requestExecutor;
+    private final long requestTimeoutMillis;
 
     public HousePricePredictionService(
             @Value("${predictor.model-base-dir:src/main/java/com/example/service/predict_zhz}") String modelBaseDir,
-            @Value("${predictor.python-exec:python}") String pythonExecutable) {
+            @Value("${predictor.python-exec:python}") String pythonExecutable,
+            @Value("${predictor.engine:python}") String engine,
+            @Value("${predictor.pool.size:2}") int poolSize,
+            @Value("${predictor.pool.timeout-ms:10000}") long callTimeoutMillis,
+            @Value("${predictor.pool.startup-timeout-ms:60000}") long startupTimeoutMillis,
+            @Value("${predictor.pool.health-check-interval-ms:30000}") long healthCheckIntervalMillis,
+            @Value("${predictor.pool.warm-up-cities:}") String warmUpCities,
+            @Value("${predictor.batch.max-rows:1000}") int maxBatchRows,
+            @Value("${predictor.cache.max-entries:10000}") int cacheMaxEntries,
+            @Value("${predictor.cache.ttl-ms:600000}") long cacheTtlMillis,
+            @Value("${predictor.registry.debounce-ms:2000}") long reloadDebounceMillis,
+            @Value("${predictor.async.threads:8}") int requestThreads,
+            @Value("${predictor.async.queue-capacity:64}") int requestQueueCapacity,
+            @Value("${predictor.async.timeout-ms:15000}") long requestTimeoutMillis) {
         // 处理路径：如果是相对路径，从当前工作目录解析
         Path basePath = Paths.get(modelBaseDir);
         if (!basePath.isAbsolute()) {
@@ -76,62 +133,462 @@ public class HousePricePredictionService {
         }
         this.pythonScript = this.modelBaseDir.resolve("predict_price.py");
         this.pythonExecutable = pythonExecutable;
+        this.engine = engine.trim().toLowerCase(Locale.ROOT);
+        if (!ENGINE_PYTHON.equals(this.engine) && !ENGINE_JAVA.equals(this.engine)) {
+            throw new IllegalArgumentException("predictor.engine 仅支持 python 或 java：" + engine);
+        }
+        this.poolSize = poolSize;
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.startupTimeoutMillis = startupTimeoutMillis;
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+        this.warmUpCities = warmUpCities;
+        this.maxBatchRows = maxBatchRows;
+        this.predictionCache = new PredictionCache(cacheMaxEntries, cacheTtlMillis);
+        // 预测请求独立的有界线程池：队列满时直接拒绝，避免占满 Tomcat 线程拖垮其它接口
+        this.requestExecutor = new ThreadPoolExecutor(
+                requestThreads,
+                requestThreads,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(requestQueueCapacity),
+                daemonThreads("predict-request"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.modelRegistry = new ModelRegistry(
+                this.modelBaseDir,
+                Arrays.asList(ENGINE_JAVA.equals(this.engine) ? FOREST_FILE : MODEL_FILE, CONFIG_FILE),
+                this::loadCityModel,
+                reloadDebounceMillis,
+                startupTimeoutMillis,
+                predictionCache::invalidateCity,
+                modelLoader,
+                scheduler);
     }
 
     /**
-     * 执行预测，返回万元/㎡。
+     * 启动健康检查与模型目录监听，并在后台加载、预热 predictor.pool.warm-up-cities 中配置的城市。
+     */
+    @PostConstruct
+    public void startWorkerPools() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                modelRegistry.healthCheck();
+            }
+        }, healthCheckIntervalMillis, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        modelRegistry.start();
+
+        for (String city : warmUpCities.split(",")) {
+            if (city.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                modelRegistry.preload(resolveCityFolder(city));
+            } catch (Exception e) {
+                System.err.println("预热城市模型失败：" + city + "，" + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdownWorkerPools() {
+        requestExecutor.shutdownNow();
+        deadlineTimer.shutdownNow();
+        scheduler.shutdownNow();
+        modelLoader.shutdownNow();
+        modelRegistry.close();
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * 执行预测，返回万元/㎡。相同城市、相同模型版本下编译结果一致的请求直接返回缓存值。
      */
     public double predict(String city, Map<String, Object> features) throws Exception {
         String folderName = resolveCityFolder(city);
-        Path cityDir = modelBaseDir.resolve(folderName);
-        Path modelPath = cityDir.resolve("house_price_model.pkl");
-        Path configPath = cityDir.resolve("model_config.json");
+        long start = System.nanoTime();
+        CityModel model = acquire(folderName, 1);
+        PredictionMetrics.CityMetrics cityMetrics = metrics.city(folderName, model.getVersion());
+        try {
+            double[] vector = compile(model, Collections.singletonList(features), cityMetrics)[0];
+            double prediction;
+            if (!predictionCache.isEnabled()) {
+                prediction = model.predict(new double[][]{vector})[0];
+            } else {
+                PredictionCache.Key key = PredictionCache.key(folderName, model.getVersion(), vector);
+                Double cached = predictionCache.get(key);
+                if (cached != null) {
+                    prediction = cached;
+                } else {
+                    prediction = model.predict(new double[][]{vector})[0];
+                    predictionCache.put(key, prediction);
+                }
+            }
+            cityMetrics.success(1);
+            return prediction;
+        } catch (Exception e) {
+            recordFailure(cityMetrics, e, 1);
+            throw e;
+        } finally {
+            model.release();
+            cityMetrics.record(PredictionMetrics.Stage.TOTAL, System.nanoTime() - start);
+        }
+    }
 
-        if (!Files.exists(modelPath)) {
-            throw new FileNotFoundException("未找到模型文件：" + modelPath);
+    /**
+     * 异步预测：在独立的有界线程池中执行，不占用请求线程。
+     * 队列已满时返回以 {@link RejectedExecutionException} 失败的 future；
+     * 超过 predictor.async.timeout-ms 时以 {@link TimeoutException} 失败，并中断执行线程，占用的 Python 进程随之被销毁重建。
+     */
+    public CompletableFuture<Double> predictAsync(final String city, final Map<String, Object> features) {
+        return submitWithDeadline(Collections.singletonList(city), new Callable<Double>() {
+            @Override
+            public Double call() throws Exception {
+                return predict(city, features);
+            }
+        });
+    }
+
+    /**
+     * 异步批量预测，线程池与超时规则同 {@link #predictAsync}。
+     */
+    public CompletableFuture<List<BatchPrediction>> predictBatchAsync(final List<String> cities,
+                                                                      final List<Map<String, Object>> featureRows) {
+        return submitWithDeadline(cities, new Callable<List<BatchPrediction>>() {
+            @Override
+            public List<BatchPrediction> call() {
+                return predictBatch(cities, featureRows);
+            }
+        });
+    }
+
+    /**
+     * 异步 what-if 扫描，线程池与超时规则同 {@link #predictAsync}。
+     */
+    public CompletableFuture<double[][]> predictSweepAsync(final String city,
+                                                           final Map<String, Object> baseFeatures,
+                                                           final List<SweepAxis> axes) {
+        return submitWithDeadline(Collections.singletonList(city), new Callable<double[][]>() {
+            @Override
+            public double[][] call() throws Exception {
+                return predictSweep(city, baseFeatures, axes);
+            }
+        });
+    }
+
+    /**
+     * 提交到预测线程池并设置截止时间；排队耗时、拒绝与超时记入所涉城市当前版本的统计。
+     */
+    private <T> CompletableFuture<T> submitWithDeadline(List<String> cities, final Callable<T> task) {
+        final List<PredictionMetrics.CityMetrics> cityMetrics = new ArrayList<PredictionMetrics.CityMetrics>();
+        Set<String> folders = new LinkedHashSet<String>();
+        for (String city : cities) {
+            try {
+                folders.add(resolveCityFolder(city));
+            } catch (IllegalArgumentException e) {
+                // 不支持的城市由预测逻辑返回错误，这里不计入统计
+            }
         }
-        if (!Files.exists(configPath)) {
-            throw new FileNotFoundException("未找到模型配置：" + configPath);
+        for (String folderName : folders) {
+            cityMetrics.add(metrics.latest(folderName));
         }
-        if (!Files.exists(pythonScript)) {
-            throw new FileNotFoundException("未找到预测脚本：" + pythonScript);
+
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final long submittedAt = System.nanoTime();
+        final Future<?> running;
+        try {
+            running = requestExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long queued = System.nanoTime() - submittedAt;
+                    for (PredictionMetrics.CityMetrics city : cityMetrics) {
+                        city.record(PredictionMetrics.Stage.QUEUE, queued);
+                    }
+                    try {
+                        result.complete(task.call());
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (PredictionMetrics.CityMetrics city : cityMetrics) {
+                city.rejected();
+            }
+            result.completeExceptionally(new RejectedExecutionException("预测服务繁忙，请稍后重试", e));
+            return result;
         }
+        final ScheduledFuture<?> deadline = deadlineTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.completeExceptionally(new TimeoutException("预测超时（" + requestTimeoutMillis + "ms）"))) {
+                    for (PredictionMetrics.CityMetrics city : cityMetrics) {
+                        city.timeout();
+                    }
+                    running.cancel(true);
+                }
+            }
+        }, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                deadline.cancel(false);
+            }
+        });
+        return result;
+    }
 
-        Map<String, Object> request = new HashMap<String, Object>();
-        request.put("modelPath", modelPath.toString());
-        request.put("configPath", configPath.toString());
-        request.put("features", features);
+    /**
+     * 预测请求线程池的使用情况。
+     */
+    public Map<String, Object> getExecutorStats() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("threads", requestExecutor.getMaximumPoolSize());
+        stats.put("active", requestExecutor.getActiveCount());
+        stats.put("queued", requestExecutor.getQueue().size());
+        stats.put("queueCapacity", requestExecutor.getQueue().size() + requestExecutor.getQueue().remainingCapacity());
+        stats.put("completed", requestExecutor.getCompletedTaskCount());
+        stats.put("timeoutMs", requestTimeoutMillis);
+        return stats;
+    }
 
-        ProcessBuilder builder = new ProcessBuilder(pythonExecutable, pythonScript.toString());
-        // Java 8 兼容：重定向 stderr 到 null 设备（Windows 使用 NUL，Linux/Mac 使用 /dev/null）
-        String os = System.getProperty("os.name").toLowerCase();
-        File nullFile;
-        if (os.contains("win")) {
-            // Windows 使用 NUL
-            nullFile = new File("NUL");
-        } else {
-            // Linux/Mac 使用 /dev/null
-            nullFile = new File("/dev/null");
+    /**
+     * 预测结果缓存的命中统计。
+     */
+    public Map<String, Object> getCacheStats() {
+        return predictionCache.snapshot();
+    }
+
+    /**
+     * 各城市（当前与上一个模型版本）分阶段的延迟直方图，以及成功、失败、超时、拒绝和均值兜底特征计数。
+     */
+    public Map<String, Object> getLatencyStats() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * 各城市当前生效的模型版本、进行中的调用数与推理后端状态。
+     */
+    public Map<String, Object> getModelStats() {
+        return modelRegistry.snapshot();
+    }
+
+    /**
+     * 批量预测与扫描单次允许的最多行数（predictor.batch.max-rows）。
+     */
+    public int getMaxBatchRows() {
+        return maxBatchRows;
+    }
+
+    /**
+     * 批量预测：按城市分组，每组只做一次模型调用。结果与输入顺序一致，
+     * 不支持的城市或某个城市模型调用失败只影响对应的行。
+     */
+    public List<BatchPrediction> predictBatch(List<String> cities, List<Map<String, Object>> featureRows) {
+        if (featureRows.size() > maxBatchRows) {
+            throw new IllegalArgumentException("单次批量预测最多 " + maxBatchRows + " 行，实际 " + featureRows.size() + " 行");
+        }
+        BatchPrediction[] results = new BatchPrediction[featureRows.size()];
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < featureRows.size(); i++) {
+            try {
+                String folderName = resolveCityFolder(cities.get(i));
+                List<Integer> group = groups.get(folderName);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(folderName, group);
+                }
+                group.add(i);
+            } catch (IllegalArgumentException e) {
+                results[i] = BatchPrediction.failure(cities.get(i), e.getMessage());
+            }
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(indexes.size());
+            for (Integer index : indexes) {
+                rows.add(featureRows.get(index));
+            }
+            try {
+                double[] predictions = predictGroup(entry.getKey(), rows);
+                for (int i = 0; i < indexes.size(); i++) {
+                    int index = indexes.get(i);
+                    results[index] = BatchPrediction.success(cities.get(index), predictions[i]);
+                }
+            } catch (Exception e) {
+                for (Integer index : indexes) {
+                    results[index] = BatchPrediction.failure(cities.get(index), e.getMessage());
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * what-if 扫描：在基础特征上让一到两个特征按给定取值变化，返回整张网格的预测值，
+     * 结果 [i][j] 对应第一个维度的第 i 个值、第二个维度的第 j 个值（只有一个维度时 j 恒为 0）。
+     * 基础特征只编译一次，每个网格点只重算依赖变化特征的列，全部网格点一次模型调用完成。
+     */
+    public double[][] predictSweep(String city, Map<String, Object> baseFeatures, List<SweepAxis> axes) throws Exception {
+        if (axes.isEmpty() || axes.size() > 2) {
+            throw new IllegalArgumentException("扫描维度只支持 1 或 2 个，实际 " + axes.size() + " 个");
+        }
+        SweepAxis first = axes.get(0);
+        SweepAxis second = axes.size() > 1 ? axes.get(1) : null;
+        if (second != null && second.getKey().equals(first.getKey())) {
+            throw new IllegalArgumentException("两个扫描维度不能相同：" + first.getKey());
+        }
+        int columns = second == null ? 1 : second.size();
+        int points = first.size() * columns;
+        if (points > maxBatchRows) {
+            throw new IllegalArgumentException("单次扫描最多 " + maxBatchRows + " 个点，实际 " + points + " 个");
         }
-        builder.redirectError(nullFile);  // 丢弃 stderr 输出（Java 8 兼容）
-        Process process = builder.start();
 
-        try (BufferedWriter writer = new BufferedWriter(
-                new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8))) {
-            objectMapper.writeValue(writer, request);
+        String folderName = resolveCityFolder(city);
+        long start = System.nanoTime();
+        CityModel model = acquire(folderName, points);
+        PredictionMetrics.CityMetrics cityMetrics = metrics.city(folderName, model.getVersion());
+        try {
+            FeatureCompiler compiler = model.getConfig().getFeatureCompiler();
+            for (SweepAxis axis : axes) {
+                if (!compiler.isSweepable(axis.getKey())) {
+                    throw new IllegalArgumentException("不支持扫描的特征：" + axis.getKey());
+                }
+            }
+            long compileStart = System.nanoTime();
+            FeatureCompiler.BaseFeatures base = compiler.prepare(baseFeatures);
+            double[][] vectors = new double[points][];
+            Map<String, Object> changes = new HashMap<String, Object>();
+            for (int i = 0; i < first.size(); i++) {
+                changes.put(first.getKey(), first.valueAt(i));
+                for (int j = 0; j < columns; j++) {
+                    if (second != null) {
+                        changes.put(second.getKey(), second.valueAt(j));
+                    }
+                    vectors[i * columns + j] = base.vary(changes);
+                }
+            }
+
+            cityMetrics.record(PredictionMetrics.Stage.COMPILE, System.nanoTime() - compileStart);
+
+            double[] predictions = model.predict(vectors);
+            double[][] grid = new double[first.size()][columns];
+            for (int i = 0; i < points; i++) {
+                grid[i / columns][i % columns] = predictions[i];
+            }
+            cityMetrics.success(points);
+            return grid;
+        } catch (Exception e) {
+            recordFailure(cityMetrics, e, points);
+            throw e;
+        } finally {
+            model.release();
+            cityMetrics.record(PredictionMetrics.Stage.TOTAL, System.nanoTime() - start);
         }
+    }
 
-        String output = readStream(process);
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new IllegalStateException("预测脚本执行失败：" + output);
+    private double[] predictGroup(String folderName, List<Map<String, Object>> rows) throws Exception {
+        long start = System.nanoTime();
+        CityModel model = acquire(folderName, rows.size());
+        PredictionMetrics.CityMetrics cityMetrics = metrics.city(folderName, model.getVersion());
+        try {
+            double[] predictions = model.predict(compile(model, rows, cityMetrics));
+            cityMetrics.success(rows.size());
+            return predictions;
+        } catch (Exception e) {
+            recordFailure(cityMetrics, e, rows.size());
+            throw e;
+        } finally {
+            model.release();
+            cityMetrics.record(PredictionMetrics.Stage.TOTAL, System.nanoTime() - start);
         }
+    }
 
-        JsonNode node = objectMapper.readTree(output);
-        if (!node.has("prediction")) {
-            throw new IllegalStateException("预测脚本未返回 prediction 字段：" + output);
+    /**
+     * 取得城市当前模型；加载失败计入该城市最新版本的失败数。
+     */
+    private CityModel acquire(String folderName, int rows) throws Exception {
+        try {
+            return modelRegistry.acquire(folderName);
+        } catch (Exception e) {
+            recordFailure(metrics.latest(folderName), e, rows);
+            throw e;
         }
-        return node.get("prediction").asDouble();
+    }
+
+    private double[][] compile(CityModel model, List<Map<String, Object>> rows, PredictionMetrics.CityMetrics cityMetrics) {
+        long start = System.nanoTime();
+        double[][] vectors = new double[rows.size()][];
+        for (int i = 0; i < rows.size(); i++) {
+            vectors[i] = model.getConfig().toVector(rows.get(i));
+        }
+        cityMetrics.record(PredictionMetrics.Stage.COMPILE, System.nanoTime() - start);
+        for (double[] vector : vectors) {
+            cityMetrics.fallback(model.getConfig().countFallbacks(vector));
+        }
+        return vectors;
+    }
+
+    /**
+     * 调用方超时后被中断的执行只计入 timeouts（由截止时间处记录），不再重复计为失败。
+     */
+    private static void recordFailure(PredictionMetrics.CityMetrics cityMetrics, Exception e, int rows) {
+        if (e instanceof TimeoutException) {
+            cityMetrics.timeout();
+        } else if (!(e instanceof InterruptedException) && !Thread.currentThread().isInterrupted()) {
+            cityMetrics.failure(rows);
+        }
+    }
+
+    /**
+     * 加载某个城市指定版本的模型：java 引擎读取 .forest 树结构，python 引擎启动常驻进程池。
+     */
+    private CityModel loadCityModel(String folderName, long version) throws Exception {
+        long start = System.nanoTime();
+        PredictionMetrics.CityMetrics cityMetrics = metrics.city(folderName, version);
+        CityModel model = createCityModel(folderName, version, cityMetrics);
+        cityMetrics.record(PredictionMetrics.Stage.LOAD, System.nanoTime() - start);
+        return model;
+    }
+
+    private CityModel createCityModel(String folderName, long version, PredictionMetrics.CityMetrics cityMetrics) throws Exception {
+        Path cityDir = modelBaseDir.resolve(folderName);
+        Path configPath = cityDir.resolve(CONFIG_FILE);
+        if (!Files.exists(configPath)) {
+            throw new FileNotFoundException("未找到模型配置：" + configPath);
+        }
+        CityModelConfig config = CityModelConfig.load(configPath, objectMapper);
+
+        if (ENGINE_JAVA.equals(engine)) {
+            Path forestPath = cityDir.resolve(FOREST_FILE);
+            if (!Files.exists(forestPath)) {
+                throw new FileNotFoundException("未找到模型导出文件：" + forestPath + "（请先运行 export_forest.py）");
+            }
+            RandomForestScorer scorer = RandomForestScorer.load(forestPath);
+            if (config.featureCount() != scorer.featureCount()) {
+                throw new IllegalStateException("模型特征数与配置不一致：" + folderName);
+            }
+            return new CityModel.InProcess(folderName, version, config, scorer, cityMetrics);
+        }
+
+        Path modelPath = cityDir.resolve(MODEL_FILE);
+        if (!Files.exists(modelPath)) {
+            throw new FileNotFoundException("未找到模型文件：" + modelPath);
+        }
+        if (!Files.exists(pythonScript)) {
+            throw new FileNotFoundException("未找到预测脚本：" + pythonScript);
+        }
+        PythonWorkerPool pool = new PythonWorkerPool(
+                folderName + "@" + version,
+                Arrays.asList(pythonExecutable, pythonScript.toString(), "--serve", modelPath.toString(), configPath.toString()),
+                poolSize,
+                callTimeoutMillis,
+                startupTimeoutMillis,
+                objectMapper,
+                ioExecutor,
+                cityMetrics);
+        pool.start();
+        return new CityModel.Python(folderName, version, config, pool);
     }
 
     private String resolveCityFolder(String cityName) {
@@ -149,15 +606,15 @@ public class HousePricePredictionService {
         return folder;
     }
 
-    private String readStream(Process process) throws IOException {
-        byte[] buffer = new byte[4096];
-        int len;
-        java.io.InputStream inputStream = process.getInputStream();
-        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-        while ((len = inputStream.read(buffer)) != -1) {
-            baos.write(buffer, 0, len);
-        }
-        return baos.toString(StandardCharsets.UTF_8.name());
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 }
-
@@ -0,0 +1,381 @@
+package com.example.service.predict_zhz;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 城市模型注册表：按城市目录维护当前生效的 {@link CityModel}，并支持热更新。
+ * <ul>
+ *     <li>监听模型根目录及各城市目录，文件变化后标记该城市待检查；另有定时全量扫描兜底。</li>
+ *     <li>版本号由模型文件与配置文件的修改时间、大小计算；新版本需在去抖时间内保持不变才加载，避免读到写了一半的文件。</li>
+ *     <li>新版本在后台线程加载并预热，成功后原子替换；旧版本退役，进行中的调用结束后释放。加载失败时继续使用旧版本。</li>
+ * </ul>
+ */
+class ModelRegistry implements Closeable {
+
+    private static final long TICK_MILLIS = 500L;
+    private static final long FULL_SCAN_MILLIS = 30000L;
+
+    /**
+     * 按城市目录与版本号加载模型（不预热）。
+     */
+    interface Loader {
+        CityModel load(String folderName, long version) throws Exception;
+    }
+
+    private final Path baseDir;
+    private final List<String> versionFiles;
+    private final Loader loader;
+    private final long debounceMillis;
+    private final long readyTimeoutMillis;
+    private final Consumer<String> swapListener;
+    private final ExecutorService loaderExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, CityModel> current = new ConcurrentHashMap<String, CityModel>();
+    /** 进行中的首次加载，同一城市的并发调用等待同一次加载，不同城市互不阻塞 */
+    private final ConcurrentMap<String, FutureTask<CityModel>> firstLoads = new ConcurrentHashMap<String, FutureTask<CityModel>>();
+    private final ConcurrentMap<String, PendingVersion> pending = new ConcurrentHashMap<String, PendingVersion>();
+    private final ConcurrentMap<String, Long> failedVersions = new ConcurrentHashMap<String, Long>();
+    private final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> loading = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<WatchKey, String> watchKeys = new ConcurrentHashMap<WatchKey, String>();
+    private volatile WatchService watchService;
+    private volatile boolean closed;
+    private long lastFullScan = System.currentTimeMillis();
+
+    ModelRegistry(Path baseDir,
+                  List<String> versionFiles,
+                  Loader loader,
+                  long debounceMillis,
+                  long readyTimeoutMillis,
+                  Consumer<String> swapListener,
+                  ExecutorService loaderExecutor,
+                  ScheduledExecutorService scheduler) {
+        this.baseDir = baseDir;
+        this.versionFiles = new ArrayList<String>(versionFiles);
+        this.loader = loader;
+        this.debounceMillis = debounceMillis;
+        this.readyTimeoutMillis = readyTimeoutMillis;
+        this.swapListener = swapListener;
+        this.loaderExecutor = loaderExecutor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 启动目录监听与定时检查。监听不可用时（目录不存在、文件系统不支持）仅依赖定时全量扫描。
+     */
+    void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            register(baseDir, "");
+            try (DirectoryStream<Path> cityDirs = Files.newDirectoryStream(baseDir)) {
+                for (Path cityDir : cityDirs) {
+                    if (Files.isDirectory(cityDir)) {
+                        register(cityDir, cityDir.getFileName().toString());
+                    }
+                }
+            }
+            Thread watcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watchLoop();
+                }
+            }, "predict-model-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException e) {
+            System.err.println("模型目录监听启动失败，改为定时扫描：" + baseDir + "，" + e.getMessage());
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Exception e) {
+                    System.err.println("检查模型更新失败：" + e.getMessage());
+                }
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取得城市当前版本的模型并登记一次进行中的调用，调用方必须在 finally 中 {@link CityModel#release()}。
+     * 首次使用的城市同步加载，只阻塞等待该城市的调用。
+     */
+    CityModel acquire(String folderName) throws Exception {
+        while (true) {
+            CityModel model = current.get(folderName);
+            if (model == null) {
+                model = loadFirst(folderName);
+            }
+            if (model.tryAcquire()) {
+                return model;
+            }
+            // 恰好被新版本替换，重新读取
+        }
+    }
+
+    /**
+     * 城市的首次加载：每个城市一个 FutureTask，由最先到达的调用线程执行，其余调用等待其结果。
+     * 结束后移除，失败时下一次调用重新加载。
+     */
+    private CityModel loadFirst(final String folderName) throws Exception {
+        FutureTask<CityModel> task = firstLoads.computeIfAbsent(folderName, key -> new FutureTask<CityModel>(
+                new Callable<CityModel>() {
+                    @Override
+                    public CityModel call() throws Exception {
+                        CityModel existing = current.get(folderName);
+                        if (existing != null) {
+                            return existing;
+                        }
+                        CityModel model = loader.load(folderName, version(folderName));
+                        // 预热任务可能已先一步放入
+                        CityModel raced = current.putIfAbsent(folderName, model);
+                        if (raced != null) {
+                            model.retire();
+                            return raced;
+                        }
+                        return model;
+                    }
+                }));
+        try {
+            task.run();
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            firstLoads.remove(folderName, task);
+        }
+    }
+
+    /**
+     * 后台加载并预热城市模型，用于启动时预热。
+     */
+    void preload(final String folderName) {
+        loaderExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (current.containsKey(folderName) || !loading.add(folderName)) {
+                    return;
+                }
+                try {
+                    swapIn(folderName, version(folderName));
+                } catch (Exception e) {
+                    System.err.println("预热城市模型失败：" + folderName + "，" + e.getMessage());
+                } finally {
+                    loading.remove(folderName);
+                }
+            }
+        });
+    }
+
+    void healthCheck() {
+        for (CityModel model : current.values()) {
+            model.healthCheck();
+        }
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        for (Map.Entry<String, CityModel> entry : current.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignored) {
+                // 关闭阶段忽略
+            }
+        }
+        for (CityModel model : current.values()) {
+            model.retire();
+        }
+        current.clear();
+    }
+
+    private void register(Path dir, String folderName) throws IOException {
+        WatchKey key = dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchKeys.put(key, folderName);
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String folderName = watchKeys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (folderName == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    dirty.addAll(current.keySet());
+                } else if (folderName.isEmpty()) {
+                    // 根目录下的变化：新建的城市目录需要补充监听，替换整个目录时也视为该城市有更新
+                    Path child = baseDir.resolve((Path) event.context());
+                    String childName = child.getFileName().toString();
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                        try {
+                            register(child, childName);
+                        } catch (IOException e) {
+                            System.err.println("监听城市模型目录失败：" + child + "，" + e.getMessage());
+                        }
+                    }
+                    dirty.add(childName);
+                } else {
+                    dirty.add(folderName);
+                }
+            }
+            if (!key.reset()) {
+                watchKeys.remove(key);
+            }
+        }
+    }
+
+    private void tick() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastFullScan >= FULL_SCAN_MILLIS) {
+            lastFullScan = now;
+            dirty.addAll(current.keySet());
+        }
+        for (String folderName : new ArrayList<String>(dirty)) {
+            CityModel model = current.get(folderName);
+            if (model == null || loading.contains(folderName)) {
+                // 尚未使用过的城市在首次调用时加载；正在加载的等加载结束再检查
+                if (model == null) {
+                    dirty.remove(folderName);
+                }
+                continue;
+            }
+            long version = version(folderName);
+            Long failed = failedVersions.get(folderName);
+            if (version == model.getVersion() || (failed != null && failed == version)) {
+                dirty.remove(folderName);
+                pending.remove(folderName);
+                continue;
+            }
+            PendingVersion candidate = pending.get(folderName);
+            if (candidate == null || candidate.version != version) {
+                pending.put(folderName, new PendingVersion(version, now));
+                continue;
+            }
+            if (now - candidate.since < debounceMillis) {
+                continue;
+            }
+            dirty.remove(folderName);
+            pending.remove(folderName);
+            scheduleReload(folderName, version);
+        }
+    }
+
+    private void scheduleReload(final String folderName, final long version) {
+        if (!loading.add(folderName)) {
+            return;
+        }
+        loaderExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    swapIn(folderName, version);
+                } catch (Exception e) {
+                    failedVersions.put(folderName, version);
+                    System.err.println("加载新版本模型失败，继续使用旧版本：" + folderName + "，" + e.getMessage());
+                } finally {
+                    loading.remove(folderName);
+                }
+            }
+        });
+    }
+
+    /**
+     * 加载、等待就绪、预热，然后原子替换；任一步失败都不影响当前版本。
+     */
+    private void swapIn(String folderName, long version) throws Exception {
+        long start = System.currentTimeMillis();
+        CityModel fresh = loader.load(folderName, version);
+        try {
+            fresh.awaitReady(readyTimeoutMillis);
+            fresh.warmUp();
+        } catch (Exception e) {
+            fresh.retire();
+            throw e;
+        }
+        if (closed) {
+            fresh.retire();
+            return;
+        }
+        CityModel previous = current.put(folderName, fresh);
+        swapListener.accept(folderName);
+        failedVersions.remove(folderName);
+        if (previous != null) {
+            previous.retire();
+        }
+        System.out.println("城市模型已切换到新版本：" + folderName + "，版本 " + version
+                + "，加载并预热耗时 " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 模型版本：各版本文件（模型与配置）的修改时间与大小组合，文件缺失计为 0。
+     */
+    long version(String folderName) throws IOException {
+        Path cityDir = baseDir.resolve(folderName);
+        long version = 0L;
+        for (String fileName : versionFiles) {
+            Path file = cityDir.resolve(fileName);
+            long fileVersion = 0L;
+            if (Files.exists(file)) {
+                fileVersion = 31 * Files.getLastModifiedTime(file).toMillis() + Files.size(file);
+            }
+            version = 31 * version + fileVersion;
+        }
+        return version;
+    }
+
+    private static final class PendingVersion {
+        private final long version;
+        private final long since;
+
+        private PendingVersion(long version, long since) {
+            this.version = version;
+            this.since = since;
+        }
+    }
+}
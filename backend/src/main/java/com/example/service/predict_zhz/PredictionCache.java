@@ -0,0 +1,89 @@
+package com.example.service.predict_zhz;
+
+import com.example.service.ExpiringLruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 单条预测结果的 LRU + TTL 缓存（基于 {@link ExpiringLruCache}）。
+ * 键为 城市目录 + 模型版本 + 量化后的特征向量：向量已由 {@link FeatureCompiler} 按模型列顺序编译，
+ * 字段顺序、别名写法不同的请求会得到同一个向量；量化取 float32，与树模型比较阈值时的精度一致，
+ * 因此命中缓存的结果与重新推理完全相同。
+ */
+class PredictionCache {
+
+    private final ExpiringLruCache<Key, Double> cache;
+
+    PredictionCache(int maxEntries, long ttlMillis) {
+        this.cache = new ExpiringLruCache<Key, Double>(maxEntries, ttlMillis);
+    }
+
+    boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    static Key key(String folderName, long modelVersion, double[] vector) {
+        int[] quantized = new int[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            quantized[i] = Float.floatToIntBits((float) vector[i]);
+        }
+        return new Key(folderName, modelVersion, quantized);
+    }
+
+    /**
+     * 命中返回缓存值，未命中或已过期返回 null。
+     */
+    Double get(Key key) {
+        return cache.get(key);
+    }
+
+    void put(Key key, double prediction) {
+        cache.put(key, prediction);
+    }
+
+    /**
+     * 模型文件变化时清掉该城市的全部缓存。
+     */
+    void invalidateCity(String folderName) {
+        cache.invalidateIf(key -> key.folderName.equals(folderName));
+    }
+
+    Map<String, Object> snapshot() {
+        return cache.snapshot();
+    }
+
+    static final class Key {
+        private final String folderName;
+        private final long modelVersion;
+        private final int[] quantized;
+        private final int hash;
+
+        private Key(String folderName, long modelVersion, int[] quantized) {
+            this.folderName = folderName;
+            this.modelVersion = modelVersion;
+            this.quantized = quantized;
+            this.hash = 31 * (31 * folderName.hashCode() + Long.hashCode(modelVersion)) + Arrays.hashCode(quantized);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash
+                    && modelVersion == other.modelVersion
+                    && folderName.equals(other.folderName)
+                    && Arrays.equals(quantized, other.quantized);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.service.predict_zhz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 预测耗时与结果计数，按城市目录与模型版本分窗口统计。
+ * 每个窗口对各阶段（排队、进程启动、模型加载、特征编译、JSON 序列化、进程通信、模型推理、总耗时）维护一个
+ * 固定分桶的延迟直方图，另有成功、失败、超时、拒绝及均值兜底特征的计数。
+ * 每个城市保留最近两个模型版本的窗口，模型切换后可直接对比新旧版本的延迟与失败率。
+ */
+class PredictionMetrics {
+
+    private static final int VERSIONS_KEPT = 2;
+
+    enum Stage {
+        /** 在预测线程池中排队等待 */
+        QUEUE("queue"),
+        /** Python 进程启动到模型加载完成 */
+        SPAWN("spawn"),
+        /** 加载城市模型（读取配置、树结构或启动进程池） */
+        LOAD("load"),
+        /** 特征编译为模型向量 */
+        COMPILE("compile"),
+        /** 请求序列化与响应解析 */
+        MARSHAL("marshal"),
+        /** 与 Python 进程的往返通信（不含推理与 JVM 侧序列化） */
+        IPC("ipc"),
+        /** 模型推理（树遍历） */
+        EVALUATE("evaluate"),
+        /** 单次预测调用的总耗时（不含排队） */
+        TOTAL("total");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    /** 城市目录 -> 按创建顺序排列的版本窗口，最后一个为最新版本 */
+    private final ConcurrentMap<String, LinkedHashMap<Long, CityMetrics>> cities =
+            new ConcurrentHashMap<String, LinkedHashMap<Long, CityMetrics>>();
+
+    /**
+     * 城市某个模型版本的统计窗口，不存在时创建；超出保留数量的旧版本窗口被丢弃。
+     */
+    CityMetrics city(String folderName, long version) {
+        LinkedHashMap<Long, CityMetrics> versions = versions(folderName);
+        synchronized (versions) {
+            CityMetrics metrics = versions.get(version);
+            if (metrics == null) {
+                // 模型加载前的计数（首个请求的排队耗时等）并入第一个真实版本
+                metrics = versions.remove(0L);
+                if (metrics == null) {
+                    metrics = new CityMetrics(version);
+                }
+                metrics.version = version;
+                versions.put(version, metrics);
+                while (versions.size() > VERSIONS_KEPT) {
+                    versions.remove(versions.keySet().iterator().next());
+                }
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * 城市最新版本的统计窗口，用于尚未取得模型时的计数（排队、拒绝、超时）。
+     */
+    CityMetrics latest(String folderName) {
+        LinkedHashMap<Long, CityMetrics> versions = versions(folderName);
+        synchronized (versions) {
+            CityMetrics last = null;
+            for (CityMetrics metrics : versions.values()) {
+                last = metrics;
+            }
+            if (last == null) {
+                last = new CityMetrics(0L);
+                versions.put(0L, last);
+            }
+            return last;
+        }
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        for (Map.Entry<String, LinkedHashMap<Long, CityMetrics>> entry : cities.entrySet()) {
+            List<CityMetrics> windows;
+            synchronized (entry.getValue()) {
+                windows = new ArrayList<CityMetrics>(entry.getValue().values());
+            }
+            if (windows.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> city = windows.get(windows.size() - 1).snapshot();
+            if (windows.size() > 1) {
+                city.put("previousVersion", windows.get(windows.size() - 2).snapshot());
+            }
+            stats.put(entry.getKey(), city);
+        }
+        return stats;
+    }
+
+    private LinkedHashMap<Long, CityMetrics> versions(String folderName) {
+        LinkedHashMap<Long, CityMetrics> versions = cities.get(folderName);
+        if (versions == null) {
+            LinkedHashMap<Long, CityMetrics> created = new LinkedHashMap<Long, CityMetrics>();
+            versions = cities.putIfAbsent(folderName, created);
+            if (versions == null) {
+                versions = created;
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 单个城市、单个模型版本的统计窗口。
+     */
+    static final class CityMetrics {
+        private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong rowsWithFallback = new AtomicLong();
+        private final AtomicLong fallbackFeatures = new AtomicLong();
+        private final long since = System.currentTimeMillis();
+        private volatile long version;
+
+        private CityMetrics(long version) {
+            this.version = version;
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(Stage stage, long nanos) {
+            stages[stage.ordinal()].record(nanos);
+        }
+
+        /**
+         * 成功预测的行数。
+         */
+        void success(int rows) {
+            successes.addAndGet(rows);
+        }
+
+        /**
+         * 失败的行数（不含超时后被中断的调用，那部分只计入 timeouts）。
+         */
+        void failure(int rows) {
+            failures.addAndGet(rows);
+        }
+
+        void timeout() {
+            timeouts.incrementAndGet();
+        }
+
+        void rejected() {
+            rejections.incrementAndGet();
+        }
+
+        /**
+         * 记录一行特征中取训练均值兜底的列数。
+         */
+        void fallback(int columns) {
+            rows.incrementAndGet();
+            if (columns > 0) {
+                rowsWithFallback.incrementAndGet();
+                fallbackFeatures.addAndGet(columns);
+            }
+        }
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> latency = new LinkedHashMap<String, Object>();
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = stages[stage.ordinal()];
+                if (histogram.count() > 0) {
+                    latency.put(stage.label, histogram.snapshot());
+                }
+            }
+            Map<String, Object> stats = new HashMap<String, Object>();
+            stats.put("modelVersion", version);
+            stats.put("since", since);
+            stats.put("latency", latency);
+            stats.put("successes", successes.get());
+            stats.put("failures", failures.get());
+            stats.put("timeouts", timeouts.get());
+            stats.put("rejections", rejections.get());
+            stats.put("rows", rows.get());
+            stats.put("rowsWithFallback", rowsWithFallback.get());
+            stats.put("fallbackFeatures", fallbackFeatures.get());
+            return stats;
+        }
+    }
+
+    /**
+     * 固定分桶（毫秒，约按 1-2.5-5 递增）的无锁延迟直方图，分位数取所在桶的上界。
+     */
+    static final class LatencyHistogram {
+        private static final double[] BOUNDS_MS = {
+                0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000
+        };
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS_MS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS_MS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BOUNDS_MS[i] * 1000000L);
+            }
+        }
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // 重试直到更新成功或已有更大的值
+            }
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        Map<String, Object> snapshot() {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            List<Map<String, Object>> bucketList = new ArrayList<Map<String, Object>>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                Map<String, Object> bucket = new HashMap<String, Object>();
+                bucket.put("leMs", i < BOUNDS_MS.length ? BOUNDS_MS[i] : null);
+                bucket.put("count", counts[i]);
+                bucketList.add(bucket);
+            }
+            Map<String, Object> stats = new HashMap<String, Object>();
+            stats.put("count", total);
+            stats.put("meanMs", total == 0 ? 0.0 : totalNanos.get() / 1e6 / total);
+            stats.put("maxMs", maxNanos.get() / 1e6);
+            stats.put("p50Ms", quantile(counts, total, 0.50));
+            stats.put("p95Ms", quantile(counts, total, 0.95));
+            stats.put("p99Ms", quantile(counts, total, 0.99));
+            stats.put("buckets", bucketList);
+            return stats;
+        }
+
+        private double quantile(long[] counts, long total, double q) {
+            if (total == 0) {
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BOUNDS_MS.length ? BOUNDS_MS[i] : maxNanos.get() / 1e6;
+                }
+            }
+            return maxNanos.get() / 1e6;
+        }
+    }
+}
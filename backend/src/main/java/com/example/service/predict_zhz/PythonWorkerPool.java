@@ -0,0 +1,328 @@
+package com.example.service.predict_zhz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个城市模型的常驻 Python 进程池。
+ * 每个进程以 {@code predict_price.py --serve} 启动，模型只加载一次，之后通过 stdin/stdout 按行交换 JSON。
+ * 进程崩溃、超时或健康检查失败时会被销毁并在后台补齐，保证池中始终维持配置的进程数量。
+ */
+class PythonWorkerPool implements Closeable {
+
+    private static final Map<String, Object> PING_REQUEST = Collections.<String, Object>singletonMap("ping", Boolean.TRUE);
+
+    private final String name;
+    private final List<String> command;
+    private final int size;
+    private final long callTimeoutMillis;
+    private final long startupTimeoutMillis;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService ioExecutor;
+    private final PredictionMetrics.CityMetrics metrics;
+    private final BlockingQueue<PythonWorker> idleWorkers;
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final AtomicInteger readyWorkers = new AtomicInteger();
+    private volatile boolean closed;
+
+    PythonWorkerPool(String name,
+                     List<String> command,
+                     int size,
+                     long callTimeoutMillis,
+                     long startupTimeoutMillis,
+                     ObjectMapper objectMapper,
+                     ExecutorService ioExecutor,
+                     PredictionMetrics.CityMetrics metrics) {
+        this.name = name;
+        this.command = new ArrayList<String>(command);
+        this.size = Math.max(1, size);
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.startupTimeoutMillis = startupTimeoutMillis;
+        this.objectMapper = objectMapper;
+        this.ioExecutor = ioExecutor;
+        this.metrics = metrics;
+        this.idleWorkers = new ArrayBlockingQueue<PythonWorker>(this.size);
+    }
+
+    /**
+     * 预热：异步启动所有进程，进程加载完模型后才会进入空闲队列接收请求。
+     */
+    void start() {
+        replenish();
+    }
+
+    /**
+     * 发送一次请求并等待单行 JSON 响应。超时或进程异常时，该进程会被销毁并补齐。
+     * 等待空闲进程与请求往返共用一个截止时间，总耗时不超过 callTimeoutMillis（尚无进程就绪时为 startupTimeoutMillis）。
+     * 往返耗时拆分为 JVM 侧序列化/解析、Python 侧推理（响应中的 predict_ms）与其余的进程通信耗时。
+     */
+    JsonNode call(Map<String, Object> request) throws Exception {
+        // 尚无进程完成模型加载时，允许等待到启动超时，避免首个请求因冷启动直接失败
+        long timeoutMillis = readyWorkers.get() > 0 ? callTimeoutMillis : startupTimeoutMillis;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        PythonWorker worker = borrow(deadline, timeoutMillis);
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+            release(worker);
+            throw new TimeoutException("预测进程繁忙（" + name + "），等待空闲进程已用完 " + timeoutMillis + "ms 的超时");
+        }
+        boolean healthy = false;
+        try {
+            long start = System.nanoTime();
+            JsonNode response = worker.exchange(request, remainingMillis);
+            long elapsed = System.nanoTime() - start;
+            healthy = true;
+
+            long evaluateNanos = 0L;
+            if (response.has("predict_ms")) {
+                evaluateNanos = (long) (response.get("predict_ms").asDouble() * 1000000L);
+                metrics.record(PredictionMetrics.Stage.EVALUATE, evaluateNanos);
+            }
+            metrics.record(PredictionMetrics.Stage.MARSHAL, worker.marshalNanos);
+            metrics.record(PredictionMetrics.Stage.IPC, Math.max(0L, elapsed - worker.marshalNanos - evaluateNanos));
+            return response;
+        } finally {
+            if (healthy) {
+                release(worker);
+            } else {
+                discard(worker);
+            }
+        }
+    }
+
+    /**
+     * 健康检查：逐个 ping 空闲进程，失败的进程直接替换；同时补齐之前启动失败的进程。
+     */
+    void healthCheck() {
+        int count = idleWorkers.size();
+        for (int i = 0; i < count && !closed; i++) {
+            PythonWorker worker = idleWorkers.poll();
+            if (worker == null) {
+                break;
+            }
+            if (!worker.isAlive()) {
+                discard(worker);
+                continue;
+            }
+            try {
+                JsonNode pong = worker.exchange(PING_REQUEST, callTimeoutMillis);
+                if (pong.has("pong")) {
+                    release(worker);
+                } else {
+                    discard(worker);
+                }
+            } catch (Exception e) {
+                System.err.println("预测进程健康检查失败（" + name + "）：" + e.getMessage());
+                discard(worker);
+            }
+        }
+        replenish();
+    }
+
+    /**
+     * 等待池中进程全部完成模型加载，超时抛出 {@link TimeoutException}。
+     */
+    void awaitReady(long timeoutMillis) throws InterruptedException, TimeoutException {
+        replenish();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (readyWorkers.get() < size) {
+            if (closed) {
+                throw new IllegalStateException("预测进程池已关闭（" + name + "）");
+            }
+            if (liveWorkers.get() < size) {
+                // 启动失败的进程不会立即重试，这里直接失败，避免等到超时
+                throw new IllegalStateException("预测进程启动失败（" + name + "），就绪 " + readyWorkers.get() + "/" + size);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new TimeoutException("预测进程未能在 " + timeoutMillis + "ms 内全部就绪（" + name + "），就绪 "
+                        + readyWorkers.get() + "/" + size);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("size", size);
+        stats.put("live", liveWorkers.get());
+        stats.put("ready", readyWorkers.get());
+        stats.put("idle", idleWorkers.size());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PythonWorker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.destroy();
+        }
+    }
+
+    private PythonWorker borrow(long deadline, long timeoutMillis) throws InterruptedException, TimeoutException {
+        replenish();
+        PythonWorker worker = idleWorkers.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (worker == null) {
+            throw new TimeoutException("预测进程繁忙或未就绪（" + name + "），等待 " + timeoutMillis + "ms 后超时");
+        }
+        return worker;
+    }
+
+    private void release(PythonWorker worker) {
+        if (closed || !worker.isAlive() || !idleWorkers.offer(worker)) {
+            discard(worker);
+        }
+    }
+
+    private void discard(PythonWorker worker) {
+        worker.destroy();
+        if (worker.ready) {
+            readyWorkers.decrementAndGet();
+        }
+        liveWorkers.decrementAndGet();
+        if (!closed) {
+            replenish();
+        }
+    }
+
+    private void replenish() {
+        while (!closed) {
+            int current = liveWorkers.get();
+            if (current >= size) {
+                return;
+            }
+            if (liveWorkers.compareAndSet(current, current + 1)) {
+                ioExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        spawn();
+                    }
+                });
+            }
+        }
+    }
+
+    private void spawn() {
+        PythonWorker worker = null;
+        try {
+            long start = System.nanoTime();
+            worker = new PythonWorker(startProcess());
+            JsonNode hello = worker.readResponse(startupTimeoutMillis);
+            if (!hello.has("ready")) {
+                throw new IllegalStateException("预测进程启动失败：" + hello);
+            }
+            metrics.record(PredictionMetrics.Stage.SPAWN, System.nanoTime() - start);
+            worker.ready = true;
+            readyWorkers.incrementAndGet();
+            release(worker);
+        } catch (Exception e) {
+            System.err.println("启动预测进程失败（" + name + "）：" + e.getMessage());
+            if (worker != null) {
+                worker.destroy();
+            }
+            // 启动失败不立即重试，避免 Python 环境缺失时空转；由下一次健康检查或调用补齐
+            liveWorkers.decrementAndGet();
+        }
+    }
+
+    private Process startProcess() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        // Java 8 兼容：重定向 stderr 到 null 设备（Windows 使用 NUL，Linux/Mac 使用 /dev/null）
+        String os = System.getProperty("os.name").toLowerCase();
+        File nullFile;
+        if (os.contains("win")) {
+            nullFile = new File("NUL");
+        } else {
+            nullFile = new File("/dev/null");
+        }
+        builder.redirectError(nullFile);
+        return builder.start();
+    }
+
+    /**
+     * 单个常驻进程，同一时刻只会被一个调用方持有。
+     */
+    private final class PythonWorker {
+
+        private final Process process;
+        private final BufferedWriter writer;
+        private final BufferedReader reader;
+        private boolean ready;
+        /** 最近一次交换中 JVM 侧序列化请求与解析响应的耗时 */
+        private long marshalNanos;
+        private long parseNanos;
+
+        PythonWorker(Process process) {
+            this.process = process;
+            this.writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        JsonNode exchange(Map<String, Object> request, long timeoutMillis) throws Exception {
+            long start = System.nanoTime();
+            String line = objectMapper.writeValueAsString(request);
+            long serializeNanos = System.nanoTime() - start;
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+            JsonNode response = readResponse(timeoutMillis);
+            marshalNanos = serializeNanos + parseNanos;
+            return response;
+        }
+
+        JsonNode readResponse(long timeoutMillis) throws Exception {
+            Future<String> pending = ioExecutor.submit(reader::readLine);
+            String line;
+            try {
+                line = pending.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                pending.cancel(true);
+                destroy();
+                throw new TimeoutException("预测进程响应超时（" + name + "，" + timeoutMillis + "ms）");
+            } catch (ExecutionException e) {
+                throw new IOException("读取预测进程输出失败：" + e.getCause().getMessage(), e.getCause());
+            }
+            if (line == null) {
+                throw new IOException("预测进程已退出（" + name + "）");
+            }
+            long start = System.nanoTime();
+            JsonNode response = objectMapper.readTree(line);
+            parseNanos = System.nanoTime() - start;
+            return response;
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void destroy() {
+            process.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.service.predict_zhz;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 进程内随机森林推理。
+ * 读取 export_forest.py 导出的 house_price_model.forest，把所有树的节点拼接到几组扁平的基本类型数组中，
+ * 推理时逐棵树从根走到叶子再取平均，结果与 sklearn RandomForestRegressor.predict 一致。
+ */
+public class RandomForestScorer {
+
+    private static final byte[] MAGIC = "RFDT".getBytes(StandardCharsets.US_ASCII);
+    private static final int SUPPORTED_VERSION = 2;
+    private static final double PARITY_TOLERANCE = 1e-9;
+
+    private final int featureCount;
+    private final int[] treeRoots;
+    private final int[] feature;
+    private final double[] threshold;
+    private final int[] left;
+    private final int[] right;
+    private final double[] value;
+
+    private RandomForestScorer(int featureCount, int[] treeRoots, int[] feature, double[] threshold,
+                               int[] left, int[] right, double[] value) {
+        this.featureCount = featureCount;
+        this.treeRoots = treeRoots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.left = left;
+        this.right = right;
+        this.value = value;
+    }
+
+    /**
+     * 加载导出文件，并用文件中附带的 sklearn 预测样本（含落在分裂阈值上的样本）逐条校验单条与批量推理，
+     * 任一条不一致时拒绝加载。version 1 的文件只带均值样本，需重新导出。
+     */
+    public static RandomForestScorer load(Path forestPath) throws IOException {
+        // 一次性读入内存而不是 mmap：Windows 下被映射的文件无法被替换，会妨碍模型更新
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(forestPath)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            int version = buffer.getInt();
+            if (!Arrays.equals(magic, MAGIC) || version != SUPPORTED_VERSION) {
+                throw new IOException("不支持的模型导出文件：" + forestPath);
+            }
+            int featureCount = buffer.getInt();
+            int treeCount = buffer.getInt();
+            int totalNodes = buffer.getInt();
+
+            int[] treeRoots = new int[treeCount];
+            int[] feature = new int[totalNodes];
+            double[] threshold = new double[totalNodes];
+            int[] left = new int[totalNodes];
+            int[] right = new int[totalNodes];
+            double[] value = new double[totalNodes];
+
+            int offset = 0;
+            for (int t = 0; t < treeCount; t++) {
+                int nodes = buffer.getInt();
+                treeRoots[t] = offset;
+                readInts(buffer, feature, offset, nodes);
+                readDoubles(buffer, threshold, offset, nodes);
+                readInts(buffer, left, offset, nodes);
+                readInts(buffer, right, offset, nodes);
+                readDoubles(buffer, value, offset, nodes);
+                // 子节点下标由树内相对位置转换为全局位置，叶子保持 -1
+                for (int i = offset; i < offset + nodes; i++) {
+                    if (left[i] >= 0) {
+                        left[i] += offset;
+                        right[i] += offset;
+                    }
+                }
+                offset += nodes;
+            }
+
+            RandomForestScorer scorer = new RandomForestScorer(featureCount, treeRoots, feature, threshold, left, right, value);
+            scorer.verifyParity(buffer, forestPath);
+            return scorer;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("模型导出文件不完整：" + forestPath, e);
+        }
+    }
+
+    public int featureCount() {
+        return featureCount;
+    }
+
+    public int treeCount() {
+        return treeRoots.length;
+    }
+
+    public double predict(double[] x) {
+        if (x.length != featureCount) {
+            throw new IllegalArgumentException("特征维度不匹配：期望 " + featureCount + "，实际 " + x.length);
+        }
+        double sum = 0.0;
+        for (int root : treeRoots) {
+            sum += value[leafOf(root, x)];
+        }
+        return sum / treeRoots.length;
+    }
+
+    /**
+     * 批量推理：外层按树、内层按行遍历，同一棵树的节点在处理整批数据期间保持在缓存中。
+     */
+    public double[] predictBatch(double[][] rows) {
+        for (double[] x : rows) {
+            if (x.length != featureCount) {
+                throw new IllegalArgumentException("特征维度不匹配：期望 " + featureCount + "，实际 " + x.length);
+            }
+        }
+        double[] sums = new double[rows.length];
+        for (int root : treeRoots) {
+            for (int r = 0; r < rows.length; r++) {
+                sums[r] += value[leafOf(root, rows[r])];
+            }
+        }
+        for (int r = 0; r < sums.length; r++) {
+            sums[r] /= treeRoots.length;
+        }
+        return sums;
+    }
+
+    private int leafOf(int node, double[] x) {
+        int child;
+        while ((child = left[node]) >= 0) {
+            // sklearn 推理前会把输入转换为 float32，这里保持相同的比较精度
+            if ((float) x[feature[node]] <= threshold[node]) {
+                node = child;
+            } else {
+                node = right[node];
+            }
+        }
+        return node;
+    }
+
+    private void verifyParity(ByteBuffer buffer, Path forestPath) throws IOException {
+        int samples = buffer.getInt();
+        if (samples <= 1) {
+            throw new IOException("模型导出文件缺少校验样本，请重新运行 export_forest.py：" + forestPath);
+        }
+        double[][] rows = new double[samples][featureCount];
+        double[] expected = new double[samples];
+        for (int s = 0; s < samples; s++) {
+            readDoubles(buffer, rows[s], 0, featureCount);
+            expected[s] = buffer.getDouble();
+        }
+        double[] batch = predictBatch(rows);
+        for (int s = 0; s < samples; s++) {
+            double single = predict(rows[s]);
+            if (!matches(expected[s], single) || !matches(expected[s], batch[s])) {
+                throw new IOException("模型导出文件校验失败：" + forestPath + "，第 " + (s + 1) + " 条样本 "
+                        + Arrays.toString(rows[s]) + "，sklearn=" + expected[s] + "，java=" + single
+                        + "，java 批量=" + batch[s]);
+            }
+        }
+    }
+
+    private static boolean matches(double expected, double actual) {
+        return Math.abs(actual - expected) <= PARITY_TOLERANCE * Math.max(1.0, Math.abs(expected));
+    }
+
+    private static void readInts(ByteBuffer buffer, int[] target, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            target[i] = buffer.getInt();
+        }
+    }
+
+    private static void readDoubles(ByteBuffer buffer, double[] target, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            target[i] = buffer.getDouble();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.service.predict_zhz;
+
+/**
+ * what-if 扫描中的一个变化维度：特征键及其依次取的值。
+ */
+public class SweepAxis {
+
+    private static final int MAX_STEPS = 10000;
+
+    private final String key;
+    private final double[] values;
+
+    private SweepAxis(String key, double[] values) {
+        this.key = key;
+        this.values = values;
+    }
+
+    /**
+     * 在 [from, to] 上等距取 steps 个点（含两端）。
+     */
+    public static SweepAxis range(String key, double from, double to, int steps) {
+        if (steps < 2 || steps > MAX_STEPS) {
+            throw new IllegalArgumentException("扫描维度 " + key + " 的 steps 应在 2 到 " + MAX_STEPS + " 之间");
+        }
+        double[] values = new double[steps];
+        for (int i = 0; i < steps; i++) {
+            values[i] = from + (to - from) * i / (steps - 1);
+        }
+        return new SweepAxis(key, values);
+    }
+
+    /**
+     * 直接给出取值列表。
+     */
+    public static SweepAxis of(String key, double[] values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("扫描维度 " + key + " 的 values 不能为空");
+        }
+        return new SweepAxis(key, values.clone());
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public double[] getValues() {
+        return values.clone();
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    double valueAt(int index) {
+        return values[index];
+    }
+}
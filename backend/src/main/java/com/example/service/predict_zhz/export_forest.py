@@ -0,0 +1,129 @@
+"""
+将城市目录下的 house_price_model.pkl（随机森林）导出为与语言无关的二进制树结构 house_price_model.forest，
+供 Java 端 RandomForestScorer 在进程内直接推理，无需启动 Python。
+
+用法：
+    python export_forest.py                 # 导出脚本所在目录下所有包含 pkl 的城市
+    python export_forest.py beijng shanghai # 只导出指定城市目录
+
+文件格式（小端序）：
+    magic "RFDT" | int32 version | int32 n_features | int32 n_trees | int32 total_nodes
+    每棵树：int32 node_count
+            int32[node_count]   feature      （叶子为 -2）
+            float64[node_count] threshold    （按 float32(x) <= threshold 走左子树）
+            int32[node_count]   left         （叶子为 -1，树内相对下标）
+            int32[node_count]   right
+            float64[node_count] value        （叶子预测值）
+    int32 parity_count
+    每条校验样本：float64[n_features] 输入向量 | float64 sklearn 预测值
+
+校验样本（version 2 起）：均值向量，加上 PARITY_SAMPLES 条随机向量。随机向量的每个特征取自该特征的分裂阈值：
+恰好等于阈值、float32 下紧邻阈值的上一个值，或阈值范围内的均匀值，覆盖 <= 比较和 float32 转换的边界。
+"""
+import struct
+import sys
+from pathlib import Path
+
+import numpy as np
+
+from predict_price import build_vector, load_config, load_model, run_predict
+
+MAGIC = b"RFDT"
+VERSION = 2
+PARITY_SAMPLES = 500
+PARITY_SEED = 0
+MODEL_FILE = "house_price_model.pkl"
+CONFIG_FILE = "model_config.json"
+FOREST_FILE = "house_price_model.forest"
+
+
+def export_city(city_dir: Path):
+    model = load_model(city_dir / MODEL_FILE)
+    config = load_config(city_dir / CONFIG_FILE)
+    feature_columns = config.get("feature_columns", [])
+    mean_values = (config.get("scaler_info") or {}).get("means", {})
+
+    estimators = getattr(model, "estimators_", None)
+    if not estimators:
+        raise ValueError(f"{city_dir.name}: 仅支持随机森林等按树平均的模型，实际为 {type(model).__name__}")
+    n_features = getattr(model, "n_features_in_", len(feature_columns))
+    if n_features != len(feature_columns):
+        raise ValueError(f"{city_dir.name}: 模型特征数 {n_features} 与 feature_columns 数量 {len(feature_columns)} 不一致")
+
+    # 校验样本：以均值填充的向量（与接口缺省行为一致）及落在分裂阈值上的随机向量，Java 加载时逐条比对结果
+    mean_vector = build_vector({}, feature_columns, mean_values)
+    parity_vectors = [mean_vector] + threshold_vectors(estimators, n_features, mean_vector)
+    parity_predictions = run_predict(model, parity_vectors)
+
+    target = city_dir / FOREST_FILE
+    tmp = target.with_suffix(".forest.tmp")
+    with tmp.open("wb") as f:
+        f.write(MAGIC)
+        total_nodes = sum(estimator.tree_.node_count for estimator in estimators)
+        f.write(struct.pack("<iiii", VERSION, n_features, len(estimators), total_nodes))
+        for estimator in estimators:
+            tree = estimator.tree_
+            f.write(struct.pack("<i", tree.node_count))
+            f.write(np.ascontiguousarray(tree.feature, dtype="<i4").tobytes())
+            f.write(np.ascontiguousarray(tree.threshold, dtype="<f8").tobytes())
+            f.write(np.ascontiguousarray(tree.children_left, dtype="<i4").tobytes())
+            f.write(np.ascontiguousarray(tree.children_right, dtype="<i4").tobytes())
+            f.write(np.ascontiguousarray(tree.value[:, 0, 0], dtype="<f8").tobytes())
+        f.write(struct.pack("<i", len(parity_vectors)))
+        for vector, prediction in zip(parity_vectors, parity_predictions):
+            f.write(np.asarray(vector, dtype="<f8").tobytes())
+            f.write(struct.pack("<d", float(prediction)))
+    # 先写临时文件再替换，避免服务读到写了一半的文件
+    tmp.replace(target)
+    return target, len(estimators), len(parity_vectors)
+
+
+def threshold_vectors(estimators, n_features, mean_vector):
+    """按各特征在森林中的分裂阈值生成校验向量，没有参与分裂的特征保持均值。"""
+    thresholds = [set() for _ in range(n_features)]
+    for estimator in estimators:
+        tree = estimator.tree_
+        for feature, threshold in zip(tree.feature, tree.threshold):
+            if feature >= 0:
+                thresholds[feature].add(float(threshold))
+    thresholds = [np.array(sorted(values)) for values in thresholds]
+
+    rng = np.random.default_rng(PARITY_SEED)
+    vectors = []
+    for _ in range(PARITY_SAMPLES):
+        vector = list(mean_vector)
+        for feature, values in enumerate(thresholds):
+            if len(values) == 0:
+                continue
+            threshold = values[rng.integers(len(values))]
+            kind = rng.integers(3)
+            if kind == 0:
+                vector[feature] = threshold
+            elif kind == 1:
+                vector[feature] = float(np.nextafter(np.float32(threshold), np.float32(np.inf)))
+            else:
+                vector[feature] = float(rng.uniform(values[0], values[-1]))
+        vectors.append(vector)
+    return vectors
+
+
+def main():
+    base_dir = Path(__file__).resolve().parent
+    if len(sys.argv) > 1:
+        city_dirs = [base_dir / name for name in sys.argv[1:]]
+    else:
+        city_dirs = sorted(p.parent for p in base_dir.glob(f"*/{MODEL_FILE}"))
+
+    failed = False
+    for city_dir in city_dirs:
+        try:
+            target, n_trees, samples = export_city(city_dir)
+            print(f"{city_dir.name}: 导出 {n_trees} 棵树 -> {target}（{samples} 条校验样本）")
+        except Exception as e:
+            failed = True
+            print(f"{city_dir.name}: 导出失败 {e}", file=sys.stderr)
+    sys.exit(1 if failed else 0)
+
+
+if __name__ == "__main__":
+    main()
@@ -1,6 +1,7 @@
 import json
 import pickle
 import sys
+import time
 import warnings
 from pathlib import Path
 
@@ -65,12 +66,100 @@ def safe_float(value, default=0.0):
         return default
 
 
+def build_vector(features_input, feature_columns, mean_values):
+    vector = []
+    for column in feature_columns:
+        value = features_input.get(column, mean_values.get(column))
+        vector.append(safe_float(value))
+
+    if not vector:
+        raise ValueError("feature_columns 为空或特征缺失")
+    return vector
+
+
+def run_predict(model, vectors):
+    """
+    执行模型预测，屏蔽 scikit-learn / joblib 在 stdout 上的任何输出，保证返回通道只有 JSON。
+    """
+    import io
+    from contextlib import redirect_stdout
+    stdout_capture = io.StringIO()
+
+    with redirect_stdout(stdout_capture):
+        with warnings.catch_warnings():
+            warnings.simplefilter("ignore")
+            # 设置环境变量抑制 joblib 输出
+            os.environ['JOBLIB_START_METHOD'] = 'threading'
+            # 设置 n_jobs=1 来避免并行处理的输出
+            if hasattr(model, 'set_params'):
+                try:
+                    model.set_params(n_jobs=1)
+                except:
+                    pass
+            return model.predict(np.array(vectors))
+
+
+def serve(model_path: Path, config_path: Path):
+    """
+    常驻模式：模型与配置只加载一次，之后逐行读取 JSON 请求并逐行输出 JSON 结果。
+    请求格式：{"vectors": [[...], ...]}（Java 端已按 feature_columns 编译好的向量，一次 predict 调用）或 {"ping": true}；
+    加载完成后先输出 {"ready": true}。响应附带本次推理耗时 predict_ms，供 Java 端拆分耗时。
+    """
+    import io
+    stdin = io.TextIOWrapper(sys.stdin.buffer, encoding="utf-8")
+    stdout = sys.stdout
+
+    def reply(result):
+        stdout.write(json.dumps(result))
+        stdout.write("\n")
+        stdout.flush()
+
+    try:
+        model = load_model(model_path)
+        config = load_config(config_path)
+    except Exception as e:
+        reply({"error": str(e)})
+        sys.exit(1)
+
+    feature_columns = config.get("feature_columns", [])
+    reply({"ready": True})
+
+    for line in stdin:
+        line = line.strip()
+        if not line:
+            continue
+        try:
+            request = json.loads(line)
+            if request.get("ping"):
+                reply({"pong": True})
+                continue
+            if "vectors" not in request:
+                raise ValueError("不支持的请求，需为 {\"vectors\": [[...], ...]} 或 {\"ping\": true}")
+            vectors = request["vectors"]
+            for vector in vectors:
+                if len(vector) != len(feature_columns):
+                    raise ValueError(f"特征维度不匹配：期望 {len(feature_columns)}，实际 {len(vector)}")
+            started = time.perf_counter()
+            predictions = run_predict(model, vectors) if vectors else []
+            predict_ms = (time.perf_counter() - started) * 1000
+            reply({"predictions": [float(p) for p in predictions], "predict_ms": predict_ms})
+        except Exception as e:
+            reply({"error": str(e)})
+
+
 def main():
     # 将 stderr 重定向，避免警告信息污染输出
     import io
     stderr_backup = sys.stderr
     sys.stderr = io.StringIO()
-    
+
+    if len(sys.argv) >= 4 and sys.argv[1] == "--serve":
+        try:
+            serve(Path(sys.argv[2]).expanduser().resolve(), Path(sys.argv[3]).expanduser().resolve())
+        finally:
+            sys.stderr = stderr_backup
+        return
+
     try:
         payload = json.load(sys.stdin)
         model_path = Path(payload["modelPath"]).expanduser().resolve()
@@ -83,32 +172,9 @@ def main():
         scaler_info = config.get("scaler_info") or {}
         mean_values = scaler_info.get("means", {})
 
-        vector = []
-        for column in feature_columns:
-            value = features_input.get(column, mean_values.get(column))
-            vector.append(safe_float(value))
-
-        if not vector:
-            raise ValueError("feature_columns 为空或特征缺失")
-
-        # 抑制 scikit-learn 的警告和并行处理输出
-        # 使用 contextlib 来临时重定向 stdout，捕获所有输出
-        from contextlib import redirect_stdout
-        stdout_capture = io.StringIO()
-        
-        with redirect_stdout(stdout_capture):
-            with warnings.catch_warnings():
-                warnings.simplefilter("ignore")
-                # 设置环境变量抑制 joblib 输出
-                os.environ['JOBLIB_START_METHOD'] = 'threading'
-                # 设置 n_jobs=1 来避免并行处理的输出
-                if hasattr(model, 'set_params'):
-                    try:
-                        model.set_params(n_jobs=1)
-                    except:
-                        pass
-                prediction = model.predict(np.array([vector]))[0]
-        
+        vector = build_vector(features_input, feature_columns, mean_values)
+        prediction = run_predict(model, [vector])[0]
+
         # 只输出 JSON 到 stdout，确保输出是干净的 JSON
         result = {"prediction": float(prediction)}
         json.dump(result, sys.stdout, ensure_ascii=False)
@@ -126,4 +192,3 @@ def main():
 
 if __name__ == "__main__":
     main()
-
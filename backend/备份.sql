@@ -77,6 +77,24 @@ CREATE TABLE `favorites` (
 
 /*Data for the table `favorites` */
 
+/*Table structure for table `job_checkpoints` */
+
+DROP TABLE IF EXISTS `job_checkpoints`;
+
+CREATE TABLE `job_checkpoints` (
+  `job_name` varchar(64) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '任务名',
+  `run_id` varchar(64) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '当前批次',
+  `last_key` bigint NOT NULL DEFAULT '0' COMMENT '已处理到的最大主键',
+  `processed` bigint NOT NULL DEFAULT '0' COMMENT '已处理行数',
+  `failed` bigint NOT NULL DEFAULT '0' COMMENT '失败行数',
+  `status` varchar(20) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'running/completed/failed/cancelled',
+  `started_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '批次开始时间',
+  `updated_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`job_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='批处理任务断点表';
+
+/*Data for the table `job_checkpoints` */
+
 /*Table structure for table `properties` */
 
 DROP TABLE IF EXISTS `properties`;
@@ -105,6 +123,49 @@ CREATE TABLE `properties` (
 
 insert  into `properties`(`property_id`,`community_id`,`title`,`basic_info`,`price_info`,`layout_info`,`status`,`view_count`,`favorite_count`,`created_at`,`updated_at`) values (1,1,'万科城市花园 精装三房 南向采光好','{\"build_year\": 2018, \"decoration\": \"hard\", \"property_type\": \"apartment\"}','{\"unit_price\": 85000, \"total_price\": 650.5, \"price_history\": [{\"date\": \"2024-01-01\", \"price\": 680}]}','{\"area\": 89.5, \"floor\": 15, \"orientation\": \"south\", \"total_floors\": 28, \"bedroom_count\": 3, \"bathroom_count\": 2, \"living_room_count\": 2}','for_sale',0,0,'2025-12-01 20:26:18','2025-12-01 20:26:18'),(2,1,'万科城市花园 豪华两房 地铁口','{\"build_year\": 2018, \"decoration\": \"luxury\", \"property_type\": \"apartment\"}','{\"unit_price\": 82000, \"total_price\": 480.0, \"price_history\": [{\"date\": \"2024-02-01\", \"price\": 490}]}','{\"area\": 68.0, \"floor\": 10, \"orientation\": \"southeast\", \"total_floors\": 28, \"bedroom_count\": 2, \"bathroom_count\": 1, \"living_room_count\": 1}','for_sale',0,0,'2025-12-01 20:26:18','2025-12-01 20:26:18'),(3,2,'华润城 四房大户型 学区房','{\"build_year\": 2019, \"decoration\": \"hard\", \"property_type\": \"apartment\"}','{\"unit_price\": 90000, \"total_price\": 980.0, \"price_history\": [{\"date\": \"2024-03-01\", \"price\": 1000}]}','{\"area\": 128.0, \"floor\": 20, \"orientation\": \"south\", \"total_floors\": 35, \"bedroom_count\": 4, \"bathroom_count\": 3, \"living_room_count\": 2}','for_sale',0,0,'2025-12-01 20:26:18','2025-12-01 20:26:18'),(4,1,'万科城市花园 精装三房 南向采光好','{\"build_year\": 2018, \"decoration\": \"hard\", \"property_type\": \"apartment\"}','{\"unit_price\": 85000, \"total_price\": 650.5, \"price_history\": [{\"date\": \"2024-01-01\", \"price\": 680}]}','{\"area\": 89.5, \"floor\": 15, \"orientation\": \"south\", \"total_floors\": 28, \"bedroom_count\": 3, \"bathroom_count\": 2, \"living_room_count\": 2}','for_sale',0,0,'2025-12-01 20:27:21','2025-12-01 20:27:21'),(5,1,'万科城市花园 豪华两房 地铁口','{\"build_year\": 2018, \"decoration\": \"luxury\", \"property_type\": \"apartment\"}','{\"unit_price\": 82000, \"total_price\": 480.0, \"price_history\": [{\"date\": \"2024-02-01\", \"price\": 490}]}','{\"area\": 68.0, \"floor\": 10, \"orientation\": \"southeast\", \"total_floors\": 28, \"bedroom_count\": 2, \"bathroom_count\": 1, \"living_room_count\": 1}','for_sale',0,0,'2025-12-01 20:27:21','2025-12-01 20:27:21'),(6,2,'华润城 四房大户型 学区房','{\"build_year\": 2019, \"decoration\": \"hard\", \"property_type\": \"apartment\"}','{\"unit_price\": 90000, \"total_price\": 980.0, \"price_history\": [{\"date\": \"2024-03-01\", \"price\": 1000}]}','{\"area\": 128.0, \"floor\": 20, \"orientation\": \"south\", \"total_floors\": 35, \"bedroom_count\": 4, \"bathroom_count\": 3, \"living_room_count\": 2}','for_sale',0,0,'2025-12-01 20:27:21','2025-12-01 20:27:21'),(7,1,'万科城市花园 精装三房 南向采光好','{\"build_year\": 2018, \"decoration\": \"hard\", \"property_type\": \"apartment\"}','{\"unit_price\": 85000, \"total_price\": 650.5, \"price_history\": [{\"date\": \"2024-01-01\", \"price\": 680}]}','{\"area\": 89.5, \"floor\": 15, \"orientation\": \"south\", \"total_floors\": 28, \"bedroom_count\": 3, \"bathroom_count\": 2, \"living_room_count\": 2}','for_sale',0,0,'2025-12-01 20:27:51','2025-12-01 20:27:51'),(8,1,'万科城市花园 豪华两房 地铁口','{\"build_year\": 2018, \"decoration\": \"luxury\", \"property_type\": \"apartment\"}','{\"unit_price\": 82000, \"total_price\": 480.0, \"price_history\": [{\"date\": \"2024-02-01\", \"price\": 490}]}','{\"area\": 68.0, \"floor\": 10, \"orientation\": \"southeast\", \"total_floors\": 28, \"bedroom_count\": 2, \"bathroom_count\": 1, \"living_room_count\": 1}','for_sale',0,0,'2025-12-01 20:27:51','2025-12-01 20:27:51'),(9,2,'华润城 四房大户型 学区房','{\"build_year\": 2019, \"decoration\": \"hard\", \"property_type\": \"apartment\"}','{\"unit_price\": 90000, \"total_price\": 980.0, \"price_history\": [{\"date\": \"2024-03-01\", \"price\": 1000}]}','{\"area\": 128.0, \"floor\": 20, \"orientation\": \"south\", \"total_floors\": 35, \"bedroom_count\": 4, \"bathroom_count\": 3, \"living_room_count\": 2}','for_sale',0,0,'2025-12-01 20:27:51','2025-12-01 20:27:51');
 
+/*Table structure for table `property_feature_vectors` */
+
+DROP TABLE IF EXISTS `property_feature_vectors`;
+
+CREATE TABLE `property_feature_vectors` (
+  `property_id` int NOT NULL COMMENT '房源ID',
+  `status` varchar(20) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '房源状态',
+  `city` varchar(50) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '城市',
+  `district` varchar(50) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '区县',
+  `total_price` double DEFAULT NULL COMMENT '总价',
+  `unit_price` double DEFAULT NULL COMMENT '单价',
+  `area` double DEFAULT NULL COMMENT '面积',
+  `bedroom_count` int DEFAULT NULL COMMENT '卧室数',
+  `living_room_count` int DEFAULT NULL COMMENT '客厅数',
+  `floor` int DEFAULT NULL COMMENT '所在楼层（数值）',
+  `floor_level` varchar(20) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '楼层描述（低/中/高楼层）',
+  `total_floors` int DEFAULT NULL COMMENT '总楼层',
+  `orientation` varchar(20) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '朝向',
+  `decoration` varchar(20) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '装修',
+  `build_year` int DEFAULT NULL COMMENT '建成年份（房源缺失时取小区）',
+  `longitude` double DEFAULT NULL COMMENT '经度',
+  `latitude` double DEFAULT NULL COMMENT '纬度',
+  `management_fee` double DEFAULT NULL COMMENT '物业费',
+  `green_ratio` double DEFAULT NULL COMMENT '绿化率（小数）',
+  `plot_ratio` double DEFAULT NULL COMMENT '容积率',
+  `parking_spaces` int DEFAULT NULL COMMENT '车位数',
+  `total_size` double DEFAULT NULL COMMENT '小区占地面积',
+  `total_households` int DEFAULT NULL COMMENT '小区户数',
+  `orientation_code` double NOT NULL DEFAULT '0' COMMENT '朝向编码',
+  `decoration_code` double NOT NULL DEFAULT '0' COMMENT '装修编码',
+  `district_code` double NOT NULL DEFAULT '0' COMMENT '区县编码',
+  `floor_ratio` double DEFAULT NULL COMMENT '楼层 / 总楼层',
+  `price_per_area` double DEFAULT NULL COMMENT '总价 / 面积',
+  `room_count` int DEFAULT NULL COMMENT '卧室数 + 客厅数',
+  `source_updated_at` timestamp NULL DEFAULT NULL COMMENT '解析时房源的 updated_at',
+  `extracted_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '解析时间',
+  PRIMARY KEY (`property_id`),
+  KEY `idx_status` (`status`),
+  CONSTRAINT `property_feature_vectors_ibfk_1` FOREIGN KEY (`property_id`) REFERENCES `properties` (`property_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='房源类型化特征表（相似度与估价使用）';
+
+/*Data for the table `property_feature_vectors` */
+
 /*Table structure for table `property_features` */
 
 DROP TABLE IF EXISTS `property_features`;
@@ -132,20 +193,45 @@ CREATE TABLE `property_similarity` (
   `similarity_id` int NOT NULL AUTO_INCREMENT COMMENT '相似度ID',
   `property_id1` int NOT NULL COMMENT '房源1ID',
   `property_id2` int NOT NULL COMMENT '房源2ID',
-  `similarity_data` json DEFAULT NULL COMMENT '相似度数据（分数、特征权重）',
+  `similarity_score` double NOT NULL COMMENT '相似度分数',
+  `algorithm` varchar(32) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '算法',
+  `neighbor_rank` int DEFAULT NULL COMMENT 'Top-K 名次（从 1 开始）',
+  `cooccurrence_count` int DEFAULT NULL COMMENT '共现次数（协同过滤）',
+  `similarity_data` json DEFAULT NULL COMMENT '历史相似度数据（旧版 JSON）',
   `created_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '计算时间',
   `updated_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`similarity_id`),
-  UNIQUE KEY `uk_property_pair` (`property_id1`,`property_id2`),
-  KEY `idx_property1` (`property_id1`),
-  KEY `idx_property2` (`property_id2`),
-  KEY `idx_score` ((cast(json_unquote(json_extract(`similarity_data`,_utf8mb3'$.similarity_score')) as decimal(5,4)))),
+  UNIQUE KEY `uk_pair_algorithm` (`property_id1`,`property_id2`,`algorithm`),
+  KEY `idx_property_id1_score` (`property_id1`,`algorithm`,`similarity_score`),
+  KEY `idx_property_id2` (`property_id2`),
   CONSTRAINT `property_similarity_ibfk_1` FOREIGN KEY (`property_id1`) REFERENCES `properties` (`property_id`) ON DELETE CASCADE,
   CONSTRAINT `property_similarity_ibfk_2` FOREIGN KEY (`property_id2`) REFERENCES `properties` (`property_id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='房源相似度表';
 
 /*Data for the table `property_similarity` */
 
+/*Table structure for table `property_valuations` */
+
+DROP TABLE IF EXISTS `property_valuations`;
+
+CREATE TABLE `property_valuations` (
+  `property_id` int NOT NULL COMMENT '房源ID',
+  `run_id` varchar(64) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '估价批次',
+  `city` varchar(50) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '城市',
+  `status` varchar(20) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'success/failed',
+  `predicted_unit_price` decimal(12,2) DEFAULT NULL COMMENT '模型估价单价',
+  `asking_unit_price` decimal(12,2) DEFAULT NULL COMMENT '挂牌单价',
+  `price_delta` decimal(12,2) DEFAULT NULL COMMENT '挂牌单价 - 估价单价',
+  `delta_ratio` decimal(10,4) DEFAULT NULL COMMENT '价差 / 估价单价',
+  `error_message` varchar(255) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '失败原因',
+  `valued_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '估价时间',
+  PRIMARY KEY (`property_id`),
+  KEY `idx_run_id` (`run_id`),
+  KEY `idx_delta_ratio` (`delta_ratio`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='房源估价表';
+
+/*Data for the table `property_valuations` */
+
 /*Table structure for table `search_history` */
 
 DROP TABLE IF EXISTS `search_history`;
@@ -187,6 +273,23 @@ CREATE TABLE `transaction_records` (
 
 insert  into `transaction_records`(`record_id`,`property_id`,`community_id`,`transaction_data`,`created_at`) values (1,1,1,'{\"area\": 89.5, \"city\": \"深圳市\", \"layout\": \"3室2厅2卫\", \"district\": \"南山区\", \"floor_info\": \"中层/共28层\", \"source_url\": \"https://example.com/property/123\", \"unit_price\": 69300, \"orientation\": \"南\", \"total_price\": 620.5, \"community_name\": \"万科城市花园\", \"transaction_date\": \"2024-01-20\"}','2025-12-01 20:26:18'),(2,2,1,'{\"area\": 68.0, \"city\": \"深圳市\", \"layout\": \"2室1厅1卫\", \"district\": \"南山区\", \"floor_info\": \"中层/共28层\", \"source_url\": \"https://example.com/property/124\", \"unit_price\": 69850, \"orientation\": \"东南\", \"total_price\": 475.0, \"community_name\": \"万科城市花园\", \"transaction_date\": \"2024-02-15\"}','2025-12-01 20:26:18'),(3,1,1,'{\"area\": 89.5, \"city\": \"深圳市\", \"layout\": \"3室2厅2卫\", \"district\": \"南山区\", \"floor_info\": \"中层/共28层\", \"source_url\": \"https://example.com/property/123\", \"unit_price\": 69300, \"orientation\": \"南\", \"total_price\": 620.5, \"community_name\": \"万科城市花园\", \"transaction_date\": \"2024-01-20\"}','2025-12-01 20:27:21'),(4,2,1,'{\"area\": 68.0, \"city\": \"深圳市\", \"layout\": \"2室1厅1卫\", \"district\": \"南山区\", \"floor_info\": \"中层/共28层\", \"source_url\": \"https://example.com/property/124\", \"unit_price\": 69850, \"orientation\": \"东南\", \"total_price\": 475.0, \"community_name\": \"万科城市花园\", \"transaction_date\": \"2024-02-15\"}','2025-12-01 20:27:21'),(5,1,1,'{\"area\": 89.5, \"city\": \"深圳市\", \"layout\": \"3室2厅2卫\", \"district\": \"南山区\", \"floor_info\": \"中层/共28层\", \"source_url\": \"https://example.com/property/123\", \"unit_price\": 69300, \"orientation\": \"南\", \"total_price\": 620.5, \"community_name\": \"万科城市花园\", \"transaction_date\": \"2024-01-20\"}','2025-12-01 20:27:51'),(6,2,1,'{\"area\": 68.0, \"city\": \"深圳市\", \"layout\": \"2室1厅1卫\", \"district\": \"南山区\", \"floor_info\": \"中层/共28层\", \"source_url\": \"https://example.com/property/124\", \"unit_price\": 69850, \"orientation\": \"东南\", \"total_price\": 475.0, \"community_name\": \"万科城市花园\", \"transaction_date\": \"2024-02-15\"}','2025-12-01 20:27:51');
 
+/*Table structure for table `user_minhash_signatures` */
+
+DROP TABLE IF EXISTS `user_minhash_signatures`;
+
+CREATE TABLE `user_minhash_signatures` (
+  `user_id` int NOT NULL COMMENT '用户ID',
+  `num_hashes` int NOT NULL COMMENT '哈希个数',
+  `hash_seed` bigint NOT NULL COMMENT '哈希函数种子',
+  `signature` varbinary(4096) NOT NULL COMMENT 'MinHash 签名（小端序 int 数组）',
+  `set_size` int NOT NULL COMMENT '签名对应的浏览/收藏房源数',
+  `updated_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`user_id`),
+  CONSTRAINT `user_minhash_signatures_ibfk_1` FOREIGN KEY (`user_id`) REFERENCES `users` (`user_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='用户浏览集合 MinHash 签名表';
+
+/*Data for the table `user_minhash_signatures` */
+
 /*Table structure for table `user_preferences` */
 
 DROP TABLE IF EXISTS `user_preferences`;
@@ -235,14 +338,17 @@ CREATE TABLE `user_similarity` (
   `similarity_id` int NOT NULL AUTO_INCREMENT COMMENT '相似度ID',
   `user_id1` int NOT NULL COMMENT '用户1ID',
   `user_id2` int NOT NULL COMMENT '用户2ID',
-  `similarity_data` json DEFAULT NULL COMMENT '相似度数据（分数、算法版本）',
+  `similarity_score` double NOT NULL COMMENT '相似度分数',
+  `algorithm` varchar(32) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '算法',
+  `neighbor_rank` int DEFAULT NULL COMMENT 'Top-K 名次（从 1 开始）',
+  `cooccurrence_count` int DEFAULT NULL COMMENT '共现次数（协同过滤）',
+  `similarity_data` json DEFAULT NULL COMMENT '历史相似度数据（旧版 JSON）',
   `created_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '计算时间',
   `updated_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`similarity_id`),
-  UNIQUE KEY `uk_user_pair` (`user_id1`,`user_id2`),
-  KEY `idx_user1` (`user_id1`),
-  KEY `idx_user2` (`user_id2`),
-  KEY `idx_score` ((cast(json_unquote(json_extract(`similarity_data`,_utf8mb3'$.similarity_score')) as decimal(5,4)))),
+  UNIQUE KEY `uk_pair_algorithm` (`user_id1`,`user_id2`,`algorithm`),
+  KEY `idx_user_id1_score` (`user_id1`,`algorithm`,`similarity_score`),
+  KEY `idx_user_id2` (`user_id2`),
   CONSTRAINT `user_similarity_ibfk_1` FOREIGN KEY (`user_id1`) REFERENCES `users` (`user_id`) ON DELETE CASCADE,
   CONSTRAINT `user_similarity_ibfk_2` FOREIGN KEY (`user_id2`) REFERENCES `users` (`user_id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='用户相似度表';
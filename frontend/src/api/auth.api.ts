@@ -31,13 +31,13 @@ export const authAPI = {
   },
 
   // 2.3 猜你喜欢列表
-  getGuessYouLike(): Promise<PropertyCardList> {
-    return api.get('/home/guess-you-like')
+  getGuessYouLike(userId?: number): Promise<PropertyCardList> {
+    return api.get('/home/guess-you-like', { params: { userId } })
   },
 
   // 2.4 查询页入口推荐
-  getQueryRecommendations(): Promise<PropertyCardList> {
-    return api.get('/home/go-query')
+  getQueryRecommendations(userId?: number): Promise<PropertyCardList> {
+    return api.get('/home/go-query', { params: { userId } })
   },
 
   logout(): Promise<{ message: string }> {
@@ -28,12 +28,12 @@ export const queryAPI = {
 
   // 2.3 猜你喜欢列表 - 这个其实应该放在auth.api.ts，因为属于主页模块
   // 但既然已经在queryAPI里了，先保持原样，或者可以移动到auth.api.ts
-  getGuessYouLike(): Promise<PropertyCardList> {
-    return api.get('/home/guess-you-like')
+  getGuessYouLike(userId?: number): Promise<PropertyCardList> {
+    return api.get('/home/guess-you-like', { params: { userId } })
   },
 
   // 2.4 查询页入口推荐
-  getQueryRecommendations(): Promise<PropertyCardList> {
-    return api.get('/home/go-query')
+  getQueryRecommendations(userId?: number): Promise<PropertyCardList> {
+    return api.get('/home/go-query', { params: { userId } })
   }
 }